@@ -82,6 +82,16 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
   /** Default value for IPC_SERVER_HANDLER_QUEUE_SIZE_KEY */
   public static final int     IPC_SERVER_HANDLER_QUEUE_SIZE_DEFAULT = 100;
 
+  /**
+   * How long a call carrying a client state id may wait for the server to
+   * catch up with it, before it fails with a StandbyException.
+   */
+  public static final String  IPC_SERVER_COORDINATED_CALL_TIMEOUT_KEY =
+    "ipc.server.coordinated-call.timeout.ms";
+  /** Default value for IPC_SERVER_COORDINATED_CALL_TIMEOUT_KEY */
+  public static final int     IPC_SERVER_COORDINATED_CALL_TIMEOUT_DEFAULT =
+    5000;
+
   /**
    * CallQueue related settings. These are not used directly, but rather
    * combined with a namespace and port. For instance:
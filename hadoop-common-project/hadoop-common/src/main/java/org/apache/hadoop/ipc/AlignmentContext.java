@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * Aligns the state of a client with the state of the servers it talks to,
+ * so that a client may read from any server of a set which is at least as
+ * up to date as the client, e.g. from a standby NameNode which has applied
+ * all the transactions the client has seen.
+ * <p>
+ * The state is a monotonically increasing id. Every response carries the
+ * state id of the server, and every request carries the highest state id
+ * the client has seen. The server holds a call until it reaches the state
+ * id of its request.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Evolving
+public interface AlignmentContext {
+
+  /**
+   * Server side: set the state id of the server in the response header.
+   */
+  void updateResponseState(RpcResponseHeaderProto.Builder header);
+
+  /**
+   * Client side: learn the state id of the server from a response.
+   */
+  void receiveResponseState(RpcResponseHeaderProto header);
+
+  /**
+   * Client side: set the last seen state id in the request header.
+   */
+  void updateRequestState(RpcRequestHeaderProto.Builder header);
+
+  /**
+   * Server side: whether the calls of a method must be held until the server
+   * reaches the state id of their client. The other calls are served right
+   * away, whatever state id they carry.
+   * @param protocolName name of the protocol of the method
+   * @param methodName name of the method
+   */
+  boolean isCoordinatedCall(String protocolName, String methodName);
+
+  /**
+   * Server side: read the state id of the client from a request header.
+   * @return the state id the server must reach before serving the call
+   */
+  long receiveRequestState(RpcRequestHeaderProto header);
+
+  /**
+   * @return the highest state id seen by the client, or the current state
+   *         id of the server
+   */
+  long getLastSeenStateId();
+}
@@ -98,6 +98,14 @@ public void put(E e) throws InterruptedException {
     putRef.get().put(e);
   }
 
+  /**
+   * Insert e into the backing queue if there is room for it.
+   * @return whether e was inserted
+   */
+  public boolean offer(E e) {
+    return putRef.get().offer(e);
+  }
+
   /**
    * Retrieve an E from the backing queue or block until we can.
    * Guaranteed to return an element from the current queue.
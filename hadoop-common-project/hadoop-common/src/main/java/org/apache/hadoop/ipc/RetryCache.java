@@ -18,7 +18,10 @@
 package org.apache.hadoop.ipc;
 
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -180,12 +183,83 @@ public Object getPayload() {
     }
   }
 
-  private final LightWeightGSet<CacheEntry, CacheEntry> set;
+  /**
+   * A stripe of the cache, guarded by its own lock.
+   * <p>
+   * All the entries live for the same period, so the order they are added in
+   * is the order they expire in. A FIFO queue thus tracks the expiration in
+   * constant time, where {@link LightWeightCache} needs a priority queue.
+   * An entry replaced in the set stays in the queue, and is skipped when it
+   * reaches the head.
+   */
+  private static final class Stripe {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LightWeightGSet<CacheEntry, CacheEntry> set;
+    private final ArrayDeque<CacheEntry> queue = new ArrayDeque<CacheEntry>();
+    private final int sizeLimit;
+
+    Stripe(int sizeLimit) {
+      this.set = new LightWeightGSet<CacheEntry, CacheEntry>(sizeLimit);
+      this.sizeLimit = sizeLimit;
+    }
+
+    CacheEntry get(CacheEntry key) {
+      final long now = System.nanoTime();
+      evictExpiredEntries(now);
+      final CacheEntry entry = set.get(key);
+      if (entry != null && now > entry.expirationTime) {
+        // not evicted yet because of the eviction limit; its queue node is
+        // skipped when it reaches the head
+        set.remove(entry);
+        return null;
+      }
+      return entry;
+    }
+
+    void put(CacheEntry entry) {
+      evictExpiredEntries(System.nanoTime());
+      set.put(entry);
+      queue.add(entry);
+      // every entry in the set is also in the queue
+      while (queue.size() > sizeLimit) {
+        evict();
+      }
+    }
+
+    private void evict() {
+      final CacheEntry polled = queue.poll();
+      // skip the entries which have been replaced
+      if (set.get(polled) == polled) {
+        set.remove(polled);
+      }
+    }
+
+    private void evictExpiredEntries(long now) {
+      for (int i = 0; i < EVICTION_LIMIT; i++) {
+        final CacheEntry peeked = queue.peek();
+        if (peeked == null || now <= peeked.expirationTime) {
+          return;
+        }
+        evict();
+      }
+    }
+
+    void clear() {
+      set.clear();
+      queue.clear();
+    }
+  }
+
+  /** Limit the number of entries in each eviction. */
+  private static final int EVICTION_LIMIT = 1 << 16;
+  /** The default number of stripes. */
+  static final int DEFAULT_NUM_STRIPES = 64;
+
+  private final Stripe[] stripes;
+  private final int stripeShift;
   private final long expirationTime;
   private String cacheName;
 
-  private final ReentrantLock lock = new ReentrantLock();
-
   /**
    * Constructor
    * @param cacheName name to identify the cache by
@@ -193,15 +267,38 @@ public Object getPayload() {
    * @param expirationTime time for an entry to expire in nanoseconds
    */
   public RetryCache(String cacheName, double percentage, long expirationTime) {
+    this(cacheName, percentage, expirationTime, DEFAULT_NUM_STRIPES);
+  }
+
+  @VisibleForTesting
+  RetryCache(String cacheName, double percentage, long expirationTime,
+      int numStripes) {
     int capacity = LightWeightGSet.computeCapacity(percentage, cacheName);
     capacity = capacity > 16 ? capacity : 16;
-    this.set = new LightWeightCache<CacheEntry, CacheEntry>(capacity, capacity,
-        expirationTime, 0);
+    // a power of two, and at least 16 entries in each stripe
+    numStripes = Integer.highestOneBit(
+        Math.max(1, Math.min(numStripes, capacity / 16)));
+    this.stripes = new Stripe[numStripes];
+    for (int i = 0; i < numStripes; i++) {
+      stripes[i] = new Stripe(capacity / numStripes);
+    }
+    this.stripeShift = 32 - Integer.numberOfTrailingZeros(numStripes);
     this.expirationTime = expirationTime;
     this.cacheName = cacheName;
     this.retryCacheMetrics =  RetryCacheMetrics.create(this);
   }
 
+  /**
+   * The stripe is picked by the high bits of a multiplicative hash, since
+   * {@link LightWeightGSet} indexes the entries of a stripe by the low bits.
+   */
+  private Stripe getStripe(CacheEntry entry) {
+    if (stripes.length == 1) {
+      return stripes[0];
+    }
+    return stripes[(entry.hashCode() * 0x9E3779B9) >>> stripeShift];
+  }
+
   private static boolean skipRetryCache() {
     // Do not track non RPC invocation or RPC requests with
     // invalid callId or clientId in retry cache
@@ -209,21 +306,38 @@ private static boolean skipRetryCache() {
         || Arrays.equals(Server.getClientId(), RpcConstants.DUMMY_CLIENT_ID);
   }
 
+  /** Lock all the stripes of the cache. */
   public void lock() {
-    this.lock.lock();
+    for (Stripe stripe : stripes) {
+      stripe.lock.lock();
+    }
   }
 
   public void unlock() {
-    this.lock.unlock();
+    for (int i = stripes.length - 1; i >= 0; i--) {
+      stripes[i].lock.unlock();
+    }
   }
 
   private void incrCacheClearedCounter() {
     retryCacheMetrics.incrCacheCleared();
   }
 
+  /** @return a copy of the entries in the cache. */
   @VisibleForTesting
-  public LightWeightGSet<CacheEntry, CacheEntry> getCacheSet() {
-    return set;
+  public Set<CacheEntry> getCacheSet() {
+    final Set<CacheEntry> entries = new HashSet<CacheEntry>();
+    for (Stripe stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        for (CacheEntry e : stripe.set) {
+          entries.add(e);
+        }
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+    return entries;
   }
 
   @VisibleForTesting
@@ -257,9 +371,10 @@ public String getCacheName() {
    */
   private CacheEntry waitForCompletion(CacheEntry newEntry) {
     CacheEntry mapEntry = null;
-    lock.lock();
+    final Stripe stripe = getStripe(newEntry);
+    stripe.lock.lock();
     try {
-      mapEntry = set.get(newEntry);
+      mapEntry = stripe.get(newEntry);
       // If an entry in the cache does not exist, add a new one
       if (mapEntry == null) {
         if (LOG.isTraceEnabled()) {
@@ -267,14 +382,14 @@ private CacheEntry waitForCompletion(CacheEntry newEntry) {
               + newEntry.clientIdMsb + newEntry.clientIdLsb + " callId "
               + newEntry.callId + " to retryCache");
         }
-        set.put(newEntry);
+        stripe.put(newEntry);
         retryCacheMetrics.incrCacheUpdated();
         return newEntry;
       } else {
         retryCacheMetrics.incrCacheHit();
       }
     } finally {
-      lock.unlock();
+      stripe.lock.unlock();
     }
     // Entry already exists in cache. Wait for completion and return its state
     Preconditions.checkNotNull(mapEntry,
@@ -305,12 +420,7 @@ private CacheEntry waitForCompletion(CacheEntry newEntry) {
   public void addCacheEntry(byte[] clientId, int callId) {
     CacheEntry newEntry = new CacheEntry(clientId, callId, System.nanoTime()
         + expirationTime, true);
-    lock.lock();
-    try {
-      set.put(newEntry);
-    } finally {
-      lock.unlock();
-    }
+    put(newEntry);
     retryCacheMetrics.incrCacheUpdated();
   }
   
@@ -319,13 +429,18 @@ public void addCacheEntryWithPayload(byte[] clientId, int callId,
     // since the entry is loaded from editlog, we can assume it succeeded.    
     CacheEntry newEntry = new CacheEntryWithPayload(clientId, callId, payload,
         System.nanoTime() + expirationTime, true);
-    lock.lock();
+    put(newEntry);
+    retryCacheMetrics.incrCacheUpdated();
+  }
+
+  private void put(CacheEntry newEntry) {
+    final Stripe stripe = getStripe(newEntry);
+    stripe.lock.lock();
     try {
-      set.put(newEntry);
+      stripe.put(newEntry);
     } finally {
-      lock.unlock();
+      stripe.lock.unlock();
     }
-    retryCacheMetrics.incrCacheUpdated();
   }
 
   private static CacheEntry newEntry(long expirationTime) {
@@ -376,7 +491,14 @@ public static void setState(CacheEntryWithPayload e, boolean success,
 
   public static void clear(RetryCache cache) {
     if (cache != null) {
-      cache.set.clear();
+      for (Stripe stripe : cache.stripes) {
+        stripe.lock.lock();
+        try {
+          stripe.clear();
+        } finally {
+          stripe.lock.unlock();
+        }
+      }
       cache.incrCacheClearedCounter();
     }
   }
@@ -89,6 +89,7 @@
 import org.apache.hadoop.ipc.metrics.RpcDetailedMetrics;
 import org.apache.hadoop.ipc.metrics.RpcMetrics;
 import org.apache.hadoop.ipc.protobuf.IpcConnectionContextProtos.IpcConnectionContextProto;
+import org.apache.hadoop.ipc.protobuf.ProtobufRpcEngineProtos.RequestHeaderProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcKindProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
@@ -285,7 +286,6 @@ public static Server get() {
   private static final ThreadLocal<Call> CurCall = new ThreadLocal<Call>();
   
   /** Get the current call */
-  @VisibleForTesting
   public static ThreadLocal<Call> getCurCall() {
     return CurCall;
   }
@@ -352,6 +352,15 @@ public static boolean isRpcInvocation() {
     return CurCall.get() != null;
   }
 
+  /**
+   * @return whether the current call carries a client state id, which the
+   *         server has reached before serving it; see {@link AlignmentContext}
+   */
+  public static boolean isCoordinatedCall() {
+    Call call = CurCall.get();
+    return call != null && call.isCallCoordinated();
+  }
+
   private String bindAddress; 
   private int port;                               // port we listen on
   private int handlerCount;                       // number of handler threads
@@ -369,6 +378,9 @@ public static boolean isRpcInvocation() {
 
   private int maxQueueSize;
   private final int maxRespSize;
+  // how long a call may wait for the server to reach its client state id
+  private final int coordinatedCallTimeout;
+  private volatile AlignmentContext alignmentContext = null;
   private int socketSendBufferSize;
   private final int maxDataLength;
   private final boolean tcpNoDelay; // if T then disable Nagle's Algorithm
@@ -510,6 +522,18 @@ public static class Call implements Schedulable {
     private final RPC.RpcKind rpcKind;
     private final byte[] clientId;
     private final Span traceSpan; // the tracing span on the server side
+    // the response is sent once this drops to zero; the handler holds one
+    // and every postponeResponse() adds another
+    private final AtomicInteger responseWaitCount = new AtomicInteger(1);
+    // the outcome of the call, kept until the response is set up
+    private RpcStatusProto returnStatus;
+    private RpcErrorCodeProto detailedErr;
+    private Writable returnValue;
+    private String errorClass;
+    private String error;
+    private boolean aborted = false;
+    // the state id the server has to reach before serving the call
+    private long clientStateId = Long.MIN_VALUE;
 
     public Call(int id, int retryCount, Writable param, 
         Connection connection) {
@@ -545,6 +569,71 @@ public void setResponse(ByteBuffer response) {
       this.rpcResponse = response;
     }
 
+    /** @return whether the call carries a client state id. */
+    public boolean isCallCoordinated() {
+      return clientStateId != Long.MIN_VALUE;
+    }
+
+    /** @return the client state id carried by the call. */
+    public long getClientStateId() {
+      return clientStateId;
+    }
+
+    /**
+     * Defer sending the response of this call until {@link #sendResponse()}
+     * is invoked. Must be called by the handler thread serving the call,
+     * typically when the result only becomes durable asynchronously.
+     * Every postponement must be matched by one {@link #sendResponse()}.
+     */
+    public void postponeResponse() {
+      int count = responseWaitCount.incrementAndGet();
+      assert count > 1 : "response has already been sent";
+    }
+
+    /**
+     * Release one postponement of the response. The response is sent
+     * once the handler has finished the call and every postponement has
+     * been released.
+     */
+    public void sendResponse() throws IOException {
+      int count = responseWaitCount.decrementAndGet();
+      assert count >= 0 : "response has already been sent";
+      if (count == 0) {
+        connection.sendDeferredResponse(this);
+      }
+    }
+
+    /**
+     * Like {@link #sendResponse()}, but fail the call with the given error
+     * regardless of the result computed by the handler.
+     */
+    public void abortResponse(Throwable t) throws IOException {
+      synchronized (this) {
+        if (!aborted) {
+          aborted = true;
+          returnStatus = RpcStatusProto.ERROR;
+          detailedErr = RpcErrorCodeProto.ERROR_APPLICATION;
+          returnValue = null;
+          errorClass = t.getClass().getName();
+          error = StringUtils.stringifyException(t);
+        }
+      }
+      sendResponse();
+    }
+
+    private synchronized void setResult(RpcStatusProto status,
+        RpcErrorCodeProto erCode, Writable value, String errorClass,
+        String error) {
+      if (aborted) {
+        return;
+      }
+      this.returnStatus = status;
+      this.detailedErr = erCode;
+      this.returnValue = value;
+      this.errorClass = errorClass;
+      this.error = error;
+    }
+
     // For Schedulable
     @Override
     public UserGroupInformation getUserGroupInformation() {
@@ -1210,6 +1299,21 @@ public long getLastContact() {
     }
 
     /* Return true if the connection has no outstanding rpc */
+    /**
+     * Set up and queue the response of a call whose response was postponed,
+     * from whichever thread released the last postponement.
+     */
+    private void sendDeferredResponse(Call call) throws IOException {
+      synchronized (responseQueue) {
+        // as in the handler, set up the response together with queueing it
+        // to keep SASL wrapped responses in order
+        setupResponse(new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE), call,
+            call.returnStatus, call.detailedErr, call.returnValue,
+            call.errorClass, call.error);
+        responder.doRespond(call);
+      }
+    }
+
     private boolean isIdle() {
       return rpcCount.get() == 0;
     }
@@ -1869,6 +1973,11 @@ private void processRpcRequest(RpcRequestHeaderProto header,
       Call call = new Call(header.getCallId(), header.getRetryCount(),
           rpcRequest, this, ProtoUtil.convert(header.getRpcKind()),
           header.getClientId().toByteArray(), traceSpan);
+      final AlignmentContext context = alignmentContext;
+      if (context != null && header.hasStateId()
+          && isCoordinatedCall(context, rpcRequest)) {
+        call.clientStateId = context.receiveRequestState(header);
+      }
 
       callQueue.put(call);              // queue the call; maybe blocked here
       incRpcCount();  // Increment the rpc count
@@ -2022,6 +2131,11 @@ public void run() {
             LOG.info(Thread.currentThread().getName() + ": skipped " + call);
             continue;
           }
+          if (isBehind(call) && requeue(call)) {
+            // serve the next call; this one is taken again once the calls
+            // queued before it have been taken
+            continue;
+          }
           String errorClass = null;
           String error = null;
           RpcStatusProto returnStatus = RpcStatusProto.SUCCESS;
@@ -2034,6 +2148,12 @@ public void run() {
           }
 
           try {
+            if (isBehind(call)) {
+              throw new StandbyException("Server has not caught up to the "
+                  + "client state id " + call.getClientStateId() + " in "
+                  + coordinatedCallTimeout + "ms, its state id is "
+                  + alignmentContext.getLastSeenStateId());
+            }
             // Make the call as the user via Subject.doAs, thus associating
             // the call with the Subject
             if (call.connection.user == null) {
@@ -2086,13 +2206,19 @@ public Writable run() throws Exception {
             }
           }
           CurCall.set(null);
+          call.setResult(returnStatus, detailedErr, value, errorClass, error);
+          if (call.responseWaitCount.decrementAndGet() > 0) {
+            // The call postponed its response, which is sent by the last
+            // Call#sendResponse instead.
+            continue;
+          }
           synchronized (call.connection.responseQueue) {
             // setupResponse() needs to be sync'ed together with 
             // responder.doResponse() since setupResponse may use
             // SASL to encrypt response data and SASL enforces
             // its own message ordering.
-            setupResponse(buf, call, returnStatus, detailedErr, 
-                value, errorClass, error);
+            setupResponse(buf, call, call.returnStatus, call.detailedErr,
+                call.returnValue, call.errorClass, call.error);
             
             // Discard the large buf and reset it back to smaller size 
             // to free up heap
@@ -2186,6 +2312,9 @@ protected Server(String bindAddress, int port,
     this.maxRespSize = conf.getInt(
         CommonConfigurationKeys.IPC_SERVER_RPC_MAX_RESPONSE_SIZE_KEY,
         CommonConfigurationKeys.IPC_SERVER_RPC_MAX_RESPONSE_SIZE_DEFAULT);
+    this.coordinatedCallTimeout = conf.getInt(
+        CommonConfigurationKeys.IPC_SERVER_COORDINATED_CALL_TIMEOUT_KEY,
+        CommonConfigurationKeys.IPC_SERVER_COORDINATED_CALL_TIMEOUT_DEFAULT);
     if (numReaders != -1) {
       this.readThreads = numReaders;
     } else {
@@ -2309,6 +2438,9 @@ private void setupResponse(ByteArrayOutputStream responseBuf,
     headerBuilder.setRetryCount(call.retryCount);
     headerBuilder.setStatus(status);
     headerBuilder.setServerIpcVersionNum(CURRENT_VERSION);
+    if (alignmentContext != null) {
+      alignmentContext.updateResponseState(headerBuilder);
+    }
 
     if (status == RpcStatusProto.SUCCESS) {
       RpcResponseHeaderProto header = headerBuilder.build();
@@ -2430,6 +2562,56 @@ Configuration getConf() {
   /** Sets the socket buffer size used for responding to RPCs */
   public void setSocketSendBufSize(int size) { this.socketSendBufferSize = size; }
 
+  /**
+   * Set the context which aligns the state of the server with the state of
+   * its clients. The calls carrying a client state id the server has not
+   * reached yet are held until it does, or until they time out.
+   */
+  public void setAlignmentContext(AlignmentContext alignmentContext) {
+    this.alignmentContext = alignmentContext;
+  }
+
+  /**
+   * @return whether the alignment context holds the calls of the method
+   *         invoked by the request
+   */
+  private static boolean isCoordinatedCall(AlignmentContext context,
+      Writable rpcRequest) {
+    if (rpcRequest instanceof ProtobufRpcEngine.RpcRequestWrapper) {
+      final RequestHeaderProto header =
+          ((ProtobufRpcEngine.RpcRequestWrapper) rpcRequest).getMessageHeader();
+      return context.isCoordinatedCall(header.getDeclaringClassProtocolName(),
+          header.getMethodName());
+    } else if (rpcRequest instanceof WritableRpcEngine.Invocation) {
+      final WritableRpcEngine.Invocation invocation =
+          (WritableRpcEngine.Invocation) rpcRequest;
+      return context.isCoordinatedCall(
+          invocation.getDeclaringClassProtocolName(),
+          invocation.getMethodName());
+    }
+    return false;
+  }
+
+  /**
+   * @return whether the server has not reached the client state id of the
+   *         call yet
+   */
+  private boolean isBehind(Call call) {
+    final AlignmentContext context = alignmentContext;
+    return context != null && call.isCallCoordinated()
+        && call.getClientStateId() > context.getLastSeenStateId();
+  }
+
+  /**
+   * Put a call the server is not ready to serve back into the queue, unless
+   * it has waited long enough already.
+   * @return false if the call timed out or the queue is full
+   */
+  private boolean requeue(Call call) {
+    return Time.now() - call.timestamp < coordinatedCallTimeout
+        && callQueue.offer(call);
+  }
+
   /** Starts the service.  Must be called before any calls will be handled. */
   public synchronized void start() {
     responder.start();
@@ -21,7 +21,10 @@
 import java.util.List;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -382,6 +385,158 @@ int getNumOfLeaves() {
   /** the lock used to manage access */
   protected ReadWriteLock netlock = new ReentrantReadWriteLock();
 
+  /**
+   * Incremented on every change of the cluster map, under the write lock,
+   * to invalidate {@link #snapshot}.
+   */
+  private volatile long version = 0;
+  /** The latest snapshot of the cluster map, possibly outdated. */
+  private volatile Snapshot snapshot = null;
+
+  /**
+   * An immutable view of the leaves of the cluster map, which answers the
+   * rack, distance and random choice queries without locking.
+   *
+   * The leaves are indexed in depth-first order, so that the leaves of each
+   * inner node have consecutive indices, and each leaf and inner node knows
+   * the index of its parent.
+   */
+  private static final class Snapshot {
+    private final long version;
+    private final Node[] leaves;
+    /** The index of the parent inner node of each leaf. */
+    private final int[] leafParents;
+    /** The index of the parent of each inner node, -1 for the root. */
+    private final int[] innerParents;
+    /** The range of leaves of each inner node, by normalized path. */
+    private final Map<String, int[]> innerRanges =
+        new HashMap<String, int[]>();
+    private final Map<String, Integer> leafPaths =
+        new HashMap<String, Integer>();
+    /**
+     * The index of each leaf. Nodes are matched by identity, as the tree
+     * walks do, so that a node equal to a leaf is not taken for the leaf.
+     */
+    private final Map<Node, Integer> leafIndices =
+        new IdentityHashMap<Node, Integer>();
+
+    private int numLeaves = 0;
+    private int numInner = 0;
+
+    Snapshot(InnerNode root, long version) {
+      this.version = version;
+      final int n = root.getNumOfLeaves();
+      leaves = new Node[n];
+      leafParents = new int[n];
+      innerParents = new int[countInnerNodes(root)];
+      index(root, NodeBase.ROOT, -1);
+    }
+
+    private static int countInnerNodes(InnerNode node) {
+      int count = 1;
+      for (Node child : node.getChildren()) {
+        if (child instanceof InnerNode) {
+          count += countInnerNodes((InnerNode) child);
+        }
+      }
+      return count;
+    }
+
+    private void index(InnerNode node, String path, int parent) {
+      final int id = numInner++;
+      innerParents[id] = parent;
+      final int start = numLeaves;
+      for (Node child : node.getChildren()) {
+        final String childPath =
+            path + NodeBase.PATH_SEPARATOR_STR + child.getName();
+        if (child instanceof InnerNode) {
+          index((InnerNode) child, childPath, id);
+        } else {
+          leaves[numLeaves] = child;
+          leafParents[numLeaves] = id;
+          leafPaths.put(childPath, numLeaves);
+          leafIndices.put(child, numLeaves);
+          numLeaves++;
+        }
+      }
+      innerRanges.put(path, new int[] { start, numLeaves });
+    }
+
+    /** @return the index of the given leaf, or -1 if it is not a leaf */
+    int indexOf(Node node) {
+      final Integer i = leafIndices.get(node);
+      return i == null ? -1 : i;
+    }
+
+    /**
+     * @return the leaves range of the node with the given normalized path,
+     * or null if there is no such node
+     */
+    int[] getRange(String path) {
+      final int[] range = innerRanges.get(path);
+      if (range != null) {
+        return range;
+      }
+      final Integer i = leafPaths.get(path);
+      return i == null ? null : new int[] { i, i + 1 };
+    }
+
+    boolean isLeaf(String path) {
+      return leafPaths.containsKey(path);
+    }
+
+    /** @return the distance between two leaves, see {@link #getDistance} */
+    int getDistance(int leaf1, int leaf2) {
+      if (leaf1 == leaf2) {
+        return 0;
+      }
+      // all the leaves are at the same depth
+      int p1 = leafParents[leaf1];
+      int p2 = leafParents[leaf2];
+      int dis = 2;
+      while (p1 != p2) {
+        p1 = innerParents[p1];
+        p2 = innerParents[p2];
+        dis += 2;
+      }
+      return dis;
+    }
+
+    boolean isSameParent(int leaf1, int leaf2) {
+      return leafParents[leaf1] == leafParents[leaf2];
+    }
+  }
+
+  /**
+   * @return a snapshot of the current cluster map, built under the read
+   * lock if the latest one is outdated
+   */
+  private Snapshot getSnapshot() {
+    Snapshot s = snapshot;
+    if (s != null && s.version == version) {
+      return s;
+    }
+    netlock.readLock().lock();
+    try {
+      s = snapshot;
+      if (s == null || s.version != version) {
+        s = new Snapshot(clusterMap, version);
+        snapshot = s;
+      }
+      return s;
+    } finally {
+      netlock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Invalidate the snapshot of the cluster map. To be called under the write
+   * lock by every change of the cluster map.
+   */
+  protected void clusterMapChanged() {
+    version++;
+  }
+
   public NetworkTopology() {
     clusterMap = new InnerNode(InnerNode.ROOT);
   }
@@ -415,7 +570,10 @@ public void add(Node node) {
                                            + node.toString() 
                                            + " at an illegal network location");
       }
-      if (clusterMap.add(node)) {
+      final boolean added = clusterMap.add(node);
+      // a node may also replace another one with the same name
+      clusterMapChanged();
+      if (added) {
         LOG.info("Adding a new node: "+NodeBase.getPath(node));
         if (rack == null) {
           numOfRacks++;
@@ -489,6 +647,7 @@ public void remove(Node node) {
     netlock.writeLock().lock();
     try {
       if (clusterMap.remove(node)) {
+        clusterMapChanged();
         InnerNode rack = (InnerNode)getNode(node.getNetworkLocation());
         if (rack == null) {
           numOfRacks--;
@@ -568,12 +727,7 @@ public int getNumOfRacks() {
 
   /** @return the total number of leaf nodes */
   public int getNumOfLeaves() {
-    netlock.readLock().lock();
-    try {
-      return clusterMap.getNumOfLeaves();
-    } finally {
-      netlock.readLock().unlock();
-    }
+    return getSnapshot().leaves.length;
   }
 
   /** Return the distance between two nodes
@@ -589,6 +743,12 @@ public int getDistance(Node node1, Node node2) {
     if (node1 == node2) {
       return 0;
     }
+    final Snapshot s = getSnapshot();
+    final int leaf1 = s.indexOf(node1);
+    final int leaf2 = s.indexOf(node2);
+    if (leaf1 >= 0 && leaf2 >= 0) {
+      return s.getDistance(leaf1, leaf2);
+    }
     Node n1=node1, n2=node2;
     int dis = 0;
     netlock.readLock().lock();
@@ -634,6 +794,12 @@ public boolean isOnSameRack( Node node1,  Node node2) {
     if (node1 == null || node2 == null) {
       return false;
     }
+    final Snapshot s = getSnapshot();
+    final int leaf1 = s.indexOf(node1);
+    final int leaf2 = s.indexOf(node2);
+    if (leaf1 >= 0 && leaf2 >= 0) {
+      return s.isSameParent(leaf1, leaf2);
+    }
       
     netlock.readLock().lock();
     try {
@@ -688,6 +854,10 @@ void setRandomSeed(long seed) {
    * @return the chosen node
    */
   public Node chooseRandom(String scope) {
+    final Node chosen = chooseRandom(getSnapshot(), scope);
+    if (chosen != null) {
+      return chosen;
+    }
     netlock.readLock().lock();
     try {
       if (scope.startsWith("~")) {
@@ -700,6 +870,45 @@ public Node chooseRandom(String scope) {
     }
   }
 
+  /**
+   * Choose a random leaf in <i>scope</i> from the given snapshot.
+   * @return the chosen leaf, or null if the scopes do not match a leaf or an
+   * inner node of the snapshot, or if no leaf is left to choose from
+   */
+  private static Node chooseRandom(Snapshot s, String scope) {
+    String excludedScope = null;
+    if (scope.startsWith("~")) {
+      excludedScope = NodeBase.normalize(scope.substring(1));
+      scope = NodeBase.ROOT;
+    } else {
+      scope = NodeBase.normalize(scope);
+    }
+    final int[] range = s.getRange(scope);
+    if (range == null || s.isLeaf(scope)) {
+      return null;
+    }
+    int[] excluded = null;
+    if (excludedScope != null) {
+      excluded = s.getRange(excludedScope);
+      if (excluded == null
+          || excluded[0] < range[0] || excluded[1] > range[1]) {
+        return null;
+      }
+    }
+    int numOfDatanodes = range[1] - range[0];
+    if (excluded != null) {
+      numOfDatanodes -= excluded[1] - excluded[0];
+    }
+    if (numOfDatanodes <= 0) {
+      return null;
+    }
+    int leaf = range[0] + r.nextInt(numOfDatanodes);
+    if (excluded != null && leaf >= excluded[0]) {
+      leaf += excluded[1] - excluded[0];
+    }
+    return s.leaves[leaf];
+  }
+
   private Node chooseRandom(String scope, String excludedScope){
     if (excludedScope != null) {
       if (scope.startsWith(excludedScope)) {
@@ -739,6 +948,16 @@ private Node chooseRandom(String scope, String excludedScope){
    * @return leaves nodes under specific scope
    */
   public List<Node> getLeaves(String scope) {
+    final Snapshot s = getSnapshot();
+    final String path = NodeBase.normalize(scope);
+    final int[] range = s.getRange(path);
+    if (range != null) {
+      List<Node> leafNodes = new ArrayList<Node>(range[1] - range[0]);
+      for (int i = range[0]; i < range[1]; i++) {
+        leafNodes.add(s.leaves[i]);
+      }
+      return leafNodes;
+    }
     Node node = getNode(scope);
     List<Node> leafNodes = new ArrayList<Node>();
     if (!(node instanceof InnerNode)) {
@@ -769,6 +988,27 @@ public int countNumOfAvailableNodes(String scope,
     scope = NodeBase.normalize(scope);
     int excludedCountInScope = 0; // the number of nodes in both scope & excludedNodes
     int excludedCountOffScope = 0; // the number of nodes outside scope & excludedNodes
+    final Snapshot s = getSnapshot();
+    final int[] range = s.getRange(scope);
+    if (range != null) {
+      for (Node node : excludedNodes) {
+        final Integer i = s.leafPaths.get(NodeBase.getPath(node));
+        if (i == null) {
+          continue;
+        }
+        if (i >= range[0] && i < range[1]) {
+          excludedCountInScope++;
+        } else {
+          excludedCountOffScope++;
+        }
+      }
+      final int scopeNodeCount = range[1] - range[0];
+      if (isExcluded) {
+        return s.leaves.length - scopeNodeCount - excludedCountOffScope;
+      } else {
+        return scopeNodeCount - excludedCountInScope;
+      }
+    }
     netlock.readLock().lock();
     try {
       for (Node node : excludedNodes) {
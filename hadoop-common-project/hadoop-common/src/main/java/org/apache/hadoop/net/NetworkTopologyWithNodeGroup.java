@@ -201,7 +201,9 @@ public void add(Node node) {
             + node.toString() 
             + " at an illegal network location");
       }
-      if (clusterMap.add(node)) {
+      final boolean added = clusterMap.add(node);
+      clusterMapChanged();
+      if (added) {
         LOG.info("Adding a new node: " + NodeBase.getPath(node));
         if (rack == null) {
           // We only track rack number here
@@ -231,6 +233,7 @@ public void remove(Node node) {
     netlock.writeLock().lock();
     try {
       if (clusterMap.remove(node)) {
+        clusterMapChanged();
         Node nodeGroup = getNode(node.getNetworkLocation());
         if (nodeGroup == null) {
           nodeGroup = new InnerNode(node.getNetworkLocation());
@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.ipc.RPC.RpcKind;
+import org.apache.hadoop.ipc.RetryCache.CacheEntry;
+import org.apache.hadoop.util.Time;
+
+/**
+ * RetryCacheBenchmark measures the throughput of {@link RetryCache} when
+ * many handler threads add and complete entries concurrently, as the
+ * NameNode handlers do for every at-most-once call.
+ * <p>
+ * The same workload is run against a cache with a single stripe, which
+ * serializes all the handlers on one lock as the cache used to, and against
+ * a cache with the given number of stripes.
+ * <p>
+ * Input arguments:
+ * <ul>
+ * <li>numThreads - number of handler threads, 256 by default</li>
+ * <li>numOps - number of calls made by each thread, 100000 by default</li>
+ * <li>numStripes - number of stripes, {@link RetryCache#DEFAULT_NUM_STRIPES}
+ * by default</li>
+ * </ul>
+ */
+public class RetryCacheBenchmark {
+  private final int numThreads;
+  private final int numOps;
+
+  RetryCacheBenchmark(int numThreads, int numOps) {
+    this.numThreads = numThreads;
+    this.numOps = numOps;
+  }
+
+  /**
+   * Run the workload against a cache with the given number of stripes.
+   * @return the number of calls per second
+   */
+  long run(int numStripes) throws InterruptedException {
+    final RetryCache cache = new RetryCache("RetryCacheBenchmark" + numStripes,
+        1, 600 * 1000 * 1000 * 1000L, numStripes);
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          final byte[] clientId = ClientId.getClientId();
+          try {
+            startLatch.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int callId = 0; callId < numOps; callId++) {
+            Server.getCurCall().set(new Server.Call(callId, 0, null, null,
+                RpcKind.RPC_PROTOCOL_BUFFER, clientId));
+            final CacheEntry entry = RetryCache.waitForCompletion(cache);
+            RetryCache.setState(entry, true);
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    final long start = Time.monotonicNow();
+    startLatch.countDown();
+    for (Thread t : threads) {
+      t.join();
+    }
+    final long elapsed = Math.max(1, Time.monotonicNow() - start);
+    final long opsPerSec = (long) numThreads * numOps * 1000 / elapsed;
+    System.out.println(String.format(
+        "stripes=%d threads=%d ops=%d elapsed=%dms ops/s=%d",
+        numStripes, numThreads, numThreads * (long) numOps, elapsed,
+        opsPerSec));
+    return opsPerSec;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+    final int numOps = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+    final int numStripes = args.length > 2 ?
+        Integer.parseInt(args[2]) : RetryCache.DEFAULT_NUM_STRIPES;
+
+    final RetryCacheBenchmark benchmark =
+        new RetryCacheBenchmark(numThreads, numOps);
+    // warm up
+    benchmark.run(numStripes);
+    final long single = benchmark.run(1);
+    final long striped = benchmark.run(numStripes);
+    System.out.println(String.format("speedup=%.2f",
+        (double) striped / single));
+  }
+}
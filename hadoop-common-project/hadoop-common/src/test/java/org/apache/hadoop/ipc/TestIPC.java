@@ -1024,6 +1024,85 @@ public void run() {
     }
   }
   
+  /**
+   * Test that a postponed response is only sent once every postponement has
+   * been released, and that an aborted call fails on the client.
+   */
+  @Test(timeout=60000)
+  public void testDeferredResponse() throws Exception {
+    final TestServer server = new TestServer(1, false);
+    final List<Server.Call> postponed =
+        Collections.synchronizedList(new ArrayList<Server.Call>());
+    server.callListener = new Runnable() {
+      @Override
+      public void run() {
+        Server.Call call = Server.getCurCall().get();
+        call.postponeResponse();
+        call.postponeResponse();
+        postponed.add(call);
+      }
+    };
+    final Client client = new Client(LongWritable.class, conf);
+    try {
+      final InetSocketAddress addr = NetUtils.getConnectAddress(server);
+      server.start();
+      final LongWritable param = new LongWritable(RANDOM.nextLong());
+      final AtomicBoolean returned = new AtomicBoolean(false);
+      Thread caller = new Thread() {
+        @Override
+        public void run() {
+          try {
+            LongWritable value = (LongWritable) client.call(param, addr,
+                null, null, 0, conf);
+            assertEquals(param, value);
+            returned.set(true);
+          } catch (IOException e) {
+            LOG.error("Unexpected exception", e);
+          }
+        }
+      };
+      caller.start();
+      while (postponed.isEmpty()) {
+        Thread.sleep(10);
+      }
+      // The handler is free while the response is still pending.
+      Server.Call call = postponed.get(0);
+      call.sendResponse();
+      caller.join(500);
+      assertFalse(returned.get());
+      call.sendResponse();
+      caller.join();
+      assertTrue(returned.get());
+
+      postponed.clear();
+      Thread aborter = new Thread() {
+        @Override
+        public void run() {
+          try {
+            while (postponed.isEmpty()) {
+              Thread.sleep(10);
+            }
+            postponed.get(0).abortResponse(new IOException("Aborted call"));
+            postponed.get(0).sendResponse();
+          } catch (Exception e) {
+            LOG.error("Unexpected exception", e);
+          }
+        }
+      };
+      aborter.start();
+      try {
+        client.call(param, addr, null, null, 0, conf);
+        fail("Expected the aborted call to fail");
+      } catch (RemoteException e) {
+        assertExceptionContains(e, "Aborted call");
+      }
+      aborter.join();
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
   /** A dummy protocol */
   private interface DummyProtocol {
     public void dummyRun();
@@ -49,6 +49,7 @@
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.net.SocketFactory;
@@ -64,6 +65,8 @@
 import org.apache.hadoop.io.retry.RetryPolicy;
 import org.apache.hadoop.io.retry.RetryProxy;
 import org.apache.hadoop.ipc.Client.ConnectionId;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
 import org.apache.hadoop.metrics2.MetricsRecordBuilder;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.AccessControlException;
@@ -292,13 +295,23 @@ public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
         rpcTimeout, connectionRetryPolicy, null);
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
         InetSocketAddress addr, UserGroupInformation ticket, Configuration conf,
         SocketFactory factory, int rpcTimeout,
         RetryPolicy connectionRetryPolicy, AtomicBoolean fallbackToSimpleAuth
         ) throws IOException {
+      return getProxy(protocol, clientVersion, addr, ticket, conf, factory,
+        rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
+        InetSocketAddress addr, UserGroupInformation ticket, Configuration conf,
+        SocketFactory factory, int rpcTimeout,
+        RetryPolicy connectionRetryPolicy, AtomicBoolean fallbackToSimpleAuth,
+        AlignmentContext alignmentContext) throws IOException {
       T proxy = (T) Proxy.newProxyInstance(protocol.getClassLoader(),
               new Class[] { protocol }, new StoppedInvocationHandler());
       return new ProtocolProxy<T>(protocol, proxy, false);
@@ -442,6 +455,105 @@ public void testSlowRpc() throws IOException {
     }
   }
   
+  /** An alignment context whose state is set by the test. */
+  private static class TestAlignmentContext implements AlignmentContext {
+    private final AtomicLong state = new AtomicLong();
+
+    @Override
+    public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+      header.setStateId(state.get());
+    }
+
+    @Override
+    public void receiveResponseState(RpcResponseHeaderProto header) {
+      long serverStateId = header.getStateId();
+      long current;
+      while ((current = state.get()) < serverStateId
+          && !state.compareAndSet(current, serverStateId));
+    }
+
+    @Override
+    public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+      header.setStateId(state.get());
+    }
+
+    @Override
+    public boolean isCoordinatedCall(String protocolName, String methodName) {
+      return protocolName.equals(TestProtocol.class.getName())
+          && methodName.equals("ping");
+    }
+
+    @Override
+    public long receiveRequestState(RpcRequestHeaderProto header) {
+      return header.getStateId();
+    }
+
+    @Override
+    public long getLastSeenStateId() {
+      return state.get();
+    }
+  }
+
+  @Test(timeout=30000)
+  public void testAlignmentContext() throws Exception {
+    final Configuration conf = new Configuration();
+    conf.setInt(
+        CommonConfigurationKeys.IPC_SERVER_COORDINATED_CALL_TIMEOUT_KEY, 1000);
+    Server server = new RPC.Builder(conf).setProtocol(TestProtocol.class)
+        .setInstance(new TestImpl()).setBindAddress(ADDRESS).setPort(0)
+        .setNumHandlers(2).build();
+    TestAlignmentContext serverContext = new TestAlignmentContext();
+    server.setAlignmentContext(serverContext);
+    TestAlignmentContext clientContext = new TestAlignmentContext();
+    TestProtocol proxy = null;
+    try {
+      server.start();
+      InetSocketAddress addr = NetUtils.getConnectAddress(server);
+      proxy = RPC.getProtocolProxy(TestProtocol.class, TestProtocol.versionID,
+          addr, UserGroupInformation.getCurrentUser(), conf,
+          NetUtils.getDefaultSocketFactory(conf), 0, null, null,
+          clientContext).getProxy();
+
+      // the client learns the state of the server from the responses
+      serverContext.state.set(10);
+      proxy.ping();
+      assertEquals(10, clientContext.getLastSeenStateId());
+
+      // a call is held until the server reaches the state of the client
+      clientContext.state.set(20);
+      final TestProtocol finalProxy = proxy;
+      Future<Void> held = Executors.newSingleThreadExecutor().submit(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              finalProxy.ping();
+              return null;
+            }
+          });
+      Thread.sleep(200);
+      assertTrue("The call should be held", !held.isDone());
+      serverContext.state.set(20);
+      held.get();
+
+      // and fails once it has waited for longer than the timeout
+      clientContext.state.set(30);
+      try {
+        proxy.ping();
+        fail("The call should have timed out");
+      } catch (RemoteException e) {
+        assertEquals(StandbyException.class.getName(), e.getClassName());
+      }
+
+      // the calls of the other methods are never held
+      assertEquals("foo", proxy.echo("foo"));
+    } finally {
+      server.stop();
+      if (proxy != null) {
+        RPC.stopProxy(proxy);
+      }
+    }
+  }
+
   @Test
   public void testCalls() throws IOException {
     testCallsInternal(conf);
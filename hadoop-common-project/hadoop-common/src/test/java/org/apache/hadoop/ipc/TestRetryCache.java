@@ -28,6 +28,7 @@
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.ipc.RPC.RpcKind;
+import org.apache.hadoop.ipc.RetryCache.CacheEntry;
 import org.apache.hadoop.ipc.RetryCache.CacheEntryWithPayload;
 import org.junit.Assert;
 import org.junit.Before;
@@ -167,6 +168,63 @@ public void testRetryAfterFailure() throws Exception {
     testOperations(input, 25, 0, false, true, call);
   }
 
+  /**
+   * Expired entries are evicted when new entries are added, and a replaced
+   * entry is counted once.
+   */
+  @Test
+  public void testExpiration() throws Exception {
+    final RetryCache cache = new RetryCache("TestRetryCacheExpiration", 1, 1,
+        1);
+    for (int i = 0; i < 10; i++) {
+      cache.addCacheEntry(CLIENT_ID, i);
+      Thread.sleep(1);
+    }
+    // all but the last entry have expired
+    Assert.assertEquals(1, cache.getCacheSet().size());
+
+    final RetryCache longLived = new RetryCache("TestRetryCacheReplace", 1,
+        100 * 1000 * 1000 * 1000L, 4);
+    for (int i = 0; i < 10; i++) {
+      longLived.addCacheEntry(CLIENT_ID, 1);
+      longLived.addCacheEntryWithPayload(CLIENT_ID, 2, i);
+    }
+    Assert.assertEquals(2, longLived.getCacheSet().size());
+    RetryCache.clear(longLived);
+    Assert.assertEquals(0, longLived.getCacheSet().size());
+  }
+
+  /**
+   * An expired entry is not returned for a retry, even if no entry was added
+   * since it expired.
+   */
+  @Test
+  public void testExpiredEntryNotReturned() throws Exception {
+    final RetryCache cache = new RetryCache("TestRetryCacheExpiredGet", 1, 1,
+        1);
+    Server.getCurCall().set(newCall());
+    try {
+      CacheEntry entry = RetryCache.waitForCompletion(cache);
+      RetryCache.setState(entry, true);
+      Thread.sleep(1);
+      entry = RetryCache.waitForCompletion(cache);
+      Assert.assertFalse(entry.isSuccess());
+    } finally {
+      Server.getCurCall().set(null);
+    }
+  }
+
+  /**
+   * Run the benchmark with a few handlers to make sure the striped cache
+   * works under contention.
+   */
+  @Test(timeout = 60000)
+  public void testBenchmark() throws Exception {
+    final RetryCacheBenchmark benchmark = new RetryCacheBenchmark(32, 1000);
+    Assert.assertTrue(benchmark.run(1) > 0);
+    Assert.assertTrue(benchmark.run(RetryCache.DEFAULT_NUM_STRIPES) > 0);
+  }
+
   public void testOperations(final int input, final int numberOfThreads,
       final int pause, final boolean success, final boolean attemptedBefore,
       final Server.Call call) throws InterruptedException, ExecutionException {
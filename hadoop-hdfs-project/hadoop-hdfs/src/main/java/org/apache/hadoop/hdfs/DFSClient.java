@@ -143,6 +143,7 @@
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.net.TcpPeerServer;
 import org.apache.hadoop.hdfs.protocol.AclException;
+import org.apache.hadoop.hdfs.protocol.BatchedOpResult;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -173,6 +174,8 @@
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshotAccessControlException;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.UnresolvedPathException;
 import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferProtoUtil;
@@ -208,6 +211,7 @@
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.ipc.RpcInvocationHandler;
+import org.apache.hadoop.ipc.RpcNoSuchMethodException;
 import org.apache.hadoop.net.DNS;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.AccessControlException;
@@ -2060,6 +2064,49 @@ public boolean delete(String src, boolean recursive) throws IOException {
       scope.close();
     }
   }
+
+  /**
+   * Delete each of the given files or directories in one namenode call.
+   * @return the result of {@link #delete(String, boolean)} or the exception
+   *         it would have thrown, for each path in order.
+   * @see ClientProtocol#batchedDelete(String[], boolean)
+   */
+  public List<BatchedOpResult<Boolean>> batchedDelete(String[] srcs,
+      boolean recursive) throws IOException {
+    checkOpen();
+    TraceScope scope = Trace.startSpan("batchedDelete", traceSampler);
+    try {
+      return unwrapBatchedResults(namenode.batchedDelete(srcs, recursive),
+                                  AccessControlException.class,
+                                  FileNotFoundException.class,
+                                  UnresolvedPathException.class,
+                                  SnapshotAccessControlException.class);
+    } catch(RemoteException re) {
+      throw re.unwrapRemoteException(SafeModeException.class);
+    } finally {
+      scope.close();
+    }
+  }
+
+  /**
+   * Unwrap the exceptions of the failed paths of a batched call as the
+   * single-path call would unwrap its RemoteException.
+   */
+  private static <T> List<BatchedOpResult<T>> unwrapBatchedResults(
+      List<BatchedOpResult<T>> results, Class<?>... lookupTypes) {
+    List<BatchedOpResult<T>> unwrapped =
+        new ArrayList<BatchedOpResult<T>>(results.size());
+    for (BatchedOpResult<T> r : results) {
+      if (r.getException() instanceof RemoteException) {
+        RemoteException re = (RemoteException) r.getException();
+        unwrapped.add(BatchedOpResult.<T>failure(
+            re.unwrapRemoteException(lookupTypes)));
+      } else {
+        unwrapped.add(r);
+      }
+    }
+    return unwrapped;
+  }
   
   /** Implemented using getFileInfo(src)
    */
@@ -2101,6 +2148,29 @@ public DirectoryListing listPaths(String src,  byte[] startAfter,
     }
   }
 
+  /**
+   * Get a partial listing of the subtree under the indicated path.
+   *
+   * Use HdfsFileStatus.EMPTY_NAME as startAfter to fetch the listing from
+   * the first entry of the subtree.
+   *
+   * @see ClientProtocol#getRecursiveListing(String, byte[], boolean)
+   */
+  public DirectoryListing listPathsRecursive(String src, byte[] startAfter,
+      boolean needLocation) throws IOException {
+    checkOpen();
+    TraceScope scope = getPathTraceScope("listPathsRecursive", src);
+    try {
+      return namenode.getRecursiveListing(src, startAfter, needLocation);
+    } catch(RemoteException re) {
+      throw re.unwrapRemoteException(AccessControlException.class,
+                                     FileNotFoundException.class,
+                                     UnresolvedPathException.class);
+    } finally {
+      scope.close();
+    }
+  }
+
   /**
    * Get the file info for a specific file or directory.
    * @param src The string representation of the path to the file
@@ -2122,6 +2192,28 @@ public HdfsFileStatus getFileInfo(String src) throws IOException {
       scope.close();
     }
   }
+
+  /**
+   * Get the file info of each of the given files or directories in one
+   * namenode call.
+   * @return the result of {@link #getFileInfo(String)}, null for a path
+   *         which does not exist, or the exception it would have thrown,
+   *         for each path in order.
+   * @see ClientProtocol#getBatchedFileInfo(String[])
+   */
+  public List<BatchedOpResult<HdfsFileStatus>> getBatchedFileInfo(
+      String[] srcs) throws IOException {
+    checkOpen();
+    TraceScope scope = Trace.startSpan("getBatchedFileInfo", traceSampler);
+    try {
+      return unwrapBatchedResults(namenode.getBatchedFileInfo(srcs),
+                                  AccessControlException.class,
+                                  FileNotFoundException.class,
+                                  UnresolvedPathException.class);
+    } finally {
+      scope.close();
+    }
+  }
   
   /**
    * Close status of a file
@@ -2735,6 +2827,21 @@ public SnapshotDiffReport getSnapshotDiffReport(String snapshotDir,
     checkOpen();
     TraceScope scope = Trace.startSpan("getSnapshotDiffReport", traceSampler);
     try {
+      // a diff against the current tree is computed again for every page,
+      // and the tree may change in between, so it is fetched in one call
+      if (fromSnapshot != null && !fromSnapshot.isEmpty()
+          && toSnapshot != null && !toSnapshot.isEmpty()) {
+        try {
+          return getSnapshotDiffReportInPages(snapshotDir, fromSnapshot,
+              toSnapshot);
+        } catch (RemoteException re) {
+          if (!RpcNoSuchMethodException.class.getName().equals(
+              re.getClassName())) {
+            throw re;
+          }
+        }
+        // the namenode does not support the paged listing
+      }
       return namenode.getSnapshotDiffReport(snapshotDir,
           fromSnapshot, toSnapshot);
     } catch(RemoteException re) {
@@ -2744,6 +2851,23 @@ public SnapshotDiffReport getSnapshotDiffReport(String snapshotDir,
     }
   }
 
+  /**
+   * Fetch a snapshot diff report in several calls, so that a large report
+   * is not built into a single RPC response.
+   */
+  private SnapshotDiffReport getSnapshotDiffReportInPages(String snapshotDir,
+      String fromSnapshot, String toSnapshot) throws IOException {
+    final List<DiffReportEntry> entries = new ArrayList<DiffReportEntry>();
+    SnapshotDiffReportListing listing;
+    do {
+      listing = namenode.getSnapshotDiffReportListing(snapshotDir,
+          fromSnapshot, toSnapshot, entries.size());
+      entries.addAll(listing.getDiffList());
+    } while (listing.hasMore());
+    return new SnapshotDiffReport(snapshotDir, fromSnapshot, toSnapshot,
+        entries);
+  }
+
   public long addCacheDirective(
       CacheDirectiveInfo info, EnumSet<CacheFlag> flags) throws IOException {
     checkOpen();
@@ -2978,6 +3102,42 @@ public boolean mkdirs(String src, FsPermission permission,
     return primitiveMkdir(src, masked, createParent);
   }
 
+  /**
+   * Create each of the given directories in one namenode call.
+   *
+   * @param permission The permission of the directories being created.
+   * If permission == null, use {@link FsPermission#getDefault()}.
+   * @return the result of {@link #mkdirs(String, FsPermission, boolean)} or
+   *         the exception it would have thrown, for each path in order.
+   * @see ClientProtocol#batchedMkdirs(String[], FsPermission, boolean)
+   */
+  public List<BatchedOpResult<Boolean>> batchedMkdirs(String[] srcs,
+      FsPermission permission, boolean createParent) throws IOException {
+    checkOpen();
+    if (permission == null) {
+      permission = FsPermission.getDefault();
+    }
+    FsPermission masked = permission.applyUMask(dfsClientConf.uMask);
+    TraceScope scope = Trace.startSpan("batchedMkdirs", traceSampler);
+    try {
+      return unwrapBatchedResults(
+          namenode.batchedMkdirs(srcs, masked, createParent),
+          AccessControlException.class,
+          InvalidPathException.class,
+          FileAlreadyExistsException.class,
+          FileNotFoundException.class,
+          ParentNotDirectoryException.class,
+          NSQuotaExceededException.class,
+          DSQuotaExceededException.class,
+          UnresolvedPathException.class,
+          SnapshotAccessControlException.class);
+    } catch(RemoteException re) {
+      throw re.unwrapRemoteException(SafeModeException.class);
+    } finally {
+      scope.close();
+    }
+  }
+
   /**
    * Same {{@link #mkdirs(String, FsPermission, boolean)} except
    * that the permissions has already been masked against umask.
@@ -23,6 +23,7 @@
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,7 @@
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BatchedRemoteIterator;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.BlockStorageLocation;
 import org.apache.hadoop.fs.CacheFlag;
@@ -63,6 +65,7 @@
 import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.hdfs.client.HdfsAdmin;
 import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
+import org.apache.hadoop.hdfs.protocol.BatchedOpResult;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -84,6 +87,8 @@
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenIdentifier;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RpcNoSuchMethodException;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.Credentials;
@@ -199,6 +204,15 @@ private String getPathName(Path file) {
     }
     return result;
   }
+
+  /** @return the DFS path names of the given paths. */
+  private String[] getPathNames(Path[] files) {
+    String[] names = new String[files.length];
+    for (int i = 0; i < files.length; i++) {
+      names[i] = getPathName(fixRelativePart(files[i]));
+    }
+    return names;
+  }
   
   @Override
   public BlockLocation[] getFileBlockLocations(FileStatus file, long start,
@@ -713,6 +727,23 @@ public Boolean next(final FileSystem fs, final Path p)
       }
     }.resolve(this, absF);
   }
+
+  /**
+   * Delete each of the given paths in one namenode call, which removes them
+   * under a single acquisition of the namesystem lock. Unlike
+   * {@link #delete(Path, boolean)}, symlinks are not resolved.
+   *
+   * @param paths the paths to delete
+   * @param recursive if true deletes non empty directories recursively
+   * @return the result of {@link #delete(Path, boolean)} or the exception
+   *         it would have thrown, for each path in order.
+   * @throws IOException if the whole batch failed, e.g. in safemode
+   */
+  public List<BatchedOpResult<Boolean>> delete(Path[] paths,
+      boolean recursive) throws IOException {
+    statistics.incrementWriteOps(paths.length);
+    return dfs.batchedDelete(getPathNames(paths), recursive);
+  }
   
   @Override
   public ContentSummary getContentSummary(Path f) throws IOException {
@@ -887,6 +918,111 @@ public RemoteIterator<LocatedFileStatus> next(final FileSystem fs, final Path p)
   }
 
 
+  /**
+   * {@inheritDoc}
+   *
+   * A recursive listing is served by the NameNode a batch at a time, with
+   * one RPC per batch instead of one per directory of the subtree. Symbolic
+   * links inside the subtree are not followed. Against a NameNode that does
+   * not support recursive listing this falls back to walking the subtree
+   * directory by directory.
+   */
+  @Override
+  public RemoteIterator<LocatedFileStatus> listFiles(final Path f,
+      final boolean recursive) throws FileNotFoundException, IOException {
+    if (!recursive) {
+      return super.listFiles(f, recursive);
+    }
+    Path absF = fixRelativePart(f);
+    if (absF.getName().equals(HdfsConstants.DOT_SNAPSHOT_DIR)) {
+      return super.listFiles(f, recursive);
+    }
+    return new FileSystemLinkResolver<RemoteIterator<LocatedFileStatus>>() {
+      @Override
+      public RemoteIterator<LocatedFileStatus> doCall(final Path p)
+          throws IOException, UnresolvedLinkException {
+        RecursiveFileListingIterator itor =
+            new RecursiveFileListingIterator(p);
+        try {
+          // fetch the first batch so that a missing path fails here
+          itor.hasNext();
+        } catch (RemoteException re) {
+          if (RpcNoSuchMethodException.class.getName().equals(
+              re.getClassName())) {
+            return DistributedFileSystem.super.listFiles(p, true);
+          }
+          throw re;
+        }
+        return itor;
+      }
+
+      @Override
+      public RemoteIterator<LocatedFileStatus> next(final FileSystem fs,
+          final Path p) throws IOException {
+        return fs.listFiles(p, true);
+      }
+    }.resolve(this, absF);
+  }
+
+  /**
+   * An iterator over the files of a subtree, fetched from the NameNode
+   * in batches that are resumed after the last entry of the previous batch.
+   */
+  private class RecursiveFileListingIterator
+      implements RemoteIterator<LocatedFileStatus> {
+    private final Path p;
+    private final BatchedRemoteIterator<byte[], HdfsFileStatus> listing;
+    private LocatedFileStatus curStat = null;
+
+    private RecursiveFileListingIterator(final Path p) {
+      this.p = p;
+      final String src = getPathName(p);
+      this.listing = new BatchedRemoteIterator<byte[], HdfsFileStatus>(
+          HdfsFileStatus.EMPTY_NAME) {
+        @Override
+        public BatchedEntries<HdfsFileStatus> makeRequest(byte[] prevKey)
+            throws IOException {
+          DirectoryListing thisListing = dfs.listPathsRecursive(src, prevKey,
+              true);
+          statistics.incrementReadOps(1);
+          if (thisListing == null) {
+            throw new FileNotFoundException("File " + p + " does not exist.");
+          }
+          return new BatchedListEntries<HdfsFileStatus>(
+              Arrays.asList(thisListing.getPartialListing()),
+              thisListing.hasMore());
+        }
+
+        @Override
+        public byte[] elementToPrevKey(HdfsFileStatus entry) {
+          return entry.getLocalNameInBytes();
+        }
+      };
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      while (curStat == null && listing.hasNext()) {
+        HdfsFileStatus fileStat = listing.next();
+        if (!fileStat.isDir() && !fileStat.isSymlink()) {
+          curStat = ((HdfsLocatedFileStatus) fileStat)
+              .makeQualifiedLocated(getUri(), p);
+        }
+      }
+      return curStat != null;
+    }
+
+    @Override
+    public LocatedFileStatus next() throws IOException {
+      if (hasNext()) {
+        LocatedFileStatus tmp = curStat;
+        curStat = null;
+        return tmp;
+      }
+      throw new java.util.NoSuchElementException("No more entry in " + p);
+    }
+  }
+
   /**
    * Returns a remote iterator so that followup calls are made on demand
    * while consuming the entries. This reduces memory consumption during
@@ -1061,6 +1197,25 @@ public Boolean next(final FileSystem fs, final Path p)
     }.resolve(this, absF);
   }
 
+  /**
+   * Create each of the given directories, and any missing parents, in one
+   * namenode call, which creates them under a single acquisition of the
+   * namesystem lock. Unlike {@link #mkdirs(Path, FsPermission)}, symlinks
+   * are not resolved.
+   *
+   * @param paths the directories to create
+   * @param permission the permission of the directories, before the umask
+   *                   is applied
+   * @return the result of {@link #mkdirs(Path, FsPermission)} or the
+   *         exception it would have thrown, for each path in order.
+   * @throws IOException if the whole batch failed, e.g. in safemode
+   */
+  public List<BatchedOpResult<Boolean>> mkdirs(Path[] paths,
+      FsPermission permission) throws IOException {
+    statistics.incrementWriteOps(paths.length);
+    return dfs.batchedMkdirs(getPathNames(paths), permission, true);
+  }
+
   @SuppressWarnings("deprecation")
   @Override
   protected boolean primitiveMkdir(Path f, FsPermission absolutePermission)
@@ -1317,6 +1472,40 @@ public FileStatus next(final FileSystem fs, final Path p)
     }.resolve(this, absF);
   }
 
+  /**
+   * Get the file status of each of the given paths in one namenode call,
+   * which looks them up under a single acquisition of the namesystem lock.
+   * Unlike {@link #getFileStatus(Path)}, symlinks are not resolved.
+   *
+   * @param paths the paths to look up
+   * @return the result of {@link #getFileStatus(Path)} or the exception it
+   *         would have thrown, such as a FileNotFoundException for a path
+   *         which does not exist, for each path in order.
+   * @throws IOException if the whole batch failed
+   */
+  public List<BatchedOpResult<FileStatus>> getFileStatus(Path[] paths)
+      throws IOException {
+    statistics.incrementReadOps(paths.length);
+    List<BatchedOpResult<HdfsFileStatus>> infos =
+        dfs.getBatchedFileInfo(getPathNames(paths));
+    List<BatchedOpResult<FileStatus>> results =
+        new ArrayList<BatchedOpResult<FileStatus>>(paths.length);
+    for (int i = 0; i < paths.length; i++) {
+      BatchedOpResult<HdfsFileStatus> info = infos.get(i);
+      Path p = fixRelativePart(paths[i]);
+      if (!info.isSuccess()) {
+        results.add(BatchedOpResult.<FileStatus>failure(info.getException()));
+      } else if (info.getValue() == null) {
+        results.add(BatchedOpResult.<FileStatus>failure(
+            new FileNotFoundException("File does not exist: " + p)));
+      } else {
+        results.add(BatchedOpResult.success(
+            (FileStatus) info.getValue().makeQualified(getUri(), p)));
+      }
+    }
+    return results;
+  }
+
   @SuppressWarnings("deprecation")
   @Override
   public void createSymlink(final Path target, final Path link,
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * The outcome of one path of a batched namespace operation: either the
+ * value the single-path operation would have returned, or the exception it
+ * would have thrown.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class BatchedOpResult<T> {
+
+  private final T value;
+
+  private final IOException exception;
+
+  private BatchedOpResult(T value, IOException exception) {
+    this.value = value;
+    this.exception = exception;
+  }
+
+  public static <T> BatchedOpResult<T> success(T value) {
+    return new BatchedOpResult<T>(value, null);
+  }
+
+  public static <T> BatchedOpResult<T> failure(IOException exception) {
+    return new BatchedOpResult<T>(null, exception);
+  }
+
+  public boolean isSuccess() {
+    return exception == null;
+  }
+
+  /** @return the exception of a failed path, or null on success. */
+  public IOException getException() {
+    return exception;
+  }
+
+  /** @return the value of a successful path, or null on failure. */
+  public T getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return exception == null ? "success: " + value : "failure: " + exception;
+  }
+}
@@ -179,6 +179,47 @@ public List<ByteString> getBlocksBuffers() {
    */
   abstract public Iterator<BlockReportReplica> iterator();
 
+  /**
+   * Returns the hash of the finalized replicas in the report.
+   * It is the XOR of {@link #hashReplica(long, long, long)} over the
+   * replicas, so that it does not depend on the order of the replicas and
+   * can be kept up to date as replicas are added and removed.
+   * @return hash of the finalized replicas
+   */
+  public long getFinalizedReplicaHash() {
+    long hash = 0;
+    for (BlockReportReplica replica : this) {
+      if (replica.getState() == ReplicaState.FINALIZED) {
+        hash ^= hashReplica(replica.getBlockId(),
+            replica.getGenerationStamp(), replica.getNumBytes());
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * Hash the ID, generation stamp and length of a replica, so that XORs of
+   * the hashes of different sets of replicas are unlikely to collide.
+   * @param blockId block ID
+   * @param genStamp generation stamp
+   * @param numBytes length
+   * @return hash of the replica
+   */
+  public static long hashReplica(long blockId, long genStamp, long numBytes) {
+    long h = mix(blockId);
+    h = mix(h ^ genStamp);
+    return mix(h ^ numBytes);
+  }
+
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
   public static class Builder {
     private final ByteString.Output out;
     private final CodedOutputStream cos;
@@ -51,6 +51,7 @@
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSelector;
 import org.apache.hadoop.hdfs.server.namenode.NotReplicatedYetException;
 import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
+import org.apache.hadoop.hdfs.server.namenode.ha.ReadOnly;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorageReport;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
@@ -126,6 +127,7 @@ public interface ClientProtocol {
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public LocatedBlocks getBlockLocations(String src,
                                          long offset,
                                          long length) 
@@ -266,6 +268,7 @@ public boolean setReplication(String src, short replication)
    * @return All the in-use block storage policies currently.
    */
   @Idempotent
+  @ReadOnly
   public BlockStoragePolicy[] getStoragePolicies() throws IOException;
 
   /**
@@ -576,6 +579,27 @@ public boolean truncate(String src, long newLength, String clientName)
   public boolean delete(String src, boolean recursive)
       throws AccessControlException, FileNotFoundException, SafeModeException,
       UnresolvedLinkException, SnapshotAccessControlException, IOException;
+
+  /**
+   * Delete each of the given files or directories, as
+   * {@link #delete(String, boolean)} would, under a single acquisition of
+   * the namesystem lock.
+   * <p>
+   * The result of a retried call is only replayed by the namenode which ran
+   * the original call; after a failover the paths are deleted again, and
+   * those already removed report false.
+   *
+   * @param srcs existing names
+   * @param recursive if true deletes non empty directories recursively
+   * @return the result of {@link #delete(String, boolean)} or the exception
+   *         it threw, for each path in order.
+   *
+   * @throws SafeModeException delete not allowed in safemode
+   * @throws IOException If the batch is too large or an I/O error occurred
+   */
+  @AtMostOnce
+  public List<BatchedOpResult<Boolean>> batchedDelete(String[] srcs,
+      boolean recursive) throws SafeModeException, IOException;
   
   /**
    * Create a directory (or hierarchy of directories) with the given
@@ -609,6 +633,26 @@ public boolean mkdirs(String src, FsPermission masked, boolean createParent)
       ParentNotDirectoryException, SafeModeException, UnresolvedLinkException,
       SnapshotAccessControlException, IOException;
 
+  /**
+   * Create each of the given directories, as
+   * {@link #mkdirs(String, FsPermission, boolean)} would, under a single
+   * acquisition of the namesystem lock.
+   *
+   * @param srcs The paths of the directories being created
+   * @param masked The masked permission of the directories being created
+   * @param createParent create missing parent directories if true
+   * @return the result of {@link #mkdirs(String, FsPermission, boolean)} or
+   *         the exception it threw, for each path in order.
+   *
+   * @throws SafeModeException create not allowed in safemode
+   * @throws IOException If the batch is too large, a path is too long or an
+   *           I/O error occurred
+   */
+  @Idempotent
+  public List<BatchedOpResult<Boolean>> batchedMkdirs(String[] srcs,
+      FsPermission masked, boolean createParent)
+      throws SafeModeException, IOException;
+
   /**
    * Get a partial listing of the indicated directory
    *
@@ -624,12 +668,42 @@ public boolean mkdirs(String src, FsPermission masked, boolean createParent)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public DirectoryListing getListing(String src,
                                      byte[] startAfter,
                                      boolean needLocation)
       throws AccessControlException, FileNotFoundException,
       UnresolvedLinkException, IOException;
-  
+
+  /**
+   * Get a partial listing of the whole subtree under the indicated path.
+   * <p>
+   * Entries are returned depth-first, with the children of each directory
+   * in name order, and the local name of every entry is its path relative
+   * to <code>src</code>. Passing the local name of the last entry returned
+   * as <code>startAfter</code> continues the listing from there; since the
+   * namespace lock is released between calls the listing is not an atomic
+   * snapshot of the subtree. Symlinks are returned but not followed.
+   * {@link DirectoryListing#hasMore()} tells whether there are more entries.
+   *
+   * @param src the path to list
+   * @param startAfter the relative path to start listing after encoded in
+   *          java UTF8, or an empty array to start from the beginning
+   * @param needLocation if the FileStatus should contain block locations
+   *
+   * @return a partial listing starting after startAfter or null if
+   *         <code>src</code> does not exist
+   *
+   * @throws AccessControlException permission denied
+   * @throws UnresolvedLinkException If <code>src</code> contains a symlink
+   * @throws IOException If an I/O error occurred
+   */
+  @Idempotent
+  @ReadOnly
+  public DirectoryListing getRecursiveListing(String src, byte[] startAfter,
+      boolean needLocation) throws AccessControlException,
+      UnresolvedLinkException, IOException;
+
   /**
    * Get listing of all the snapshottable directories
    * 
@@ -637,6 +711,7 @@ public DirectoryListing getListing(String src,
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public SnapshottableDirectoryStatus[] getSnapshottableDirListing()
       throws IOException;
 
@@ -731,6 +806,7 @@ public DatanodeStorageReport[] getDatanodeStorageReport(
    * @throws UnresolvedLinkException if the path contains a symlink. 
    */
   @Idempotent
+  @ReadOnly
   public long getPreferredBlockSize(String filename) 
       throws IOException, UnresolvedLinkException;
 
@@ -899,8 +975,24 @@ public CorruptFileBlocks listCorruptFileBlocks(String path, String cookie)
    * @throws IOException If an I/O error occurred        
    */
   @Idempotent
+  @ReadOnly
   public HdfsFileStatus getFileInfo(String src) throws AccessControlException,
       FileNotFoundException, UnresolvedLinkException, IOException;
+
+  /**
+   * Get the file info of each of the given files or directories, as
+   * {@link #getFileInfo(String)} would, under a single acquisition of the
+   * namesystem lock.
+   * @param srcs The string representations of the paths
+   *
+   * @return the result of {@link #getFileInfo(String)}, null if the path was
+   *         not found, or the exception it threw, for each path in order.
+   * @throws IOException If the batch is too large or an I/O error occurred
+   */
+  @Idempotent
+  @ReadOnly
+  public List<BatchedOpResult<HdfsFileStatus>> getBatchedFileInfo(
+      String[] srcs) throws IOException;
   
   /**
    * Get the close status of a file
@@ -913,6 +1005,7 @@ public HdfsFileStatus getFileInfo(String src) throws AccessControlException,
    * @throws IOException If an I/O error occurred     
    */
   @Idempotent
+  @ReadOnly
   public boolean isFileClosed(String src) throws AccessControlException,
       FileNotFoundException, UnresolvedLinkException, IOException;
   
@@ -929,6 +1022,7 @@ public boolean isFileClosed(String src) throws AccessControlException,
    * @throws IOException If an I/O error occurred        
    */
   @Idempotent
+  @ReadOnly
   public HdfsFileStatus getFileLinkInfo(String src)
       throws AccessControlException, UnresolvedLinkException, IOException;
   
@@ -942,6 +1036,7 @@ public HdfsFileStatus getFileLinkInfo(String src)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public ContentSummary getContentSummary(String path)
       throws AccessControlException, FileNotFoundException,
       UnresolvedLinkException, IOException;
@@ -1059,6 +1154,7 @@ public void createSymlink(String target, String link, FsPermission dirPerm,
    *           or an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public String getLinkTarget(String path) throws AccessControlException,
       FileNotFoundException, IOException; 
   
@@ -1198,9 +1294,42 @@ public void disallowSnapshot(String snapshotRoot)
    * @throws IOException on error
    */
   @Idempotent
+  @ReadOnly
   public SnapshotDiffReport getSnapshotDiffReport(String snapshotRoot,
       String fromSnapshot, String toSnapshot) throws IOException;
 
+  /**
+   * Get a part of the entries of the difference between two snapshots, or
+   * between a snapshot and the current tree of a directory.
+   * <p>
+   * The entries are in the same order as in
+   * {@link #getSnapshotDiffReport(String, String, String)}. Passing the
+   * number of entries already received as <code>startIndex</code> continues
+   * the report from there. Between two snapshots the report never changes,
+   * but a report against the current tree may change between calls.
+   * {@link SnapshotDiffReportListing#hasMore()} tells whether there are more
+   * entries.
+   *
+   * @param snapshotRoot
+   *          full path of the directory where snapshots are taken
+   * @param fromSnapshot
+   *          snapshot name of the from point. Null indicates the current
+   *          tree
+   * @param toSnapshot
+   *          snapshot name of the to point. Null indicates the current
+   *          tree.
+   * @param startIndex
+   *          the index of the first entry to return
+   * @return at most dfs.ls.limit entries of the difference report starting
+   *         at startIndex
+   * @throws IOException on error
+   */
+  @Idempotent
+  @ReadOnly
+  public SnapshotDiffReportListing getSnapshotDiffReportListing(
+      String snapshotRoot, String fromSnapshot, String toSnapshot,
+      int startIndex) throws IOException;
+
   /**
    * Add a CacheDirective to the CacheManager.
    * 
@@ -1330,6 +1459,7 @@ public void removeAclEntries(String src, List<AclEntry> aclSpec)
    * Gets the ACLs of files and directories.
    */
   @Idempotent
+  @ReadOnly
   public AclStatus getAclStatus(String src) throws IOException;
   
   /**
@@ -1343,6 +1473,7 @@ public void createEncryptionZone(String src, String keyName)
    * Get the encryption zone for a path.
    */
   @Idempotent
+  @ReadOnly
   public EncryptionZone getEZForPath(String src)
     throws IOException;
 
@@ -1387,6 +1518,7 @@ public void setXAttr(String src, XAttr xAttr, EnumSet<XAttrSetFlag> flag)
    * @throws IOException
    */
   @Idempotent
+  @ReadOnly
   public List<XAttr> getXAttrs(String src, List<XAttr> xAttrs) 
       throws IOException;
 
@@ -1402,6 +1534,7 @@ public List<XAttr> getXAttrs(String src, List<XAttr> xAttrs)
    * @throws IOException
    */
   @Idempotent
+  @ReadOnly
   public List<XAttr> listXAttrs(String src)
       throws IOException;
   
@@ -1435,6 +1568,7 @@ public List<XAttr> listXAttrs(String src)
    * @throws IOException see specific implementation
    */
   @Idempotent
+  @ReadOnly
   public void checkAccess(String path, FsAction mode) throws IOException;
 
   /**
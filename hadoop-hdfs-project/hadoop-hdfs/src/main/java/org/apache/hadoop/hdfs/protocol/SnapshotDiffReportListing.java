@@ -0,0 +1,73 @@
+/* Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
+
+/**
+ * A part of the entries of a {@link SnapshotDiffReport}, to support
+ * fetching a large snapshot diff report in several calls.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class SnapshotDiffReportListing {
+  private final List<DiffReportEntry> diffList;
+  private final int remainingEntries;
+
+  /**
+   * constructor
+   * @param diffList a part of the entries of a snapshot diff report
+   * @param remainingEntries number of entries that are left to be listed
+   */
+  public SnapshotDiffReportListing(List<DiffReportEntry> diffList,
+      int remainingEntries) {
+    if (diffList == null) {
+      throw new IllegalArgumentException("diff list should not be null");
+    }
+    if (diffList.isEmpty() && remainingEntries != 0) {
+      throw new IllegalArgumentException("Diff list is empty but " +
+          "the number of remaining entries is not zero");
+    }
+    this.diffList = diffList;
+    this.remainingEntries = remainingEntries;
+  }
+
+  /**
+   * @return the entries of this part of the report
+   */
+  public List<DiffReportEntry> getDiffList() {
+    return diffList;
+  }
+
+  /**
+   * @return the number of remaining entries that are left to be listed
+   */
+  public int getRemainingEntries() {
+    return remainingEntries;
+  }
+
+  /**
+   * @return true if there are more entries that are left to be listed
+   */
+  public boolean hasMore() {
+    return remainingEntries != 0;
+  }
+}
@@ -183,7 +183,9 @@ public DatanodeCommand blockReport(DatanodeRegistration registration,
       StorageBlockReportProto.Builder reportBuilder = StorageBlockReportProto
           .newBuilder().setStorage(PBHelper.convert(r.getStorage()));
       BlockListAsLongs blocks = r.getBlocks();
-      if (useBlocksBuffer) {
+      if (r.isHashOnly()) {
+        reportBuilder.setReplicaHash(r.getReplicaHash());
+      } else if (useBlocksBuffer) {
         reportBuilder.setNumberOfBlocks(blocks.getNumberOfBlocks());
         reportBuilder.addAllBlocksBuffers(blocks.getBlocksBuffers());
       } else {
@@ -147,6 +147,11 @@ public BlockReportResponseProto blockReport(RpcController controller,
     
     int index = 0;
     for (StorageBlockReportProto s : request.getReportsList()) {
+      if (s.hasReplicaHash()) {
+        report[index++] = new StorageBlockReport(
+            PBHelper.convert(s.getStorage()), s.getReplicaHash());
+        continue;
+      }
       final BlockListAsLongs blocks;
       if (s.hasNumberOfBlocks()) { // new style buffer based reports
         int num = (int)s.getNumberOfBlocks();
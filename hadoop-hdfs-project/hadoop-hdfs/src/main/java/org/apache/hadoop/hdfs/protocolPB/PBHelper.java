@@ -57,6 +57,7 @@
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveStats;
 import org.apache.hadoop.hdfs.protocol.CachePoolEntry;
+import org.apache.hadoop.hdfs.protocol.BatchedOpResult;
 import org.apache.hadoop.hdfs.protocol.CachePoolInfo;
 import org.apache.hadoop.hdfs.protocol.CachePoolStats;
 import org.apache.hadoop.crypto.CipherOption;
@@ -83,6 +84,7 @@
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeStatus;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffType;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
@@ -93,6 +95,9 @@
 import org.apache.hadoop.hdfs.protocol.proto.AclProtos.AclStatusProto;
 import org.apache.hadoop.hdfs.protocol.proto.AclProtos.GetAclStatusResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchedBooleanResultProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchedFileInfoProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchedOpExceptionProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveEntryProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoExpirationProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
@@ -164,6 +169,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.ReplicaStateProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.RollingUpgradeStatusProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.SnapshotDiffReportEntryProto;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.SnapshotDiffReportListingProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.SnapshotDiffReportProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.SnapshottableDirectoryListingProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.SnapshottableDirectoryStatusProto;
@@ -216,6 +222,7 @@
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo.BlockStatus;
+import org.apache.hadoop.hdfs.server.protocol.FullBlockReportCommand;
 import org.apache.hadoop.hdfs.server.protocol.RegisterCommand;
 import org.apache.hadoop.hdfs.server.protocol.RemoteEditLog;
 import org.apache.hadoop.hdfs.server.protocol.RemoteEditLogManifest;
@@ -226,6 +233,7 @@
 import org.apache.hadoop.hdfs.util.ExactSizeInputStream;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.security.proto.SecurityProtos.TokenProto;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.util.DataChecksum;
@@ -921,6 +929,8 @@ public static DatanodeCommand convert(DatanodeCommandProto proto) {
       return REG_CMD;
     case BlockIdCommand:
       return PBHelper.convert(proto.getBlkIdCmd());
+    case FullBlockReportCommand:
+      return FullBlockReportCommand.FULL_BLOCK_REPORT;
     default:
       return null;
     }
@@ -1071,6 +1081,9 @@ public static DatanodeCommandProto convert(DatanodeCommand datanodeCommand) {
       builder.setCmdType(DatanodeCommandProto.Type.BlockIdCommand).
         setBlkIdCmd(PBHelper.convert((BlockIdCommand) datanodeCommand));
       break;
+    case DatanodeProtocol.DNA_FULLBLOCKREPORT:
+      builder.setCmdType(DatanodeCommandProto.Type.FullBlockReportCommand);
+      break;
     case DatanodeProtocol.DNA_UNKNOWN: //Not expected
     default:
       builder.setCmdType(DatanodeCommandProto.Type.NullDatanodeCommand);
@@ -2080,6 +2093,38 @@ public static SnapshotDiffReportProto convert(SnapshotDiffReport report) {
     return reportProto;
   }
 
+  public static SnapshotDiffReportListing convert(
+      SnapshotDiffReportListingProto listingProto) {
+    if (listingProto == null) {
+      return null;
+    }
+    List<DiffReportEntry> entries = new ArrayList<DiffReportEntry>();
+    for (SnapshotDiffReportEntryProto entryProto :
+        listingProto.getDiffReportEntriesList()) {
+      DiffReportEntry entry = convert(entryProto);
+      if (entry != null)
+        entries.add(entry);
+    }
+    return new SnapshotDiffReportListing(entries,
+        listingProto.getRemainingEntries());
+  }
+
+  public static SnapshotDiffReportListingProto convert(
+      SnapshotDiffReportListing listing) {
+    if (listing == null) {
+      return null;
+    }
+    SnapshotDiffReportListingProto.Builder builder =
+        SnapshotDiffReportListingProto.newBuilder()
+        .setRemainingEntries(listing.getRemainingEntries());
+    for (DiffReportEntry entry : listing.getDiffList()) {
+      SnapshotDiffReportEntryProto entryProto = convert(entry);
+      if (entryProto != null)
+        builder.addDiffReportEntries(entryProto);
+    }
+    return builder.build();
+  }
+
   public static DataChecksum.Type convert(HdfsProtos.ChecksumTypeProto type) {
     return DataChecksum.Type.valueOf(type.getNumber());
   }
@@ -3053,4 +3098,88 @@ public static BlockReportContextProto convert(BlockReportContext context) {
         setId(context.getReportId()).
         build();
   }
+
+  public static BatchedOpExceptionProto convertBatchedOpException(
+      IOException e) {
+    // keep the class name of an exception which failed on the server as a
+    // RemoteException, e.g. a runtime InvalidPathException.
+    final String className = e instanceof RemoteException ?
+        ((RemoteException) e).getClassName() : e.getClass().getName();
+    BatchedOpExceptionProto.Builder builder =
+        BatchedOpExceptionProto.newBuilder().setClassName(className);
+    if (e.getMessage() != null) {
+      builder.setMessage(e.getMessage());
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return the exception as a {@link RemoteException}, which callers
+   *         unwrap like the exception of a single-path call.
+   */
+  public static RemoteException convert(BatchedOpExceptionProto proto) {
+    return new RemoteException(proto.getClassName(),
+        proto.hasMessage() ? proto.getMessage() : null);
+  }
+
+  public static List<BatchedBooleanResultProto> convertBatchedBooleanResults(
+      List<BatchedOpResult<Boolean>> results) {
+    List<BatchedBooleanResultProto> protos =
+        Lists.newArrayListWithCapacity(results.size());
+    for (BatchedOpResult<Boolean> r : results) {
+      BatchedBooleanResultProto.Builder builder =
+          BatchedBooleanResultProto.newBuilder();
+      if (r.isSuccess()) {
+        builder.setResult(r.getValue());
+      } else {
+        builder.setException(convertBatchedOpException(r.getException()));
+      }
+      protos.add(builder.build());
+    }
+    return protos;
+  }
+
+  public static List<BatchedOpResult<Boolean>> convertBatchedBooleanResultProtos(
+      List<BatchedBooleanResultProto> protos) {
+    List<BatchedOpResult<Boolean>> results =
+        Lists.newArrayListWithCapacity(protos.size());
+    for (BatchedBooleanResultProto p : protos) {
+      results.add(p.hasException() ?
+          BatchedOpResult.<Boolean>failure(convert(p.getException())) :
+          BatchedOpResult.success(p.getResult()));
+    }
+    return results;
+  }
+
+  public static List<BatchedFileInfoProto> convertBatchedFileInfos(
+      List<BatchedOpResult<HdfsFileStatus>> results) {
+    List<BatchedFileInfoProto> protos =
+        Lists.newArrayListWithCapacity(results.size());
+    for (BatchedOpResult<HdfsFileStatus> r : results) {
+      BatchedFileInfoProto.Builder builder = BatchedFileInfoProto.newBuilder();
+      if (!r.isSuccess()) {
+        builder.setException(convertBatchedOpException(r.getException()));
+      } else if (r.getValue() != null) {
+        builder.setFs(convert(r.getValue()));
+      }
+      protos.add(builder.build());
+    }
+    return protos;
+  }
+
+  public static List<BatchedOpResult<HdfsFileStatus>> convertBatchedFileInfoProtos(
+      List<BatchedFileInfoProto> protos) {
+    List<BatchedOpResult<HdfsFileStatus>> results =
+        Lists.newArrayListWithCapacity(protos.size());
+    for (BatchedFileInfoProto p : protos) {
+      if (p.hasException()) {
+        results.add(BatchedOpResult.<HdfsFileStatus>failure(
+            convert(p.getException())));
+      } else {
+        results.add(BatchedOpResult.success(
+            p.hasFs() ? convert(p.getFs()) : null));
+      }
+    }
+    return results;
+  }
 }
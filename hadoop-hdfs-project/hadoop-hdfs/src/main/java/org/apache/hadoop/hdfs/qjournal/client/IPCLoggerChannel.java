@@ -38,6 +38,7 @@
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalOutOfSyncException;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetEditLogManifestResponseProto;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
@@ -62,6 +63,7 @@
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.UncaughtExceptionHandlers;
 
@@ -105,6 +107,30 @@ public class IPCLoggerChannel implements AsyncLogger {
    * The number of bytes of edits data still in the queue.
    */
   private int queuedEditsSizeBytes = 0;
+
+  /**
+   * The number of batches of edits still in the queue, including the ones
+   * in flight.
+   */
+  private int queuedBatches = 0;
+
+  /**
+   * Runs the journal RPCs, so that up to maxOutstandingBatches batches of
+   * edits, of up to inFlightSizeLimitBytes in total, are in flight to the
+   * remote node at once. The JournalNode writes them in order, and they are
+   * acknowledged in order.
+   */
+  private final ExecutorService journalExecutor;
+  private final int maxOutstandingBatches;
+  private final int inFlightSizeLimitBytes;
+  private int inFlightBatches = 0;
+  private int inFlightEditsSizeBytes = 0;
+
+  /**
+   * The acknowledgement of the last batch of edits sent. Only accessed
+   * from the single thread executor.
+   */
+  private ListenableFuture<Void> lastBatchAck = null;
   
   /**
    * The highest txid that has been successfully logged on the remote JN.
@@ -174,6 +200,16 @@ public IPCLoggerChannel(Configuration conf,
         createSingleThreadExecutor());
     parallelExecutor = MoreExecutors.listeningDecorator(
         createParallelExecutor());
+    this.maxOutstandingBatches = conf.getInt(
+        DFSConfigKeys.DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_KEY,
+        DFSConfigKeys.DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_DEFAULT);
+    Preconditions.checkArgument(maxOutstandingBatches > 0,
+        "%s must be positive", 
+        DFSConfigKeys.DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_KEY);
+    this.inFlightSizeLimitBytes = 1024 * 1024 * conf.getInt(
+        DFSConfigKeys.DFS_QJOURNAL_IN_FLIGHT_SIZE_LIMIT_KEY,
+        DFSConfigKeys.DFS_QJOURNAL_IN_FLIGHT_SIZE_LIMIT_DEFAULT);
+    journalExecutor = createJournalExecutor();
     
     metrics = IPCLoggerChannelMetrics.create(this);
   }
@@ -197,6 +233,7 @@ public void close() {
     // No more tasks may be submitted after this point.
     singleThreadExecutor.shutdown();
     parallelExecutor.shutdown();
+    journalExecutor.shutdown();
     if (proxy != null) {
       // TODO: this can hang for quite some time if the client
       // is currently in the middle of a call to a downed JN.
@@ -254,6 +291,20 @@ protected ExecutorService createSingleThreadExecutor() {
           .build());
   }
 
+  private ExecutorService createJournalExecutor() {
+    if (maxOutstandingBatches == 1) {
+      // send the batches on the single thread executor as they come
+      return MoreExecutors.sameThreadExecutor();
+    }
+    return Executors.newFixedThreadPool(maxOutstandingBatches,
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("Logger channel (from journal executor) to " + addr)
+            .setUncaughtExceptionHandler(
+                UncaughtExceptionHandlers.systemExit())
+            .build());
+  }
+
   /**
    * Separated out for easy overriding in tests.
    */
@@ -297,6 +348,18 @@ synchronized long getNextIpcSerial() {
   public synchronized int getQueuedEditsSize() {
     return queuedEditsSizeBytes;
   }
+
+  public synchronized int getQueuedBatches() {
+    return queuedBatches;
+  }
+
+  public synchronized int getInFlightBatches() {
+    return inFlightBatches;
+  }
+
+  public synchronized int getInFlightEditsSize() {
+    return inFlightEditsSizeBytes;
+  }
   
   public InetSocketAddress getRemoteAddress() {
     return addr;
@@ -317,6 +380,7 @@ void waitForAllPendingCalls() throws InterruptedException {
       singleThreadExecutor.submit(new Runnable() {
         @Override
         public void run() {
+          waitForInFlightBatches();
         }
       }).get();
     } catch (ExecutionException e) {
@@ -375,47 +439,20 @@ public ListenableFuture<Void> sendEdits(
     
     ListenableFuture<Void> ret = null;
     try {
-      ret = singleThreadExecutor.submit(new Callable<Void>() {
+      final SettableFuture<Void> ack = SettableFuture.create();
+      singleThreadExecutor.submit(new Runnable() {
         @Override
-        public Void call() throws IOException {
-          throwIfOutOfSync();
-
-          long rpcSendTimeNanos = System.nanoTime();
+        public void run() {
           try {
-            getProxy().journal(createReqInfo(),
-                segmentTxId, firstTxnId, numTxns, data);
-          } catch (IOException e) {
-            QuorumJournalManager.LOG.warn(
-                "Remote journal " + IPCLoggerChannel.this + " failed to " +
-                "write txns " + firstTxnId + "-" + (firstTxnId + numTxns - 1) +
-                ". Will try to write to this JN again after the next " +
-                "log roll.", e); 
-            synchronized (IPCLoggerChannel.this) {
-              outOfSync = true;
-            }
-            throw e;
-          } finally {
-            long now = System.nanoTime();
-            long rpcTime = TimeUnit.MICROSECONDS.convert(
-                now - rpcSendTimeNanos, TimeUnit.NANOSECONDS);
-            long endToEndTime = TimeUnit.MICROSECONDS.convert(
-                now - submitNanos, TimeUnit.NANOSECONDS);
-            metrics.addWriteEndToEndLatency(endToEndTime);
-            metrics.addWriteRpcLatency(rpcTime);
-            if (rpcTime / 1000 > WARN_JOURNAL_MILLIS_THRESHOLD) {
-              QuorumJournalManager.LOG.warn(
-                  "Took " + (rpcTime / 1000) + "ms to send a batch of " +
-                  numTxns + " edits (" + data.length + " bytes) to " +
-                  "remote journal " + IPCLoggerChannel.this);
-            }
-          }
-          synchronized (IPCLoggerChannel.this) {
-            highestAckedTxId = firstTxnId + numTxns - 1;
-            lastAckNanos = submitNanos;
+            throwIfOutOfSync();
+            dispatchBatch(segmentTxId, firstTxnId, numTxns, data, submitNanos,
+                ack);
+          } catch (Throwable t) {
+            ack.setException(t);
           }
-          return null;
         }
       });
+      ret = ack;
     } finally {
       if (ret == null) {
         // it didn't successfully get submitted,
@@ -441,6 +478,138 @@ public void onSuccess(Void t) {
     return ret;
   }
 
+  /**
+   * Send a batch of edits on the journal executor, once there is room for it
+   * among the batches in flight. Called on the single thread executor, so
+   * that the batches get their IPC serials, which the JournalNode writes
+   * them in the order of, in the order of their txids.
+   */
+  private void dispatchBatch(final long segmentTxId, final long firstTxnId,
+      final int numTxns, final byte[] data, final long submitNanos,
+      final SettableFuture<Void> ack) throws IOException {
+    final QJournalProtocol proxy = getProxy();
+    final RequestInfo reqInfo = createReqInfo();
+    final ListenableFuture<Void> prevAck = lastBatchAck;
+    lastBatchAck = ack;
+
+    batchSent(data.length);
+    boolean dispatched = false;
+    try {
+      journalExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          journal(proxy, reqInfo, segmentTxId, firstTxnId, numTxns, data,
+              submitNanos, prevAck, ack);
+        }
+      });
+      dispatched = true;
+    } finally {
+      if (!dispatched) {
+        batchDone(data.length);
+      }
+    }
+  }
+
+  /**
+   * Send a batch of edits, and acknowledge it once the batches sent before
+   * it are acknowledged too.
+   */
+  private void journal(QJournalProtocol proxy, RequestInfo reqInfo,
+      long segmentTxId, long firstTxnId, int numTxns, byte[] data,
+      long submitNanos, ListenableFuture<Void> prevAck,
+      SettableFuture<Void> ack) {
+    try {
+      long rpcSendTimeNanos = System.nanoTime();
+      try {
+        proxy.journal(reqInfo, segmentTxId, firstTxnId, numTxns, data);
+      } catch (IOException e) {
+        QuorumJournalManager.LOG.warn(
+            "Remote journal " + IPCLoggerChannel.this + " failed to " +
+            "write txns " + firstTxnId + "-" + (firstTxnId + numTxns - 1) +
+            ". Will try to write to this JN again after the next " +
+            "log roll.", e); 
+        synchronized (IPCLoggerChannel.this) {
+          outOfSync = true;
+        }
+        throw e;
+      } finally {
+        batchDone(data.length);
+        long now = System.nanoTime();
+        long rpcTime = TimeUnit.MICROSECONDS.convert(
+            now - rpcSendTimeNanos, TimeUnit.NANOSECONDS);
+        long endToEndTime = TimeUnit.MICROSECONDS.convert(
+            now - submitNanos, TimeUnit.NANOSECONDS);
+        metrics.addWriteEndToEndLatency(endToEndTime);
+        metrics.addWriteRpcLatency(rpcTime);
+        if (rpcTime / 1000 > WARN_JOURNAL_MILLIS_THRESHOLD) {
+          QuorumJournalManager.LOG.warn(
+              "Took " + (rpcTime / 1000) + "ms to send a batch of " +
+              numTxns + " edits (" + data.length + " bytes) to " +
+              "remote journal " + IPCLoggerChannel.this);
+        }
+      }
+      if (prevAck != null) {
+        prevAck.get();
+      }
+      synchronized (IPCLoggerChannel.this) {
+        highestAckedTxId = firstTxnId + numTxns - 1;
+        lastAckNanos = submitNanos;
+      }
+      ack.set(null);
+    } catch (ExecutionException e) {
+      // the batch before this one failed
+      ack.setException(e.getCause());
+    } catch (Throwable t) {
+      ack.setException(t);
+    }
+  }
+
+  /**
+   * Wait for room for a batch of the given size among the batches in
+   * flight, and account for it. A batch above the size limit is sent alone.
+   */
+  private synchronized void batchSent(int size) {
+    waitForInFlightBatches(maxOutstandingBatches - 1,
+        inFlightSizeLimitBytes - size);
+    inFlightEditsSizeBytes += size;
+    inFlightBatches++;
+  }
+
+  private synchronized void batchDone(int size) {
+    inFlightEditsSizeBytes -= size;
+    inFlightBatches--;
+    notifyAll();
+  }
+
+  /**
+   * Wait for the batches in flight to be written, so that the calls which
+   * follow them on the single thread executor are not reordered with them.
+   */
+  private synchronized void waitForInFlightBatches() {
+    waitForInFlightBatches(0, 0);
+  }
+
+  /**
+   * Wait until at most maxBatches batches, of at most maxBytes bytes, or
+   * no batches at all, are in flight.
+   */
+  private synchronized void waitForInFlightBatches(int maxBatches,
+      int maxBytes) {
+    boolean interrupted = false;
+    while (inFlightBatches > 0 && (inFlightBatches > maxBatches
+        || inFlightEditsSizeBytes > maxBytes)) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        // the batches in flight end with their RPCs, which time out.
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   private void throwIfOutOfSync()
       throws JournalOutOfSyncException, IOException {
     if (isOutOfSync()) {
@@ -483,11 +652,13 @@ private synchronized void reserveQueueSpace(int size)
       throw new LoggerTooFarBehindException();
     }
     queuedEditsSizeBytes += size;
+    queuedBatches++;
   }
   
   private synchronized void unreserveQueueSpace(int size) {
     Preconditions.checkArgument(size >= 0);
     queuedEditsSizeBytes -= size;
+    queuedBatches--;
   }
 
   @Override
@@ -507,6 +678,9 @@ public ListenableFuture<Void> startLogSegment(final long txid,
     return singleThreadExecutor.submit(new Callable<Void>() {
       @Override
       public Void call() throws IOException {
+        waitForInFlightBatches();
+        // the batches of the new segment do not wait for the old ones
+        lastBatchAck = null;
         getProxy().startLogSegment(createReqInfo(), txid, layoutVersion);
         synchronized (IPCLoggerChannel.this) {
           if (outOfSync) {
@@ -528,6 +702,7 @@ public ListenableFuture<Void> finalizeLogSegment(
     return singleThreadExecutor.submit(new Callable<Void>() {
       @Override
       public Void call() throws IOException {
+        waitForInFlightBatches();
         throwIfOutOfSync();
         
         getProxy().finalizeLogSegment(createReqInfo(), startTxId, endTxId);
@@ -563,6 +738,18 @@ public RemoteEditLogManifest call() throws IOException {
     });
   }
 
+  @Override
+  public ListenableFuture<GetJournaledEditsResponseProto> getJournaledEdits(
+      final long fromTxnId, final int maxTxns) {
+    return parallelExecutor.submit(
+        new Callable<GetJournaledEditsResponseProto>() {
+      @Override
+      public GetJournaledEditsResponseProto call() throws IOException {
+        return getProxy().getJournaledEdits(journalId, fromTxnId, maxTxns);
+      }
+    });
+  }
+
   @Override
   public ListenableFuture<PrepareRecoveryResponseProto> prepareRecovery(
       final long segmentTxId) {
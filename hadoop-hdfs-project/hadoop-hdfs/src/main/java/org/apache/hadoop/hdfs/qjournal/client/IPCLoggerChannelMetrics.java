@@ -136,6 +136,24 @@ public int getQueuedEditsSize() {
     return ch.getQueuedEditsSize();
   }
 
+  @Metric("The number of batches of edits pending to be acknowledged by the " +
+          "remote node")
+  public int getQueuedBatches() {
+    return ch.getQueuedBatches();
+  }
+
+  @Metric("The number of batches of edits sent to the remote node and not " +
+          "acknowledged yet")
+  public int getInFlightBatches() {
+    return ch.getInFlightBatches();
+  }
+
+  @Metric("The number of bytes of edits sent to the remote node and not " +
+          "acknowledged yet")
+  public int getInFlightEditsSize() {
+    return ch.getInFlightEditsSize();
+  }
+
   public void addWriteEndToEndLatency(long micros) {
     if (writeEndToEndLatencyQuantiles != null) {
       for (MutableQuantiles q : writeEndToEndLatencyQuantiles) {
@@ -21,6 +21,7 @@
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -36,6 +37,7 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
@@ -76,6 +78,8 @@ public class QuorumJournalManager implements JournalManager {
   private final int getJournalStateTimeoutMs;
   private final int newEpochTimeoutMs;
   private final int writeTxnsTimeoutMs;
+  private final int maxOutstandingBatches;
+  private final int inFlightSizeLimitBytes;
 
   // Since these don't occur during normal operation, we can
   // use rather lengthy timeouts, and don't need to make them
@@ -99,6 +103,13 @@ public class QuorumJournalManager implements JournalManager {
 
   private int outputBufferCapacity = 512 * 1024;
   private final URLConnectionFactory connectionFactory;
+
+  /**
+   * Whether the in-progress edits are read over RPC from the cache of the
+   * JournalNodes, and only up to the last transaction on a quorum of them.
+   */
+  private final boolean inProgressTailingEnabled;
+  private final int maxTxnsPerRpc;
   
   public QuorumJournalManager(Configuration conf,
       URI uri, NamespaceInfo nsInfo) throws IOException {
@@ -142,6 +153,19 @@ public QuorumJournalManager(Configuration conf,
     this.writeTxnsTimeoutMs = conf.getInt(
         DFSConfigKeys.DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_KEY,
         DFSConfigKeys.DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_DEFAULT);
+    this.maxOutstandingBatches = conf.getInt(
+        DFSConfigKeys.DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_KEY,
+        DFSConfigKeys.DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_DEFAULT);
+    this.inFlightSizeLimitBytes = 1024 * 1024 * conf.getInt(
+        DFSConfigKeys.DFS_QJOURNAL_IN_FLIGHT_SIZE_LIMIT_KEY,
+        DFSConfigKeys.DFS_QJOURNAL_IN_FLIGHT_SIZE_LIMIT_DEFAULT);
+
+    this.inProgressTailingEnabled = conf.getBoolean(
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_DEFAULT);
+    this.maxTxnsPerRpc = conf.getInt(
+        DFSConfigKeys.DFS_HA_TAILEDITS_QJM_RPC_MAX_TXNS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_QJM_RPC_MAX_TXNS_DEFAULT);
   }
   
   protected List<AsyncLogger> createLoggers(
@@ -402,8 +426,8 @@ public EditLogOutputStream startLogSegment(long txId, int layoutVersion)
         layoutVersion);
     loggers.waitForWriteQuorum(q, startSegmentTimeoutMs,
         "startLogSegment(" + txId + ")");
-    return new QuorumOutputStream(loggers, txId,
-        outputBufferCapacity, writeTxnsTimeoutMs);
+    return new QuorumOutputStream(loggers, txId, outputBufferCapacity,
+        writeTxnsTimeoutMs, maxOutstandingBatches, inFlightSizeLimitBytes);
   }
 
   @Override
@@ -465,6 +489,17 @@ public void close() throws IOException {
   @Override
   public void selectInputStreams(Collection<EditLogInputStream> streams,
       long fromTxnId, boolean inProgressOk) throws IOException {
+    final boolean onlyDurableTxns = inProgressOk && inProgressTailingEnabled;
+    if (onlyDurableTxns) {
+      try {
+        selectRpcInputStreams(streams, fromTxnId);
+        return;
+      } catch (IOException ioe) {
+        // e.g. fromTxnId is in a finalized segment, or was evicted
+        LOG.debug("Could not fetch edits from txid " + fromTxnId +
+            " over RPC; falling back to the edit log segments", ioe);
+      }
+    }
 
     QuorumCall<AsyncLogger, RemoteEditLogManifest> q =
         loggers.getEditLogManifest(fromTxnId, inProgressOk);
@@ -475,6 +510,19 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
     LOG.debug("selectInputStream manifests:\n" +
         Joiner.on("\n").withKeyValueSeparator(": ").join(resps));
     
+    long durableTxId = Long.MAX_VALUE;
+    if (onlyDurableTxns) {
+      List<Long> highestTxIds = new ArrayList<Long>();
+      for (RemoteEditLogManifest manifest : resps.values()) {
+        long highestTxId = fromTxnId - 1;
+        for (RemoteEditLog remoteLog : manifest.getLogs()) {
+          highestTxId = Math.max(highestTxId, remoteLog.getEndTxId());
+        }
+        highestTxIds.add(highestTxId);
+      }
+      durableTxId = getDurableTxId(highestTxIds);
+    }
+
     final PriorityQueue<EditLogInputStream> allStreams = 
         new PriorityQueue<EditLogInputStream>(64,
             JournalSet.EDIT_LOG_INPUT_STREAM_COMPARATOR);
@@ -483,16 +531,77 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
       RemoteEditLogManifest manifest = e.getValue();
       
       for (RemoteEditLog remoteLog : manifest.getLogs()) {
+        long endTxId = remoteLog.getEndTxId();
+        if (remoteLog.isInProgress() && endTxId > durableTxId) {
+          // do not read past the transactions written to a quorum
+          if (remoteLog.getStartTxId() > durableTxId) {
+            continue;
+          }
+          endTxId = durableTxId;
+        }
         URL url = logger.buildURLToFetchLogs(remoteLog.getStartTxId());
 
         EditLogInputStream elis = EditLogFileInputStream.fromUrl(
             connectionFactory, url, remoteLog.getStartTxId(),
-            remoteLog.getEndTxId(), remoteLog.isInProgress());
+            endTxId, remoteLog.isInProgress());
         allStreams.add(elis);
       }
     }
     JournalSet.chainAndMakeRedundantStreams(streams, allStreams, fromTxnId);
   }
+
+  /**
+   * Select the in-progress edits since fromTxnId from the cache of the
+   * JournalNodes, up to the last transaction written to a quorum of them.
+   *
+   * @throws IOException if a quorum of the JournalNodes does not have
+   *         fromTxnId in its cache
+   */
+  private void selectRpcInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxnId) throws IOException {
+    QuorumCall<AsyncLogger, GetJournaledEditsResponseProto> q =
+        loggers.getJournaledEdits(fromTxnId, maxTxnsPerRpc);
+    Map<AsyncLogger, GetJournaledEditsResponseProto> resps =
+        loggers.waitForWriteQuorum(q, selectInputStreamsTimeoutMs,
+            "selectRpcInputStreams");
+
+    List<Long> lastTxIds = new ArrayList<Long>();
+    for (GetJournaledEditsResponseProto resp : resps.values()) {
+      lastTxIds.add(resp.getLastTxId());
+    }
+    final long durableTxId = getDurableTxId(lastTxIds);
+    if (durableTxId < fromTxnId) {
+      // nothing new has been written to a quorum yet
+      return;
+    }
+    for (Map.Entry<AsyncLogger, GetJournaledEditsResponseProto> e :
+        resps.entrySet()) {
+      GetJournaledEditsResponseProto resp = e.getValue();
+      if (resp.hasEditLog() && resp.getLastTxId() >= durableTxId) {
+        EditLogInputStream elis = EditLogFileInputStream.fromByteString(
+            resp.getEditLog(), "RPC from " + e.getKey(), resp.getFirstTxId(),
+            durableTxId, true);
+        PriorityQueue<EditLogInputStream> allStreams =
+            new PriorityQueue<EditLogInputStream>(1,
+                JournalSet.EDIT_LOG_INPUT_STREAM_COMPARATOR);
+        allStreams.add(elis);
+        JournalSet.chainAndMakeRedundantStreams(streams, allStreams,
+            fromTxnId);
+        return;
+      }
+    }
+    throw new IOException("No response holds the edits up to txid "
+        + durableTxId);
+  }
+
+  /**
+   * @return the highest transaction which a quorum of the given loggers has
+   *         written, given the highest transaction of each of them.
+   */
+  private long getDurableTxId(List<Long> highestTxIds) {
+    Collections.sort(highestTxIds, Collections.reverseOrder());
+    return highestTxIds.get(loggers.getMajoritySize() - 1);
+  }
   
   @Override
   public String toString() {
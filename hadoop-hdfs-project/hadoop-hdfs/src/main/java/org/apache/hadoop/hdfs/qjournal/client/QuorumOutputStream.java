@@ -18,6 +18,8 @@
 package org.apache.hadoop.hdfs.qjournal.client;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 import org.apache.hadoop.hdfs.server.namenode.EditLogOutputStream;
 import org.apache.hadoop.hdfs.server.namenode.EditsDoubleBuffer;
@@ -27,21 +29,35 @@
 /**
  * EditLogOutputStream implementation that writes to a quorum of
  * remote journals.
+ *
+ * {@link #flushAsync()} returns once a batch is sent, so that up to
+ * maxOutstandingBatches batches, of up to inFlightSizeLimitBytes in total,
+ * wait for a quorum at once. The loggers acknowledge their batches in
+ * order, so the batches reach a quorum in order too.
  */
 class QuorumOutputStream extends EditLogOutputStream {
   private final AsyncLoggerSet loggers;
   private EditsDoubleBuffer buf;
   private final long segmentTxId;
   private final int writeTimeoutMs;
+  private final int maxOutstandingBatches;
+  private final int inFlightSizeLimitBytes;
+
+  /** The batches sent and not yet written by a quorum, oldest first. */
+  private final Deque<SentBatch> sentBatches = new ArrayDeque<SentBatch>();
+  private int sentBatchesSizeBytes = 0;
 
   public QuorumOutputStream(AsyncLoggerSet loggers,
-      long txId, int outputBufferCapacity,
-      int writeTimeoutMs) throws IOException {
+      long txId, int outputBufferCapacity, int writeTimeoutMs,
+      int maxOutstandingBatches, int inFlightSizeLimitBytes)
+      throws IOException {
     super();
     this.buf = new EditsDoubleBuffer(outputBufferCapacity);
     this.loggers = loggers;
     this.segmentTxId = txId;
     this.writeTimeoutMs = writeTimeoutMs;
+    this.maxOutstandingBatches = maxOutstandingBatches;
+    this.inFlightSizeLimitBytes = inFlightSizeLimitBytes;
   }
 
   @Override
@@ -81,6 +97,24 @@ public void setReadyToFlush() throws IOException {
 
   @Override
   protected void flushAndSync(boolean durable) throws IOException {
+    sendReadyEdits();
+    awaitFlushed(Long.MAX_VALUE);
+  }
+
+  @Override
+  public void flushAsync() throws IOException {
+    sendReadyEdits();
+  }
+
+  @Override
+  public void awaitFlushed(long txid) throws IOException {
+    SentBatch oldest;
+    while ((oldest = peekSentBatch()) != null && oldest.firstTxId <= txid) {
+      awaitBatch(oldest);
+    }
+  }
+
+  private void sendReadyEdits() throws IOException {
     int numReadyBytes = buf.countReadyBytes();
     if (numReadyBytes > 0) {
       int numReadyTxns = buf.countReadyTxns();
@@ -101,15 +135,54 @@ protected void flushAndSync(boolean durable) throws IOException {
       byte[] data = bufToSend.getData();
       assert data.length == bufToSend.getLength();
 
+      // Wait for room among the batches waiting for a quorum, so that a
+      // slow quorum holds back the writer rather than the edits pile up.
+      // A batch above the size limit is sent alone.
+      SentBatch oldest;
+      while ((oldest = peekSentBatch()) != null &&
+          (getNumSentBatches() >= maxOutstandingBatches ||
+           getSentBatchesSize() + data.length > inFlightSizeLimitBytes)) {
+        awaitBatch(oldest);
+      }
+
       QuorumCall<AsyncLogger, Void> qcall = loggers.sendEdits(
           segmentTxId, firstTxToFlush,
           numReadyTxns, data);
-      loggers.waitForWriteQuorum(qcall, writeTimeoutMs, "sendEdits");
-      
-      // Since we successfully wrote this batch, let the loggers know. Any future
-      // RPCs will thus let the loggers know of the most recent transaction, even
-      // if a logger has fallen behind.
-      loggers.setCommittedTxId(firstTxToFlush + numReadyTxns - 1);
+      synchronized (this) {
+        sentBatches.add(new SentBatch(qcall, firstTxToFlush,
+            firstTxToFlush + numReadyTxns - 1, data.length));
+        sentBatchesSizeBytes += data.length;
+      }
+    }
+  }
+
+  private synchronized SentBatch peekSentBatch() {
+    return sentBatches.peek();
+  }
+
+  private synchronized int getNumSentBatches() {
+    return sentBatches.size();
+  }
+
+  private synchronized int getSentBatchesSize() {
+    return sentBatchesSizeBytes;
+  }
+
+  /**
+   * Wait for the oldest batch sent to be written by a quorum.
+   */
+  private void awaitBatch(SentBatch batch) throws IOException {
+    loggers.waitForWriteQuorum(batch.qcall, writeTimeoutMs, "sendEdits");
+    synchronized (this) {
+      // another thread may have waited for the same batch
+      if (sentBatches.peek() == batch) {
+        sentBatches.remove();
+        sentBatchesSizeBytes -= batch.size;
+        // Since we successfully wrote this batch, let the loggers know. Any
+        // future RPCs will thus let the loggers know of the most recent
+        // transaction, even if a logger has fallen behind.
+        loggers.setCommittedTxId(batch.lastTxId);
+      }
     }
   }
 
@@ -125,4 +198,20 @@ public String generateReport() {
   public String toString() {
     return "QuorumOutputStream starting at txid " + segmentTxId;
   }
+
+  /** A batch of edits sent to the loggers. */
+  private static class SentBatch {
+    private final QuorumCall<AsyncLogger, Void> qcall;
+    private final long firstTxId;
+    private final long lastTxId;
+    private final int size;
+
+    SentBatch(QuorumCall<AsyncLogger, Void> qcall, long firstTxId,
+        long lastTxId, int size) {
+      this.qcall = qcall;
+      this.firstTxId = firstTxId;
+      this.lastTxId = lastTxId;
+      this.size = size;
+    }
+  }
 }
@@ -27,6 +27,8 @@
 import java.security.PrivilegedExceptionAction;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.math.LongRange;
@@ -34,11 +36,13 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalNotFormattedException;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalOutOfSyncException;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PersistedRecoveryPaxosData;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
@@ -47,6 +51,7 @@
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.StartupOption;
 import org.apache.hadoop.hdfs.server.common.StorageErrorReporter;
 import org.apache.hadoop.hdfs.server.common.StorageInfo;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileOutputStream;
 import org.apache.hadoop.hdfs.server.namenode.EditLogOutputStream;
 import org.apache.hadoop.hdfs.server.namenode.FileJournalManager;
 import org.apache.hadoop.hdfs.server.namenode.FileJournalManager.EditLogFile;
@@ -82,6 +87,7 @@ public class Journal implements Closeable {
   // Current writing state
   private EditLogOutputStream curSegment;
   private long curSegmentTxId = HdfsConstants.INVALID_TXID;
+  private int curSegmentLayoutVersion = 0;
   private long nextTxId = HdfsConstants.INVALID_TXID;
   private long highestWrittenTxId = 0;
   
@@ -132,6 +138,18 @@ public class Journal implements Closeable {
 
   private final JournalMetrics metrics;
 
+  /** The recent edits of the current segment, for the tailing readers. */
+  private final JournaledEditsCache cache;
+
+  /**
+   * The batches of edits which overtook the batch before them on their way
+   * from a writer with several batches in flight, by their first txid. The
+   * responses to their RPCs are postponed until they are written.
+   */
+  private final NavigableMap<Long, DeferredBatch> deferredBatches =
+      new TreeMap<Long, DeferredBatch>();
+  private static final int MAX_DEFERRED_BATCHES = 64;
+
   /**
    * Time threshold for sync calls, beyond which a warning should be logged to the console.
    */
@@ -146,8 +164,15 @@ public class Journal implements Closeable {
     refreshCachedData();
     
     this.fjm = storage.getJournalManager();
+    fjm.setPreallocationSize(conf.getLong(
+        DFSConfigKeys.DFS_JOURNALNODE_EDITS_PREALLOCATE_SIZE_KEY,
+        DFSConfigKeys.DFS_JOURNALNODE_EDITS_PREALLOCATE_SIZE_DEFAULT));
     
     this.metrics = JournalMetrics.create(this);
+
+    this.cache = new JournaledEditsCache(conf.getInt(
+        DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY,
+        DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_DEFAULT));
     
     EditLogFile latest = scanStorageForLatestEdits();
     if (latest != null) {
@@ -216,6 +241,7 @@ void format(NamespaceInfo nsInfo) throws IOException {
         nsInfo);
     storage.format(nsInfo);
     refreshCachedData();
+    cache.clear();
   }
 
   /**
@@ -223,6 +249,9 @@ void format(NamespaceInfo nsInfo) throws IOException {
    */
   @Override // Closeable
   public void close() throws IOException {
+    synchronized (this) {
+      abortDeferredBatches("the journal is closed");
+    }
     storage.close();
     IOUtils.closeStream(committedTxnId);
     IOUtils.closeStream(curSegment);
@@ -328,6 +357,8 @@ private void abortCurSegment() throws IOException {
     curSegment.abort();
     curSegment = null;
     curSegmentTxId = HdfsConstants.INVALID_TXID;
+    cache.clear();
+    abortDeferredBatches("the segment was aborted");
   }
 
   /**
@@ -337,6 +368,84 @@ private void abortCurSegment() throws IOException {
   synchronized void journal(RequestInfo reqInfo,
       long segmentTxId, long firstTxnId,
       int numTxns, byte[] records) throws IOException {
+    if (deferIfAhead(reqInfo, segmentTxId, firstTxnId, numTxns, records)) {
+      return;
+    }
+    try {
+      writeBatch(reqInfo, segmentTxId, firstTxnId, numTxns, records);
+    } catch (IOException e) {
+      abortDeferredBatches(e.getMessage());
+      throw e;
+    }
+    writeDeferredBatches();
+  }
+
+  /**
+   * Hold a batch which starts beyond the next txid of the current segment,
+   * e.g. because it was handled before the batch the writer sent just
+   * before it, until the batches before it are written. The writer numbers
+   * its IPCs in the order of the txids, so a batch is only held while an
+   * IPC the writer sent before it has not arrived yet; otherwise the
+   * missing edits were never sent, and the batch is rejected as usual.
+   * @return true if the batch was deferred
+   */
+  private boolean deferIfAhead(RequestInfo reqInfo, long segmentTxId,
+      long firstTxnId, int numTxns, byte[] records) throws IOException {
+    final Server.Call call = Server.getCurCall().get();
+    if (call == null || curSegment == null || segmentTxId != curSegmentTxId
+        || firstTxnId <= nextTxId
+        || reqInfo.getIpcSerialNumber() <= currentEpochIpcSerial + 1
+        || reqInfo.getEpoch() != lastPromisedEpoch.get()
+        || deferredBatches.size() >= MAX_DEFERRED_BATCHES
+        || deferredBatches.containsKey(firstTxnId)) {
+      return false;
+    }
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Deferring txid " + firstTxnId + " until txid " + nextTxId
+          + " is written");
+    }
+    call.postponeResponse();
+    deferredBatches.put(firstTxnId, new DeferredBatch(call, reqInfo,
+        segmentTxId, firstTxnId, numTxns, records));
+    metrics.batchesDeferred.incr();
+    return true;
+  }
+
+  /**
+   * Write the deferred batches which follow the written edits.
+   */
+  private void writeDeferredBatches() {
+    DeferredBatch batch;
+    while ((batch = deferredBatches.remove(nextTxId)) != null) {
+      try {
+        writeBatch(batch.reqInfo, batch.segmentTxId, batch.firstTxnId,
+            batch.numTxns, batch.records);
+      } catch (IOException e) {
+        batch.respond(e);
+        abortDeferredBatches(e.getMessage());
+        return;
+      }
+      batch.respond(null);
+    }
+    if (!deferredBatches.isEmpty() &&
+        deferredBatches.firstEntry().getValue().reqInfo.getIpcSerialNumber()
+            <= currentEpochIpcSerial + 1) {
+      // all the IPCs sent before the held batches arrived
+      abortDeferredBatches("txid " + nextTxId + " was never sent");
+    }
+  }
+
+  private void abortDeferredBatches(String reason) {
+    for (DeferredBatch batch : deferredBatches.values()) {
+      batch.respond(new JournalOutOfSyncException("Txid "
+          + batch.firstTxnId + " was not written since " + reason));
+    }
+    deferredBatches.clear();
+  }
+
+  private void writeBatch(RequestInfo reqInfo,
+      long segmentTxId, long firstTxnId,
+      int numTxns, byte[] records) throws IOException {
     checkFormatted();
     checkWriteRequest(reqInfo);
 
@@ -381,6 +490,14 @@ synchronized void journal(RequestInfo reqInfo,
     long nanoSeconds = sw.now();
     metrics.addSync(
         TimeUnit.MICROSECONDS.convert(nanoSeconds, TimeUnit.NANOSECONDS));
+    if (curSegment instanceof EditLogFileOutputStream) {
+      long fsyncNanos =
+          ((EditLogFileOutputStream) curSegment).getLastFsyncNanos();
+      if (fsyncNanos > 0) {
+        metrics.addFsync(
+            TimeUnit.MICROSECONDS.convert(fsyncNanos, TimeUnit.NANOSECONDS));
+      }
+    }
     long milliSeconds = TimeUnit.MILLISECONDS.convert(
         nanoSeconds, TimeUnit.NANOSECONDS);
 
@@ -398,6 +515,8 @@ synchronized void journal(RequestInfo reqInfo,
     metrics.batchesWritten.incr(1);
     metrics.bytesWritten.incr(records.length);
     metrics.txnsWritten.incr(numTxns);
+
+    cache.storeEdits(firstTxnId, lastTxnId, records, curSegmentLayoutVersion);
     
     highestWrittenTxId = lastTxnId;
     nextTxId = lastTxnId + 1;
@@ -547,6 +666,8 @@ public synchronized void startLogSegment(RequestInfo reqInfo, long txid,
     
     curSegment = fjm.startLogSegment(txid, layoutVersion);
     curSegmentTxId = txid;
+    curSegmentLayoutVersion = layoutVersion;
+    cache.startSegment(txid, layoutVersion);
     nextTxId = txid;
   }
   
@@ -560,6 +681,8 @@ public synchronized void finalizeLogSegment(RequestInfo reqInfo, long startTxId,
 
     boolean needsValidation = true;
 
+    abortDeferredBatches("the segment is finalized");
+
     // Finalizing the log that the writer was just writing.
     if (startTxId == curSegmentTxId) {
       if (curSegment != null) {
@@ -634,6 +757,16 @@ private void purgePaxosDecision(long segmentTxId) throws IOException {
     }
   }
 
+  /**
+   * @see QJournalProtocol#getJournaledEdits(String, long, int)
+   */
+  public GetJournaledEditsResponseProto getJournaledEdits(long sinceTxId,
+      int maxTxns) throws IOException {
+    // No need to checkRequest() here either - anyone may read the edits.
+    checkFormatted();
+    return cache.retrieveEdits(sinceTxId, maxTxns);
+  }
+
   /**
    * @see QJournalProtocol#getEditLogManifest(String, long, boolean)
    */
@@ -1071,4 +1204,38 @@ public synchronized void doRollback() throws IOException {
   public Long getJournalCTime() throws IOException {
     return storage.getJournalManager().getJournalCTime();
   }
+
+  /** A batch of edits waiting for the batches before it. */
+  private static class DeferredBatch {
+    private final Server.Call call;
+    private final RequestInfo reqInfo;
+    private final long segmentTxId;
+    private final long firstTxnId;
+    private final int numTxns;
+    private final byte[] records;
+
+    DeferredBatch(Server.Call call, RequestInfo reqInfo, long segmentTxId,
+        long firstTxnId, int numTxns, byte[] records) {
+      this.call = call;
+      this.reqInfo = reqInfo;
+      this.segmentTxId = segmentTxId;
+      this.firstTxnId = firstTxnId;
+      this.numTxns = numTxns;
+      this.records = records;
+    }
+
+    /** Send the postponed response, failing the call if e is not null. */
+    void respond(IOException e) {
+      try {
+        if (e == null) {
+          call.sendResponse();
+        } else {
+          call.abortResponse(e);
+        }
+      } catch (IOException ioe) {
+        // the writer will time out and resend the edits after a roll.
+        LOG.warn("Failed to respond to " + call, ioe);
+      }
+    }
+  }
 }
@@ -45,6 +45,9 @@ class JournalMetrics {
   
   @Metric("Number of batches written where this node was lagging")
   MutableCounterLong batchesWrittenWhileLagging;
+
+  @Metric("Number of batches held until the batches before them arrived")
+  MutableCounterLong batchesDeferred;
   
   private final int[] QUANTILE_INTERVALS = new int[] {
       1*60, // 1m
@@ -53,6 +56,7 @@ class JournalMetrics {
   };
   
   final MutableQuantiles[] syncsQuantiles;
+  final MutableQuantiles[] fsyncsQuantiles;
   
   private final Journal journal;
 
@@ -66,6 +70,14 @@ class JournalMetrics {
           "syncs" + interval + "s",
           "Journal sync time", "ops", "latencyMicros", interval);
     }
+
+    fsyncsQuantiles = new MutableQuantiles[QUANTILE_INTERVALS.length];
+    for (int i = 0; i < fsyncsQuantiles.length; i++) {
+      int interval = QUANTILE_INTERVALS[i];
+      fsyncsQuantiles[i] = registry.newQuantiles(
+          "fsyncs" + interval + "s",
+          "Journal fsync time", "ops", "latencyMicros", interval);
+    }
   }
   
   public static JournalMetrics create(Journal j) {
@@ -115,4 +127,10 @@ void addSync(long us) {
       q.add(us);
     }
   }
+
+  void addFsync(long us) {
+    for (MutableQuantiles q : fsyncsQuantiles) {
+      q.add(us);
+    }
+  }
 }
@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.server;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileOutputStream;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * An in-memory cache of the batches of edits most recently written to a
+ * {@link Journal}, which lets the readers tail the in-progress segment over
+ * RPC instead of waiting for it to be finalized and fetching it over HTTP.
+ * <p>
+ * Only the batches of the current segment are kept, keyed by their first
+ * transaction. Once they take more than the configured number of bytes, the
+ * oldest batches are evicted. A reader asking for a transaction which is not
+ * in the cache gets an IOException, and falls back to the finalized segments.
+ */
+@InterfaceAudience.Private
+class JournaledEditsCache {
+  private final int capacity;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /** The cached batches, by their first transaction. */
+  private final NavigableMap<Long, byte[]> batches =
+      new TreeMap<Long, byte[]>();
+  /** The edit log header of the current segment. */
+  private ByteString header = null;
+  private int layoutVersion = 0;
+  private long segmentTxId = HdfsConstants.INVALID_TXID;
+  private long highestTxId = HdfsConstants.INVALID_TXID;
+  private long size = 0;
+
+  /**
+   * @param capacity the number of bytes of edits to keep
+   */
+  JournaledEditsCache(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Drop the cached edits, and start caching a new segment.
+   */
+  void startSegment(long txid, int layoutVersion) throws IOException {
+    final ByteString newHeader = createHeader(layoutVersion);
+    lock.writeLock().lock();
+    try {
+      startSegmentInternal(txid, layoutVersion, newHeader);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static ByteString createHeader(int layoutVersion)
+      throws IOException {
+    final DataOutputBuffer buf = new DataOutputBuffer();
+    EditLogFileOutputStream.writeHeader(layoutVersion,
+        new DataOutputStream(buf));
+    return ByteString.copyFrom(buf.getData(), 0, buf.getLength());
+  }
+
+  private void startSegmentInternal(long txid, int newLayoutVersion,
+      ByteString newHeader) {
+    clearInternal();
+    header = newHeader;
+    layoutVersion = newLayoutVersion;
+    segmentTxId = txid;
+    highestTxId = txid - 1;
+  }
+
+  /**
+   * Add a batch of edits of the current segment. If nothing is cached for
+   * the segment yet, e.g. after the cache was cleared, or if the batch does
+   * not directly follow the cached ones, the cache starts over from this
+   * batch.
+   *
+   * @param layoutVersion the layout version of the current segment
+   */
+  void storeEdits(long firstTxId, long lastTxId, byte[] records,
+      int layoutVersion) throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (header == null || this.layoutVersion != layoutVersion) {
+        startSegmentInternal(firstTxId, layoutVersion,
+            createHeader(layoutVersion));
+      } else if (firstTxId != highestTxId + 1) {
+        startSegmentInternal(firstTxId, layoutVersion, header);
+      }
+      batches.put(firstTxId, records);
+      highestTxId = lastTxId;
+      size += records.length;
+      // keep at least the last batch
+      while (size > capacity && batches.size() > 1) {
+        size -= batches.pollFirstEntry().getValue().length;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Drop all the cached edits, e.g. when the current segment is aborted.
+   */
+  void clear() {
+    lock.writeLock().lock();
+    try {
+      clearInternal();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void clearInternal() {
+    batches.clear();
+    header = null;
+    layoutVersion = 0;
+    segmentTxId = HdfsConstants.INVALID_TXID;
+    highestTxId = HdfsConstants.INVALID_TXID;
+    size = 0;
+  }
+
+  /**
+   * Fetch the cached edits from the start of the batch holding sinceTxId.
+   * Whole batches are returned, until at least maxTxns transactions since
+   * sinceTxId are included.
+   *
+   * @throws IOException if sinceTxId is not in the cache
+   */
+  GetJournaledEditsResponseProto retrieveEdits(long sinceTxId, int maxTxns)
+      throws IOException {
+    lock.readLock().lock();
+    try {
+      if (header == null) {
+        throw new IOException("No segment is cached");
+      }
+      if (sinceTxId > highestTxId) {
+        return GetJournaledEditsResponseProto.newBuilder()
+            .setLastTxId(highestTxId)
+            .build();
+      }
+      final Long firstTxId = batches.floorKey(sinceTxId);
+      if (firstTxId == null || sinceTxId < segmentTxId) {
+        throw new IOException("Transaction " + sinceTxId
+            + " is no longer cached; the cache starts at "
+            + (batches.isEmpty() ? highestTxId + 1 : batches.firstKey()));
+      }
+      final long lastWanted = sinceTxId + maxTxns - 1;
+      ByteString editLog = header;
+      long lastTxId = highestTxId;
+      for (Map.Entry<Long, byte[]> e :
+          batches.tailMap(firstTxId, true).entrySet()) {
+        if (e.getKey() > lastWanted) {
+          lastTxId = e.getKey() - 1;
+          break;
+        }
+        editLog = editLog.concat(ByteString.copyFrom(e.getValue()));
+      }
+      return GetJournaledEditsResponseProto.newBuilder()
+          .setEditLog(editLog)
+          .setFirstTxId(firstTxId)
+          .setLastTxId(lastTxId)
+          .build();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+}
@@ -21,6 +21,7 @@
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
 import org.apache.hadoop.util.LightWeightGSet;
 
@@ -391,6 +392,58 @@ public BlockInfoContiguousUnderConstruction convertToBlockUnderConstruction(
     return ucBlock;
   }
 
+  @Override // Block
+  public void set(long blkid, long len, long genStamp) {
+    final long oldHash = getReplicaHash();
+    super.set(blkid, len, genStamp);
+    replicaHashChanged(oldHash);
+  }
+
+  @Override // Block
+  public void setBlockId(long bid) {
+    final long oldHash = getReplicaHash();
+    super.setBlockId(bid);
+    replicaHashChanged(oldHash);
+  }
+
+  @Override // Block
+  public void setNumBytes(long len) {
+    final long oldHash = getReplicaHash();
+    super.setNumBytes(len);
+    replicaHashChanged(oldHash);
+  }
+
+  @Override // Block
+  public void setGenerationStamp(long stamp) {
+    final long oldHash = getReplicaHash();
+    super.setGenerationStamp(stamp);
+    replicaHashChanged(oldHash);
+  }
+
+  /**
+   * @return the hash of the block, 0 if it is not stored on any storage.
+   * @see BlockListAsLongs#hashReplica(long, long, long)
+   */
+  private long getReplicaHash() {
+    // set() is called by the Block constructor before triplets is assigned
+    if (triplets == null || triplets.length == 0 || triplets[0] == null) {
+      return 0;
+    }
+    return BlockListAsLongs.hashReplica(getBlockId(), getGenerationStamp(),
+        getNumBytes());
+  }
+
+  /** Keep the replica hash of the storages of the block up to date. */
+  private void replicaHashChanged(long oldHash) {
+    final long delta = oldHash ^ getReplicaHash();
+    if (delta == 0) {
+      return;
+    }
+    for (int i = numNodes() - 1; i >= 0; i--) {
+      getStorageInfo(i).updateReplicaHash(delta);
+    }
+  }
+
   @Override
   public int hashCode() {
     // Super implementation is sufficient
@@ -0,0 +1,176 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.net.Node;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.Time;
+
+/**
+ * Sorts the locations of the blocks returned to a reader. The active
+ * replicas come first, closest to the reader first, followed by the stale
+ * replicas if stale datanodes are avoided for reads, and the replicas on
+ * decommissioned datanodes last.
+ *
+ * The distance of a replica is worked out by comparing the network location
+ * of its datanode with the one of the reader, and all the blocks of a
+ * request are sorted in one pass.
+ * Subclasses may override {@link #orderEquidistant} to order the replicas
+ * at the same distance from the reader, which are shuffled by default.
+ */
+@InterfaceAudience.Private
+public class BlockLocationSorter {
+  /** The weight of the replicas on stale datanodes. */
+  private static final int STALE_WEIGHT = 1 << 20;
+  /** The weight of the replicas on decommissioned datanodes. */
+  private static final int DECOMMISSIONED_WEIGHT = 2 << 20;
+
+  private NetworkTopology topology;
+  private boolean avoidStaleDataNodesForRead;
+  private long staleInterval;
+
+  /**
+   * Get an instance of the configured block location sorter.
+   */
+  public static BlockLocationSorter getInstance(Configuration conf,
+      NetworkTopology topology, boolean avoidStaleDataNodesForRead,
+      long staleInterval) {
+    final BlockLocationSorter sorter = ReflectionUtils.newInstance(
+        conf.getClass(DFSConfigKeys.DFS_NAMENODE_BLOCK_LOCATION_SORTER_KEY,
+            BlockLocationSorter.class, BlockLocationSorter.class), conf);
+    sorter.initialize(conf, topology, avoidStaleDataNodesForRead,
+        staleInterval);
+    return sorter;
+  }
+
+  /**
+   * Used to set up the sorter, which is created by reflection.
+   */
+  protected void initialize(Configuration conf, NetworkTopology topology,
+      boolean avoidStaleDataNodesForRead, long staleInterval) {
+    this.topology = topology;
+    this.avoidStaleDataNodesForRead = avoidStaleDataNodesForRead;
+    this.staleInterval = staleInterval;
+  }
+
+  /**
+   * Sort the locations of the given blocks for the given reader.
+   * @param reader the reader, or null if its location is unknown
+   */
+  public void sort(Node reader, List<LocatedBlock> blocks) {
+    // the node group topology has its own weights and reader resolution
+    final boolean byTopology = topology.isNodeGroupAware();
+    final Random random = ThreadLocalRandom.current();
+    final long now = Time.monotonicNow();
+    for (LocatedBlock b : blocks) {
+      final DatanodeInfo[] nodes = b.getLocations();
+      final int[] w = new int[nodes.length];
+      for (int i = 0; i < nodes.length; i++) {
+        if (nodes[i].isDecommissioned()) {
+          w[i] = DECOMMISSIONED_WEIGHT;
+        } else if (avoidStaleDataNodesForRead
+            && now - nodes[i].getLastUpdateMonotonic() >= staleInterval) {
+          w[i] = STALE_WEIGHT;
+        } else {
+          w[i] = byTopology ? 0 : getWeight(reader, nodes[i]);
+        }
+      }
+      sort(nodes, w);
+      if (byTopology) {
+        // the network topology sorts the active replicas itself
+        int activeLen = 1;
+        while (activeLen < nodes.length && w[activeLen] < STALE_WEIGHT) {
+          activeLen++;
+        }
+        topology.sortByDistance(reader, nodes, activeLen);
+      } else {
+        for (int start = 0; start < nodes.length && w[start] < STALE_WEIGHT;) {
+          int end = start + 1;
+          while (end < nodes.length && w[end] == w[start]) {
+            end++;
+          }
+          if (end - start > 1) {
+            orderEquidistant(nodes, start, end, random);
+          }
+          start = end;
+        }
+      }
+      // must update cache since we modified locations array
+      b.updateCachedStorageInfo();
+    }
+  }
+
+  /**
+   * @return the weight of the node for the reader: 0 if local, 1 if on the
+   * same rack, 2 if off rack
+   */
+  private static int getWeight(Node reader, DatanodeInfo node) {
+    if (reader == null) {
+      return 2;
+    } else if (reader.equals(node)) {
+      return 0;
+    } else if (reader.getNetworkLocation().equals(node.getNetworkLocation())) {
+      return 1;
+    }
+    return 2;
+  }
+
+  /** Stable insertion sort of the nodes by weight; there are few replicas. */
+  private static void sort(DatanodeInfo[] nodes, int[] w) {
+    for (int i = 1; i < nodes.length; i++) {
+      final DatanodeInfo node = nodes[i];
+      final int weight = w[i];
+      int j = i - 1;
+      for (; j >= 0 && w[j] > weight; j--) {
+        nodes[j + 1] = nodes[j];
+        w[j + 1] = w[j];
+      }
+      nodes[j + 1] = node;
+      w[j + 1] = weight;
+    }
+  }
+
+  /**
+   * Order the active replicas at the same distance from the reader. This
+   * shuffles them, which balances the reads when there is data skew.
+   *
+   * @param nodes the locations of a block
+   * @param from the index of the first replica to order
+   * @param to the index after the last replica to order
+   * @param random the random generator of the calling thread
+   */
+  protected void orderEquidistant(DatanodeInfo[] nodes, int from, int to,
+      Random random) {
+    for (int i = to - 1; i > from; i--) {
+      final int j = from + random.nextInt(i - from + 1);
+      final DatanodeInfo tmp = nodes[i];
+      nodes[i] = nodes[j];
+      nodes[j] = tmp;
+    }
+  }
+}
@@ -22,6 +22,7 @@
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -35,6 +36,10 @@
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.HadoopIllegalArgumentException;
@@ -79,6 +84,7 @@
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
 import org.apache.hadoop.hdfs.util.LightWeightLinkedSet;
+import org.apache.hadoop.hdfs.util.RwLockMode;
 import org.apache.hadoop.net.Node;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.util.Daemon;
@@ -87,7 +93,10 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -234,6 +243,20 @@ public int getPendingDataNodeMessageCount() {
   // Max number of blocks to log info about during a block report.
   private final long maxNumBlocksToLog;
 
+  /**
+   * Max number of replicas of a full block report processed per lock hold,
+   * or 0 to process each storage report under one hold of the lock.
+   */
+  private final int reportSliceSize;
+
+  /** Number of threads choosing the targets of the replication work. */
+  private final int replicationWorkThreads;
+  /**
+   * Chooses the targets of the replication work, or null if they are chosen
+   * on the calling thread.
+   */
+  private ExecutorService replicationTargetChooser = null;
+
   /**
    * When running inside a Standby node, the node may receive block reports
    * from datanodes before receiving the corresponding namespace edits from
@@ -277,9 +300,16 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
     invalidateBlocks = new InvalidateBlocks(
         datanodeManager.blockInvalidateLimit, startupDelayBlockDeletionInMs);
 
-    // Compute the map capacity by allocating 2% of total memory
-    blocksMap = new BlocksMap(
-        LightWeightGSet.computeCapacity(2.0, "BlocksMap"));
+    if (conf.getBoolean(DFSConfigKeys.DFS_NAMENODE_COMPACT_MAPS_ENABLED_KEY,
+        DFSConfigKeys.DFS_NAMENODE_COMPACT_MAPS_ENABLED_DEFAULT)) {
+      blocksMap = new BlocksMap();
+    } else {
+      // Compute the map capacity by allocating a percentage of total memory
+      blocksMap = new BlocksMap(LightWeightGSet.computeCapacity(conf.getFloat(
+          DFSConfigKeys.DFS_NAMENODE_BLOCKS_MAP_ALLOCATION_PERCENT,
+          DFSConfigKeys.DFS_NAMENODE_BLOCKS_MAP_ALLOCATION_PERCENT_DEFAULT),
+          "BlocksMap"));
+    }
     blockplacement = BlockPlacementPolicy.getInstance(
       conf, datanodeManager.getFSClusterStats(),
       datanodeManager.getNetworkTopology(),
@@ -343,6 +373,13 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
     this.maxNumBlocksToLog =
         conf.getLong(DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_KEY,
             DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_DEFAULT);
+    final int sliceSize = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_SLICE_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_SLICE_SIZE_DEFAULT);
+    this.reportSliceSize = Math.max(0, sliceSize);
+    this.replicationWorkThreads = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT);
     this.numBlocksPerIteration = conf.getInt(
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT,
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT_DEFAULT);
@@ -355,6 +392,8 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
     LOG.info("replicationRecheckInterval = " + replicationRecheckInterval);
     LOG.info("encryptDataTransfer        = " + encryptDataTransfer);
     LOG.info("maxNumBlocksToLog          = " + maxNumBlocksToLog);
+    LOG.info("reportSliceSize            = " + reportSliceSize);
+    LOG.info("replicationWorkThreads     = " + replicationWorkThreads);
   }
 
   private static BlockTokenSecretManager createBlockTokenSecretManager(
@@ -451,6 +490,11 @@ boolean shouldUpdateBlockKey(final long updateTime) throws IOException {
   public void activate(Configuration conf) {
     pendingReplications.start();
     datanodeManager.activate(conf);
+    if (replicationWorkThreads > 1) {
+      replicationTargetChooser = Executors.newFixedThreadPool(
+          replicationWorkThreads, new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("ReplicationTargetChooser-%d").build());
+    }
     this.replicationThread.start();
   }
 
@@ -460,6 +504,9 @@ public void close() {
       replicationThread.join(3000);
     } catch (InterruptedException ie) {
     }
+    if (replicationTargetChooser != null) {
+      replicationTargetChooser.shutdownNow();
+    }
     datanodeManager.close();
     pendingReplications.stop();
     blocksMap.close();
@@ -485,7 +532,7 @@ public void setBlockPlacementPolicy(BlockPlacementPolicy newpolicy) {
 
   /** Dump meta data to out. */
   public void metaSave(PrintWriter out) {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasWriteLock(RwLockMode.BM);
     final List<DatanodeDescriptor> live = new ArrayList<DatanodeDescriptor>();
     final List<DatanodeDescriptor> dead = new ArrayList<DatanodeDescriptor>();
     datanodeManager.fetchDatanodes(live, dead, false);
@@ -876,7 +923,7 @@ public LocatedBlocks createLocatedBlocks(final BlockInfoContiguous[] blocks,
       final long length, final boolean needBlockToken,
       final boolean inSnapshot, FileEncryptionInfo feInfo)
       throws IOException {
-    assert namesystem.hasReadLock();
+    assert namesystem.hasReadLock(RwLockMode.BM);
     if (blocks == null) {
       return null;
     } else if (blocks.length == 0) {
@@ -999,12 +1046,12 @@ public boolean isSufficientlyReplicated(BlockInfoContiguous b) {
   public BlocksWithLocations getBlocks(DatanodeID datanode, long size
       ) throws IOException {
     namesystem.checkOperation(OperationCategory.READ);
-    namesystem.readLock();
+    namesystem.readLock(RwLockMode.BM);
     try {
       namesystem.checkOperation(OperationCategory.READ);
       return getBlocksWithLocations(datanode, size);  
     } finally {
-      namesystem.readUnlock();
+      namesystem.readUnlock(RwLockMode.BM, "getBlocks");
     }
   }
 
@@ -1066,7 +1113,7 @@ void removeBlocksAssociatedTo(final DatanodeDescriptor node) {
 
   /** Remove the blocks associated to the given DatanodeStorageInfo. */
   void removeBlocksAssociatedTo(final DatanodeStorageInfo storageInfo) {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasWriteLock(RwLockMode.BM);
     final Iterator<? extends Block> it = storageInfo.getBlockIterator();
     DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
     while(it.hasNext()) {
@@ -1129,7 +1176,7 @@ void removeFromInvalidates(final DatanodeInfo datanode) {
    */
   public void findAndMarkBlockAsCorrupt(final ExtendedBlock blk,
       final DatanodeInfo dn, String storageID, String reason) throws IOException {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasWriteLock(RwLockMode.BM);
     final BlockInfoContiguous storedBlock = getStoredBlock(blk.getLocalBlock());
     if (storedBlock == null) {
       // Check if the replica is in the blockMap, if not
@@ -1302,18 +1349,24 @@ int computeInvalidateWork(int nodesToProcess) {
    */
   int computeReplicationWork(int blocksToProcess) {
     List<List<Block>> blocksToReplicate = null;
-    namesystem.writeLock();
+    namesystem.writeLock(RwLockMode.BM);
     try {
       // Choose the blocks to be replicated
       blocksToReplicate = neededReplications
           .chooseUnderReplicatedBlocks(blocksToProcess);
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock(RwLockMode.BM, "computeReplicationWork");
     }
     return computeReplicationWorkForBlocks(blocksToReplicate);
   }
 
   /** Replicate a set of blocks
+   *
+   * The work is computed in three phases. The replication sources are
+   * chosen under the read lock, the targets are chosen without holding the
+   * namesystem lock, in parallel on {@link #replicationTargetChooser}, and
+   * only the scheduling of the replications onto the source datanodes takes
+   * the write lock.
    *
    * @param blocksToReplicate blocks to be replicated, for each priority
    * @return the number of blocks scheduled for replication
@@ -1329,7 +1382,8 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
     int scheduledWork = 0;
     List<ReplicationWork> work = new LinkedList<ReplicationWork>();
 
-    namesystem.writeLock();
+    final long startTime = Time.monotonicNow();
+    namesystem.readLock(RwLockMode.BM);
     try {
       synchronized (neededReplications) {
         for (int priority = 0; priority < blocksToReplicate.size(); priority++) {
@@ -1338,8 +1392,8 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
             bc = blocksMap.getBlockCollection(block);
             // abandoned block or block reopened for append
             if(bc == null || (bc.isUnderConstruction() && block.equals(bc.getLastBlock()))) {
-              neededReplications.remove(block, priority); // remove from neededReplications
-              neededReplications.decrementReplicationIndex(priority);
+              // removed from neededReplications under the write lock
+              work.add(new ReplicationWork(block, priority));
               continue;
             }
 
@@ -1368,10 +1422,8 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
             if (numEffectiveReplicas >= requiredReplication) {
               if ( (pendingReplications.getNumReplicas(block) > 0) ||
                    (blockHasEnoughRacks(block)) ) {
-                neededReplications.remove(block, priority); // remove from neededReplications
-                neededReplications.decrementReplicationIndex(priority);
-                blockLog.info("BLOCK* Removing {} from neededReplications as" +
-                        " it has enough replicas", block);
+                // removed from neededReplications under the write lock
+                work.add(new ReplicationWork(block, priority));
                 continue;
               }
             }
@@ -1389,33 +1441,17 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
         }
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.readUnlock(RwLockMode.BM, "computeReplicationWorkForBlocks");
     }
 
-    final Set<Node> excludedNodes = new HashSet<Node>();
-    for(ReplicationWork rw : work){
-      // Exclude all of the containing nodes from being targets.
-      // This list includes decommissioning or corrupt nodes.
-      excludedNodes.clear();
-      for (DatanodeDescriptor dn : rw.containingNodes) {
-        excludedNodes.add(dn);
-      }
-
-      // choose replication targets: NOT HOLDING THE GLOBAL LOCK
-      // It is costly to extract the filename for which chooseTargets is called,
-      // so for now we pass in the block collection itself.
-      rw.chooseTargets(blockplacement, storagePolicySuite, excludedNodes);
-    }
+    // choose replication targets: NOT HOLDING THE GLOBAL LOCK
+    final long chooseStartTime = Time.monotonicNow();
+    chooseReplicationTargets(work);
 
-    namesystem.writeLock();
+    final long scheduleStartTime = Time.monotonicNow();
+    namesystem.writeLock(RwLockMode.BM);
     try {
       for(ReplicationWork rw : work){
-        final DatanodeStorageInfo[] targets = rw.targets;
-        if(targets == null || targets.length == 0){
-          rw.targets = null;
-          continue;
-        }
-
         synchronized (neededReplications) {
           Block block = rw.block;
           int priority = rw.priority;
@@ -1448,6 +1484,12 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
             }
           }
 
+          final DatanodeStorageInfo[] targets = rw.targets;
+          if(targets == null || targets.length == 0){
+            rw.targets = null;
+            continue;
+          }
+
           if ( (numReplicas.liveReplicas() >= requiredReplication) &&
                (!blockHasEnoughRacks(block)) ) {
             if (rw.srcNode.getNetworkLocation().equals(
@@ -1478,7 +1520,14 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
         }
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock(RwLockMode.BM, "computeReplicationWorkForBlocks");
+    }
+
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addReplicationWork(chooseStartTime - startTime,
+          scheduleStartTime - chooseStartTime,
+          Time.monotonicNow() - scheduleStartTime, scheduledWork);
     }
 
     if (blockLog.isInfoEnabled()) {
@@ -1583,10 +1632,11 @@ List<DatanodeDescriptor> getDatanodeDescriptors(List<String> nodes) {
    * We prefer nodes that are in DECOMMISSION_INPROGRESS state to other nodes
    * since the former do not have write traffic and hence are less busy.
    * We do not use already decommissioned nodes as a source.
-   * Otherwise we choose a random node among those that did not reach their
-   * replication limits.  However, if the replication is of the highest priority
-   * and all nodes have reached their replication limits, we will choose a
-   * random node despite the replication limit.
+   * Otherwise we choose the node with the fewest pending replications among
+   * those that did not reach their replication limits, randomly between
+   * equally loaded nodes.  However, if the replication is of the highest
+   * priority and all nodes have reached their replication limits, we will
+   * choose a node despite the replication limit.
    *
    * In addition form a list of all nodes containing the block
    * and calculate its replication numbers.
@@ -1614,6 +1664,8 @@ DatanodeDescriptor chooseSourceDatanode(Block block,
     containingNodes.clear();
     nodesContainingLiveReplicas.clear();
     DatanodeDescriptor srcNode = null;
+    int srcNumToReplicate = 0;
+    int numEquallyLoaded = 0;
     int live = 0;
     int decommissioned = 0;
     int corrupt = 0;
@@ -1657,16 +1709,23 @@ else if (excessBlocks != null && excessBlocks.contains(block)) {
       if(node.isDecommissioned())
         continue;
 
-      // We got this far, current node is a reasonable choice
-      if (srcNode == null) {
+      // We got this far, current node is a reasonable choice.
+      // Prefer the node with the fewest pending replications, which spreads
+      // the work of decommissioning over the other replicas.
+      final int numToReplicate = node.getNumberOfBlocksToBeReplicated();
+      if (srcNode == null || numToReplicate < srcNumToReplicate) {
         srcNode = node;
+        srcNumToReplicate = numToReplicate;
+        numEquallyLoaded = 1;
         continue;
       }
-      // switch to a different node randomly
+      // switch to an equally loaded node randomly
       // this to prevent from deterministically selecting the same node even
       // if the node failed to replicate the block on previous iterations
-      if(DFSUtil.getRandom().nextBoolean())
+      if (numToReplicate == srcNumToReplicate
+          && DFSUtil.getRandom().nextInt(++numEquallyLoaded) == 0) {
         srcNode = node;
+      }
     }
     if(numReplicas != null)
       numReplicas.initialize(live, decommissioned, corrupt, excess, 0);
@@ -1680,7 +1739,11 @@ else if (excessBlocks != null && excessBlocks.contains(block)) {
   private void processPendingReplications() {
     Block[] timedOutItems = pendingReplications.getTimedOutBlocks();
     if (timedOutItems != null) {
-      namesystem.writeLock();
+      final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      if (metrics != null) {
+        metrics.incrPendingReplicationsTimedOut(timedOutItems.length);
+      }
+      namesystem.writeLock(RwLockMode.BM);
       try {
         for (int i = 0; i < timedOutItems.length; i++) {
           /*
@@ -1698,7 +1761,7 @@ private void processPendingReplications() {
           }
         }
       } finally {
-        namesystem.writeUnlock();
+        namesystem.writeUnlock(RwLockMode.BM, "processPendingReplications");
       }
       /* If we know the target datanodes where the replication timedout,
        * we could invoke decBlocksScheduled() on it. Its ok for now.
@@ -1774,6 +1837,11 @@ public String toString() {
    * The given storage is reporting all its blocks.
    * Update the (storage-->block list) and (block-->storage list) maps.
    *
+   * If {@link #reportSliceSize} is set, the report is applied in slices of at
+   * most that many replicas, each under its own hold of the namesystem write
+   * lock, so reports of different storages are processed concurrently while
+   * the reports of one storage are processed one at a time.
+   *
    * @return true if all known storages of the given DN have finished reporting.
    * @throws IOException
    */
@@ -1781,6 +1849,93 @@ public boolean processReport(final DatanodeID nodeID,
       final DatanodeStorage storage,
       final BlockListAsLongs newReport, BlockReportContext context,
       boolean lastStorageInRpc) throws IOException {
+    if (reportSliceSize <= 0) {
+      return processReportUnderLock(nodeID, storage, newReport, context,
+          lastStorageInRpc);
+    }
+    final ReportSliceLock lock = new ReportSliceLock(nodeID);
+    DatanodeStorageInfo storageInfo;
+    lock.lock(null);
+    try {
+      storageInfo = lock.node.getStorageInfo(storage.getStorageID());
+      if (storageInfo == null) {
+        // We handle this for backwards compatibility.
+        storageInfo = lock.node.updateStorage(storage);
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    final DatanodeDescriptor node = lock.node;
+    Collection<Block> invalidatedBlocks = null;
+    storageInfo.getBlockReportLock().lock();
+    try {
+      final boolean firstReport;
+      lock.lock(storageInfo);
+      try {
+        // To minimize startup time, we discard any second (or later) block reports
+        // that we receive while still in startup phase.
+        if (namesystem.isInStartupSafeMode()
+            && storageInfo.getBlockReportCount() > 0) {
+          blockLog.info("BLOCK* processReport: "
+              + "discarded non-initial block report from {}"
+              + " because namenode still in startup phase", nodeID);
+          return !node.hasStaleStorages();
+        }
+        firstReport = storageInfo.getBlockReportCount() == 0;
+      } finally {
+        lock.unlock();
+      }
+
+      if (firstReport) {
+        // The first block report can be processed a lot more efficiently than
+        // ordinary block reports.  This shortens restart times.
+        processFirstBlockReport(storageInfo, newReport, lock);
+      } else {
+        invalidatedBlocks = processReport(storageInfo, newReport, lock);
+      }
+
+      lock.lock(storageInfo);
+      try {
+        storageInfo.receivedBlockReport();
+        finishStorageReport(node, storageInfo, context, lastStorageInRpc);
+      } finally {
+        lock.unlock();
+      }
+    } finally {
+      storageInfo.getBlockReportLock().unlock();
+    }
+
+    if (invalidatedBlocks != null) {
+      for (Block b : invalidatedBlocks) {
+        blockLog.info("BLOCK* processReport: {} on node {} size {} does not " +
+            "belong to any file", b, node, b.getNumBytes());
+      }
+    }
+
+    // Log the block report processing stats from Namenode perspective
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addBlockReport((int) lock.heldTime);
+    }
+    blockLog.info("BLOCK* processReport: from storage {} node {}, " +
+        "blocks: {}, hasStaleStorage: {}, processing time: {} msecs in {} " +
+        "slices", storage.getStorageID(), nodeID,
+        newReport.getNumberOfBlocks(), node.hasStaleStorages(),
+        lock.heldTime, lock.numSlices);
+    return !node.hasStaleStorages();
+  }
+
+  /**
+   * Process a full report of the given storage under one hold of the
+   * namesystem write lock.
+   * @see #processReport(DatanodeID, DatanodeStorage, BlockListAsLongs,
+   *      BlockReportContext, boolean)
+   */
+  private boolean processReportUnderLock(final DatanodeID nodeID,
+      final DatanodeStorage storage,
+      final BlockListAsLongs newReport, BlockReportContext context,
+      boolean lastStorageInRpc) throws IOException {
     namesystem.writeLock();
     final long startTime = Time.monotonicNow(); //after acquiring write lock
     final long endTime;
@@ -1813,38 +1968,20 @@ public boolean processReport(final DatanodeID nodeID,
       if (storageInfo.getBlockReportCount() == 0) {
         // The first block report can be processed a lot more efficiently than
         // ordinary block reports.  This shortens restart times.
-        processFirstBlockReport(storageInfo, newReport);
+        if (newReport != null) {
+          for (BlockReportReplica iblk : newReport) {
+            processFirstReportedBlock(storageInfo, iblk);
+          }
+        }
       } else {
         invalidatedBlocks = processReport(storageInfo, newReport);
       }
-      
+
       storageInfo.receivedBlockReport();
-      if (context != null) {
-        storageInfo.setLastBlockReportId(context.getReportId());
-        if (lastStorageInRpc) {
-          int rpcsSeen = node.updateBlockReportContext(context);
-          if (rpcsSeen >= context.getTotalRpcs()) {
-            List<DatanodeStorageInfo> zombies = node.removeZombieStorages();
-            if (zombies.isEmpty()) {
-              LOG.debug("processReport 0x{}: no zombie storages found.",
-                  Long.toHexString(context.getReportId()));
-            } else {
-              for (DatanodeStorageInfo zombie : zombies) {
-                removeZombieReplicas(context, zombie);
-              }
-            }
-            node.clearBlockReportContext();
-          } else {
-            LOG.debug("processReport 0x{}: {} more RPCs remaining in this " +
-                    "report.", Long.toHexString(context.getReportId()),
-                (context.getTotalRpcs() - rpcsSeen)
-            );
-          }
-        }
-      }
+      finishStorageReport(node, storageInfo, context, lastStorageInRpc);
     } finally {
       endTime = Time.monotonicNow();
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("processReport");
     }
 
     if (invalidatedBlocks != null) {
@@ -1866,12 +2003,157 @@ public boolean processReport(final DatanodeID nodeID,
     return !node.hasStaleStorages();
   }
 
+  /**
+   * The given storage is reporting only the hash of its finalized replicas,
+   * its changes since the previous report having been sent as incremental
+   * block reports. The report is accepted, and counts as a full report of
+   * the storage, only if the hash equals the one of the replicas the
+   * namenode has on record for the storage.
+   *
+   * @return false if the datanode has to send a full report of the storage.
+   * @throws IOException
+   */
+  public boolean processReplicaHash(final DatanodeID nodeID,
+      final DatanodeStorage storage, final long replicaHash,
+      BlockReportContext context, boolean lastStorageInRpc)
+      throws IOException {
+    final ReportSliceLock lock = new ReportSliceLock(nodeID);
+    final long expectedHash;
+    lock.lock(null);
+    try {
+      DatanodeStorageInfo storageInfo =
+          lock.node.getStorageInfo(storage.getStorageID());
+      if (storageInfo == null) {
+        storageInfo = lock.node.updateStorage(storage);
+      }
+      expectedHash = storageInfo.getReplicaHash();
+      // there is nothing to compare with before a full report, nor while
+      // one is being processed. The replicas of a storage whose contents
+      // are stale, as after a failover, must be verified by a full report.
+      final boolean matched = storageInfo.getBlockReportCount() > 0
+          && !storageInfo.getBlockReportLock().isLocked()
+          && !storageInfo.areBlockContentsStale()
+          && expectedHash == replicaHash;
+      // even if its replicas do not match, the storage still exists and
+      // must not be removed as a zombie
+      finishStorageReport(lock.node, storageInfo, context, lastStorageInRpc);
+      if (matched) {
+        return true;
+      }
+    } finally {
+      lock.unlock();
+    }
+    blockLog.info("BLOCK* processReplicaHash: replica hash {} of storage {} " +
+        "on node {} does not match {}, requesting a full block report",
+        Long.toHexString(replicaHash), storage.getStorageID(), nodeID,
+        Long.toHexString(expectedHash));
+    return false;
+  }
+
+  /**
+   * Record that the given storage has been reported, and once all the RPCs
+   * of the report have been seen, remove the zombie storages of the node.
+   */
+  private void finishStorageReport(DatanodeDescriptor node,
+      DatanodeStorageInfo storageInfo, BlockReportContext context,
+      boolean lastStorageInRpc) {
+    if (context != null) {
+      storageInfo.setLastBlockReportId(context.getReportId());
+      if (lastStorageInRpc) {
+        int rpcsSeen = node.updateBlockReportContext(context);
+        if (rpcsSeen >= context.getTotalRpcs()) {
+          List<DatanodeStorageInfo> zombies = node.removeZombieStorages();
+          if (zombies.isEmpty()) {
+            LOG.debug("processReport 0x{}: no zombie storages found.",
+                Long.toHexString(context.getReportId()));
+          } else {
+            for (DatanodeStorageInfo zombie : zombies) {
+              removeZombieReplicas(context, zombie);
+            }
+          }
+          node.clearBlockReportContext();
+        } else {
+          LOG.debug("processReport 0x{}: {} more RPCs remaining in this " +
+                  "report.", Long.toHexString(context.getReportId()),
+              (context.getTotalRpcs() - rpcsSeen)
+          );
+        }
+      }
+    }
+  }
+
+  /**
+   * The namesystem write lock taken for one slice of a full block report.
+   * Since the lock is released between slices, each slice first checks that
+   * the reporting node, and storage if given, are still registered.
+   */
+  private class ReportSliceLock {
+    private final DatanodeID nodeID;
+    private DatanodeDescriptor node = null;
+    /** Time the lock was held by the slices, in milliseconds. */
+    private long heldTime = 0;
+    private int numSlices = 0;
+    private long lockTime;
+
+    ReportSliceLock(DatanodeID nodeID) {
+      this.nodeID = nodeID;
+    }
+
+    void lock(DatanodeStorageInfo storageInfo) throws IOException {
+      namesystem.writeLock();
+      lockTime = Time.monotonicNow();
+      boolean registered = false;
+      try {
+        final DatanodeDescriptor current = datanodeManager.getDatanode(nodeID);
+        registered = current != null && current.isAlive
+            && (node == null || node == current)
+            && (storageInfo == null || storageInfo ==
+                current.getStorageInfo(storageInfo.getStorageID()));
+        if (!registered) {
+          throw new IOException(
+              "ProcessReport from dead or unregistered node: " + nodeID);
+        }
+        node = current;
+      } finally {
+        if (!registered) {
+          unlock();
+        }
+      }
+    }
+
+    void unlock() {
+      heldTime += Time.monotonicNow() - lockTime;
+      numSlices++;
+      namesystem.writeUnlock("processReport");
+    }
+  }
+
+  /**
+   * Copy the next slice of a block report, so that the report is decoded
+   * outside the namesystem lock.
+   * @return the number of replicas copied into slice
+   */
+  private static int nextReportSlice(Iterator<BlockReportReplica> it,
+      BlockReportReplica[] slice) {
+    int n = 0;
+    while (n < slice.length && it.hasNext()) {
+      // the iterator reuses the replica it returns
+      slice[n++] = new BlockReportReplica(it.next());
+    }
+    return n;
+  }
+
+  private BlockReportReplica[] newReportSlice(BlockListAsLongs report) {
+    return new BlockReportReplica[
+        Math.max(1, Math.min(reportSliceSize, report.getNumberOfBlocks()))];
+  }
+
   private void removeZombieReplicas(BlockReportContext context,
       DatanodeStorageInfo zombie) {
     LOG.warn("processReport 0x{}: removing zombie storage {}, which no " +
              "longer exists on the DataNode.",
               Long.toHexString(context.getReportId()), zombie.getStorageID());
-    assert(namesystem.hasWriteLock());
+    assert(namesystem.hasWriteLock(RwLockMode.BM));
     Iterator<BlockInfoContiguous> iter = zombie.getBlockIterator();
     int prevBlocks = zombie.numBlocks();
     while (iter.hasNext()) {
@@ -1955,7 +2237,7 @@ void rescanPostponedMisreplicatedBlocks() {
         }
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("rescanPostponedMisreplicatedBlocks");
       long endPostponedMisReplicatedBlocksCount =
           getPostponedMisreplicatedBlocksCount();
       LOG.info("Rescan of postponedMisreplicatedBlocks completed in " +
@@ -2008,6 +2290,165 @@ private Collection<Block> processReport(
     return toInvalidate;
   }
 
+  private void reportDiff(DatanodeStorageInfo storageInfo, 
+      BlockListAsLongs newReport, 
+      Collection<BlockInfoContiguous> toAdd,              // add to DatanodeDescriptor
+      Collection<Block> toRemove,           // remove from DatanodeDescriptor
+      Collection<Block> toInvalidate,       // should be removed from DN
+      Collection<BlockToMarkCorrupt> toCorrupt, // add to corrupt replicas list
+      Collection<StatefulBlockInfo> toUC) { // add to under-construction list
+
+    // place a delimiter in the list which separates blocks 
+    // that have been reported from those that have not
+    BlockInfoContiguous delimiter = new BlockInfoContiguous(new Block(), (short) 1);
+    AddBlockResult result = storageInfo.addBlock(delimiter);
+    assert result == AddBlockResult.ADDED 
+        : "Delimiting block cannot be present in the node";
+    int headIndex = 0; //currently the delimiter is in the head of the list
+    int curIndex;
+
+    if (newReport == null) {
+      newReport = BlockListAsLongs.EMPTY;
+    }
+    // scan the report and process newly reported blocks
+    for (BlockReportReplica iblk : newReport) {
+      ReplicaState iState = iblk.getState();
+      BlockInfoContiguous storedBlock = processReportedBlock(storageInfo,
+          iblk, iState, toAdd, toInvalidate, toCorrupt, toUC);
+
+      // move block to the head of the list
+      if (storedBlock != null &&
+          (curIndex = storedBlock.findStorageInfo(storageInfo)) >= 0) {
+        headIndex = storageInfo.moveBlockToHead(storedBlock, curIndex, headIndex);
+      }
+    }
+
+    // collect blocks that have not been reported
+    // all of them are next to the delimiter
+    Iterator<BlockInfoContiguous> it =
+        storageInfo.new BlockIterator(delimiter.getNext(0));
+    while(it.hasNext())
+      toRemove.add(it.next());
+    storageInfo.removeBlock(delimiter);
+  }
+
+  /**
+   * Process an ordinary full block report in slices. A delimiter in the
+   * block list of the storage, as used by
+   * {@link #reportDiff}, would be visible to other operations between the
+   * slices, so the ids of the reported blocks are kept in a sorted array
+   * instead.
+   */
+  private Collection<Block> processReport(
+      final DatanodeStorageInfo storageInfo,
+      BlockListAsLongs report, final ReportSliceLock lock)
+      throws IOException {
+    // Normal case:
+    // Modify the (block-->datanode) map, according to the difference
+    // between the old and new block report.
+    //
+    if (report == null) {
+      report = BlockListAsLongs.EMPTY;
+    }
+    final DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
+    final Collection<Block> invalidated = new LinkedList<Block>();
+    // the ids of the stored blocks of the reported replicas to be kept
+    final long[] reported = new long[report.getNumberOfBlocks()];
+    int numReported = 0;
+    final BlockReportReplica[] slice = newReportSlice(report);
+    final Iterator<BlockReportReplica> it = report.iterator();
+    int numBlocksLogged = 0;
+
+    lock.lock(storageInfo);
+    try {
+      storageInfo.startBlockReport();
+    } finally {
+      lock.unlock();
+    }
+    Set<Block> added = null;
+    try {
+      // process the reported replicas
+      int n;
+      while ((n = nextReportSlice(it, slice)) > 0) {
+        Collection<BlockInfoContiguous> toAdd =
+            new LinkedList<BlockInfoContiguous>();
+        Collection<Block> toInvalidate = new LinkedList<Block>();
+        Collection<BlockToMarkCorrupt> toCorrupt =
+            new LinkedList<BlockToMarkCorrupt>();
+        Collection<StatefulBlockInfo> toUC =
+            new LinkedList<StatefulBlockInfo>();
+        lock.lock(storageInfo);
+        try {
+          for (int i = 0; i < n; i++) {
+            BlockInfoContiguous storedBlock = processReportedBlock(
+                storageInfo, slice[i], slice[i].getState(),
+                toAdd, toInvalidate, toCorrupt, toUC);
+            if (storedBlock != null) {
+              reported[numReported++] = storedBlock.getBlockId();
+            }
+          }
+          // Process the blocks on each queue
+          for (StatefulBlockInfo b : toUC) {
+            addStoredBlockUnderConstruction(b, storageInfo);
+          }
+          for (BlockInfoContiguous b : toAdd) {
+            addStoredBlock(b, storageInfo, null,
+                numBlocksLogged < maxNumBlocksToLog);
+            numBlocksLogged++;
+          }
+          for (Block b : toInvalidate) {
+            addToInvalidates(b, node);
+          }
+          for (BlockToMarkCorrupt b : toCorrupt) {
+            markBlockAsCorrupt(b, storageInfo, node);
+          }
+        } finally {
+          lock.unlock();
+        }
+        invalidated.addAll(toInvalidate);
+      }
+      if (numBlocksLogged > maxNumBlocksToLog) {
+        blockLog.info("BLOCK* processReport: logged info for {} of {} " +
+            "reported.", maxNumBlocksToLog, numBlocksLogged);
+      }
+      Arrays.sort(reported, 0, numReported);
+      // remove the blocks that have neither been reported nor added while
+      // the lock was released. They are removed under the same hold of the
+      // lock, so that no other operation can add them again in between.
+      lock.lock(storageInfo);
+      try {
+        added = storageInfo.finishBlockReport();
+        final List<BlockInfoContiguous> toRemove =
+            new ArrayList<BlockInfoContiguous>();
+        final Iterator<BlockInfoContiguous> blocks =
+            storageInfo.getBlockIterator();
+        while (blocks.hasNext()) {
+          final BlockInfoContiguous b = blocks.next();
+          if (Arrays.binarySearch(reported, 0, numReported,
+                  b.getBlockId()) < 0
+              && !added.contains(b)) {
+            toRemove.add(b);
+          }
+        }
+        for (BlockInfoContiguous b : toRemove) {
+          removeStoredBlock(b, node);
+        }
+      } finally {
+        lock.unlock();
+      }
+    } finally {
+      if (added == null) {
+        namesystem.writeLock();
+        try {
+          storageInfo.finishBlockReport();
+        } finally {
+          namesystem.writeUnlock("processReport");
+        }
+      }
+    }
+    return invalidated;
+  }
+
   /**
    * Mark block replicas as corrupt except those on the storages in 
    * newStorages list.
@@ -2015,7 +2456,7 @@ private Collection<Block> processReport(
   public void markBlockReplicasAsCorrupt(BlockInfoContiguous block, 
       long oldGenerationStamp, long oldNumBytes, 
       DatanodeStorageInfo[] newStorages) throws IOException {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasWriteLock(RwLockMode.BM);
     BlockToMarkCorrupt b = null;
     if (block.getGenerationStamp() != oldGenerationStamp) {
       b = new BlockToMarkCorrupt(block, oldGenerationStamp,
@@ -2057,108 +2498,84 @@ public void markBlockReplicasAsCorrupt(BlockInfoContiguous block,
    * the next block report.
    * @param storageInfo - DatanodeStorageInfo that sent the report
    * @param report - the initial block report, to be processed
+   * @param lock - the lock to take for each slice of the report
    * @throws IOException 
    */
   private void processFirstBlockReport(
       final DatanodeStorageInfo storageInfo,
-      final BlockListAsLongs report) throws IOException {
+      final BlockListAsLongs report, final ReportSliceLock lock)
+      throws IOException {
     if (report == null) return;
-    assert (namesystem.hasWriteLock());
     assert (storageInfo.getBlockReportCount() == 0);
 
-    for (BlockReportReplica iblk : report) {
-      ReplicaState reportedState = iblk.getState();
-      
-      if (shouldPostponeBlocksFromFuture &&
-          namesystem.isGenStampInFuture(iblk)) {
-        queueReportedBlock(storageInfo, iblk, reportedState,
-            QUEUE_REASON_FUTURE_GENSTAMP);
-        continue;
-      }
-      
-      BlockInfoContiguous storedBlock = blocksMap.getStoredBlock(iblk);
-      // If block does not belong to any file, we are done.
-      if (storedBlock == null) continue;
-      
-      // If block is corrupt, mark it and continue to next block.
-      BlockUCState ucState = storedBlock.getBlockUCState();
-      BlockToMarkCorrupt c = checkReplicaCorrupt(
-          iblk, reportedState, storedBlock, ucState,
-          storageInfo.getDatanodeDescriptor());
-      if (c != null) {
-        if (shouldPostponeBlocksFromFuture) {
-          // In the Standby, we may receive a block report for a file that we
-          // just have an out-of-date gen-stamp or state for, for example.
-          queueReportedBlock(storageInfo, iblk, reportedState,
-              QUEUE_REASON_CORRUPT_STATE);
-        } else {
-          markBlockAsCorrupt(c, storageInfo, storageInfo.getDatanodeDescriptor());
-        }
-        continue;
-      }
-      
-      // If block is under construction, add this replica to its list
-      if (isBlockUnderConstruction(storedBlock, ucState, reportedState)) {
-        ((BlockInfoContiguousUnderConstruction)storedBlock)
-            .addReplicaIfNotPresent(storageInfo, iblk, reportedState);
-        // OpenFileBlocks only inside snapshots also will be added to safemode
-        // threshold. So we need to update such blocks to safemode
-        // refer HDFS-5283
-        BlockInfoContiguousUnderConstruction blockUC =
-            (BlockInfoContiguousUnderConstruction) storedBlock;
-        if (namesystem.isInSnapshot(blockUC)) {
-          int numOfReplicas = blockUC.getNumExpectedLocations();
-          namesystem.incrementSafeBlockCount(numOfReplicas);
+    final BlockReportReplica[] slice = newReportSlice(report);
+    final Iterator<BlockReportReplica> it = report.iterator();
+    int n;
+    while ((n = nextReportSlice(it, slice)) > 0) {
+      lock.lock(storageInfo);
+      try {
+        for (int i = 0; i < n; i++) {
+          processFirstReportedBlock(storageInfo, slice[i]);
         }
-        //and fall through to next clause
-      }      
-      //add replica if appropriate
-      if (reportedState == ReplicaState.FINALIZED) {
-        addStoredBlockImmediate(storedBlock, storageInfo);
+      } finally {
+        lock.unlock();
       }
     }
   }
 
-  private void reportDiff(DatanodeStorageInfo storageInfo, 
-      BlockListAsLongs newReport, 
-      Collection<BlockInfoContiguous> toAdd,              // add to DatanodeDescriptor
-      Collection<Block> toRemove,           // remove from DatanodeDescriptor
-      Collection<Block> toInvalidate,       // should be removed from DN
-      Collection<BlockToMarkCorrupt> toCorrupt, // add to corrupt replicas list
-      Collection<StatefulBlockInfo> toUC) { // add to under-construction list
-
-    // place a delimiter in the list which separates blocks 
-    // that have been reported from those that have not
-    BlockInfoContiguous delimiter = new BlockInfoContiguous(new Block(), (short) 1);
-    AddBlockResult result = storageInfo.addBlock(delimiter);
-    assert result == AddBlockResult.ADDED 
-        : "Delimiting block cannot be present in the node";
-    int headIndex = 0; //currently the delimiter is in the head of the list
-    int curIndex;
+  private void processFirstReportedBlock(
+      final DatanodeStorageInfo storageInfo, final BlockReportReplica iblk)
+      throws IOException {
+    assert (namesystem.hasWriteLock(RwLockMode.GLOBAL));
+    ReplicaState reportedState = iblk.getState();
 
-    if (newReport == null) {
-      newReport = BlockListAsLongs.EMPTY;
+    if (shouldPostponeBlocksFromFuture &&
+        namesystem.isGenStampInFuture(iblk)) {
+      queueReportedBlock(storageInfo, iblk, reportedState,
+          QUEUE_REASON_FUTURE_GENSTAMP);
+      return;
     }
-    // scan the report and process newly reported blocks
-    for (BlockReportReplica iblk : newReport) {
-      ReplicaState iState = iblk.getState();
-      BlockInfoContiguous storedBlock = processReportedBlock(storageInfo,
-          iblk, iState, toAdd, toInvalidate, toCorrupt, toUC);
 
-      // move block to the head of the list
-      if (storedBlock != null &&
-          (curIndex = storedBlock.findStorageInfo(storageInfo)) >= 0) {
-        headIndex = storageInfo.moveBlockToHead(storedBlock, curIndex, headIndex);
+    BlockInfoContiguous storedBlock = blocksMap.getStoredBlock(iblk);
+    // If block does not belong to any file, we are done.
+    if (storedBlock == null) return;
+
+    // If block is corrupt, mark it and continue to next block.
+    BlockUCState ucState = storedBlock.getBlockUCState();
+    BlockToMarkCorrupt c = checkReplicaCorrupt(
+        iblk, reportedState, storedBlock, ucState,
+        storageInfo.getDatanodeDescriptor());
+    if (c != null) {
+      if (shouldPostponeBlocksFromFuture) {
+        // In the Standby, we may receive a block report for a file that we
+        // just have an out-of-date gen-stamp or state for, for example.
+        queueReportedBlock(storageInfo, iblk, reportedState,
+            QUEUE_REASON_CORRUPT_STATE);
+      } else {
+        markBlockAsCorrupt(c, storageInfo, storageInfo.getDatanodeDescriptor());
       }
+      return;
     }
 
-    // collect blocks that have not been reported
-    // all of them are next to the delimiter
-    Iterator<BlockInfoContiguous> it =
-        storageInfo.new BlockIterator(delimiter.getNext(0));
-    while(it.hasNext())
-      toRemove.add(it.next());
-    storageInfo.removeBlock(delimiter);
+    // If block is under construction, add this replica to its list
+    if (isBlockUnderConstruction(storedBlock, ucState, reportedState)) {
+      ((BlockInfoContiguousUnderConstruction)storedBlock)
+          .addReplicaIfNotPresent(storageInfo, iblk, reportedState);
+      // OpenFileBlocks only inside snapshots also will be added to safemode
+      // threshold. So we need to update such blocks to safemode
+      // refer HDFS-5283
+      BlockInfoContiguousUnderConstruction blockUC =
+          (BlockInfoContiguousUnderConstruction) storedBlock;
+      if (namesystem.isInSnapshot(blockUC)) {
+        int numOfReplicas = blockUC.getNumExpectedLocations();
+        namesystem.incrementSafeBlockCount(numOfReplicas);
+      }
+      //and fall through to next clause
+    }
+    //add replica if appropriate
+    if (reportedState == ReplicaState.FINALIZED) {
+      addStoredBlockImmediate(storedBlock, storageInfo);
+    }
   }
 
   /**
@@ -2475,7 +2892,7 @@ void addStoredBlockUnderConstruction(StatefulBlockInfo ucBlock,
   private void addStoredBlockImmediate(BlockInfoContiguous storedBlock,
       DatanodeStorageInfo storageInfo)
   throws IOException {
-    assert (storedBlock != null && namesystem.hasWriteLock());
+    assert (storedBlock != null && namesystem.hasWriteLock(RwLockMode.GLOBAL));
     if (!namesystem.isInStartupSafeMode() 
         || namesystem.isPopulatingReplQueues()) {
       addStoredBlock(storedBlock, storageInfo, null, false);
@@ -2509,7 +2926,7 @@ private Block addStoredBlock(final BlockInfoContiguous block,
                                DatanodeDescriptor delNodeHint,
                                boolean logEveryBlock)
   throws IOException {
-    assert block != null && namesystem.hasWriteLock();
+    assert block != null && namesystem.hasWriteLock(RwLockMode.GLOBAL);
     BlockInfoContiguous storedBlock;
     DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
     if (block instanceof BlockInfoContiguousUnderConstruction) {
@@ -2667,7 +3084,7 @@ private void invalidateCorruptReplicas(BlockInfoContiguous blk) {
    * over or under replicated. Place it into the respective queue.
    */
   public void processMisReplicatedBlocks() {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasWriteLock(RwLockMode.GLOBAL);
     stopReplicationInitializer();
     neededReplications.clear();
     replicationQueuesInitializer = new Daemon() {
@@ -2778,7 +3195,7 @@ private void processMisReplicatesAsync() throws InterruptedException {
           break;
         }
       } finally {
-        namesystem.writeUnlock();
+        namesystem.writeUnlock("processMisReplicatedBlocks");
         // Make sure it is out of the write lock for sufficiently long time.
         Thread.sleep(sleepDuration);
       }
@@ -2877,7 +3294,7 @@ public void setReplication(final short oldRepl, final short newRepl,
   private void processOverReplicatedBlock(final Block block,
       final short replication, final DatanodeDescriptor addedNode,
       DatanodeDescriptor delNodeHint) {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasWriteLock(RwLockMode.BM);
     if (addedNode == delNodeHint) {
       delNodeHint = null;
     }
@@ -2928,7 +3345,7 @@ private void chooseExcessReplicates(final Collection<DatanodeStorageInfo> nonExc
                               DatanodeDescriptor addedNode,
                               DatanodeDescriptor delNodeHint,
                               BlockPlacementPolicy replicator) {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasWriteLock(RwLockMode.BM);
     // first form a rack to datanodes map and
     BlockCollection bc = getBlockCollection(b);
     final BlockStoragePolicy storagePolicy = storagePolicySuite.getPolicy(bc.getStoragePolicyID());
@@ -3009,7 +3426,7 @@ static boolean useDelHint(boolean isFirst, DatanodeStorageInfo delHint,
   }
 
   private void addToExcessReplicate(DatanodeInfo dn, Block block) {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasWriteLock(RwLockMode.BM);
     LightWeightLinkedSet<Block> excessBlocks = excessReplicateMap.get(dn.getDatanodeUuid());
     if (excessBlocks == null) {
       excessBlocks = new LightWeightLinkedSet<Block>();
@@ -3039,7 +3456,7 @@ private void removeStoredBlock(DatanodeStorageInfo storageInfo, Block block,
    */
   public void removeStoredBlock(Block block, DatanodeDescriptor node) {
     blockLog.debug("BLOCK* removeStoredBlock: {} from {}", block, node);
-    assert (namesystem.hasWriteLock());
+    assert (namesystem.hasWriteLock(RwLockMode.BM));
     {
       if (!blocksMap.removeNode(block, node)) {
         blockLog.debug("BLOCK* removeStoredBlock: {} has already been" +
@@ -3130,7 +3547,12 @@ void addBlock(DatanodeStorageInfo storageInfo, Block block, String delHint)
     //
     // Modify the blocks->datanode map and node's map.
     //
-    pendingReplications.decrement(block, node);
+    if (pendingReplications.decrement(block, node)) {
+      final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      if (metrics != null) {
+        metrics.incrPendingReplicationsCompleted();
+      }
+    }
     processAndHandleReportedBlock(storageInfo, block, ReplicaState.FINALIZED,
         delHintNode);
   }
@@ -3184,7 +3606,7 @@ private void processAndHandleReportedBlock(
    */
   public void processIncrementalBlockReport(final DatanodeID nodeID,
       final StorageReceivedDeletedBlocks srdb) throws IOException {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasWriteLock(RwLockMode.GLOBAL);
     int received = 0;
     int deleted = 0;
     int receiving = 0;
@@ -3374,7 +3796,7 @@ public int getTotalBlocks() {
   }
 
   public void removeBlock(Block block) {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasWriteLock(RwLockMode.BM);
     // No need to ACK blocks that are being removed entirely
     // from the namespace, since the removal of the associated
     // file already removes them from the block map below.
@@ -3397,7 +3819,7 @@ public BlockInfoContiguous getStoredBlock(Block block) {
   /** updates a block in under replication queue */
   private void updateNeededReplications(final Block block,
       final int curReplicasDelta, int expectedReplicasDelta) {
-    namesystem.writeLock();
+    namesystem.writeLock(RwLockMode.BM);
     try {
       if (!namesystem.isPopulatingReplQueues()) {
         return;
@@ -3415,7 +3837,7 @@ private void updateNeededReplications(final Block block,
                                   oldExpectedReplicas);
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock(RwLockMode.BM, "updateNeededReplications");
     }
   }
 
@@ -3457,7 +3879,9 @@ private int getReplication(Block block) {
   private int invalidateWorkForOneNode(DatanodeInfo dn) {
     final List<Block> toInvalidate;
     
-    namesystem.writeLock();
+    // invalidateBlocks guards itself, the lock only keeps the datanode
+    // registered while its work is scheduled
+    namesystem.readLock(RwLockMode.BM);
     try {
       // blocks should not be replicated or removed if safe mode is on
       if (namesystem.isInSafeMode()) {
@@ -3481,7 +3905,11 @@ private int invalidateWorkForOneNode(DatanodeInfo dn) {
         return 0;
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.readUnlock(RwLockMode.BM, "invalidateWorkForOneNode");
+    }
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.incrBlocksDeletionScheduled(toInvalidate.size());
     }
     blockLog.info("BLOCK* {}: ask {} to delete {}", getClass().getSimpleName(),
         dn, toInvalidate);
@@ -3613,6 +4041,43 @@ public int numOfUnderReplicatedBlocks() {
     return neededReplications.size();
   }
 
+  /**
+   * Choose the targets of the given replication work, in parallel if there
+   * is a {@link #replicationTargetChooser}.
+   */
+  private void chooseReplicationTargets(List<ReplicationWork> work) {
+    if (replicationTargetChooser == null || work.size() <= 1) {
+      final Set<Node> excludedNodes = new HashSet<Node>();
+      for (ReplicationWork rw : work) {
+        rw.chooseTargets(blockplacement, storagePolicySuite, excludedNodes);
+      }
+      return;
+    }
+
+    final List<Future<?>> futures = new ArrayList<Future<?>>(work.size());
+    for (final ReplicationWork rw : work) {
+      if (rw.srcNode == null) {
+        continue;
+      }
+      futures.add(replicationTargetChooser.submit(new Runnable() {
+        @Override
+        public void run() {
+          rw.chooseTargets(blockplacement, storagePolicySuite,
+              new HashSet<Node>());
+        }
+      }));
+    }
+    // wait for all the targets, so that none is chosen concurrently with
+    // the scheduling of the work
+    for (Future<?> f : futures) {
+      try {
+        Uninterruptibles.getUninterruptibly(f);
+      } catch (ExecutionException e) {
+        Throwables.propagate(e.getCause());
+      }
+    }
+  }
+
   /**
    * Periodically calls computeReplicationWork().
    */
@@ -3675,12 +4140,12 @@ int computeDatanodeWork() {
     int workFound = this.computeReplicationWork(blocksToProcess);
 
     // Update counters
-    namesystem.writeLock();
+    namesystem.writeLock(RwLockMode.BM);
     try {
       this.updateState();
       this.scheduledReplicationBlocksCount = workFound;
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock(RwLockMode.BM, "computeDatanodeWork");
     }
     workFound += this.computeInvalidateWork(nodesToProcess);
     return workFound;
@@ -3701,6 +4166,10 @@ public void clearQueues() {
   };
   
 
+  /**
+   * The replication of a block. A work without a source node only rechecks,
+   * under the write lock, whether the block still needs replication.
+   */
   private static class ReplicationWork {
 
     private final Block block;
@@ -3731,10 +4200,29 @@ public ReplicationWork(Block block,
       this.priority = priority;
       this.targets = null;
     }
+
+    /** A block found not to need replication anymore. */
+    ReplicationWork(Block block, int priority) {
+      this.block = block;
+      this.bc = null;
+      this.srcNode = null;
+      this.containingNodes = null;
+      this.liveReplicaStorages = null;
+      this.additionalReplRequired = 0;
+      this.priority = priority;
+      this.targets = null;
+    }
     
     private void chooseTargets(BlockPlacementPolicy blockplacement,
         BlockStoragePolicySuite storagePolicySuite,
         Set<Node> excludedNodes) {
+      if (srcNode == null) {
+        return;
+      }
+      // Exclude all of the containing nodes from being targets.
+      // This list includes decommissioning or corrupt nodes.
+      excludedNodes.clear();
+      excludedNodes.addAll(containingNodes);
       try {
         targets = blockplacement.chooseTarget(bc.getName(),
             additionalReplRequired, srcNode, liveReplicaStorages, false,
@@ -22,6 +22,7 @@
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeStorageInfo.AddBlockResult;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
+import org.apache.hadoop.hdfs.util.CompactGSet;
 import org.apache.hadoop.util.GSet;
 import org.apache.hadoop.util.LightWeightGSet;
 
@@ -60,7 +61,7 @@ public void remove()  {
     }
   }
 
-  /** Constant {@link LightWeightGSet} capacity. */
+  /** Constant {@link LightWeightGSet} capacity, 0 for a {@link CompactGSet}. */
   private final int capacity;
   
   private GSet<Block, BlockInfoContiguous> blocks;
@@ -84,6 +85,26 @@ public Iterator<BlockInfoContiguous> iterator() {
     };
   }
 
+  /** Create a map which keeps the blocks in a {@link CompactGSet}. */
+  BlocksMap() {
+    this.capacity = 0;
+    this.blocks = new CompactGSet<Block, BlockInfoContiguous>(0) {
+      @Override
+      protected long getId(Block block) {
+        return block.getBlockId();
+      }
+
+      @Override
+      public Iterator<BlockInfoContiguous> iterator() {
+        SetIterator iterator = new SetIterator();
+        // As above, except that a block may also be returned twice if the
+        // set changes during the iteration.
+        iterator.setTrackModification(false);
+        return iterator;
+      }
+    };
+  }
+
 
   void close() {
     clear();
@@ -209,6 +230,9 @@ Iterable<BlockInfoContiguous> getBlocks() {
   
   /** Get the capacity of the HashMap that stores blocks */
   int getCapacity() {
+    if (blocks instanceof CompactGSet) {
+      return ((CompactGSet<?, ?>) blocks).getCapacity();
+    }
     return capacity;
   }
 
@@ -248,7 +248,7 @@ public CachedBlocksList getPendingUncached() {
   private boolean disallowed = false;
 
   // The number of replication work pending before targets are determined
-  private int PendingReplicationWithoutTargets = 0;
+  private volatile int PendingReplicationWithoutTargets = 0;
 
   // HB processing can use it to tell if it is the first HB since DN restarted
   private boolean heartbeatedSinceRegistration = false;
@@ -295,7 +295,7 @@ public StorageReport[] getStorageReports() {
     return reports;
   }
 
-  boolean hasStaleStorages() {
+  public boolean hasStaleStorages() {
     synchronized (storageMap) {
       for (DatanodeStorageInfo storage : storageMap.values()) {
         if (storage.areBlockContentsStale()) {
@@ -578,11 +578,11 @@ Iterator<BlockInfoContiguous> getBlockIterator(final String storageID) {
     return new BlockIterator(getStorageInfo(storageID));
   }
 
-  void incrementPendingReplicationWithoutTargets() {
+  synchronized void incrementPendingReplicationWithoutTargets() {
     PendingReplicationWithoutTargets++;
   }
 
-  void decrementPendingReplicationWithoutTargets() {
+  synchronized void decrementPendingReplicationWithoutTargets() {
     PendingReplicationWithoutTargets--;
   }
 
@@ -21,6 +21,8 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.net.InetAddresses;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -90,6 +92,12 @@ public class DatanodeManager {
   /** Cluster network topology */
   private final NetworkTopology networktopology;
 
+  /** Sorts the block locations returned to the readers. */
+  private final BlockLocationSorter blockLocationSorter;
+
+  /** The resolved network locations of the readers which are not datanodes. */
+  private final Cache<String, String> readerLocations;
+
   /** Host names to datanode descriptors mapping. */
   private final Host2NodesMap host2DatanodeMap = new Host2NodesMap();
 
@@ -252,6 +260,12 @@ public class DatanodeManager {
         DFSConfigKeys.DFS_NAMENODE_AVOID_STALE_DATANODE_FOR_WRITE_KEY,
         DFSConfigKeys.DFS_NAMENODE_AVOID_STALE_DATANODE_FOR_WRITE_DEFAULT);
     this.staleInterval = getStaleIntervalFromConf(conf, heartbeatExpireInterval);
+    this.blockLocationSorter = BlockLocationSorter.getInstance(conf,
+        networktopology, avoidStaleDataNodesForRead, staleInterval);
+    this.readerLocations = CacheBuilder.newBuilder().maximumSize(conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_READER_LOCATION_CACHE_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_READER_LOCATION_CACHE_SIZE_DEFAULT))
+        .build();
     this.ratioUseStaleDataNodesForWrite = conf.getFloat(
         DFSConfigKeys.DFS_NAMENODE_USE_STALE_DATANODE_FOR_WRITE_RATIO_KEY,
         DFSConfigKeys.DFS_NAMENODE_USE_STALE_DATANODE_FOR_WRITE_RATIO_DEFAULT);
@@ -350,18 +364,6 @@ public DatanodeStatistics getDatanodeStatistics() {
     return heartbeatManager;
   }
 
-  private boolean isInactive(DatanodeInfo datanode) {
-    if (datanode.isDecommissioned()) {
-      return true;
-    }
-
-    if (avoidStaleDataNodesForRead) {
-      return datanode.isStale(staleInterval);
-    }
-      
-    return false;
-  }
-  
   /** Sort the located blocks by the distance to the target host. */
   public void sortLocatedBlocks(final String targethost,
       final List<LocatedBlock> locatedblocks) {
@@ -370,31 +372,20 @@ public void sortLocatedBlocks(final String targethost,
     // here we should get node but not datanode only .
     Node client = getDatanodeByHost(targethost);
     if (client == null) {
-      List<String> hosts = new ArrayList<String> (1);
-      hosts.add(targethost);
-      String rName = dnsToSwitchMapping.resolve(hosts).get(0);
+      String rName = readerLocations.getIfPresent(targethost);
+      if (rName == null) {
+        List<String> hosts = new ArrayList<String> (1);
+        hosts.add(targethost);
+        rName = dnsToSwitchMapping.resolve(hosts).get(0);
+        if (rName != null) {
+          readerLocations.put(targethost, rName);
+        }
+      }
       if (rName != null)
         client = new NodeBase(rName + NodeBase.PATH_SEPARATOR_STR + targethost);
     }
     
-    Comparator<DatanodeInfo> comparator = avoidStaleDataNodesForRead ?
-        new DFSUtil.DecomStaleComparator(staleInterval) : 
-        DFSUtil.DECOM_COMPARATOR;
-        
-    for (LocatedBlock b : locatedblocks) {
-      DatanodeInfo[] di = b.getLocations();
-      // Move decommissioned/stale datanodes to the bottom
-      Arrays.sort(di, comparator);
-      
-      int lastActiveIndex = di.length - 1;
-      while (lastActiveIndex > 0 && isInactive(di[lastActiveIndex])) {
-          --lastActiveIndex;
-      }
-      int activeLen = lastActiveIndex + 1;      
-      networktopology.sortByDistance(client, b.getLocations(), activeLen);
-      // must update cache since we modified locations array
-      b.updateCachedStorageInfo();
-    }
+    blockLocationSorter.sort(client, locatedblocks);
   }
   
   CyclicIteration<String, DatanodeDescriptor> getDatanodeCyclicIteration(
@@ -535,6 +526,7 @@ private void removeDatanode(DatanodeDescriptor nodeInfo) {
     heartbeatManager.removeDatanode(nodeInfo);
     blockManager.removeBlocksAssociatedTo(nodeInfo);
     networktopology.remove(nodeInfo);
+    readerLocations.invalidateAll();
     decrementVersionCount(nodeInfo.getSoftwareVersion());
 
     if (LOG.isDebugEnabled()) {
@@ -559,7 +551,7 @@ public void removeDatanode(final DatanodeID node
                                      + node + " does not exist");
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("removeDatanode");
     }
   }
 
@@ -596,6 +588,7 @@ void addDatanode(final DatanodeDescriptor node) {
     }
 
     networktopology.add(node); // may throw InvalidTopologyException
+    readerLocations.invalidateAll();
     host2DatanodeMap.add(node);
     checkIfClusterIsNowMultiRack(node);
 
@@ -921,6 +914,7 @@ nodes with its data cleared (or user can just remove the StorageID
         try {
           // update cluster map
           getNetworkTopology().remove(nodeS);
+          readerLocations.invalidateAll();
           if(shouldCountVersion(nodeS)) {
             decrementVersionCount(nodeS.getSoftwareVersion());
           }
@@ -940,6 +934,7 @@ nodes with its data cleared (or user can just remove the StorageID
                 getNetworkDependenciesWithDefault(nodeS));
           }
           getNetworkTopology().add(nodeS);
+          readerLocations.invalidateAll();
             
           // also treat the registration message as a heartbeat
           heartbeatManager.register(nodeS);
@@ -971,6 +966,7 @@ nodes with its data cleared (or user can just remove the StorageID
               getNetworkDependenciesWithDefault(nodeDescr));
         }
         networktopology.add(nodeDescr);
+        readerLocations.invalidateAll();
         nodeDescr.setSoftwareVersion(nodeReg.getSoftwareVersion());
   
         // register new datanode
@@ -1015,7 +1011,7 @@ public void refreshNodes(final Configuration conf) throws IOException {
       refreshDatanodes();
       countSoftwareVersions();
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("refreshNodes");
     }
   }
 
@@ -1341,9 +1337,9 @@ public DatanodeCommand[] handleHeartbeat(DatanodeRegistration nodeReg,
       long cacheCapacity, long cacheUsed, int xceiverCount, 
       int maxTransfers, int failedVolumes,
       VolumeFailureSummary volumeFailureSummary) throws IOException {
+    final DatanodeDescriptor nodeinfo;
     synchronized (heartbeatManager) {
       synchronized (datanodeMap) {
-        DatanodeDescriptor nodeinfo = null;
         try {
           nodeinfo = getDatanode(nodeReg);
         } catch(UnregisteredNodeException e) {
@@ -1364,116 +1360,125 @@ public DatanodeCommand[] handleHeartbeat(DatanodeRegistration nodeReg,
                                          cacheCapacity, cacheUsed,
                                          xceiverCount, failedVolumes,
                                          volumeFailureSummary);
+      }
+    }
 
-        // If we are in safemode, do not send back any recovery / replication
-        // requests. Don't even drain the existing queue of work.
-        if(namesystem.isInSafeMode()) {
-          return new DatanodeCommand[0];
-        }
+    // Most commands come from the queues of the node, which guard themselves,
+    // so the heartbeats of different nodes are handled concurrently.
 
-        //check lease recovery
-        BlockInfoContiguousUnderConstruction[] blocks = nodeinfo
-            .getLeaseRecoveryCommand(Integer.MAX_VALUE);
-        if (blocks != null) {
-          BlockRecoveryCommand brCommand = new BlockRecoveryCommand(
-              blocks.length);
-          for (BlockInfoContiguousUnderConstruction b : blocks) {
-            final DatanodeStorageInfo[] storages = b.getExpectedStorageLocations();
-            // Skip stale nodes during recovery - not heart beated for some time (30s by default).
-            final List<DatanodeStorageInfo> recoveryLocations =
-                new ArrayList<DatanodeStorageInfo>(storages.length);
-            for (int i = 0; i < storages.length; i++) {
-              if (!storages[i].getDatanodeDescriptor().isStale(staleInterval)) {
-                recoveryLocations.add(storages[i]);
-              }
-            }
-            // If we are performing a truncate recovery than set recovery fields
-            // to old block.
-            boolean truncateRecovery = b.getTruncateBlock() != null;
-            boolean copyOnTruncateRecovery = truncateRecovery &&
-                b.getTruncateBlock().getBlockId() != b.getBlockId();
-            ExtendedBlock primaryBlock = (copyOnTruncateRecovery) ?
-                new ExtendedBlock(blockPoolId, b.getTruncateBlock()) :
-                new ExtendedBlock(blockPoolId, b);
-            // If we only get 1 replica after eliminating stale nodes, then choose all
-            // replicas for recovery and let the primary data node handle failures.
-            DatanodeInfo[] recoveryInfos;
-            if (recoveryLocations.size() > 1) {
-              if (recoveryLocations.size() != storages.length) {
-                LOG.info("Skipped stale nodes for recovery : " +
-                    (storages.length - recoveryLocations.size()));
-              }
-              recoveryInfos =
-                  DatanodeStorageInfo.toDatanodeInfos(recoveryLocations);
-            } else {
-              // If too many replicas are stale, then choose all replicas to participate
-              // in block recovery.
-              recoveryInfos = DatanodeStorageInfo.toDatanodeInfos(storages);
-            }
-            if(truncateRecovery) {
-              Block recoveryBlock = (copyOnTruncateRecovery) ? b :
-                  b.getTruncateBlock();
-              brCommand.add(new RecoveringBlock(primaryBlock, recoveryInfos,
-                                                recoveryBlock));
-            } else {
-              brCommand.add(new RecoveringBlock(primaryBlock, recoveryInfos,
-                                                b.getBlockRecoveryId()));
-            }
-          }
-          return new DatanodeCommand[] { brCommand };
-        }
+    // If we are in safemode, do not send back any recovery / replication
+    // requests. Don't even drain the existing queue of work.
+    if(namesystem.isInSafeMode()) {
+      return new DatanodeCommand[0];
+    }
 
-        final List<DatanodeCommand> cmds = new ArrayList<DatanodeCommand>();
-        //check pending replication
-        List<BlockTargetPair> pendingList = nodeinfo.getReplicationCommand(
-              maxTransfers);
-        if (pendingList != null) {
-          cmds.add(new BlockCommand(DatanodeProtocol.DNA_TRANSFER, blockPoolId,
-              pendingList));
-        }
-        //check block invalidation
-        Block[] blks = nodeinfo.getInvalidateBlocks(blockInvalidateLimit);
-        if (blks != null) {
-          cmds.add(new BlockCommand(DatanodeProtocol.DNA_INVALIDATE,
-              blockPoolId, blks));
-        }
-        boolean sendingCachingCommands = false;
-        long nowMs = monotonicNow();
-        if (shouldSendCachingCommands && 
-            ((nowMs - nodeinfo.getLastCachingDirectiveSentTimeMs()) >=
-                timeBetweenResendingCachingDirectivesMs)) {
-          DatanodeCommand pendingCacheCommand =
-              getCacheCommand(nodeinfo.getPendingCached(), nodeinfo,
-                DatanodeProtocol.DNA_CACHE, blockPoolId);
-          if (pendingCacheCommand != null) {
-            cmds.add(pendingCacheCommand);
-            sendingCachingCommands = true;
+    //check lease recovery
+    BlockInfoContiguousUnderConstruction[] blocks = nodeinfo
+        .getLeaseRecoveryCommand(Integer.MAX_VALUE);
+    if (blocks != null) {
+      BlockRecoveryCommand brCommand = new BlockRecoveryCommand(
+          blocks.length);
+      for (BlockInfoContiguousUnderConstruction b : blocks) {
+        final DatanodeStorageInfo[] storages = b.getExpectedStorageLocations();
+        // Skip stale nodes during recovery - not heart beated for some time (30s by default).
+        final List<DatanodeStorageInfo> recoveryLocations =
+            new ArrayList<DatanodeStorageInfo>(storages.length);
+        for (int i = 0; i < storages.length; i++) {
+          if (!storages[i].getDatanodeDescriptor().isStale(staleInterval)) {
+            recoveryLocations.add(storages[i]);
           }
-          DatanodeCommand pendingUncacheCommand =
-              getCacheCommand(nodeinfo.getPendingUncached(), nodeinfo,
-                DatanodeProtocol.DNA_UNCACHE, blockPoolId);
-          if (pendingUncacheCommand != null) {
-            cmds.add(pendingUncacheCommand);
-            sendingCachingCommands = true;
-          }
-          if (sendingCachingCommands) {
-            nodeinfo.setLastCachingDirectiveSentTimeMs(nowMs);
+        }
+        // If we are performing a truncate recovery than set recovery fields
+        // to old block.
+        boolean truncateRecovery = b.getTruncateBlock() != null;
+        boolean copyOnTruncateRecovery = truncateRecovery &&
+            b.getTruncateBlock().getBlockId() != b.getBlockId();
+        ExtendedBlock primaryBlock = (copyOnTruncateRecovery) ?
+            new ExtendedBlock(blockPoolId, b.getTruncateBlock()) :
+            new ExtendedBlock(blockPoolId, b);
+        // If we only get 1 replica after eliminating stale nodes, then choose all
+        // replicas for recovery and let the primary data node handle failures.
+        DatanodeInfo[] recoveryInfos;
+        if (recoveryLocations.size() > 1) {
+          if (recoveryLocations.size() != storages.length) {
+            LOG.info("Skipped stale nodes for recovery : " +
+                (storages.length - recoveryLocations.size()));
           }
+          recoveryInfos =
+              DatanodeStorageInfo.toDatanodeInfos(recoveryLocations);
+        } else {
+          // If too many replicas are stale, then choose all replicas to participate
+          // in block recovery.
+          recoveryInfos = DatanodeStorageInfo.toDatanodeInfos(storages);
         }
-
-        blockManager.addKeyUpdateCommand(cmds, nodeinfo);
-
-        // check for balancer bandwidth update
-        if (nodeinfo.getBalancerBandwidth() > 0) {
-          cmds.add(new BalancerBandwidthCommand(nodeinfo.getBalancerBandwidth()));
-          // set back to 0 to indicate that datanode has been sent the new value
-          nodeinfo.setBalancerBandwidth(0);
+        if(truncateRecovery) {
+          Block recoveryBlock = (copyOnTruncateRecovery) ? b :
+              b.getTruncateBlock();
+          brCommand.add(new RecoveringBlock(primaryBlock, recoveryInfos,
+                                            recoveryBlock));
+        } else {
+          brCommand.add(new RecoveringBlock(primaryBlock, recoveryInfos,
+                                            b.getBlockRecoveryId()));
         }
+      }
+      return new DatanodeCommand[] { brCommand };
+    }
 
-        if (!cmds.isEmpty()) {
-          return cmds.toArray(new DatanodeCommand[cmds.size()]);
+    final List<DatanodeCommand> cmds = new ArrayList<DatanodeCommand>();
+    //check pending replication
+    List<BlockTargetPair> pendingList = nodeinfo.getReplicationCommand(
+          maxTransfers);
+    if (pendingList != null) {
+      cmds.add(new BlockCommand(DatanodeProtocol.DNA_TRANSFER, blockPoolId,
+          pendingList));
+    }
+    //check block invalidation
+    Block[] blks = nodeinfo.getInvalidateBlocks(blockInvalidateLimit);
+    if (blks != null) {
+      cmds.add(new BlockCommand(DatanodeProtocol.DNA_INVALIDATE,
+          blockPoolId, blks));
+    }
+    boolean sendingCachingCommands = false;
+    long nowMs = monotonicNow();
+    if (shouldSendCachingCommands && 
+        ((nowMs - nodeinfo.getLastCachingDirectiveSentTimeMs()) >=
+            timeBetweenResendingCachingDirectivesMs)) {
+      // The cached blocks are linked into the lists of all their nodes, so
+      // the lists of different nodes cannot be drained concurrently.
+      synchronized (datanodeMap) {
+        DatanodeCommand pendingCacheCommand =
+            getCacheCommand(nodeinfo.getPendingCached(), nodeinfo,
+              DatanodeProtocol.DNA_CACHE, blockPoolId);
+        if (pendingCacheCommand != null) {
+          cmds.add(pendingCacheCommand);
+          sendingCachingCommands = true;
+        }
+        DatanodeCommand pendingUncacheCommand =
+            getCacheCommand(nodeinfo.getPendingUncached(), nodeinfo,
+              DatanodeProtocol.DNA_UNCACHE, blockPoolId);
+        if (pendingUncacheCommand != null) {
+          cmds.add(pendingUncacheCommand);
+          sendingCachingCommands = true;
         }
       }
+      if (sendingCachingCommands) {
+        nodeinfo.setLastCachingDirectiveSentTimeMs(nowMs);
+      }
+    }
+
+    blockManager.addKeyUpdateCommand(cmds, nodeinfo);
+
+    // check for balancer bandwidth update
+    synchronized (datanodeMap) {
+      if (nodeinfo.getBalancerBandwidth() > 0) {
+        cmds.add(new BalancerBandwidthCommand(nodeinfo.getBalancerBandwidth()));
+        // set back to 0 to indicate that datanode has been sent the new value
+        nodeinfo.setBalancerBandwidth(0);
+      }
+    }
+
+    if (!cmds.isEmpty()) {
+      return cmds.toArray(new DatanodeCommand[cmds.size()]);
     }
 
     return new DatanodeCommand[0];
@@ -18,12 +18,17 @@
 package org.apache.hadoop.hdfs.server.blockmanagement;
 
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.common.annotations.VisibleForTesting;
 
 import org.apache.hadoop.fs.StorageType;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage.State;
@@ -114,6 +119,8 @@ public void remove() {
 
   private volatile BlockInfoContiguous blockList = null;
   private int numBlocks = 0;
+  /** XOR of the hashes of the blocks in {@link #blockList}. */
+  private long replicaHash = 0;
 
   // The ID of the last full block report which updated this storage.
   private long lastBlockReportId = 0;
@@ -137,6 +144,17 @@ public void remove() {
    */
   private boolean blockContentsStale = true;
 
+  /** Serializes the processing of the full block reports of this storage. */
+  private final ReentrantLock blockReportLock = new ReentrantLock();
+
+  /**
+   * The blocks newly added to this storage while a full block report is
+   * being processed, or null if no report is in progress. A full block
+   * report releases the namesystem lock between slices, so these must not
+   * be removed as unreported.
+   */
+  private Set<Block> blocksAddedDuringReport = null;
+
   DatanodeStorageInfo(DatanodeDescriptor dn, DatanodeStorage s) {
     this.dn = dn;
     this.storageID = s.getStorageID();
@@ -248,6 +266,11 @@ public AddBlockResult addBlock(BlockInfoContiguous b) {
     b.addStorage(this);
     blockList = b.listInsert(blockList, this);
     numBlocks++;
+    replicaHash ^= BlockListAsLongs.hashReplica(b.getBlockId(),
+        b.getGenerationStamp(), b.getNumBytes());
+    if (blocksAddedDuringReport != null) {
+      blocksAddedDuringReport.add(b);
+    }
     return result;
   }
 
@@ -255,6 +278,8 @@ public boolean removeBlock(BlockInfoContiguous b) {
     blockList = b.listRemove(blockList, this);
     if (b.removeStorage(this)) {
       numBlocks--;
+      replicaHash ^= BlockListAsLongs.hashReplica(b.getBlockId(),
+          b.getGenerationStamp(), b.getNumBytes());
       return true;
     } else {
       return false;
@@ -264,6 +289,42 @@ public boolean removeBlock(BlockInfoContiguous b) {
   int numBlocks() {
     return numBlocks;
   }
+
+  /**
+   * @return the hash of the replicas on this storage, to be compared with
+   *         the hash sent by the datanode in a hash-only block report.
+   * @see BlockListAsLongs#hashReplica(long, long, long)
+   */
+  long getReplicaHash() {
+    return replicaHash;
+  }
+
+  /**
+   * The ID, generation stamp or length of a block on this storage changed.
+   * @param delta XOR of the old and the new hash of the block
+   */
+  void updateReplicaHash(long delta) {
+    replicaHash ^= delta;
+  }
+
+  ReentrantLock getBlockReportLock() {
+    return blockReportLock;
+  }
+
+  /** Start recording the blocks added to this storage. */
+  void startBlockReport() {
+    blocksAddedDuringReport = new HashSet<Block>();
+  }
+
+  /**
+   * Stop recording the blocks added to this storage.
+   * @return the blocks added since {@link #startBlockReport()}
+   */
+  Set<Block> finishBlockReport() {
+    final Set<Block> added = blocksAddedDuringReport;
+    blocksAddedDuringReport = null;
+    return added;
+  }
   
   Iterator<BlockInfoContiguous> getBlockIterator() {
     return new BlockIterator(blockList);
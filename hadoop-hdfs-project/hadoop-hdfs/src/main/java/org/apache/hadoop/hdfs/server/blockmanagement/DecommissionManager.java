@@ -39,7 +39,6 @@
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.server.namenode.Namesystem;
-import org.apache.hadoop.hdfs.util.CyclicIteration;
 import org.apache.hadoop.util.ChunkedArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -170,15 +169,22 @@ void activate(Configuration conf) {
         "value for "
         + DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_MAX_CONCURRENT_TRACKED_NODES);
 
+    final int blocksPerLock = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_BLOCKS_PER_LOCK_KEY,
+        DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_BLOCKS_PER_LOCK_DEFAULT);
+    checkArgument(blocksPerLock > 0, "Must set a positive value for "
+        + DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_BLOCKS_PER_LOCK_KEY);
+
     monitor = new Monitor(blocksPerInterval, 
-        nodesPerInterval, maxConcurrentTrackedNodes);
+        nodesPerInterval, maxConcurrentTrackedNodes, blocksPerLock);
     executor.scheduleAtFixedRate(monitor, intervalSecs, intervalSecs,
         TimeUnit.SECONDS);
 
     LOG.debug("Activating DecommissionManager with interval {} seconds, " +
             "{} max blocks per interval, {} max nodes per interval, " +
-            "{} max concurrently tracked nodes.", intervalSecs,
-        blocksPerInterval, nodesPerInterval, maxConcurrentTrackedNodes);
+            "{} max concurrently tracked nodes, {} max blocks per lock.",
+        intervalSecs, blocksPerInterval, nodesPerInterval,
+        maxConcurrentTrackedNodes, blocksPerLock);
   }
 
   /**
@@ -308,7 +314,6 @@ private static void logBlockReplicationInfo(Block block, BlockCollection bc,
         + srcNode.isDecommissionInProgress());
   }
 
-  @VisibleForTesting
   public int getNumPendingNodes() {
     return pendingNodes.size();
   }
@@ -323,11 +328,21 @@ public int getNumNodesChecked() {
     return monitor.numNodesChecked;
   }
 
+  /**
+   * @return the number of insufficiently replicated blocks tracked for the
+   * decommission-in-progress datanodes, as of the last monitor tick
+   */
+  public long getNumTrackedBlocks() {
+    return monitor == null ? 0 : monitor.numTrackedBlocks;
+  }
+
   /**
    * Checks to see if DNs have finished decommissioning.
    * <p/>
    * Since this is done while holding the namesystem lock, 
-   * the amount of work per monitor tick is limited.
+   * the amount of work per monitor tick is limited. The lock is also
+   * released between datanodes, and while pruning the tracked blocks of a
+   * datanode every numBlocksPerLock blocks.
    */
   private class Monitor implements Runnable {
     /**
@@ -343,6 +358,11 @@ private class Monitor implements Runnable {
      * means no limit.
      */
     private final int maxConcurrentTrackedNodes;
+    /**
+     * The maximum number of tracked blocks to prune before releasing the
+     * namesystem lock.
+     */
+    private final int numBlocksPerLock;
     /**
      * The number of blocks that have been checked on this tick.
      */
@@ -352,17 +372,30 @@ private class Monitor implements Runnable {
      * testing.
      */
     private int numNodesChecked = 0;
+    /**
+     * The number of blocks in decomNodeBlocks at the end of the last tick.
+     */
+    private volatile long numTrackedBlocks = 0;
     /**
      * The last datanode in decomNodeBlocks that we've processed
      */
     private DatanodeDescriptor iterkey = new DatanodeDescriptor(new 
         DatanodeID("", "", "", 0, 0, 0, 0));
+    /**
+     * The counts of the datanode being checked, which may take several
+     * lock holds.
+     */
+    private boolean firstReplicationLog;
+    private int underReplicatedBlocks;
+    private int decommissionOnlyReplicas;
+    private int underReplicatedInOpenFiles;
 
     Monitor(int numBlocksPerCheck, int numNodesPerCheck, int 
-        maxConcurrentTrackedNodes) {
+        maxConcurrentTrackedNodes, int numBlocksPerLock) {
       this.numBlocksPerCheck = numBlocksPerCheck;
       this.numNodesPerCheck = numNodesPerCheck;
       this.maxConcurrentTrackedNodes = maxConcurrentTrackedNodes;
+      this.numBlocksPerLock = numBlocksPerLock;
     }
 
     private boolean exceededNumBlocksPerCheck() {
@@ -387,12 +420,37 @@ public void run() {
       numBlocksChecked = 0;
       numNodesChecked = 0;
       // Check decom progress
+      final int numNodes;
       namesystem.writeLock();
       try {
         processPendingNodes();
-        check();
+        numNodes = decomNodeBlocks.size();
       } finally {
-        namesystem.writeUnlock();
+        namesystem.writeUnlock("decommissionMonitor");
+      }
+      // Visit each tracked node at most once, one lock hold per node
+      for (int i = 0; i < numNodes
+          && !exceededNumBlocksPerCheck()
+          && !exceededNumNodesPerCheck(); i++) {
+        namesystem.writeLock();
+        try {
+          if (!check()) {
+            break;
+          }
+        } finally {
+          namesystem.writeUnlock("decommissionMonitor");
+        }
+      }
+      namesystem.readLock();
+      try {
+        long numBlocks = 0;
+        for (AbstractList<BlockInfoContiguous> blocks :
+            decomNodeBlocks.values()) {
+          numBlocks += blocks == null ? 0 : blocks.size();
+        }
+        numTrackedBlocks = numBlocks;
+      } finally {
+        namesystem.readUnlock("decommissionMonitor");
       }
       if (numBlocksChecked + numNodesChecked > 0) {
         LOG.info("Checked {} blocks and {} nodes this tick", numBlocksChecked,
@@ -412,92 +470,116 @@ private void processPendingNodes() {
       }
     }
 
-    private void check() {
-      final Iterator<Map.Entry<DatanodeDescriptor, AbstractList<BlockInfoContiguous>>>
-          it = new CyclicIteration<>(decomNodeBlocks, iterkey).iterator();
-      final LinkedList<DatanodeDescriptor> toRemove = new LinkedList<>();
-
-      while (it.hasNext()
-          && !exceededNumBlocksPerCheck()
-          && !exceededNumNodesPerCheck()) {
-        numNodesChecked++;
-        final Map.Entry<DatanodeDescriptor, AbstractList<BlockInfoContiguous>>
-            entry = it.next();
-        final DatanodeDescriptor dn = entry.getKey();
-        AbstractList<BlockInfoContiguous> blocks = entry.getValue();
-        boolean fullScan = false;
-        if (blocks == null) {
-          // This is a newly added datanode, run through its list to schedule 
-          // under-replicated blocks for replication and collect the blocks 
-          // that are insufficiently replicated for further tracking
-          LOG.debug("Newly-added node {}, doing full scan to find " +
-              "insufficiently-replicated blocks.", dn);
+    /**
+     * Check the tracked datanode following the last checked one.
+     * @return false if there are no more tracked datanodes
+     */
+    private boolean check() {
+      Map.Entry<DatanodeDescriptor, AbstractList<BlockInfoContiguous>>
+          entry = decomNodeBlocks.higherEntry(iterkey);
+      if (entry == null) {
+        entry = decomNodeBlocks.firstEntry();
+        if (entry == null) {
+          return false;
+        }
+      }
+      numNodesChecked++;
+      final DatanodeDescriptor dn = entry.getKey();
+      iterkey = dn;
+      AbstractList<BlockInfoContiguous> blocks = entry.getValue();
+      boolean fullScan = false;
+      if (blocks == null) {
+        // This is a newly added datanode, run through its list to schedule 
+        // under-replicated blocks for replication and collect the blocks 
+        // that are insufficiently replicated for further tracking
+        LOG.debug("Newly-added node {}, doing full scan to find " +
+            "insufficiently-replicated blocks.", dn);
+        blocks = handleInsufficientlyReplicated(dn);
+        decomNodeBlocks.put(dn, blocks);
+        fullScan = true;
+      } else {
+        // This is a known datanode, check if its # of insufficiently 
+        // replicated blocks has dropped to zero and if it can be decommed
+        LOG.debug("Processing decommission-in-progress node {}", dn);
+        if (!pruneSufficientlyReplicated(dn, blocks)) {
+          LOG.debug("Node {} stopped decommissioning while being checked.",
+              dn);
+          return true;
+        }
+      }
+      if (blocks.size() == 0) {
+        if (!fullScan) {
+          // If we didn't just do a full scan, need to re-check with the 
+          // full block map.
+          //
+          // We've replicated all the known insufficiently replicated 
+          // blocks. Re-check with the full block map before finally 
+          // marking the datanode as decommissioned 
+          LOG.debug("Node {} has finished replicating current set of "
+              + "blocks, checking with the full block map.", dn);
           blocks = handleInsufficientlyReplicated(dn);
           decomNodeBlocks.put(dn, blocks);
-          fullScan = true;
-        } else {
-          // This is a known datanode, check if its # of insufficiently 
-          // replicated blocks has dropped to zero and if it can be decommed
-          LOG.debug("Processing decommission-in-progress node {}", dn);
-          pruneSufficientlyReplicated(dn, blocks);
         }
-        if (blocks.size() == 0) {
-          if (!fullScan) {
-            // If we didn't just do a full scan, need to re-check with the 
-            // full block map.
-            //
-            // We've replicated all the known insufficiently replicated 
-            // blocks. Re-check with the full block map before finally 
-            // marking the datanode as decommissioned 
-            LOG.debug("Node {} has finished replicating current set of "
-                + "blocks, checking with the full block map.", dn);
-            blocks = handleInsufficientlyReplicated(dn);
-            decomNodeBlocks.put(dn, blocks);
-          }
-          // If the full scan is clean AND the node liveness is okay, 
-          // we can finally mark as decommissioned.
-          final boolean isHealthy =
-              blockManager.isNodeHealthyForDecommission(dn);
-          if (blocks.size() == 0 && isHealthy) {
-            setDecommissioned(dn);
-            toRemove.add(dn);
-            LOG.debug("Node {} is sufficiently replicated and healthy, "
-                + "marked as decommissioned.", dn);
-          } else {
-            if (LOG.isDebugEnabled()) {
-              StringBuilder b = new StringBuilder("Node {} ");
-              if (isHealthy) {
-                b.append("is ");
-              } else {
-                b.append("isn't ");
-              }
-              b.append("healthy and still needs to replicate {} more blocks," +
-                  " decommissioning is still in progress.");
-              LOG.debug(b.toString(), dn, blocks.size());
+        // If the full scan is clean AND the node liveness is okay, 
+        // we can finally mark as decommissioned.
+        final boolean isHealthy =
+            blockManager.isNodeHealthyForDecommission(dn);
+        if (blocks.size() == 0 && isHealthy) {
+          setDecommissioned(dn);
+          Preconditions.checkState(dn.isDecommissioned(),
+              "Removing a node that is not yet decommissioned!");
+          decomNodeBlocks.remove(dn);
+          LOG.debug("Node {} is sufficiently replicated and healthy, "
+              + "marked as decommissioned.", dn);
+        } else {
+          if (LOG.isDebugEnabled()) {
+            StringBuilder b = new StringBuilder("Node {} ");
+            if (isHealthy) {
+              b.append("is ");
+            } else {
+              b.append("isn't ");
             }
+            b.append("healthy and still needs to replicate {} more blocks," +
+                " decommissioning is still in progress.");
+            LOG.debug(b.toString(), dn, blocks.size());
           }
-        } else {
-          LOG.debug("Node {} still has {} blocks to replicate "
-                  + "before it is a candidate to finish decommissioning.",
-              dn, blocks.size());
         }
-        iterkey = dn;
-      }
-      // Remove the datanodes that are decommissioned
-      for (DatanodeDescriptor dn : toRemove) {
-        Preconditions.checkState(dn.isDecommissioned(),
-            "Removing a node that is not yet decommissioned!");
-        decomNodeBlocks.remove(dn);
+      } else {
+        LOG.debug("Node {} still has {} blocks to replicate "
+                + "before it is a candidate to finish decommissioning.",
+            dn, blocks.size());
       }
+      return true;
     }
 
     /**
      * Removes sufficiently replicated blocks from the block list of a 
-     * datanode.
+     * datanode. The namesystem lock is released every numBlocksPerLock
+     * blocks; the block list is only modified by the monitor.
+     *
+     * @return false if the datanode stopped being tracked while the lock was
+     * released
      */
-    private void pruneSufficientlyReplicated(final DatanodeDescriptor datanode,
+    private boolean pruneSufficientlyReplicated(
+        final DatanodeDescriptor datanode,
         AbstractList<BlockInfoContiguous> blocks) {
-      processBlocksForDecomInternal(datanode, blocks.iterator(), null, true);
+      final Iterator<BlockInfoContiguous> it = blocks.iterator();
+      startBlockCounts();
+      while (true) {
+        processBlocksForDecomInternal(datanode, it, null, true,
+            numBlocksPerLock);
+        if (!it.hasNext()) {
+          break;
+        }
+        // let the other operations in before the next chunk
+        namesystem.writeUnlock("decommissionMonitor");
+        namesystem.writeLock();
+        if (decomNodeBlocks.get(datanode) != blocks) {
+          return false;
+        }
+      }
+      setBlockCounts(datanode);
+      return true;
     }
 
     /**
@@ -513,11 +595,26 @@ private void pruneSufficientlyReplicated(final DatanodeDescriptor datanode,
     private AbstractList<BlockInfoContiguous> handleInsufficientlyReplicated(
         final DatanodeDescriptor datanode) {
       AbstractList<BlockInfoContiguous> insufficient = new ChunkedArrayList<>();
+      startBlockCounts();
       processBlocksForDecomInternal(datanode, datanode.getBlockIterator(),
-          insufficient, false);
+          insufficient, false, Integer.MAX_VALUE);
+      setBlockCounts(datanode);
       return insufficient;
     }
 
+    private void startBlockCounts() {
+      firstReplicationLog = true;
+      underReplicatedBlocks = 0;
+      decommissionOnlyReplicas = 0;
+      underReplicatedInOpenFiles = 0;
+    }
+
+    private void setBlockCounts(DatanodeDescriptor datanode) {
+      datanode.decommissioningStatus.set(underReplicatedBlocks,
+          decommissionOnlyReplicas,
+          underReplicatedInOpenFiles);
+    }
+
     /**
      * Used while checking if decommission-in-progress datanodes can be marked
      * as decommissioned. Combines shared logic of 
@@ -531,19 +628,16 @@ private AbstractList<BlockInfoContiguous> handleInsufficientlyReplicated(
      *                                    replicated-blocks from the list.
      * @param pruneSufficientlyReplicated whether to remove sufficiently
      *                                    replicated blocks from the iterator
-     * @return true if there are under-replicated blocks in the provided block
-     * iterator, else false.
+     * @param maxBlocks                   the maximum number of blocks to
+     *                                    process from the iterator
      */
     private void processBlocksForDecomInternal(
         final DatanodeDescriptor datanode,
         final Iterator<BlockInfoContiguous> it,
         final List<BlockInfoContiguous> insufficientlyReplicated,
-        boolean pruneSufficientlyReplicated) {
-      boolean firstReplicationLog = true;
-      int underReplicatedBlocks = 0;
-      int decommissionOnlyReplicas = 0;
-      int underReplicatedInOpenFiles = 0;
-      while (it.hasNext()) {
+        boolean pruneSufficientlyReplicated,
+        int maxBlocks) {
+      for (int i = 0; i < maxBlocks && it.hasNext(); i++) {
         numBlocksChecked++;
         final BlockInfoContiguous block = it.next();
         // Remove the block from the list if it's no longer in the block map,
@@ -606,10 +700,6 @@ private void processBlocksForDecomInternal(
           decommissionOnlyReplicas++;
         }
       }
-
-      datanode.decommissioningStatus.set(underReplicatedBlocks,
-          decommissionOnlyReplicas,
-          underReplicatedInOpenFiles);
     }
   }
 
@@ -323,7 +323,7 @@ void heartbeatCheck() {
             dm.removeDeadDatanode(dead);
           }
         } finally {
-          namesystem.writeUnlock();
+          namesystem.writeUnlock("heartbeatCheck");
         }
       }
       if (failedStorage != null) {
@@ -337,7 +337,7 @@ void heartbeatCheck() {
             blockManager.removeBlocksAssociatedTo(failedStorage);
           }
         } finally {
-          namesystem.writeUnlock();
+          namesystem.writeUnlock("heartbeatCheck");
         }
       }
     }
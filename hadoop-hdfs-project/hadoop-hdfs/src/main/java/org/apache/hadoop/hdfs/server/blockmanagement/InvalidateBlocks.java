@@ -25,6 +25,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
@@ -42,14 +43,21 @@
  * Keeps a Collection for every named machine containing blocks
  * that have recently been invalidated and are thought to live
  * on the machine in question.
+ *
+ * The machines are spread over {@link #NUM_SHARDS} shards, each with its own
+ * lock, so that the work for different machines does not contend.
  */
 @InterfaceAudience.Private
 class InvalidateBlocks {
-  /** Mapping: DatanodeInfo -> Collection of Blocks */
-  private final Map<DatanodeInfo, LightWeightHashSet<Block>> node2blocks =
-      new TreeMap<DatanodeInfo, LightWeightHashSet<Block>>();
+  /** The number of shards, a power of two. */
+  static final int NUM_SHARDS = 16;
+
+  /** Mapping: DatanodeInfo -> Collection of Blocks, by shard */
+  @SuppressWarnings("unchecked")
+  private final Map<DatanodeInfo, LightWeightHashSet<Block>>[] node2blocks =
+      new Map[NUM_SHARDS];
   /** The total number of blocks in the map. */
-  private long numBlocks = 0L;
+  private final AtomicLong numBlocks = new AtomicLong();
 
   private final int blockInvalidateLimit;
 
@@ -64,6 +72,9 @@ class InvalidateBlocks {
   InvalidateBlocks(final int blockInvalidateLimit, long pendingPeriodInMs) {
     this.blockInvalidateLimit = blockInvalidateLimit;
     this.pendingPeriodInMs = pendingPeriodInMs;
+    for (int i = 0; i < NUM_SHARDS; i++) {
+      node2blocks[i] = new TreeMap<DatanodeInfo, LightWeightHashSet<Block>>();
+    }
     printBlockDeletionTime(BlockManager.LOG);
   }
 
@@ -77,9 +88,20 @@ private void printBlockDeletionTime(final Logger log) {
         + sdf.format(calendar.getTime()));
   }
 
+  /**
+   * @return the shard of the datanode, which is also the lock guarding it.
+   * The datanodes are compared by transfer address, so they are sharded by
+   * it too.
+   */
+  private Map<DatanodeInfo, LightWeightHashSet<Block>> getShard(
+      final DatanodeInfo dn) {
+    final int h = dn.getXferAddr().hashCode();
+    return node2blocks[(h ^ (h >>> 16)) & (NUM_SHARDS - 1)];
+  }
+
   /** @return the number of blocks to be invalidated . */
-  synchronized long numBlocks() {
-    return numBlocks;
+  long numBlocks() {
+    return numBlocks.get();
   }
 
   /**
@@ -88,76 +110,100 @@ synchronized long numBlocks() {
    * if a block is pending invalidation but with a different generation stamp,
    * returns false.
    */
-  synchronized boolean contains(final DatanodeInfo dn, final Block block) {
-    final LightWeightHashSet<Block> s = node2blocks.get(dn);
-    if (s == null) {
-      return false; // no invalidate blocks for this storage ID
+  boolean contains(final DatanodeInfo dn, final Block block) {
+    final Map<DatanodeInfo, LightWeightHashSet<Block>> shard = getShard(dn);
+    synchronized (shard) {
+      final LightWeightHashSet<Block> s = shard.get(dn);
+      if (s == null) {
+        return false; // no invalidate blocks for this storage ID
+      }
+      Block blockInSet = s.getElement(block);
+      return blockInSet != null &&
+          block.getGenerationStamp() == blockInSet.getGenerationStamp();
     }
-    Block blockInSet = s.getElement(block);
-    return blockInSet != null &&
-        block.getGenerationStamp() == blockInSet.getGenerationStamp();
   }
 
   /**
    * Add a block to the block collection
    * which will be invalidated on the specified datanode.
    */
-  synchronized void add(final Block block, final DatanodeInfo datanode,
+  void add(final Block block, final DatanodeInfo datanode,
       final boolean log) {
-    LightWeightHashSet<Block> set = node2blocks.get(datanode);
-    if (set == null) {
-      set = new LightWeightHashSet<Block>();
-      node2blocks.put(datanode, set);
-    }
-    if (set.add(block)) {
-      numBlocks++;
-      if (log) {
-        NameNode.blockStateChangeLog.info("BLOCK* {}: add {} to {}",
-            getClass().getSimpleName(), block, datanode);
+    final Map<DatanodeInfo, LightWeightHashSet<Block>> shard =
+        getShard(datanode);
+    synchronized (shard) {
+      LightWeightHashSet<Block> set = shard.get(datanode);
+      if (set == null) {
+        set = new LightWeightHashSet<Block>();
+        shard.put(datanode, set);
       }
+      if (!set.add(block)) {
+        return;
+      }
+      numBlocks.incrementAndGet();
+    }
+    if (log) {
+      NameNode.blockStateChangeLog.info("BLOCK* {}: add {} to {}",
+          getClass().getSimpleName(), block, datanode);
     }
   }
 
   /** Remove a storage from the invalidatesSet */
-  synchronized void remove(final DatanodeInfo dn) {
-    final LightWeightHashSet<Block> blocks = node2blocks.remove(dn);
-    if (blocks != null) {
-      numBlocks -= blocks.size();
+  void remove(final DatanodeInfo dn) {
+    final Map<DatanodeInfo, LightWeightHashSet<Block>> shard = getShard(dn);
+    synchronized (shard) {
+      final LightWeightHashSet<Block> blocks = shard.remove(dn);
+      if (blocks != null) {
+        numBlocks.addAndGet(-blocks.size());
+      }
     }
   }
 
   /** Remove the block from the specified storage. */
-  synchronized void remove(final DatanodeInfo dn, final Block block) {
-    final LightWeightHashSet<Block> v = node2blocks.get(dn);
-    if (v != null && v.remove(block)) {
-      numBlocks--;
-      if (v.isEmpty()) {
-        node2blocks.remove(dn);
+  void remove(final DatanodeInfo dn, final Block block) {
+    final Map<DatanodeInfo, LightWeightHashSet<Block>> shard = getShard(dn);
+    synchronized (shard) {
+      final LightWeightHashSet<Block> v = shard.get(dn);
+      if (v != null && v.remove(block)) {
+        numBlocks.decrementAndGet();
+        if (v.isEmpty()) {
+          shard.remove(dn);
+        }
       }
     }
   }
 
   /** Print the contents to out. */
-  synchronized void dump(final PrintWriter out) {
-    final int size = node2blocks.values().size();
-    out.println("Metasave: Blocks " + numBlocks 
+  void dump(final PrintWriter out) {
+    final List<DatanodeInfo> datanodes = getDatanodes();
+    final int size = datanodes.size();
+    out.println("Metasave: Blocks " + numBlocks()
         + " waiting deletion from " + size + " datanodes.");
     if (size == 0) {
       return;
     }
 
-    for(Map.Entry<DatanodeInfo, LightWeightHashSet<Block>> entry : node2blocks.entrySet()) {
-      final LightWeightHashSet<Block> blocks = entry.getValue();
-      if (blocks.size() > 0) {
-        out.println(entry.getKey());
-        out.println(blocks);
+    for (DatanodeInfo dn : datanodes) {
+      final Map<DatanodeInfo, LightWeightHashSet<Block>> shard = getShard(dn);
+      synchronized (shard) {
+        final LightWeightHashSet<Block> blocks = shard.get(dn);
+        if (blocks != null && blocks.size() > 0) {
+          out.println(dn);
+          out.println(blocks);
+        }
       }
     }
   }
 
   /** @return a list of the storage IDs. */
-  synchronized List<DatanodeInfo> getDatanodes() {
-    return new ArrayList<DatanodeInfo>(node2blocks.keySet());
+  List<DatanodeInfo> getDatanodes() {
+    final List<DatanodeInfo> datanodes = new ArrayList<DatanodeInfo>();
+    for (Map<DatanodeInfo, LightWeightHashSet<Block>> shard : node2blocks) {
+      synchronized (shard) {
+        datanodes.addAll(shard.keySet());
+      }
+    }
+    return datanodes;
   }
 
   /**
@@ -168,7 +214,7 @@ long getInvalidationDelay() {
     return pendingPeriodInMs - (Time.monotonicNow() - startupTime);
   }
 
-  synchronized List<Block> invalidateWork(final DatanodeDescriptor dn) {
+  List<Block> invalidateWork(final DatanodeDescriptor dn) {
     final long delay = getInvalidationDelay();
     if (delay > 0) {
       if (BlockManager.LOG.isDebugEnabled()) {
@@ -178,27 +224,44 @@ synchronized List<Block> invalidateWork(final DatanodeDescriptor dn) {
       }
       return null;
     }
-    final LightWeightHashSet<Block> set = node2blocks.get(dn);
-    if (set == null) {
-      return null;
-    }
+    final List<Block> toInvalidate;
+    final Map<DatanodeInfo, LightWeightHashSet<Block>> shard = getShard(dn);
+    synchronized (shard) {
+      final LightWeightHashSet<Block> set = shard.get(dn);
+      if (set == null) {
+        return null;
+      }
 
-    // # blocks that can be sent in one message is limited
-    final int limit = blockInvalidateLimit;
-    final List<Block> toInvalidate = set.pollN(limit);
+      // # blocks that can be sent in one message is limited
+      final int limit = blockInvalidateLimit;
+      toInvalidate = set.pollN(limit);
 
-    // If we send everything in this message, remove this node entry
-    if (set.isEmpty()) {
-      remove(dn);
+      // If we send everything in this message, remove this node entry
+      if (set.isEmpty()) {
+        shard.remove(dn);
+      }
+      numBlocks.addAndGet(-toInvalidate.size());
     }
 
     dn.addBlocksToBeInvalidated(toInvalidate);
-    numBlocks -= toInvalidate.size();
     return toInvalidate;
   }
   
-  synchronized void clear() {
-    node2blocks.clear();
-    numBlocks = 0;
+  void clear() {
+    for (Map<DatanodeInfo, LightWeightHashSet<Block>> shard : node2blocks) {
+      synchronized (shard) {
+        numBlocks.addAndGet(-numBlocks(shard));
+        shard.clear();
+      }
+    }
+  }
+
+  private static long numBlocks(
+      final Map<DatanodeInfo, LightWeightHashSet<Block>> shard) {
+    long n = 0;
+    for (LightWeightHashSet<Block> blocks : shard.values()) {
+      n += blocks.size();
+    }
+    return n;
   }
 }
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+
+/**
+ * A {@link BlockLocationSorter} which puts the least loaded of the replicas
+ * at the same distance from the reader first, the load of a datanode being
+ * the number of active transfer threads it reported in its last heartbeat.
+ * Replicas on equally loaded datanodes are shuffled.
+ */
+@InterfaceAudience.Private
+public class LoadAwareBlockLocationSorter extends BlockLocationSorter {
+  private static final Comparator<DatanodeInfo> XCEIVER_COMPARATOR =
+      new Comparator<DatanodeInfo>() {
+        @Override
+        public int compare(DatanodeInfo a, DatanodeInfo b) {
+          return a.getXceiverCount() < b.getXceiverCount() ? -1
+              : a.getXceiverCount() == b.getXceiverCount() ? 0 : 1;
+        }
+      };
+
+  @Override
+  protected void orderEquidistant(DatanodeInfo[] nodes, int from, int to,
+      Random random) {
+    super.orderEquidistant(nodes, from, to, random);
+    // the sort is stable, so the equally loaded ones stay shuffled
+    Arrays.sort(nodes, from, to, XCEIVER_COMPARATOR);
+  }
+}
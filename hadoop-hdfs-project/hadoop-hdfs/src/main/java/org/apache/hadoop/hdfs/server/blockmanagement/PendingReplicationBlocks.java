@@ -42,11 +42,17 @@
  * 3)  a thread that periodically identifies replication-requests
  *     that never made it.
  *
+ * The blocks are spread over {@link #NUM_SHARDS} maps, each with its own
+ * lock, so that the replication and block report threads do not contend.
+ *
  ***************************************************/
 class PendingReplicationBlocks {
   private static final Logger LOG = BlockManager.LOG;
 
-  private final Map<Block, PendingBlockInfo> pendingReplications;
+  /** The number of shards, a power of two. */
+  static final int NUM_SHARDS = 16;
+
+  private final Map<Block, PendingBlockInfo>[] pendingReplications;
   private final ArrayList<Block> timedOutItems;
   Daemon timerThread = null;
   private volatile boolean fsRunning = true;
@@ -62,10 +68,21 @@ class PendingReplicationBlocks {
     if ( timeoutPeriod > 0 ) {
       this.timeout = timeoutPeriod;
     }
-    pendingReplications = new HashMap<Block, PendingBlockInfo>();
+    @SuppressWarnings("unchecked")
+    final Map<Block, PendingBlockInfo>[] shards = new Map[NUM_SHARDS];
+    for (int i = 0; i < NUM_SHARDS; i++) {
+      shards[i] = new HashMap<Block, PendingBlockInfo>();
+    }
+    pendingReplications = shards;
     timedOutItems = new ArrayList<Block>();
   }
 
+  /** @return the shard of the block, which is also the lock guarding it. */
+  private Map<Block, PendingBlockInfo> getShard(Block block) {
+    final int h = block.hashCode();
+    return pendingReplications[(h ^ (h >>> 16)) & (NUM_SHARDS - 1)];
+  }
+
   void start() {
     timerThread = new Daemon(new PendingReplicationMonitor());
     timerThread.start();
@@ -77,10 +94,11 @@ void start() {
    * @param targets The DataNodes where replicas of the block should be placed
    */
   void increment(Block block, DatanodeDescriptor[] targets) {
-    synchronized (pendingReplications) {
-      PendingBlockInfo found = pendingReplications.get(block);
+    final Map<Block, PendingBlockInfo> shard = getShard(block);
+    synchronized (shard) {
+      PendingBlockInfo found = shard.get(block);
       if (found == null) {
-        pendingReplications.put(block, new PendingBlockInfo(targets));
+        shard.put(block, new PendingBlockInfo(targets));
       } else {
         found.incrementReplicas(targets);
         found.setTimeStamp();
@@ -94,19 +112,23 @@ void increment(Block block, DatanodeDescriptor[] targets) {
    * for this block.
    * 
    * @param The DataNode that finishes the replication
+   * @return true if the block was pending replication
    */
-  void decrement(Block block, DatanodeDescriptor dn) {
-    synchronized (pendingReplications) {
-      PendingBlockInfo found = pendingReplications.get(block);
-      if (found != null) {
-        if(LOG.isDebugEnabled()) {
-          LOG.debug("Removing pending replication for " + block);
-        }
-        found.decrementReplicas(dn);
-        if (found.getNumReplicas() <= 0) {
-          pendingReplications.remove(block);
-        }
+  boolean decrement(Block block, DatanodeDescriptor dn) {
+    final Map<Block, PendingBlockInfo> shard = getShard(block);
+    synchronized (shard) {
+      PendingBlockInfo found = shard.get(block);
+      if (found == null) {
+        return false;
+      }
+      if(LOG.isDebugEnabled()) {
+        LOG.debug("Removing pending replication for " + block);
       }
+      found.decrementReplicas(dn);
+      if (found.getNumReplicas() <= 0) {
+        shard.remove(block);
+      }
+      return true;
     }
   }
 
@@ -116,14 +138,19 @@ void decrement(Block block, DatanodeDescriptor dn) {
    *              removed
    */
   void remove(Block block) {
-    synchronized (pendingReplications) {
-      pendingReplications.remove(block);
+    final Map<Block, PendingBlockInfo> shard = getShard(block);
+    synchronized (shard) {
+      shard.remove(block);
     }
   }
 
   public void clear() {
-    synchronized (pendingReplications) {
-      pendingReplications.clear();
+    for (Map<Block, PendingBlockInfo> shard : pendingReplications) {
+      synchronized (shard) {
+        shard.clear();
+      }
+    }
+    synchronized (timedOutItems) {
       timedOutItems.clear();
     }
   }
@@ -132,15 +159,20 @@ public void clear() {
    * The total number of blocks that are undergoing replication
    */
   int size() {
-    return pendingReplications.size();
+    int size = 0;
+    for (Map<Block, PendingBlockInfo> shard : pendingReplications) {
+      size += shard.size();
+    }
+    return size;
   } 
 
   /**
    * How many copies of this block is pending replication?
    */
   int getNumReplicas(Block block) {
-    synchronized (pendingReplications) {
-      PendingBlockInfo found = pendingReplications.get(block);
+    final Map<Block, PendingBlockInfo> shard = getShard(block);
+    synchronized (shard) {
+      PendingBlockInfo found = shard.get(block);
       if (found != null) {
         return found.getNumReplicas();
       }
@@ -231,13 +263,19 @@ public void run() {
      * Iterate through all items and detect timed-out items
      */
     void pendingReplicationCheck() {
-      synchronized (pendingReplications) {
+      if(LOG.isDebugEnabled()) {
+        LOG.debug("PendingReplicationMonitor checking Q");
+      }
+      for (Map<Block, PendingBlockInfo> shard : pendingReplications) {
+        pendingReplicationCheck(shard);
+      }
+    }
+
+    private void pendingReplicationCheck(Map<Block, PendingBlockInfo> shard) {
+      synchronized (shard) {
         Iterator<Map.Entry<Block, PendingBlockInfo>> iter =
-                                    pendingReplications.entrySet().iterator();
+                                    shard.entrySet().iterator();
         long now = monotonicNow();
-        if(LOG.isDebugEnabled()) {
-          LOG.debug("PendingReplicationMonitor checking Q");
-        }
         while (iter.hasNext()) {
           Map.Entry<Block, PendingBlockInfo> entry = iter.next();
           PendingBlockInfo pendingBlock = entry.getValue();
@@ -272,19 +310,20 @@ void stop() {
    * Iterate through all items and print them.
    */
   void metaSave(PrintWriter out) {
-    synchronized (pendingReplications) {
-      out.println("Metasave: Blocks being replicated: " +
-                  pendingReplications.size());
-      Iterator<Map.Entry<Block, PendingBlockInfo>> iter =
-                                  pendingReplications.entrySet().iterator();
-      while (iter.hasNext()) {
-        Map.Entry<Block, PendingBlockInfo> entry = iter.next();
-        PendingBlockInfo pendingBlock = entry.getValue();
-        Block block = entry.getKey();
-        out.println(block + 
-                    " StartTime: " + new Time(pendingBlock.timeStamp) +
-                    " NumReplicaInProgress: " + 
-                    pendingBlock.getNumReplicas());
+    out.println("Metasave: Blocks being replicated: " + size());
+    for (Map<Block, PendingBlockInfo> shard : pendingReplications) {
+      synchronized (shard) {
+        Iterator<Map.Entry<Block, PendingBlockInfo>> iter =
+                                    shard.entrySet().iterator();
+        while (iter.hasNext()) {
+          Map.Entry<Block, PendingBlockInfo> entry = iter.next();
+          PendingBlockInfo pendingBlock = entry.getValue();
+          Block block = entry.getKey();
+          out.println(block + 
+                      " StartTime: " + new Time(pendingBlock.timeStamp) +
+                      " NumReplicaInProgress: " + 
+                      pendingBlock.getNumReplicas());
+        }
       }
     }
   }
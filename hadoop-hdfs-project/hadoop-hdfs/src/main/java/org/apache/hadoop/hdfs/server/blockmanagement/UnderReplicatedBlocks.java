@@ -52,7 +52,10 @@
  *   under-replicated compared to their expected values. Currently
  *   that means the ratio of the ratio of actual:expected means that
  *   there is <i>less than</i> 1:3.</li>. These blocks may not be at risk,
- *   but they are clearly considered "important".
+ *   but they are clearly considered "important". Under replicated blocks
+ *   with a copy in a node being decommissioned also go here, so that
+ *   decommissioning is not held back by the other under replicated
+ *   blocks.
  *   <li>{@link #QUEUE_UNDER_REPLICATED}: blocks that are also under
  *   replicated, and the ratio of actual:expected is good enough that
  *   they do not need to go into the {@link #QUEUE_VERY_UNDER_REPLICATED}
@@ -177,6 +180,9 @@ private int getPriority(Block block,
       //there is less than a third as many blocks as requested;
       //this is considered very under-replicated
       return QUEUE_VERY_UNDER_REPLICATED;
+    } else if (decommissionedReplicas > 0) {
+      // the copies on decommissioning nodes are about to be lost
+      return QUEUE_VERY_UNDER_REPLICATED;
     } else {
       //add to the normal queue for under replicated blocks
       return QUEUE_UNDER_REPLICATED;
@@ -25,6 +25,7 @@
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -46,11 +47,13 @@
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
 import org.apache.hadoop.hdfs.server.protocol.BlockReportContext;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
 import org.apache.hadoop.hdfs.server.protocol.DisallowedDatanodeException;
 import org.apache.hadoop.hdfs.server.protocol.HeartbeatResponse;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
+import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo.Capability;
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageBlockReport;
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
@@ -355,6 +358,7 @@ void notifyNamenodeDeletedBlock(
   void triggerBlockReportForTests() {
     synchronized (pendingIncrementalBRperStorage) {
       scheduler.scheduleHeartbeat();
+      fullBlockReportNeeded = true;
       long nextBlockReportTime = scheduler.scheduleBlockReport(0);
       pendingIncrementalBRperStorage.notifyAll();
       while (nextBlockReportTime - scheduler.nextBlockReportTime >= 0) {
@@ -405,6 +409,16 @@ boolean hasPendingIBR() {
 
   private long prevBlockReportId = 0;
 
+  /**
+   * Whether the next block report has to be a full report, because the
+   * NameNode has not acknowledged one since registration, or a full report
+   * was asked for.
+   */
+  private volatile boolean fullBlockReportNeeded = true;
+
+  /** The number of hash-only block reports since the last full report. */
+  private int numHashOnlyReports = 0;
+
   private long generateUniqueBlockReportId() {
     long id = System.nanoTime();
     if (id <= prevBlockReportId) {
@@ -439,6 +453,14 @@ List<DatanodeCommand> blockReport() throws IOException {
     Map<DatanodeStorage, BlockListAsLongs> perVolumeBlockLists =
         dn.getFSDataset().getBlockReports(bpos.getBlockPoolId());
 
+    // The changes since the last report have just been sent as incremental
+    // reports, so unless the NN needs a full report it is enough to send
+    // the hash of the replicas, which the NN compares with its own.
+    final boolean hashOnly = !fullBlockReportNeeded
+        && numHashOnlyReports < dnConf.maxConsecutiveHashOnlyReports
+        && bpRegistration.getNamespaceInfo().isCapabilitySupported(
+            Capability.STORAGE_BLOCK_REPORT_HASH);
+
     // Convert the reports to the format expected by the NN.
     int i = 0;
     int totalBlockCount = 0;
@@ -447,7 +469,12 @@ List<DatanodeCommand> blockReport() throws IOException {
 
     for(Map.Entry<DatanodeStorage, BlockListAsLongs> kvPair : perVolumeBlockLists.entrySet()) {
       BlockListAsLongs blockList = kvPair.getValue();
-      reports[i++] = new StorageBlockReport(kvPair.getKey(), blockList);
+      if (hashOnly) {
+        reports[i++] = new StorageBlockReport(kvPair.getKey(),
+            blockList.getFinalizedReplicaHash());
+      } else {
+        reports[i++] = new StorageBlockReport(kvPair.getKey(), blockList);
+      }
       totalBlockCount += blockList.getNumberOfBlocks();
     }
 
@@ -458,7 +485,7 @@ List<DatanodeCommand> blockReport() throws IOException {
     long brSendStartTime = monotonicNow();
     long reportId = generateUniqueBlockReportId();
     try {
-      if (totalBlockCount < dnConf.blockReportSplitThreshold) {
+      if (hashOnly || totalBlockCount < dnConf.blockReportSplitThreshold) {
         // Below split threshold, send all reports in a single message.
         DatanodeCommand cmd = bpNamenode.blockReport(
             bpRegistration, bpos.getBlockPoolId(), reports,
@@ -484,13 +511,27 @@ List<DatanodeCommand> blockReport() throws IOException {
       }
       success = true;
     } finally {
+      boolean hashMismatch = false;
+      for (Iterator<DatanodeCommand> it = cmds.iterator(); it.hasNext();) {
+        if (it.next().getAction() == DatanodeProtocol.DNA_FULLBLOCKREPORT) {
+          hashMismatch = true;
+          it.remove();
+        }
+      }
+      if (hashMismatch) {
+        fullBlockReportNeeded = true;
+      } else if (success) {
+        fullBlockReportNeeded = false;
+        numHashOnlyReports = hashOnly ? numHashOnlyReports + 1 : 0;
+      }
       // Log the block report processing stats from Datanode perspective
       long brSendCost = monotonicNow() - brSendStartTime;
       long brCreateCost = brSendStartTime - brCreateStartTime;
       dn.getMetrics().addBlockReport(brSendCost);
       final int nCmds = cmds.size();
       LOG.info((success ? "S" : "Uns") +
-          "uccessfully sent block report 0x" +
+          "uccessfully sent " + (hashOnly ? "hash-only " : "") +
+          "block report 0x" +
           Long.toHexString(reportId) + ",  containing " + reports.length +
           " storage report(s), of which we sent " + numReportsSent + "." +
           " The reports had " + totalBlockCount +
@@ -504,7 +545,12 @@ List<DatanodeCommand> blockReport() throws IOException {
                   (nCmds + " commands: " + Joiner.on("; ").join(cmds)))) +
           ".");
     }
-    scheduler.scheduleNextBlockReport();
+    if (fullBlockReportNeeded && hashOnly) {
+      // the hashes did not match, send a full report right away
+      scheduler.scheduleBlockReport(0);
+    } else {
+      scheduler.scheduleNextBlockReport();
+    }
     return cmds.size() == 0 ? null : cmds;
   }
 
@@ -745,6 +791,7 @@ void register(NamespaceInfo nsInfo) throws IOException {
     // The handshake() phase loaded the block pool storage
     // off disk - so update the bpRegistration object from that info
     bpRegistration = bpos.createRegistration();
+    fullBlockReportNeeded = true;
 
     LOG.info(this + " beginning handshake with NN");
 
@@ -961,6 +1008,7 @@ void triggerBlockReport(BlockReportOptions options) throws IOException {
     } else {
       LOG.info(bpos.toString() + ": scheduling a full block report.");
       synchronized(pendingIncrementalBRperStorage) {
+        fullBlockReportNeeded = true;
         scheduler.scheduleBlockReport(0);
         pendingIncrementalBRperStorage.notifyAll();
       }
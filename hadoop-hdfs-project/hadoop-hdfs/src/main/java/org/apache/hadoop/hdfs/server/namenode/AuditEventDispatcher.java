@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.net.InetAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Daemon;
+
+/**
+ * Hands the audit events over from the handlers to a single writer thread.
+ * <p>
+ * A handler only records the event in a bounded ring buffer; the user name,
+ * the file status and the log line are built by the writer thread, which
+ * passes the events to the {@link AuditLogger}s in the order they were
+ * added. The buffer is lock free: the handlers claim a slot by a CAS on the
+ * tail, and the writer frees a batch of slots at a time by moving the head.
+ * <p>
+ * When the buffer is full, a handler either waits for the writer, or drops
+ * the event if the buffer is configured to do so.
+ * <p>
+ * Neither side polls: the idle writer parks until a handler adds an event
+ * to the empty buffer, and a handler waiting for a slot parks until the
+ * writer frees a batch.
+ */
+@InterfaceAudience.Private
+class AuditEventDispatcher implements Runnable {
+  static final Log LOG = LogFactory.getLog(AuditEventDispatcher.class);
+
+  /** The maximum number of events freed at a time. */
+  private static final int BATCH_SIZE = 256;
+
+  /** An audit event, as recorded by a handler. */
+  static final class AuditEvent {
+    final boolean succeeded;
+    final UserGroupInformation ugi;
+    final InetAddress addr;
+    final String cmd;
+    final String src;
+    final String dst;
+    final HdfsFileStatus stat;
+    final boolean webHdfs;
+
+    AuditEvent(boolean succeeded, UserGroupInformation ugi, InetAddress addr,
+        String cmd, String src, String dst, HdfsFileStatus stat,
+        boolean webHdfs) {
+      this.succeeded = succeeded;
+      this.ugi = ugi;
+      this.addr = addr;
+      this.cmd = cmd;
+      this.src = src;
+      this.dst = dst;
+      this.stat = stat;
+      this.webHdfs = webHdfs;
+    }
+  }
+
+  private final FSNamesystem fsn;
+  private final AtomicReferenceArray<AuditEvent> ring;
+  private final int mask;
+  private final boolean dropWhenFull;
+  /** The sequence number of the next slot to claim. */
+  private final AtomicLong tail = new AtomicLong();
+  /** The sequence number of the next slot to log. */
+  private volatile long head = 0;
+  private final AtomicLong numDropped = new AtomicLong();
+  /** Whether the writer is parked, or about to, for lack of events. */
+  private volatile boolean writerParked = false;
+  /** The handlers parked for lack of a free slot. */
+  private final Queue<Thread> waitingHandlers =
+      new ConcurrentLinkedQueue<Thread>();
+
+  private volatile boolean shouldRun = true;
+  /** Whether the writer thread has exited. Guarded by this. */
+  private boolean writerExited = false;
+  private final Daemon daemon;
+
+  /**
+   * @param size the number of slots, rounded up to a power of two
+   * @param dropWhenFull whether to drop the events when the buffer is full,
+   *                     instead of waiting for a free slot
+   */
+  AuditEventDispatcher(FSNamesystem fsn, int size, boolean dropWhenFull) {
+    this.fsn = fsn;
+    final int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+    this.ring = new AtomicReferenceArray<AuditEvent>(capacity);
+    this.mask = capacity - 1;
+    this.dropWhenFull = dropWhenFull;
+    this.daemon = new Daemon(this);
+    daemon.setName("AuditEventDispatcher");
+  }
+
+  void start() {
+    daemon.start();
+  }
+
+  /**
+   * Add an event to the buffer.
+   * @return whether the event was added; false if it was dropped.
+   */
+  boolean add(AuditEvent event) {
+    while (true) {
+      if (!shouldRun && isFull()) {
+        // the writer may be gone, nothing will free a slot
+        numDropped.incrementAndGet();
+        return false;
+      }
+      final long t = tail.get();
+      if (t - head >= ring.length()) {
+        if (dropWhenFull) {
+          numDropped.incrementAndGet();
+          return false;
+        }
+        waitForSlot();
+        continue;
+      }
+      if (tail.compareAndSet(t, t + 1)) {
+        // a volatile write, so that a parking writer either sees the event
+        // or is seen as parked below
+        ring.set((int) (t & mask), event);
+        if (writerParked) {
+          LockSupport.unpark(daemon);
+        }
+        if (!shouldRun) {
+          // the writer may have exited before it saw the event
+          drainIfWriterExited();
+        }
+        return true;
+      }
+    }
+  }
+
+  private boolean isFull() {
+    return tail.get() - head >= ring.length();
+  }
+
+  /** Park the handler until the writer frees some slots, or stops. */
+  private void waitForSlot() {
+    final Thread current = Thread.currentThread();
+    waitingHandlers.add(current);
+    try {
+      // re-check after publishing the handler, the writer may have just
+      // moved the head, or be stopping
+      while (shouldRun && isFull()) {
+        LockSupport.park(this);
+      }
+    } finally {
+      waitingHandlers.remove(current);
+    }
+  }
+
+  /**
+   * Log the events added after the writer thread exited.
+   */
+  private synchronized void drainIfWriterExited() {
+    if (writerExited) {
+      // stops at a slot claimed but not written yet; its handler drains it
+      int n;
+      do {
+        n = logBatch();
+      } while (n > 0);
+    }
+  }
+
+  /** @return the number of events which are not logged yet. */
+  long getNumPending() {
+    return tail.get() - head;
+  }
+
+  /** @return the number of events dropped because the buffer was full. */
+  long getNumDropped() {
+    return numDropped.get();
+  }
+
+  /**
+   * Log the events of at most one batch.
+   * @return the number of events logged
+   */
+  private int logBatch() {
+    long h = head;
+    int n = 0;
+    for (; n < BATCH_SIZE; n++, h++) {
+      final int i = (int) (h & mask);
+      final AuditEvent event = ring.get(i);
+      if (event == null) {
+        // empty, or claimed but not written yet
+        break;
+      }
+      ring.lazySet(i, null);
+      try {
+        fsn.logAuditEvent(event);
+      } catch (Throwable t) {
+        LOG.warn("Failed to log the audit event " + event.cmd + " "
+            + event.src, t);
+      }
+    }
+    if (n > 0) {
+      // free the slots of the batch
+      head = h;
+      for (Thread handler : waitingHandlers) {
+        LockSupport.unpark(handler);
+      }
+    }
+    return n;
+  }
+
+  @Override
+  public void run() {
+    while (shouldRun || getNumPending() > 0) {
+      if (logBatch() == 0) {
+        writerParked = true;
+        // re-check after publishing the flag, a handler may have just added
+        // an event without seeing it
+        if (shouldRun && ring.get((int) (head & mask)) == null) {
+          LockSupport.park(this);
+        }
+        writerParked = false;
+      }
+    }
+  }
+
+  /**
+   * Stop the writer thread once all the added events are logged.
+   */
+  void stop() {
+    shouldRun = false;
+    LockSupport.unpark(daemon);
+    try {
+      daemon.join();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    synchronized (this) {
+      writerExited = true;
+    }
+    // the events added while the writer was exiting
+    drainIfWriterExited();
+    for (Thread handler : waitingHandlers) {
+      LockSupport.unpark(handler);
+    }
+  }
+}
@@ -51,6 +51,8 @@ public class EditLogFileOutputStream extends EditLogOutputStream {
   private EditsDoubleBuffer doubleBuf;
   static final ByteBuffer fill = ByteBuffer.allocateDirect(MIN_PREALLOCATION_LENGTH);
   private boolean shouldSyncWritesAndSkipFsync = false;
+  private final long preallocationSize;
+  private long lastFsyncNanos = 0;
 
   private static boolean shouldSkipFsyncForTests = false;
 
@@ -74,7 +76,27 @@ public class EditLogFileOutputStream extends EditLogOutputStream {
    */
   public EditLogFileOutputStream(Configuration conf, File name, int size)
       throws IOException {
+    this(conf, name, size, MIN_PREALLOCATION_LENGTH);
+  }
+
+  /**
+   * Creates output buffers and file object.
+   * 
+   * @param conf
+   *          Configuration object
+   * @param name
+   *          File name to store edit log
+   * @param size
+   *          Size of flush buffer
+   * @param preallocationSize
+   *          Minimum number of bytes to extend the file by when it is full,
+   *          rounded up to a multiple of {@link #MIN_PREALLOCATION_LENGTH}
+   * @throws IOException
+   */
+  public EditLogFileOutputStream(Configuration conf, File name, int size,
+      long preallocationSize) throws IOException {
     super();
+    this.preallocationSize = preallocationSize;
     shouldSyncWritesAndSkipFsync = conf.getBoolean(
             DFSConfigKeys.DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH,
             DFSConfigKeys.DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH_DEFAULT);
@@ -202,11 +224,22 @@ public void flushAndSync(boolean durable) throws IOException {
     }
     preallocate(); // preallocate file if necessary
     doubleBuf.flushTo(fp);
+    lastFsyncNanos = 0;
     if (durable && !shouldSkipFsyncForTests && !shouldSyncWritesAndSkipFsync) {
+      long start = System.nanoTime();
       fc.force(false); // metadata updates not needed
+      lastFsyncNanos = System.nanoTime() - start;
     }
   }
 
+  /**
+   * @return the time taken by the fsync of the last flush in nanoseconds,
+   *         or 0 if it was not synced
+   */
+  public long getLastFsyncNanos() {
+    return lastFsyncNanos;
+  }
+
   /**
    * @return true if the number of buffered data exceeds the intial buffer size
    */
@@ -223,6 +256,7 @@ private void preallocate() throws IOException {
     if (need <= 0) {
       return;
     }
+    need = Math.max(need, preallocationSize);
     long oldSize = size;
     long total = 0;
     long fillCapacity = fill.capacity();
@@ -115,6 +115,24 @@ public void flush(boolean durable) throws IOException {
     totalTimeSync += (end - start);
   }
 
+  /**
+   * Start flushing the data that is ready to flush, without waiting for it
+   * to be durable if the stream can have several flushes outstanding.
+   * {@link #awaitFlushed(long)} then waits for it. By default, the data is
+   * flushed and synced before returning.
+   */
+  public void flushAsync() throws IOException {
+    flush();
+  }
+
+  /**
+   * Wait for the edits up to the given txid, whose flush was started with
+   * {@link #flushAsync()}, to be durable.
+   * @throws IOException if the edits could not be made durable
+   */
+  public void awaitFlushed(long txid) throws IOException {
+  }
+
   /**
    * Implement the policy when to automatically sync the buffered edits log
    * The buffered edits can be flushed when the buffer becomes full or
@@ -341,6 +341,7 @@ static INodeDirectory unprotectedSetQuota(
     String srcs = FSDirectory.normalizePath(src);
     final INodesInPath iip = fsd.getINodesInPath4Write(srcs, true);
     INodeDirectory dirNode = INodeDirectory.valueOf(iip.getLastINode(), srcs);
+    fsd.invalidateContentSummaries(iip, iip.length());
     if (dirNode.isRoot() && nsQuota == HdfsConstants.QUOTA_RESET) {
       throw new IllegalArgumentException("Cannot clear namespace quota on root.");
     } else { // a directory inode
@@ -422,6 +423,7 @@ static void unprotectedSetStoragePolicy(
       throw new FileNotFoundException("File/Directory does not exist: "
           + iip.getPath());
     }
+    fsd.invalidateContentSummaries(iip, iip.length());
     final int snapshotId = iip.getLatestSnapshotId();
     if (inode.isFile()) {
       BlockStoragePolicy newPolicy = bm.getStoragePolicy(policyId);
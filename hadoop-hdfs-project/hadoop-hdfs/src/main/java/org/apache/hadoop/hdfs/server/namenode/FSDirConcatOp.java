@@ -238,6 +238,7 @@ static void unprotectedConcat(FSDirectory fsd, INodesInPath targetIIP,
     trgInode.setModificationTime(timestamp, targetIIP.getLatestSnapshotId());
     trgParent.updateModificationTime(timestamp, targetIIP.getLatestSnapshotId());
     // update quota on the parent directory with deltas
+    fsd.invalidateContentSummaries(targetIIP, targetIIP.length() - 1);
     FSDirectory.unprotectedUpdateCount(targetIIP, targetIIP.length() - 1, deltas);
   }
 }
@@ -41,6 +41,17 @@ class FSDirDeleteOp {
   static long delete(
       FSDirectory fsd, INodesInPath iip, BlocksMapUpdateInfo collectedBlocks,
       List<INode> removedINodes, long mtime) throws IOException {
+    return delete(fsd, iip, collectedBlocks, removedINodes, mtime, null);
+  }
+
+  /**
+   * Delete the target directory and collect the blocks under it, or hand
+   * the directory over to the given deleter if it is not null.
+   */
+  private static long delete(
+      FSDirectory fsd, INodesInPath iip, BlocksMapUpdateInfo collectedBlocks,
+      List<INode> removedINodes, long mtime, SubtreeDeleter deleter)
+      throws IOException {
     if (NameNode.stateChangeLog.isDebugEnabled()) {
       NameNode.stateChangeLog.debug("DIR* FSDirectory.delete: " + iip.getPath());
     }
@@ -53,7 +64,7 @@ static long delete(
         List<INodeDirectory> snapshottableDirs = new ArrayList<>();
         FSDirSnapshotOp.checkSnapshot(iip.getLastINode(), snapshottableDirs);
         filesRemoved = unprotectedDelete(fsd, iip, collectedBlocks,
-                                         removedINodes, mtime);
+                                         removedINodes, mtime, deleter);
         fsd.getFSNamesystem().removeSnapshottableDirs(snapshottableDirs);
       }
     } finally {
@@ -117,7 +128,7 @@ static void deleteForEditLog(FSDirectory fsd, String src, long mtime)
     List<INodeDirectory> snapshottableDirs = new ArrayList<>();
     FSDirSnapshotOp.checkSnapshot(iip.getLastINode(), snapshottableDirs);
     long filesRemoved = unprotectedDelete(
-        fsd, iip, collectedBlocks, removedINodes, mtime);
+        fsd, iip, collectedBlocks, removedINodes, mtime, null);
     fsn.removeSnapshottableDirs(snapshottableDirs);
 
     if (filesRemoved >= 0) {
@@ -134,6 +145,9 @@ static void deleteForEditLog(FSDirectory fsd, String src, long mtime)
    * the {@link org.apache.hadoop.hdfs.server.namenode.FSNamesystem} lock.
    * <p>
    * For small directory or file the deletion is done in one shot.
+   * <p>
+   * If the background deletes are enabled, a directory without snapshots is
+   * only unlinked here, and destroyed later by the {@link SubtreeDeleter}.
    */
   static BlocksMapUpdateInfo deleteInternal(
       FSNamesystem fsn, String src, INodesInPath iip, boolean logRetryCache)
@@ -150,7 +164,8 @@ static BlocksMapUpdateInfo deleteInternal(
     long mtime = now();
     // Unlink the target directory from directory tree
     long filesRemoved = delete(
-        fsd, iip, collectedBlocks, removedINodes, mtime);
+        fsd, iip, collectedBlocks, removedINodes, mtime,
+        fsn.getSubtreeDeleter());
     if (filesRemoved < 0) {
       return null;
     }
@@ -195,11 +210,13 @@ private static boolean deleteAllowed(final INodesInPath iip,
    * @param collectedBlocks blocks collected from the deleted path
    * @param removedINodes inodes that should be removed from inodeMap
    * @param mtime the time the inode is removed
+   * @param deleter destroys the unlinked directory in the background if not
+   *                null
    * @return the number of inodes deleted; 0 if no inodes are deleted.
    */
   private static long unprotectedDelete(
       FSDirectory fsd, INodesInPath iip, BlocksMapUpdateInfo collectedBlocks,
-      List<INode> removedINodes, long mtime) {
+      List<INode> removedINodes, long mtime, SubtreeDeleter deleter) {
     assert fsd.hasWriteLock();
 
     // check if target node exists
@@ -229,8 +246,12 @@ private static long unprotectedDelete(
 
     // collect block and update quota
     if (!targetNode.isInLatestSnapshot(latestSnapshot)) {
-      targetNode.destroyAndCollectBlocks(fsd.getBlockStoragePolicySuite(),
-        collectedBlocks, removedINodes);
+      if (deleter != null && SubtreeDeleter.isWalkable(targetNode)) {
+        deleter.add(targetNode.asDirectory());
+      } else {
+        targetNode.destroyAndCollectBlocks(fsd.getBlockStoragePolicySuite(),
+          collectedBlocks, removedINodes);
+      }
     } else {
       QuotaCounts counts = targetNode.cleanSubtree(
         fsd.getBlockStoragePolicySuite(), CURRENT_STATE_ID,
@@ -24,6 +24,7 @@
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.protocol.FSLimitException;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshotException;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.DirectorySnapshottableFeature;
@@ -159,6 +160,27 @@ static SnapshotDiffReport getSnapshotDiffReport(FSDirectory fsd,
     return diffs;
   }
 
+  static SnapshotDiffReportListing getSnapshotDiffReportListing(
+      FSDirectory fsd, SnapshotManager snapshotManager, String path,
+      String fromSnapshot, String toSnapshot, int startIndex)
+      throws IOException {
+    SnapshotDiffReportListing listing;
+    final FSPermissionChecker pc = fsd.getPermissionChecker();
+    fsd.readLock();
+    try {
+      if (fsd.isPermissionEnabled()) {
+        checkSubtreeReadPermission(fsd, pc, path, fromSnapshot);
+        checkSubtreeReadPermission(fsd, pc, path, toSnapshot);
+      }
+      INodesInPath iip = fsd.getINodesInPath(path, true);
+      listing = snapshotManager.diffListing(iip, path, fromSnapshot,
+          toSnapshot, startIndex, fsd.getLsLimit());
+    } finally {
+      fsd.readUnlock();
+    }
+    return listing;
+  }
+
   /**
    * Delete a snapshot of a snapshottable directory
    * @param snapshotRoot The snapshottable directory
@@ -24,6 +24,7 @@
 import org.apache.hadoop.fs.DirectoryListingStartAfterNotFoundException;
 import org.apache.hadoop.fs.FileEncryptionInfo;
 import org.apache.hadoop.fs.InvalidPathException;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.UnresolvedLinkException;
 import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
@@ -43,7 +44,11 @@
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 
 class FSDirStatAndListingOp {
   static DirectoryListing getListingInt(FSDirectory fsd, final String srcArg,
@@ -225,6 +230,208 @@ needLocation, getStoragePolicyID(curPolicy,
     }
   }
 
+  /**
+   * Get a partial listing of the whole subtree under the indicated path.
+   *
+   * The subtree is walked depth-first with the children of every directory
+   * visited in name order, so the walk can be resumed from the relative path
+   * of the last entry returned. The local name of every entry is its path
+   * relative to src. The listing stops under the same conditions as
+   * {@link #getListing}; since the size of the rest of the subtree is not
+   * known, the number of remaining entries is only 1 or 0.
+   *
+   * @param fsd FSDirectory
+   * @param srcArg the path to list
+   * @param startAfter the relative path to start listing after
+   * @param needLocation if block locations are returned
+   * @return a partial listing starting after startAfter or null if src does
+   *         not exist
+   */
+  static DirectoryListing getRecursiveListingInt(FSDirectory fsd,
+      final String srcArg, byte[] startAfter, boolean needLocation)
+      throws IOException {
+    FSPermissionChecker pc = fsd.getPermissionChecker();
+    byte[][] pathComponents = FSDirectory
+        .getPathComponentsForReservedPath(srcArg);
+    final String src = FSDirectory.normalizePath(
+        fsd.resolvePath(pc, srcArg, pathComponents));
+    final boolean isRawPath = FSDirectory.isReservedRawName(srcArg);
+    if (src.endsWith(HdfsConstants.SEPARATOR_DOT_SNAPSHOT_DIR)) {
+      throw new IOException("Recursive listing of " + src
+          + " is not supported");
+    }
+
+    fsd.readLock();
+    try {
+      final INodesInPath iip = fsd.getINodesInPath(src, true);
+      final INode targetNode = iip.getLastINode();
+      if (targetNode == null) {
+        return null;
+      }
+      boolean isSuperUser = true;
+      if (fsd.isPermissionEnabled()) {
+        if (targetNode.isDirectory()) {
+          fsd.checkPathAccess(pc, iip, FsAction.READ_EXECUTE);
+        } else {
+          fsd.checkTraverse(pc, iip);
+        }
+        isSuperUser = pc.isSuperUser();
+      }
+      final int snapshot = iip.getPathSnapshotId();
+      byte parentStoragePolicy = isSuperUser ?
+          targetNode.getStoragePolicyID() : BlockStoragePolicySuite
+          .ID_UNSPECIFIED;
+
+      if (!targetNode.isDirectory()) {
+        HdfsFileStatus[] listing = startAfter.length > 0 ?
+            new HdfsFileStatus[0] : new HdfsFileStatus[]{
+                createFileStatus(fsd, src, HdfsFileStatus.EMPTY_NAME,
+                    targetNode, needLocation, parentStoragePolicy, snapshot,
+                    isRawPath, iip)};
+        return new DirectoryListing(listing, 0);
+      }
+
+      final RecursiveListing walk = new RecursiveListing(fsd, pc, src,
+          snapshot, isSuperUser);
+      ListingFrame frame = new ListingFrame(targetNode.asDirectory(), iip,
+          "", parentStoragePolicy, snapshot);
+      walk.stack.push(frame);
+      if (startAfter.length > 0) {
+        // Seek every level along the cursor path. Directories on the path
+        // were already returned, so listing resumes inside the deepest one.
+        for (String name : DFSUtil.bytes2String(startAfter).split(
+            Path.SEPARATOR)) {
+          int pos = ReadOnlyList.Util.binarySearch(frame.children,
+              DFSUtil.string2Bytes(name));
+          if (pos < 0) {
+            frame.next = -pos - 1;
+            break;
+          }
+          frame.next = pos + 1;
+          final INode child = frame.children.get(pos);
+          if (!child.isDirectory()) {
+            break;
+          }
+          frame = walk.descend(frame, child, getStoragePolicyID(isSuperUser ?
+              child.getLocalStoragePolicyID() :
+              BlockStoragePolicySuite.ID_UNSPECIFIED, frame.storagePolicy));
+        }
+      }
+
+      final List<HdfsFileStatus> listing = new ArrayList<HdfsFileStatus>();
+      int locationBudget = fsd.getLsLimit();
+      while (listing.size() < fsd.getLsLimit() && locationBudget > 0
+          && walk.skipFinishedFrames()) {
+        frame = walk.stack.peek();
+        final INode cur = frame.children.get(frame.next++);
+        byte curPolicy = isSuperUser && !cur.isSymlink() ?
+            cur.getLocalStoragePolicyID() :
+            BlockStoragePolicySuite.ID_UNSPECIFIED;
+        final byte storagePolicy = getStoragePolicyID(curPolicy,
+            frame.storagePolicy);
+        final String relativePath = frame.childPath(cur);
+        final HdfsFileStatus status = createFileStatus(fsd, src,
+            DFSUtil.string2Bytes(relativePath), cur, needLocation,
+            storagePolicy, snapshot, isRawPath, frame.iip);
+        listing.add(status);
+        if (needLocation) {
+          LocatedBlocks blks =
+              ((HdfsLocatedFileStatus) status).getBlockLocations();
+          locationBudget -= (blks == null) ? 0 :
+              blks.locatedBlockCount() * status.getReplication();
+        }
+        if (cur.isDirectory()) {
+          walk.descend(frame, cur, storagePolicy);
+        }
+      }
+      return new DirectoryListing(
+          listing.toArray(new HdfsFileStatus[listing.size()]),
+          walk.skipFinishedFrames() ? 1 : 0);
+    } finally {
+      fsd.readUnlock();
+    }
+  }
+
+  /** A directory being walked by {@link #getRecursiveListingInt}. */
+  private static class ListingFrame {
+    private final INodesInPath iip;
+    /** Path of the directory relative to the listed path. */
+    private final String relativePath;
+    private final byte storagePolicy;
+    private final ReadOnlyList<INode> children;
+    /** Index of the next child to list. */
+    private int next = 0;
+
+    ListingFrame(INodeDirectory dir, INodesInPath iip, String relativePath,
+        byte storagePolicy, int snapshot) {
+      this.iip = iip;
+      this.relativePath = relativePath;
+      this.storagePolicy = storagePolicy;
+      this.children = dir.getChildrenList(snapshot);
+    }
+
+    String childPath(INode child) {
+      return relativePath.isEmpty() ? child.getLocalName()
+          : relativePath + Path.SEPARATOR + child.getLocalName();
+    }
+  }
+
+  /** The stack of directories of a recursive listing. */
+  private static class RecursiveListing {
+    private final FSDirectory fsd;
+    private final FSPermissionChecker pc;
+    private final String src;
+    private final int snapshot;
+    private final boolean isSuperUser;
+    private final Deque<ListingFrame> stack = new ArrayDeque<ListingFrame>();
+
+    RecursiveListing(FSDirectory fsd, FSPermissionChecker pc, String src,
+        int snapshot, boolean isSuperUser) {
+      this.fsd = fsd;
+      this.pc = pc;
+      this.src = src;
+      this.snapshot = snapshot;
+      this.isSuperUser = isSuperUser;
+    }
+
+    /**
+     * Push the given child directory of the top frame, checking that the
+     * caller is allowed to list it.
+     */
+    ListingFrame descend(ListingFrame parent, INode child,
+        byte storagePolicy) throws IOException {
+      final String relativePath = parent.childPath(child);
+      final INodesInPath childIIP;
+      if (parent.iip.isSnapshot()) {
+        final String path = src.endsWith(Path.SEPARATOR) ?
+            src + relativePath : src + Path.SEPARATOR + relativePath;
+        childIIP = fsd.getINodesInPath(path, true);
+      } else {
+        childIIP = INodesInPath.append(parent.iip, child,
+            child.getLocalNameBytes());
+      }
+      if (fsd.isPermissionEnabled() && !isSuperUser) {
+        fsd.checkPathAccess(pc, childIIP, FsAction.READ_EXECUTE);
+      }
+      final ListingFrame frame = new ListingFrame(child.asDirectory(),
+          childIIP, relativePath, storagePolicy, snapshot);
+      stack.push(frame);
+      return frame;
+    }
+
+    /**
+     * Pop the directories whose children have all been listed.
+     * @return true if there are more entries to list
+     */
+    boolean skipFinishedFrames() {
+      while (!stack.isEmpty()
+          && stack.peek().next >= stack.peek().children.size()) {
+        stack.pop();
+      }
+      return !stack.isEmpty();
+    }
+  }
+
   /**
    * Get a listing of all the snapshots of a snapshottable directory
    */
@@ -492,13 +699,28 @@ private static ContentSummary getContentSummaryInt(FSDirectory fsd,
         throw new FileNotFoundException("File does not exist: " + iip.getPath());
       }
       else {
-        // Make it relinquish locks everytime contentCountLimit entries are
-        // processed. 0 means disabled. I.e. blocking for the entire duration.
-        ContentSummaryComputationContext cscc =
-            new ContentSummaryComputationContext(fsd, fsd.getFSNamesystem(),
-                fsd.getContentCountLimit());
-        ContentSummary cs = targetNode.computeAndConvertContentSummary(cscc);
-        fsd.addYieldCount(cscc.getYieldCount());
+        // summaries are only cached for the current state of directories.
+        final boolean cacheable = !iip.isSnapshot();
+        if (cacheable) {
+          ContentSummary cached = fsd.getCachedContentSummary(targetNode);
+          if (cached != null) {
+            return cached;
+          }
+        }
+        final Object marker = cacheable ?
+            fsd.startContentSummary(targetNode) : null;
+        ContentSummary cs = null;
+        try {
+          // Make it relinquish locks everytime contentCountLimit entries are
+          // processed. 0 means disabled. I.e. blocking for the entire duration.
+          ContentSummaryComputationContext cscc =
+              new ContentSummaryComputationContext(fsd, fsd.getFSNamesystem(),
+                  fsd.getContentCountLimit());
+          cs = targetNode.computeAndConvertContentSummary(cscc);
+          fsd.addYieldCount(cscc.getYieldCount());
+        } finally {
+          fsd.finishContentSummary(targetNode, marker, cs);
+        }
         return cs;
       }
     } finally {
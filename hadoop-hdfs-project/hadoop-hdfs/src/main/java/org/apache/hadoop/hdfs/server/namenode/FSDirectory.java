@@ -27,6 +27,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.crypto.CipherSuite;
 import org.apache.hadoop.crypto.CryptoProtocolVersion;
+import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.FileAlreadyExistsException;
 import org.apache.hadoop.fs.FileEncryptionInfo;
 import org.apache.hadoop.fs.ParentNotDirectoryException;
@@ -76,6 +77,8 @@
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static org.apache.hadoop.fs.BatchedRemoteIterator.BatchedListEntries;
@@ -136,6 +139,14 @@ private static INodeDirectory createRoot(FSNamesystem namesystem) {
   private final int maxDirItems;
   private final int lsLimit;  // max list limit
   private final int contentCountLimit; // max content summary counts per run
+  /**
+   * Content summaries of directories, keyed by inode id. An entry is removed
+   * whenever the namespace below its directory changes. While a summary is
+   * being computed its entry holds a marker object, so that a result computed
+   * across a lock yield is only cached if nothing invalidated it meanwhile.
+   */
+  private final ConcurrentMap<Long, Object> contentSummaryCache;
+  private final int contentSummaryCacheSize;
   private final INodeMap inodeMap; // Synchronized by dirLock
   private long yieldCount = 0; // keep track of lock yield count.
 
@@ -219,7 +230,7 @@ public int getWriteHoldCount() {
     this.dirLock = new ReentrantReadWriteLock(true); // fair
     this.inodeId = new INodeId();
     rootDir = createRoot(ns);
-    inodeMap = INodeMap.newInstance(rootDir);
+    inodeMap = INodeMap.newInstance(rootDir, conf);
     this.isPermissionEnabled = conf.getBoolean(
       DFSConfigKeys.DFS_PERMISSIONS_ENABLED_KEY,
       DFSConfigKeys.DFS_PERMISSIONS_ENABLED_DEFAULT);
@@ -264,6 +275,11 @@ public int getWriteHoldCount() {
     this.contentCountLimit = conf.getInt(
         DFSConfigKeys.DFS_CONTENT_SUMMARY_LIMIT_KEY,
         DFSConfigKeys.DFS_CONTENT_SUMMARY_LIMIT_DEFAULT);
+    this.contentSummaryCacheSize = conf.getInt(
+        DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_SIZE_KEY,
+        DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_SIZE_DEFAULT);
+    this.contentSummaryCache = contentSummaryCacheSize > 0 ?
+        new ConcurrentHashMap<Long, Object>() : null;
     
     // filesystem limits
     this.maxComponentLength = conf.getInt(
@@ -345,6 +361,69 @@ int getContentCountLimit() {
     return contentCountLimit;
   }
 
+  /**
+   * @return the cached content summary of the given directory, or null if
+   *         there is none.
+   */
+  ContentSummary getCachedContentSummary(INode inode) {
+    if (contentSummaryCache == null) {
+      return null;
+    }
+    final Object cached = contentSummaryCache.get(inode.getId());
+    return cached instanceof ContentSummary ? (ContentSummary) cached : null;
+  }
+
+  /**
+   * Mark the start of a content summary computation of the given directory.
+   * @return the marker to pass to {@link #finishContentSummary}, or null if
+   *         the summary should not be cached.
+   */
+  Object startContentSummary(INode inode) {
+    if (contentSummaryCache == null || !inode.isDirectory()) {
+      return null;
+    }
+    if (contentSummaryCache.size() >= contentSummaryCacheSize) {
+      contentSummaryCache.clear();
+    }
+    final Object marker = new Object();
+    contentSummaryCache.put(inode.getId(), marker);
+    return marker;
+  }
+
+  /**
+   * Cache the computed content summary of the given directory, unless the
+   * directory has been invalidated since {@link #startContentSummary}.
+   * @param summary the computed summary, or null if the computation failed.
+   */
+  void finishContentSummary(INode inode, Object marker,
+      ContentSummary summary) {
+    if (marker == null) {
+      return;
+    }
+    if (summary != null) {
+      contentSummaryCache.replace(inode.getId(), marker, summary);
+    } else {
+      contentSummaryCache.remove(inode.getId(), marker);
+    }
+  }
+
+  /**
+   * Drop the cached content summaries of the first numOfINodes inodes of the
+   * path, i.e. of the directories whose summary a change at the path affects.
+   */
+  public void invalidateContentSummaries(INodesInPath iip, int numOfINodes) {
+    if (contentSummaryCache == null || contentSummaryCache.isEmpty()) {
+      return;
+    }
+    numOfINodes = Math.min(numOfINodes, iip.length());
+    for (int i = 0; i < numOfINodes; i++) {
+      final INode inode = iip.getINode(i);
+      if (inode != null) {
+        contentSummaryCache.remove(inode.getId());
+      }
+    }
+  }
+
   int getInodeXAttrsLimit() {
     return inodeXAttrsLimit;
   }
@@ -642,6 +721,7 @@ void updateCountForDelete(final INode inode, final INodesInPath iip) {
     if (getFSNamesystem().isImageLoaded() &&
         !inode.isInLatestSnapshot(iip.getLatestSnapshotId())) {
       QuotaCounts counts = inode.computeQuotaUsage(getBlockStoragePolicySuite());
+      invalidateContentSummaries(iip, iip.length() - 1);
       unprotectedUpdateCount(iip, iip.length() - 1, counts.negation());
     }
   }
@@ -688,6 +768,7 @@ void updateCount(INodesInPath iip, int numOfINodes,
                     QuotaCounts counts, boolean checkQuota)
                     throws QuotaExceededException {
     assert hasWriteLock();
+    invalidateContentSummaries(iip, numOfINodes);
     if (!namesystem.isImageLoaded()) {
       //still initializing. do not check or update quotas.
       return;
@@ -1020,6 +1101,7 @@ public long removeLastINode(final INodesInPath iip) {
     if (!parent.removeChild(last, latestSnapshot)) {
       return -1;
     }
+    invalidateContentSummaries(iip, iip.length());
 
     return (!last.isInLatestSnapshot(latestSnapshot)
         && INodeReference.tryRemoveReference(last) > 0) ? 0 : 1;
@@ -1112,6 +1194,7 @@ boolean unprotectedTruncate(INodesInPath iip, long newLength,
 
     verifyQuotaForTruncate(iip, file, newLength, delta);
 
+    invalidateContentSummaries(iip, iip.length() - 1);
     long remainingLength =
         file.collectBlocksBeyondMax(newLength, collectedBlocks);
     file.excludeSnapshotBlocks(latestSnapshot, collectedBlocks);
@@ -1232,6 +1315,9 @@ void reset() {
       inodeMap.clear();
       addToInodeMap(rootDir);
       nameCache.reset();
+      if (contentSummaryCache != null) {
+        contentSummaryCache.clear();
+      }
       inodeId.setCurrentValue(INodeId.LAST_RESERVED_ID);
     } finally {
       writeUnlock();
@@ -1513,7 +1599,7 @@ private static String resolveDotInodesPath(String src,
       return Path.SEPARATOR;
     }
     INode inode = fsd.getInode(id);
-    if (inode == null) {
+    if (inode == null || !isReachable(inode)) {
       throw new FileNotFoundException(
           "File for given inode path does not exist: " + src);
     }
@@ -1537,6 +1623,19 @@ private static String resolveDotInodesPath(String src,
     return constructRemainingPath(path, pathComponents, 4);
   }
 
+  /**
+   * @return whether the inode is still linked to the root. An inode of a
+   * deleted directory can be in the inode map until the directory has been
+   * destroyed by the {@link SubtreeDeleter}.
+   */
+  private static boolean isReachable(INode inode) {
+    INode i = inode;
+    while (i.getParent() != null) {
+      i = i.getParent();
+    }
+    return i.isRoot();
+  }
+
   private static String constructRemainingPath(String pathPrefix,
       byte[][] pathComponents, int startAt) {
 
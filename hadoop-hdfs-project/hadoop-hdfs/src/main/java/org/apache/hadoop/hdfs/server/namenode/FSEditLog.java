@@ -153,7 +153,8 @@ private enum State {
   private EditLogOutputStream editLogStream = null;
 
   // a monotonically increasing counter that represents transactionIds.
-  private long txid = 0;
+  // Only updated under the lock, volatile for getLastWrittenTxIdWithoutLock.
+  private volatile long txid = 0;
 
   // stores the last synced transactionId.
   private long synctxid = 0;
@@ -186,7 +187,7 @@ private enum State {
       new ThreadLocal<OpInstanceCache>() {
     @Override
     protected OpInstanceCache initialValue() {
-      return new OpInstanceCache();
+      return new OpInstanceCache(!isAsync());
     }
   };
   
@@ -218,6 +219,21 @@ protected synchronized TransactionId initialValue() {
     }
   };
 
+  /**
+   * Create the edit log configured for the namenode: an {@link FSEditLogAsync}
+   * if asynchronous edit logging is enabled, otherwise an FSEditLog.
+   */
+  static FSEditLog newInstance(Configuration conf, NNStorage storage,
+      List<URI> editsDirs) {
+    boolean asyncEditLogging = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT);
+    LOG.info("Edit logging is async:" + asyncEditLogging);
+    return asyncEditLogging
+        ? new FSEditLogAsync(conf, storage, editsDirs)
+        : new FSEditLog(conf, storage, editsDirs);
+  }
+
   /**
    * Constructor for FSEditLog. Underlying journals are constructed, but 
    * no streams are opened until open() is called.
@@ -409,6 +425,14 @@ synchronized List<FormatConfirmable> getFormatConfirmables() {
     return ret;
   }
 
+  /**
+   * @return true if edits are handed to a separate thread to be written and
+   * synced, so ops may not be reused once logged.
+   */
+  boolean isAsync() {
+    return false;
+  }
+
   /**
    * Write an operation to the edit log. Do not sync to persistent
    * store yet.
@@ -421,21 +445,8 @@ assert isOpenForWrite() :
       // wait if an automatic sync is scheduled
       waitIfAutoSyncScheduled();
       
-      long start = beginTransaction();
-      op.setTransactionId(txid);
-
-      try {
-        editLogStream.write(op);
-      } catch (IOException ex) {
-        // All journals failed, it is handled in logSync.
-      } finally {
-        op.reset();
-      }
-
-      endTransaction(start);
-      
       // check if it is time to schedule an automatic sync
-      if (!shouldForceSync()) {
+      if (!doEditTransaction(op)) {
         return;
       }
       isAutoSyncScheduled = true;
@@ -445,6 +456,28 @@ assert isOpenForWrite() :
     logSync();
   }
 
+  /**
+   * Assign the next transaction ID to the op and write it to the edit log
+   * buffer.
+   *
+   * @return true if the buffered edits should be synced now
+   */
+  synchronized boolean doEditTransaction(final FSEditLogOp op) {
+    long start = beginTransaction();
+    op.setTransactionId(txid);
+
+    try {
+      editLogStream.write(op);
+    } catch (IOException ex) {
+      // All journals failed, it is handled in logSync.
+    } finally {
+      op.reset();
+    }
+
+    endTransaction(start);
+    return shouldForceSync();
+  }
+
   /**
    * Wait if an automatic sync is scheduled
    */
@@ -507,6 +540,14 @@ private void endTransaction(long start) {
   public synchronized long getLastWrittenTxId() {
     return txid;
   }
+
+  /**
+   * Return the transaction ID of the last transaction written to the log,
+   * without waiting for the threads which hold the lock to log their edits.
+   */
+  public long getLastWrittenTxIdWithoutLock() {
+    return txid;
+  }
   
   /**
    * @return the first transaction ID in the current log segment
@@ -577,14 +618,31 @@ void logSyncAll() {
    * waitForSyncToFinish() before assuming they are running alone.
    */
   public void logSync() {
-    long syncStart = 0;
-
     // Fetch the transactionId of this thread. 
-    long mytxid = myTransactionId.get().txid;
-    
+    logSync(myTransactionId.get().txid);
+  }
+
+  /**
+   * Sync all modifications up to the given transaction ID.
+   * @see #logSync()
+   */
+  protected void logSync(long mytxid) {
+    logSync(mytxid, false);
+  }
+
+  /**
+   * Sync all modifications up to the given transaction ID. If pipelined is
+   * set, only start flushing them, and let the caller wait for them to be
+   * durable with {@link #awaitSync(PendingSync)}, so that the next edits can
+   * be flushed meanwhile.
+   * @return the flush to wait for, or null if there is none
+   */
+  PendingSync logSync(long mytxid, boolean pipelined) {
+    long syncStart = 0;
     boolean sync = false;
+    EditLogOutputStream logStream = null;
+    long start = 0;
     try {
-      EditLogOutputStream logStream = null;
       synchronized (this) {
         try {
           printStatistics(false);
@@ -606,7 +664,7 @@ public void logSync() {
               // Metrics is non-null only when used inside name node
               metrics.incrTransactionsBatchedInSync();
             }
-            return;
+            return null;
           }
      
           // now, this thread will do the sync
@@ -641,10 +699,14 @@ public void logSync() {
       }
       
       // do the sync
-      long start = monotonicNow();
+      start = monotonicNow();
       try {
         if (logStream != null) {
-          logStream.flush();
+          if (pipelined) {
+            logStream.flushAsync();
+          } else {
+            logStream.flush();
+          }
         }
       } catch (IOException ex) {
         synchronized (this) {
@@ -658,6 +720,9 @@ public void logSync() {
           terminate(1, msg);
         }
       }
+      if (pipelined) {
+        return new PendingSync(logStream, syncStart, start);
+      }
       long elapsed = monotonicNow() - start;
   
       if (metrics != null) { // Metrics non-null only when used inside name node
@@ -668,12 +733,58 @@ public void logSync() {
       // Prevent RuntimeException from blocking other log edit sync 
       synchronized (this) {
         if (sync) {
-          synctxid = syncStart;
+          if (!pipelined) {
+            synctxid = syncStart;
+          }
           isSyncRunning = false;
         }
         this.notifyAll();
      }
     }
+    return null;
+  }
+
+  /**
+   * Wait for a flush started by {@link #logSync(long, boolean)} to be
+   * durable. The flushes must be waited for in the order they were started.
+   */
+  void awaitSync(PendingSync pending) {
+    try {
+      if (pending.logStream != null) {
+        pending.logStream.awaitFlushed(pending.txid);
+      }
+    } catch (IOException ex) {
+      synchronized (this) {
+        final String msg =
+            "Could not sync enough journals to persistent storage. "
+            + "Unsynced transactions: " + (txid - synctxid);
+        LOG.fatal(msg, new Exception());
+        synchronized(journalSetLock) {
+          IOUtils.cleanup(LOG, journalSet);
+        }
+        terminate(1, msg);
+      }
+    }
+    if (metrics != null) { // Metrics non-null only when used inside name node
+      metrics.addSync(monotonicNow() - pending.startTime);
+    }
+    synchronized (this) {
+      synctxid = Math.max(synctxid, pending.txid);
+      this.notifyAll();
+    }
+  }
+
+  /** A flush of the edits up to a txid, which is not durable yet. */
+  static class PendingSync {
+    private final EditLogOutputStream logStream;
+    private final long txid;
+    private final long startTime;
+
+    PendingSync(EditLogOutputStream logStream, long txid, long startTime) {
+      this.logStream = logStream;
+      this.txid = txid;
+      this.startTime = startTime;
+    }
   }
 
   //
@@ -0,0 +1,437 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.util.ExitUtil.terminate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.ipc.Server;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An edit log which writes and syncs edits on a dedicated thread.
+ *
+ * Callers queue their ops instead of writing them. The sync thread writes
+ * queued ops into the double buffer and syncs them whenever the queue runs
+ * dry or the buffer fills up, so a single sync commits the edits of many
+ * callers. It only starts each sync, and hands the synced edits over to the
+ * ack thread, which waits for the sync to be durable. Journals which keep
+ * several flushes outstanding, like the quorum journal, thus write a batch
+ * while the sync thread sends the next ones. An RPC handler logging an edit
+ * postpones the response of its call instead of waiting in
+ * {@link #logSync()}; the ack thread sends the response once the edit is
+ * durable. Other callers wait for their edits to be synced in
+ * {@link #logSync()}, as with {@link FSEditLog}.
+ *
+ * The order of edits is the order in which they were queued, which callers
+ * guarantee by logging edits under the namesystem write lock.
+ */
+class FSEditLogAsync extends FSEditLog implements Runnable {
+  // the edit queued by this thread, waited upon in logSync().
+  private static final ThreadLocal<Edit> threadEdit = new ThreadLocal<Edit>();
+
+  // guards starting and stopping the sync and ack threads.
+  private final Object syncThreadLock = new Object();
+  private volatile Thread syncThread;
+  private Thread ackThread;
+
+  // edits queued by callers, consumed by the sync thread.
+  private final BlockingQueue<Edit> editPendingQ;
+
+  // callers holding the monitor of the log which wait for room in the queue.
+  private volatile int numFullQueueWaiters = 0;
+
+  // edits written but not yet synced. Only accessed by the sync thread.
+  private final Deque<Edit> syncWaitQ = new ArrayDeque<Edit>();
+
+  // syncs started by the sync thread, in order, consumed by the ack thread.
+  private final BlockingQueue<SyncedBatch> syncAckQ;
+
+  private final NameNodeMetrics metrics;
+
+  FSEditLogAsync(Configuration conf, NNStorage storage, List<URI> editsDirs) {
+    super(conf, storage, editsDirs);
+    int size = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE_DEFAULT);
+    Preconditions.checkArgument(size > 0, "%s must be positive: %s",
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE,
+        size);
+    editPendingQ = new ArrayBlockingQueue<Edit>(size);
+    syncAckQ = new ArrayBlockingQueue<SyncedBatch>(size);
+    metrics = NameNode.getNameNodeMetrics();
+  }
+
+  @Override
+  boolean isAsync() {
+    return true;
+  }
+
+  private boolean isSyncThreadAlive() {
+    Thread thread = syncThread;
+    return thread != null && thread.isAlive();
+  }
+
+  private void startSyncThread() {
+    synchronized (syncThreadLock) {
+      if (!isSyncThreadAlive()) {
+        if (ackThread == null) {
+          ackThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+              runAcks();
+            }
+          }, this.getClass().getSimpleName() + "Ack");
+          ackThread.setDaemon(true);
+          ackThread.start();
+        }
+        syncThread = new Thread(this, this.getClass().getSimpleName());
+        syncThread.setDaemon(true);
+        syncThread.start();
+      }
+    }
+  }
+
+  private void stopSyncThread() {
+    synchronized (syncThreadLock) {
+      if (syncThread != null) {
+        try {
+          syncThread.interrupt();
+          syncThread.join();
+        } catch (InterruptedException e) {
+          // we're quitting anyway.
+        } finally {
+          syncThread = null;
+        }
+      }
+      if (ackThread != null) {
+        try {
+          ackThread.interrupt();
+          ackThread.join();
+        } catch (InterruptedException e) {
+          // we're quitting anyway.
+        } finally {
+          ackThread = null;
+        }
+      }
+    }
+  }
+
+  @Override
+  synchronized void openForWrite() throws IOException {
+    try {
+      startSyncThread();
+      super.openForWrite();
+    } catch (IOException ioe) {
+      stopSyncThread();
+      throw ioe;
+    }
+  }
+
+  @Override
+  void close() {
+    super.close();
+    stopSyncThread();
+  }
+
+  @Override
+  void logEdit(final FSEditLogOp op) {
+    if (!isSyncThreadAlive()) {
+      // not open for write, e.g. a backup node journaling edits.
+      super.logEdit(op);
+      return;
+    }
+    Edit edit = getEditInstance(op);
+    threadEdit.set(edit);
+    enqueueEdit(edit);
+  }
+
+  @Override
+  public void logSync() {
+    Edit edit = threadEdit.get();
+    if (edit != null) {
+      threadEdit.set(null);
+      edit.logSyncWait();
+    } else if (!isSyncThreadAlive()) {
+      super.logSync();
+    }
+  }
+
+  @Override
+  void logSyncAll() {
+    if (!isSyncThreadAlive()) {
+      super.logSyncAll();
+      return;
+    }
+    // logs nothing, but returns once every edit queued before it is synced.
+    Edit edit = new SyncEdit(this, null);
+    enqueueEdit(edit);
+    edit.logSyncWait();
+  }
+
+  private void enqueueEdit(Edit edit) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("logEdit " + edit);
+    }
+    try {
+      if (!editPendingQ.offer(edit)) {
+        Preconditions.checkState(isSyncThreadAlive(),
+            "sync thread is not alive");
+        if (Thread.holdsLock(this)) {
+          // the sync thread needs the monitor to write the queued edits, so
+          // release it while waiting for room in the queue. The waiter is
+          // counted before offering again, so that the sync thread notifies
+          // it once it takes an edit off the queue.
+          numFullQueueWaiters++;
+          try {
+            while (!editPendingQ.offer(edit)) {
+              this.wait();
+            }
+          } finally {
+            numFullQueueWaiters--;
+          }
+        } else {
+          editPendingQ.put(edit);
+        }
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted queueing edit " + edit,
+          ie);
+    }
+  }
+
+  private Edit getEditInstance(FSEditLogOp op) {
+    final Server.Call rpcCall = Server.getCurCall().get();
+    // callers synchronized on the log, e.g. rolling it, must wait for the
+    // edit to be synced before they continue.
+    if (rpcCall != null && !Thread.holdsLock(this)) {
+      return new RpcEdit(this, op, rpcCall);
+    }
+    return new SyncEdit(this, op);
+  }
+
+  private Edit dequeueEdit() throws InterruptedException {
+    // only block for the next edit when no edits are waiting for a sync.
+    Edit edit = syncWaitQ.isEmpty() ? editPendingQ.take() : editPendingQ.poll();
+    if (edit != null && numFullQueueWaiters > 0) {
+      synchronized (this) {
+        this.notifyAll();
+      }
+    }
+    return edit;
+  }
+
+  @Override
+  public void run() {
+    try {
+      int numWritten = 0;
+      while (true) {
+        boolean doSync;
+        Edit edit = dequeueEdit();
+        if (edit != null) {
+          // sync early if the buffer is full.
+          doSync = edit.logEdit();
+          if (edit.op != null) {
+            numWritten++;
+          }
+          syncWaitQ.add(edit);
+        } else {
+          // sync once the queue runs dry.
+          doSync = !syncWaitQ.isEmpty();
+        }
+        if (doSync) {
+          // edit log failures normally terminate the namenode, but tests
+          // which disable ExitUtil need the failure to reach the callers.
+          RuntimeException syncEx = null;
+          PendingSync pending = null;
+          try {
+            pending = logSync(getLastWrittenTxId(), true);
+          } catch (RuntimeException ex) {
+            syncEx = ex;
+          }
+          if (metrics != null && numWritten > 1) {
+            metrics.incrTransactionsBatchedInSync(numWritten - 1);
+          }
+          numWritten = 0;
+          syncAckQ.put(new SyncedBatch(pending, syncEx,
+              new ArrayList<Edit>(syncWaitQ)));
+          syncWaitQ.clear();
+        }
+      }
+    } catch (InterruptedException ie) {
+      LOG.info(Thread.currentThread().getName() + " was interrupted, exiting");
+    } catch (Throwable t) {
+      terminate(1, t);
+    }
+  }
+
+  /**
+   * Wait for the syncs started by the sync thread to be durable, in order,
+   * and notify their edits.
+   */
+  private void runAcks() {
+    try {
+      while (true) {
+        SyncedBatch batch = syncAckQ.take();
+        RuntimeException syncEx = batch.syncEx;
+        if (syncEx == null && batch.pending != null) {
+          try {
+            awaitSync(batch.pending);
+          } catch (RuntimeException ex) {
+            syncEx = ex;
+          }
+        }
+        for (Edit edit : batch.edits) {
+          edit.logSyncNotify(syncEx);
+        }
+      }
+    } catch (InterruptedException ie) {
+      LOG.info(Thread.currentThread().getName() + " was interrupted, exiting");
+    } catch (Throwable t) {
+      terminate(1, t);
+    }
+  }
+
+  /** The edits of a sync started by the sync thread. */
+  private static class SyncedBatch {
+    // the sync to wait for, null if the edits were already durable.
+    final PendingSync pending;
+    final RuntimeException syncEx;
+    final List<Edit> edits;
+
+    SyncedBatch(PendingSync pending, RuntimeException syncEx,
+        List<Edit> edits) {
+      this.pending = pending;
+      this.syncEx = syncEx;
+      this.edits = edits;
+    }
+  }
+
+  /** An op queued for the sync thread. */
+  private abstract static class Edit {
+    final FSEditLog log;
+    final FSEditLogOp op;
+
+    Edit(FSEditLog log, FSEditLogOp op) {
+      this.log = log;
+      this.op = op;
+    }
+
+    /**
+     * Write the op. Called by the sync thread.
+     * @return true if the buffered edits should be synced now
+     */
+    boolean logEdit() {
+      return op != null && log.doEditTransaction(op);
+    }
+
+    /** Wait for the op to be synced. Called by the thread logging it. */
+    abstract void logSyncWait();
+
+    /** Called by the sync thread once the op is synced or the sync failed. */
+    abstract void logSyncNotify(RuntimeException syncEx);
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName() + " [op:" + op + "]";
+    }
+  }
+
+  /** An edit whose caller waits for it to be synced. */
+  private static class SyncEdit extends Edit {
+    private final Object lock;
+    private boolean done = false;
+    private RuntimeException syncEx;
+
+    SyncEdit(FSEditLog log, FSEditLogOp op) {
+      super(log, op);
+      // a caller holding the monitor of the log must wait on the log itself
+      // to release the monitor to the sync thread.
+      lock = Thread.holdsLock(log) ? log : this;
+    }
+
+    @Override
+    void logSyncWait() {
+      synchronized (lock) {
+        while (!done) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            // keep waiting, the edit is already queued.
+          }
+        }
+        if (syncEx != null) {
+          syncEx.fillInStackTrace();
+          throw syncEx;
+        }
+      }
+    }
+
+    @Override
+    void logSyncNotify(RuntimeException ex) {
+      synchronized (lock) {
+        done = true;
+        syncEx = ex;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  /** An edit logged by an RPC handler, whose response waits for the sync. */
+  private static class RpcEdit extends Edit {
+    private final Server.Call call;
+
+    RpcEdit(FSEditLog log, FSEditLogOp op, Server.Call call) {
+      super(log, op);
+      this.call = call;
+      call.postponeResponse();
+    }
+
+    @Override
+    void logSyncWait() {
+      // no-op, the handler is freed and the response is sent on sync.
+    }
+
+    @Override
+    void logSyncNotify(RuntimeException syncEx) {
+      try {
+        if (syncEx == null) {
+          call.sendResponse();
+        } else {
+          call.abortResponse(syncEx);
+        }
+      } catch (Exception e) {
+        // the client will retry or time out.
+        LOG.warn("Failed to send the response of " + call, e);
+      }
+    }
+  }
+}
@@ -148,7 +148,7 @@ long loadFSEdits(EditLogInputStream edits, long expectedStartingTxId,
       return numEdits;
     } finally {
       edits.close();
-      fsNamesys.writeUnlock();
+      fsNamesys.writeUnlock("loadFSEdits");
       prog.endStep(Phase.LOADING_EDITS, step);
     }
   }
@@ -285,7 +285,7 @@ long loadEditRecords(EditLogInputStream in, boolean closeOnExit,
         in.close();
       }
       fsDir.writeUnlock();
-      fsNamesys.writeUnlock();
+      fsNamesys.writeUnlock("loadEditRecords");
 
       if (LOG.isTraceEnabled()) {
         LOG.trace("replaying edit log finished");
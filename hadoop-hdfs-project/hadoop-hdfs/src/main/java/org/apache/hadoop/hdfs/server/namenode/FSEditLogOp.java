@@ -159,66 +159,132 @@ final void reset() {
   final public static class OpInstanceCache {
     private final EnumMap<FSEditLogOpCodes, FSEditLogOp> inst =
         new EnumMap<FSEditLogOpCodes, FSEditLogOp>(FSEditLogOpCodes.class);
-    
+    private final boolean useCache;
+
     public OpInstanceCache() {
-      inst.put(OP_ADD, new AddOp());
-      inst.put(OP_CLOSE, new CloseOp());
-      inst.put(OP_SET_REPLICATION, new SetReplicationOp());
-      inst.put(OP_CONCAT_DELETE, new ConcatDeleteOp());
-      inst.put(OP_RENAME_OLD, new RenameOldOp());
-      inst.put(OP_DELETE, new DeleteOp());
-      inst.put(OP_MKDIR, new MkdirOp());
-      inst.put(OP_SET_GENSTAMP_V1, new SetGenstampV1Op());
-      inst.put(OP_SET_PERMISSIONS, new SetPermissionsOp());
-      inst.put(OP_SET_OWNER, new SetOwnerOp());
-      inst.put(OP_SET_NS_QUOTA, new SetNSQuotaOp());
-      inst.put(OP_CLEAR_NS_QUOTA, new ClearNSQuotaOp());
-      inst.put(OP_SET_QUOTA, new SetQuotaOp());
-      inst.put(OP_TIMES, new TimesOp());
-      inst.put(OP_SYMLINK, new SymlinkOp());
-      inst.put(OP_RENAME, new RenameOp());
-      inst.put(OP_REASSIGN_LEASE, new ReassignLeaseOp());
-      inst.put(OP_GET_DELEGATION_TOKEN, new GetDelegationTokenOp());
-      inst.put(OP_RENEW_DELEGATION_TOKEN, new RenewDelegationTokenOp());
-      inst.put(OP_CANCEL_DELEGATION_TOKEN, new CancelDelegationTokenOp());
-      inst.put(OP_UPDATE_MASTER_KEY, new UpdateMasterKeyOp());
-      inst.put(OP_START_LOG_SEGMENT, new LogSegmentOp(OP_START_LOG_SEGMENT));
-      inst.put(OP_END_LOG_SEGMENT, new LogSegmentOp(OP_END_LOG_SEGMENT));
-      inst.put(OP_UPDATE_BLOCKS, new UpdateBlocksOp());
-      inst.put(OP_TRUNCATE, new TruncateOp());
-
-      inst.put(OP_ALLOW_SNAPSHOT, new AllowSnapshotOp());
-      inst.put(OP_DISALLOW_SNAPSHOT, new DisallowSnapshotOp());
-      inst.put(OP_CREATE_SNAPSHOT, new CreateSnapshotOp());
-      inst.put(OP_DELETE_SNAPSHOT, new DeleteSnapshotOp());
-      inst.put(OP_RENAME_SNAPSHOT, new RenameSnapshotOp());
-      inst.put(OP_SET_GENSTAMP_V2, new SetGenstampV2Op());
-      inst.put(OP_ALLOCATE_BLOCK_ID, new AllocateBlockIdOp());
-      inst.put(OP_ADD_BLOCK, new AddBlockOp());
-      inst.put(OP_ADD_CACHE_DIRECTIVE,
-          new AddCacheDirectiveInfoOp());
-      inst.put(OP_MODIFY_CACHE_DIRECTIVE,
-          new ModifyCacheDirectiveInfoOp());
-      inst.put(OP_REMOVE_CACHE_DIRECTIVE,
-          new RemoveCacheDirectiveInfoOp());
-      inst.put(OP_ADD_CACHE_POOL, new AddCachePoolOp());
-      inst.put(OP_MODIFY_CACHE_POOL, new ModifyCachePoolOp());
-      inst.put(OP_REMOVE_CACHE_POOL, new RemoveCachePoolOp());
-
-      inst.put(OP_SET_ACL, new SetAclOp());
-      inst.put(OP_ROLLING_UPGRADE_START, new RollingUpgradeOp(
-          OP_ROLLING_UPGRADE_START, "start"));
-      inst.put(OP_ROLLING_UPGRADE_FINALIZE, new RollingUpgradeOp(
-          OP_ROLLING_UPGRADE_FINALIZE, "finalize"));
-      inst.put(OP_SET_XATTR, new SetXAttrOp());
-      inst.put(OP_REMOVE_XATTR, new RemoveXAttrOp());
-      inst.put(OP_SET_STORAGE_POLICY, new SetStoragePolicyOp());
-      inst.put(OP_APPEND, new AppendOp());
-      inst.put(OP_SET_QUOTA_BY_STORAGETYPE, new SetQuotaByStorageTypeOp());
+      this(true);
+    }
+
+    /**
+     * @param useCache if false, every {@link #get} returns a new op. This is
+     *                 needed when ops are handed to another thread before
+     *                 being written, so they cannot be reused by the caller.
+     */
+    public OpInstanceCache(boolean useCache) {
+      this.useCache = useCache;
+      if (useCache) {
+        for (FSEditLogOpCodes opcode : FSEditLogOpCodes.values()) {
+          FSEditLogOp op = newInstance(opcode);
+          if (op != null) {
+            inst.put(opcode, op);
+          }
+        }
+      }
     }
     
     public FSEditLogOp get(FSEditLogOpCodes opcode) {
-      return inst.get(opcode);
+      return useCache ? inst.get(opcode) : newInstance(opcode);
+    }
+
+    private static FSEditLogOp newInstance(FSEditLogOpCodes opcode) {
+      switch (opcode) {
+      case OP_ADD:
+        return new AddOp();
+      case OP_CLOSE:
+        return new CloseOp();
+      case OP_SET_REPLICATION:
+        return new SetReplicationOp();
+      case OP_CONCAT_DELETE:
+        return new ConcatDeleteOp();
+      case OP_RENAME_OLD:
+        return new RenameOldOp();
+      case OP_DELETE:
+        return new DeleteOp();
+      case OP_MKDIR:
+        return new MkdirOp();
+      case OP_SET_GENSTAMP_V1:
+        return new SetGenstampV1Op();
+      case OP_SET_PERMISSIONS:
+        return new SetPermissionsOp();
+      case OP_SET_OWNER:
+        return new SetOwnerOp();
+      case OP_SET_NS_QUOTA:
+        return new SetNSQuotaOp();
+      case OP_CLEAR_NS_QUOTA:
+        return new ClearNSQuotaOp();
+      case OP_SET_QUOTA:
+        return new SetQuotaOp();
+      case OP_TIMES:
+        return new TimesOp();
+      case OP_SYMLINK:
+        return new SymlinkOp();
+      case OP_RENAME:
+        return new RenameOp();
+      case OP_REASSIGN_LEASE:
+        return new ReassignLeaseOp();
+      case OP_GET_DELEGATION_TOKEN:
+        return new GetDelegationTokenOp();
+      case OP_RENEW_DELEGATION_TOKEN:
+        return new RenewDelegationTokenOp();
+      case OP_CANCEL_DELEGATION_TOKEN:
+        return new CancelDelegationTokenOp();
+      case OP_UPDATE_MASTER_KEY:
+        return new UpdateMasterKeyOp();
+      case OP_START_LOG_SEGMENT:
+        return new LogSegmentOp(OP_START_LOG_SEGMENT);
+      case OP_END_LOG_SEGMENT:
+        return new LogSegmentOp(OP_END_LOG_SEGMENT);
+      case OP_UPDATE_BLOCKS:
+        return new UpdateBlocksOp();
+      case OP_TRUNCATE:
+        return new TruncateOp();
+      case OP_ALLOW_SNAPSHOT:
+        return new AllowSnapshotOp();
+      case OP_DISALLOW_SNAPSHOT:
+        return new DisallowSnapshotOp();
+      case OP_CREATE_SNAPSHOT:
+        return new CreateSnapshotOp();
+      case OP_DELETE_SNAPSHOT:
+        return new DeleteSnapshotOp();
+      case OP_RENAME_SNAPSHOT:
+        return new RenameSnapshotOp();
+      case OP_SET_GENSTAMP_V2:
+        return new SetGenstampV2Op();
+      case OP_ALLOCATE_BLOCK_ID:
+        return new AllocateBlockIdOp();
+      case OP_ADD_BLOCK:
+        return new AddBlockOp();
+      case OP_ADD_CACHE_DIRECTIVE:
+        return new AddCacheDirectiveInfoOp();
+      case OP_MODIFY_CACHE_DIRECTIVE:
+        return new ModifyCacheDirectiveInfoOp();
+      case OP_REMOVE_CACHE_DIRECTIVE:
+        return new RemoveCacheDirectiveInfoOp();
+      case OP_ADD_CACHE_POOL:
+        return new AddCachePoolOp();
+      case OP_MODIFY_CACHE_POOL:
+        return new ModifyCachePoolOp();
+      case OP_REMOVE_CACHE_POOL:
+        return new RemoveCachePoolOp();
+      case OP_SET_ACL:
+        return new SetAclOp();
+      case OP_ROLLING_UPGRADE_START:
+        return new RollingUpgradeOp(OP_ROLLING_UPGRADE_START, "start");
+      case OP_ROLLING_UPGRADE_FINALIZE:
+        return new RollingUpgradeOp(OP_ROLLING_UPGRADE_FINALIZE, "finalize");
+      case OP_SET_XATTR:
+        return new SetXAttrOp();
+      case OP_REMOVE_XATTR:
+        return new RemoveXAttrOp();
+      case OP_SET_STORAGE_POLICY:
+        return new SetStoragePolicyOp();
+      case OP_APPEND:
+        return new AppendOp();
+      case OP_SET_QUOTA_BY_STORAGETYPE:
+        return new SetQuotaByStorageTypeOp();
+      default:
+        return null;
+      }
     }
   }
 
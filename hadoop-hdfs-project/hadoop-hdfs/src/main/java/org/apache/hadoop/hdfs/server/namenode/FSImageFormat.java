@@ -297,6 +297,30 @@ private void checkLoaded() {
     /**
      * Throw IllegalStateException if load() has already been called.
      */
+    /**
+     * Set the subtree diff markers of the directories of a subtree. The
+     * snapshot diffs of an inode are loaded before it is added to its
+     * parent, so they are recorded once the whole namespace is loaded.
+     * @return the highest snapshot id a diff was loaded for in the subtree
+     * @see INodeDirectory#getSubtreeDiffSnapshotId()
+     */
+    private int recordSubtreeDiffs(INodeDirectory dir) {
+      int max = Snapshot.NO_SNAPSHOT_ID;
+      if (dir.isWithSnapshot() && dir.getDiffs().getLast() != null) {
+        max = dir.getDiffs().getLastSnapshotId();
+      }
+      for (INode child : dir.getChildrenList(Snapshot.CURRENT_STATE_ID)) {
+        if (child.isDirectory()) {
+          max = Math.max(max, recordSubtreeDiffs(child.asDirectory()));
+        } else if (child.isFile() && child.asFile().isWithSnapshot()
+            && child.asFile().getDiffs().getLast() != null) {
+          max = Math.max(max, child.asFile().getDiffs().getLastSnapshotId());
+        }
+      }
+      dir.updateSubtreeDiffSnapshotId(max);
+      return max;
+    }
+
     private void checkNotLoaded() {
       if (loaded) {
         throw new IllegalStateException("Image already loaded!");
@@ -415,6 +439,7 @@ public void load(File curFile) throws IOException {
             LayoutVersion.Feature.FSIMAGE_NAME_OPTIMIZATION, imgVersion)) {
           if (supportSnapshot) {
             loadLocalNameINodesWithSnapshot(numFiles, in, counter);
+            recordSubtreeDiffs(namesystem.dir.rootDir);
           } else {
             loadLocalNameINodes(numFiles, in, counter);
           }
@@ -18,13 +18,21 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -221,6 +229,11 @@ public static void updateBlocksMap(INodeFile file, BlockManager bm) {
     private final FSNamesystem fsn;
     private final FSImageFormatProtobuf.Loader parent;
 
+    // guard the structures shared by the threads loading sub-sections.
+    private final Object inodeMapLock = new Object();
+    private final Object cacheNameLock = new Object();
+    private final Object blocksMapLock = new Object();
+
     Loader(FSNamesystem fsn, final FSImageFormatProtobuf.Loader parent) {
       this.fsn = fsn;
       this.dir = fsn.dir;
@@ -228,8 +241,44 @@ public static void updateBlocksMap(INodeFile file, BlockManager bm) {
     }
 
     void loadINodeDirectorySection(InputStream in) throws IOException {
+      loadINodeDirectoriesInSection(in);
+    }
+
+    /**
+     * Load the sub-sections of the INODE_DIR section on the given executor.
+     * Each directory entry lives in a single sub-section, so the threads never
+     * add children to the same directory.
+     */
+    void loadINodeDirectorySectionInParallel(ExecutorService service,
+        List<FileSummary.Section> sections, String compressionCodec)
+        throws IOException {
+      LOG.info("Loading the INodeDirectory section in parallel with "
+          + sections.size() + " sub-sections");
+      List<Future<Long>> futures = new ArrayList<Future<Long>>();
+      for (FileSummary.Section s : sections) {
+        final InputStream in = parent.getInputStreamForSection(s,
+            compressionCodec);
+        futures.add(service.submit(new Callable<Long>() {
+          @Override
+          public Long call() throws IOException {
+            try {
+              return loadINodeDirectoriesInSection(in);
+            } finally {
+              in.close();
+            }
+          }
+        }));
+      }
+      long entries = waitForSubSections(futures);
+      LOG.info("Completed loading all INodeDirectory sub-sections, "
+          + entries + " directory entries loaded");
+    }
+
+    private long loadINodeDirectoriesInSection(InputStream in)
+        throws IOException {
       final List<INodeReference> refList = parent.getLoaderContext()
           .getRefList();
+      long count = 0;
       while (true) {
         INodeDirectorySection.DirEntry e = INodeDirectorySection.DirEntry
             .parseDelimitedFrom(in);
@@ -246,24 +295,124 @@ void loadINodeDirectorySection(InputStream in) throws IOException {
           INodeReference ref = refList.get(refId);
           addToParent(p, ref);
         }
+        count++;
       }
+      return count;
     }
 
     void loadINodeSection(InputStream in) throws IOException {
+      INodeSection s = loadINodeSectionHeader(in);
+      for (int i = 0; i < s.getNumInodes(); ++i) {
+        INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
+        loadINodeEntry(p);
+      }
+    }
+
+    /**
+     * Load the sub-sections of the INODE section on the given executor. The
+     * section header is stored at the start of the first sub-section.
+     */
+    void loadINodeSectionInParallel(ExecutorService service,
+        List<FileSummary.Section> sections, String compressionCodec)
+        throws IOException {
+      LOG.info("Loading the INode section in parallel with "
+          + sections.size() + " sub-sections");
+      INodeSection header = null;
+      List<Future<Long>> futures = new ArrayList<Future<Long>>();
+      try {
+        for (FileSummary.Section s : sections) {
+          final InputStream in = parent.getInputStreamForSection(s,
+              compressionCodec);
+          if (header == null) {
+            header = loadINodeSectionHeader(in);
+          }
+          futures.add(service.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+              try {
+                return loadINodesInSection(in);
+              } finally {
+                in.close();
+              }
+            }
+          }));
+        }
+      } catch (IOException e) {
+        // do not leave loaders running if a sub-section could not be opened.
+        for (Future<Long> f : futures) {
+          f.cancel(true);
+        }
+        throw e;
+      }
+      long loaded = waitForSubSections(futures);
+      if (loaded != header.getNumInodes()) {
+        throw new IOException("Expected to load " + header.getNumInodes()
+            + " INodes from the sub-sections, but loaded " + loaded);
+      }
+      LOG.info("Completed loading all INode sub-sections");
+    }
+
+    private INodeSection loadINodeSectionHeader(InputStream in)
+        throws IOException {
       INodeSection s = INodeSection.parseDelimitedFrom(in);
       fsn.dir.resetLastInodeId(s.getLastInodeId());
       LOG.info("Loading " + s.getNumInodes() + " INodes.");
-      for (int i = 0; i < s.getNumInodes(); ++i) {
+      return s;
+    }
+
+    /** Load the inodes of a sub-section, which runs until the end of it. */
+    private long loadINodesInSection(InputStream in) throws IOException {
+      long count = 0;
+      while (true) {
         INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
-        if (p.getId() == INodeId.ROOT_INODE_ID) {
+        // note that in is a LimitedInputStream
+        if (p == null) {
+          break;
+        }
+        loadINodeEntry(p);
+        count++;
+      }
+      return count;
+    }
+
+    private void loadINodeEntry(INodeSection.INode p) {
+      if (p.getId() == INodeId.ROOT_INODE_ID) {
+        synchronized (inodeMapLock) {
           loadRootINode(p);
-        } else {
-          INode n = loadINode(p);
+        }
+      } else {
+        INode n = loadINode(p);
+        synchronized (inodeMapLock) {
           dir.addToInodeMap(n);
         }
       }
     }
 
+    private static long waitForSubSections(List<Future<Long>> futures)
+        throws IOException {
+      long total = 0;
+      IOException ioe = null;
+      for (Future<Long> f : futures) {
+        try {
+          total += f.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException(
+              "Interrupted loading image sub-sections");
+        } catch (ExecutionException e) {
+          LOG.error("Failed to load an image sub-section", e.getCause());
+          if (ioe == null) {
+            ioe = e.getCause() instanceof IOException ?
+                (IOException) e.getCause() : new IOException(e.getCause());
+          }
+        }
+      }
+      if (ioe != null) {
+        throw ioe;
+      }
+      return total;
+    }
+
     /**
      * Load the under-construction files section, and update the lease map
      */
@@ -293,10 +442,14 @@ private void addToParent(INodeDirectory parent, INode child) {
       if (!parent.addChild(child)) {
         return;
       }
-      dir.cacheName(child);
+      synchronized (cacheNameLock) {
+        dir.cacheName(child);
+      }
 
       if (child.isFile()) {
-        updateBlocksMap(child.asFile(), fsn.getBlockManager());
+        synchronized (blocksMapLock) {
+          updateBlocksMap(child.asFile(), fsn.getBlockManager());
+        }
       }
     }
 
@@ -519,27 +672,22 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
       final ArrayList<INodeReference> refList = parent.getSaverContext()
           .getRefList();
       int i = 0;
+      long childrenInSubSection = 0;
       while (iter.hasNext()) {
         INodeWithAdditionalFields n = iter.next();
         if (!n.isDirectory()) {
           continue;
         }
 
-        ReadOnlyList<INode> children = n.asDirectory().getChildrenList(
-            Snapshot.CURRENT_STATE_ID);
-        if (children.size() > 0) {
-          INodeDirectorySection.DirEntry.Builder b = INodeDirectorySection.
-              DirEntry.newBuilder().setParent(n.getId());
-          for (INode inode : children) {
-            if (!inode.isReference()) {
-              b.addChildren(inode.getId());
-            } else {
-              refList.add(inode.asReference());
-              b.addRefChildren(refList.size() - 1);
-            }
-          }
-          INodeDirectorySection.DirEntry e = b.build();
-          e.writeDelimitedTo(out);
+        int numChildren = saveDirEntry(out, n.asDirectory(), refList);
+        // split by the number of children, as sizes of the entries vary.
+        childrenInSubSection += numChildren;
+        if (numChildren > 0
+            && childrenInSubSection >= parent.getInodesPerSubSection()) {
+          parent.commitSubSection(summary,
+              FSImageFormatProtobuf.SectionName.INODE_DIR_SUB);
+          out = parent.getSectionOutputStream();
+          childrenInSubSection = 0;
         }
 
         ++i;
@@ -547,10 +695,101 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
           context.checkCancelled();
         }
       }
+      parent.commitSubSection(summary,
+          FSImageFormatProtobuf.SectionName.INODE_DIR_SUB);
+      parent.commitSection(summary,
+          FSImageFormatProtobuf.SectionName.INODE_DIR);
+    }
+
+    /**
+     * Serialize the INODE_DIR section, building and compressing batches of
+     * directory entries on the given executor.
+     */
+    void serializeINodeDirectorySectionInParallel(ExecutorService service)
+        throws IOException {
+      Iterator<INodeWithAdditionalFields> iter = fsn.getFSDirectory()
+          .getINodeMap().getMapIterator();
+      SubSectionWriter writer = new SubSectionWriter(service,
+          FSImageFormatProtobuf.SectionName.INODE_DIR_SUB);
+      try {
+        List<INodeDirectory> batch = new ArrayList<INodeDirectory>();
+        long childrenInBatch = 0;
+        while (iter.hasNext()) {
+          INodeWithAdditionalFields n = iter.next();
+          if (!n.isDirectory()) {
+            continue;
+          }
+          int numChildren = n.asDirectory().getChildrenList(
+              Snapshot.CURRENT_STATE_ID).size();
+          if (numChildren == 0) {
+            continue;
+          }
+          batch.add(n.asDirectory());
+          childrenInBatch += numChildren;
+          if (childrenInBatch >= parent.getInodesPerSubSection()) {
+            writer.submit(newDirEntryBatch(batch));
+            batch = new ArrayList<INodeDirectory>();
+            childrenInBatch = 0;
+          }
+        }
+        if (!batch.isEmpty()) {
+          writer.submit(newDirEntryBatch(batch));
+        }
+        writer.finish();
+      } finally {
+        writer.cancel();
+      }
       parent.commitSection(summary,
           FSImageFormatProtobuf.SectionName.INODE_DIR);
     }
 
+    private Callable<byte[]> newDirEntryBatch(
+        final List<INodeDirectory> dirs) {
+      final ArrayList<INodeReference> refList = parent.getSaverContext()
+          .getRefList();
+      return new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws IOException {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          OutputStream out = parent.createSubSectionOutputStream(bytes);
+          for (INodeDirectory d : dirs) {
+            saveDirEntry(out, d, refList);
+          }
+          parent.finishSubSectionOutputStream(out);
+          context.checkCancelled();
+          return bytes.toByteArray();
+        }
+      };
+    }
+
+    /**
+     * Write the directory entry of a directory with children.
+     * @return the number of children of the directory
+     */
+    private int saveDirEntry(OutputStream out, INodeDirectory n,
+        ArrayList<INodeReference> refList) throws IOException {
+      ReadOnlyList<INode> children = n.getChildrenList(
+          Snapshot.CURRENT_STATE_ID);
+      if (children.size() > 0) {
+        INodeDirectorySection.DirEntry.Builder b = INodeDirectorySection.
+            DirEntry.newBuilder().setParent(n.getId());
+        for (INode inode : children) {
+          if (!inode.isReference()) {
+            b.addChildren(inode.getId());
+          } else {
+            // the reference list is shared by the threads saving in parallel.
+            synchronized (refList) {
+              refList.add(inode.asReference());
+              b.addRefChildren(refList.size() - 1);
+            }
+          }
+        }
+        INodeDirectorySection.DirEntry e = b.build();
+        e.writeDelimitedTo(out);
+      }
+      return children.size();
+    }
+
     void serializeINodeSection(OutputStream out) throws IOException {
       INodeMap inodesMap = fsn.dir.getINodeMap();
 
@@ -568,10 +807,133 @@ void serializeINodeSection(OutputStream out) throws IOException {
         if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
           context.checkCancelled();
         }
+        if (i % parent.getInodesPerSubSection() == 0) {
+          parent.commitSubSection(summary,
+              FSImageFormatProtobuf.SectionName.INODE_SUB);
+          out = parent.getSectionOutputStream();
+        }
+      }
+      parent.commitSubSection(summary,
+          FSImageFormatProtobuf.SectionName.INODE_SUB);
+      parent.commitSection(summary, FSImageFormatProtobuf.SectionName.INODE);
+    }
+
+    /**
+     * Serialize the INODE section, building and compressing batches of
+     * inodes on the given executor. The section header is stored at the start
+     * of the first sub-section.
+     */
+    void serializeINodeSectionInParallel(ExecutorService service)
+        throws IOException {
+      INodeMap inodesMap = fsn.dir.getINodeMap();
+      INodeSection header = INodeSection.newBuilder()
+          .setLastInodeId(fsn.dir.getLastInodeId())
+          .setNumInodes(inodesMap.size()).build();
+
+      SubSectionWriter writer = new SubSectionWriter(service,
+          FSImageFormatProtobuf.SectionName.INODE_SUB);
+      try {
+        List<INode> batch = new ArrayList<INode>();
+        Iterator<INodeWithAdditionalFields> iter = inodesMap.getMapIterator();
+        while (iter.hasNext()) {
+          batch.add(iter.next());
+          if (batch.size() >= parent.getInodesPerSubSection()) {
+            writer.submit(newINodeBatch(header, batch));
+            header = null;
+            batch = new ArrayList<INode>();
+          }
+        }
+        if (header != null || !batch.isEmpty()) {
+          writer.submit(newINodeBatch(header, batch));
+        }
+        writer.finish();
+      } finally {
+        writer.cancel();
       }
       parent.commitSection(summary, FSImageFormatProtobuf.SectionName.INODE);
     }
 
+    private Callable<byte[]> newINodeBatch(final INodeSection header,
+        final List<INode> inodes) {
+      return new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws IOException {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          OutputStream out = parent.createSubSectionOutputStream(bytes);
+          if (header != null) {
+            header.writeDelimitedTo(out);
+          }
+          int i = 0;
+          for (INode n : inodes) {
+            save(out, n);
+            if (++i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
+              context.checkCancelled();
+            }
+          }
+          parent.finishSubSectionOutputStream(out);
+          return bytes.toByteArray();
+        }
+      };
+    }
+
+    /**
+     * Writes sub-sections serialized on an executor to the image in the order
+     * they were submitted. At most two sub-sections per thread are buffered
+     * at a time.
+     */
+    private class SubSectionWriter {
+      private final ExecutorService service;
+      private final FSImageFormatProtobuf.SectionName name;
+      private final Deque<Future<byte[]>> pending =
+          new ArrayDeque<Future<byte[]>>();
+      private final int maxPending;
+
+      SubSectionWriter(ExecutorService service,
+          FSImageFormatProtobuf.SectionName name) {
+        this.service = service;
+        this.name = name;
+        this.maxPending = 2 * Math.max(1, parent.getSaveThreads());
+      }
+
+      void submit(Callable<byte[]> task) throws IOException {
+        while (pending.size() >= maxPending) {
+          writeNext();
+        }
+        pending.add(service.submit(task));
+      }
+
+      void finish() throws IOException {
+        while (!pending.isEmpty()) {
+          writeNext();
+        }
+      }
+
+      void cancel() {
+        for (Future<byte[]> f : pending) {
+          f.cancel(true);
+        }
+        pending.clear();
+      }
+
+      private void writeNext() throws IOException {
+        Future<byte[]> f = pending.remove();
+        byte[] data;
+        try {
+          data = f.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted saving " + name);
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof IOException) {
+            throw (IOException) cause;
+          }
+          throw new IOException("Failed to save " + name, cause);
+        }
+        parent.commitSubSection(summary, name, data);
+      }
+    }
+
     void serializeFilesUCSection(OutputStream out) throws IOException {
       Map<String, INodeFile> ucMap = fsn.getFilesUnderConstruction();
       for (Map.Entry<String, INodeFile> entry : ucMap.entrySet()) {
@@ -34,14 +34,20 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CachePoolInfoProto;
@@ -64,8 +70,10 @@
 import org.apache.hadoop.util.LimitInputStream;
 import org.apache.hadoop.util.Time;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 
 /**
@@ -97,7 +105,8 @@ static <T> DeduplicationMap<T> newMap() {
         return new DeduplicationMap<T>();
       }
 
-      int getId(E value) {
+      // synchronized as sub-sections may be serialized by several threads.
+      synchronized int getId(E value) {
         if (value == null) {
           return 0;
         }
@@ -110,7 +119,7 @@ int getId(E value) {
         return v;
       }
 
-      int size() {
+      synchronized int size() {
         return map.size();
       }
 
@@ -147,6 +156,8 @@ public static final class Loader implements FSImageFormat.AbstractLoader {
      * when we're doing (rollingUpgrade rollback).
      */
     private final boolean requireSameLayoutVersion;
+    /** The image file being loaded, re-opened to read sub-sections */
+    private File filename;
 
     Loader(Configuration conf, FSNamesystem fsn,
         boolean requireSameLayoutVersion) {
@@ -171,6 +182,7 @@ public LoaderContext getLoaderContext() {
     }
 
     void load(File file) throws IOException {
+      filename = file;
       long start = Time.monotonicNow();
       imgDigest = MD5FileUtils.computeMd5ForFile(file);
       RandomAccessFile raFile = new RandomAccessFile(file, "r");
@@ -198,6 +210,84 @@ private void loadInternal(RandomAccessFile raFile, FileInputStream fin)
             HdfsConstants.NAMENODE_LAYOUT_VERSION);
       }
 
+      // sub-sections are indexed alongside the sections they belong to, and are
+      // only read when the image is loaded in parallel.
+      ArrayList<FileSummary.Section> sections = Lists.newArrayList();
+      Map<SectionName, List<FileSummary.Section>> subSections =
+          Maps.newEnumMap(SectionName.class);
+      for (FileSummary.Section s : summary.getSectionsList()) {
+        SectionName n = SectionName.fromString(s.getName());
+        if (n == SectionName.INODE_SUB || n == SectionName.INODE_DIR_SUB) {
+          List<FileSummary.Section> l = subSections.get(n);
+          if (l == null) {
+            l = Lists.newArrayList();
+            subSections.put(n, l);
+          }
+          l.add(s);
+        } else {
+          sections.add(s);
+        }
+      }
+      ExecutorService executorService = null;
+      if (!subSections.isEmpty() && conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT)) {
+        executorService = getParallelExecutorService();
+      }
+      try {
+        loadSections(fin, summary, sections, subSections, executorService);
+      } finally {
+        if (executorService != null) {
+          executorService.shutdown();
+        }
+      }
+    }
+
+    private ExecutorService getParallelExecutorService() {
+      int threads = conf.getInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT);
+      if (threads < 1) {
+        LOG.warn("Parameter " + DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY
+            + " is set to " + threads + ". It must be greater than zero. "
+            + "Using the default value "
+            + DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT);
+        threads = DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT;
+      }
+      LOG.info("The fsimage will be loaded in parallel using " + threads
+          + " threads");
+      return new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("FSImageLoader-%d").build());
+    }
+
+    /**
+     * Open a new stream over a section of the image file, so that sections
+     * can be read by several threads at once.
+     */
+    InputStream getInputStreamForSection(FileSummary.Section section,
+        String compressionCodec) throws IOException {
+      FileInputStream fin = new FileInputStream(filename);
+      boolean success = false;
+      try {
+        FileChannel channel = fin.getChannel();
+        channel.position(section.getOffset());
+        InputStream in = FSImageUtil.wrapInputStreamForCompression(conf,
+            compressionCodec, new BufferedInputStream(new LimitInputStream(
+                fin, section.getLength())));
+        success = true;
+        return in;
+      } finally {
+        if (!success) {
+          fin.close();
+        }
+      }
+    }
+
+    private void loadSections(FileInputStream fin, FileSummary summary,
+        ArrayList<FileSummary.Section> sections,
+        Map<SectionName, List<FileSummary.Section>> subSections,
+        ExecutorService executorService) throws IOException {
       FileChannel channel = fin.getChannel();
 
       FSImageFormatPBINode.Loader inodeLoader = new FSImageFormatPBINode.Loader(
@@ -205,8 +295,6 @@ private void loadInternal(RandomAccessFile raFile, FileInputStream fin)
       FSImageFormatPBSnapshot.Loader snapshotLoader = new FSImageFormatPBSnapshot.Loader(
           fsn, this);
 
-      ArrayList<FileSummary.Section> sections = Lists.newArrayList(summary
-          .getSectionsList());
       Collections.sort(sections, new Comparator<FileSummary.Section>() {
         @Override
         public int compare(FileSummary.Section s1, FileSummary.Section s2) {
@@ -250,14 +338,29 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
         case INODE: {
           currentStep = new Step(StepType.INODES);
           prog.beginStep(Phase.LOADING_FSIMAGE, currentStep);
-          inodeLoader.loadINodeSection(in);
+          List<FileSummary.Section> subs = subSections.get(
+              SectionName.INODE_SUB);
+          if (executorService != null && subs != null) {
+            inodeLoader.loadINodeSectionInParallel(executorService, subs,
+                summary.getCodec());
+          } else {
+            inodeLoader.loadINodeSection(in);
+          }
         }
           break;
         case INODE_REFERENCE:
           snapshotLoader.loadINodeReferenceSection(in);
           break;
-        case INODE_DIR:
-          inodeLoader.loadINodeDirectorySection(in);
+        case INODE_DIR: {
+          List<FileSummary.Section> subs = subSections.get(
+              SectionName.INODE_DIR_SUB);
+          if (executorService != null && subs != null) {
+            inodeLoader.loadINodeDirectorySectionInParallel(executorService,
+                subs, summary.getCodec());
+          } else {
+            inodeLoader.loadINodeDirectorySection(in);
+          }
+        }
           break;
         case FILES_UNDERCONSTRUCTION:
           inodeLoader.loadFilesUnderConstructionSection(in);
@@ -355,17 +458,59 @@ public static final class Saver {
     private final SaveNamespaceContext context;
     private final SaverContext saverContext;
     private long currentOffset = FSImageUtil.MAGIC_HEADER.length;
+    private long subSectionOffset = currentOffset;
     private MD5Hash savedDigest;
 
     private FileChannel fileChannel;
-    // OutputStream for the section data
+    // OutputStream for the section data, opened lazily when compressing
     private OutputStream sectionOutputStream;
     private CompressionCodec codec;
     private OutputStream underlyingOutputStream;
 
+    /**
+     * Whether the INODE and INODE_DIR sections are indexed as sub-sections
+     * which can be loaded in parallel.
+     */
+    private final boolean writeSubSections;
+    private final int inodesPerSubSection;
+    /** The number of threads serializing sub-sections, 0 to save serially */
+    private final int saveThreads;
+
     Saver(SaveNamespaceContext context) {
+      this(context, null);
+    }
+
+    Saver(SaveNamespaceContext context, Configuration conf) {
       this.context = context;
       this.saverContext = new SaverContext();
+      int numInodes = context.getSourceNamesystem().dir.getINodeMap().size();
+      boolean parallelLoad = conf != null && conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT);
+      boolean parallelSave = conf != null && conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_DEFAULT);
+      if (parallelLoad || parallelSave) {
+        int targetSections = conf.getInt(
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT);
+        int threshold = conf.getInt(
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT);
+        writeSubSections = targetSections > 1 && numInodes >= threshold;
+        inodesPerSubSection = Math.max(1, numInodes / Math.max(1,
+            targetSections));
+      } else {
+        writeSubSections = false;
+        inodesPerSubSection = Integer.MAX_VALUE;
+      }
+      if (writeSubSections && parallelSave) {
+        saveThreads = Math.max(1, conf.getInt(
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT));
+      } else {
+        saveThreads = 0;
+      }
     }
 
     public MD5Hash getSavedDigest() {
@@ -380,27 +525,103 @@ public SaverContext getSaverContext() {
       return saverContext;
     }
 
+    int getInodesPerSubSection() {
+      return inodesPerSubSection;
+    }
+
+    int getSaveThreads() {
+      return saveThreads;
+    }
+
+    /**
+     * @return the stream for the data of the current section or sub-section.
+     * Callers must fetch it again after committing a sub-section, as each
+     * sub-section of a compressed image is compressed on its own.
+     */
+    OutputStream getSectionOutputStream() throws IOException {
+      if (sectionOutputStream == null) {
+        sectionOutputStream = codec != null ?
+            codec.createOutputStream(underlyingOutputStream) :
+            underlyingOutputStream;
+      }
+      return sectionOutputStream;
+    }
+
+    /**
+     * Wrap a stream buffering a sub-section, which is serialized apart from
+     * the image file and added with {@link #commitSubSection(
+     * FileSummary.Builder, SectionName, byte[])}.
+     */
+    OutputStream createSubSectionOutputStream(OutputStream out)
+        throws IOException {
+      return codec != null ? codec.createOutputStream(out) : out;
+    }
+
+    /** Complete a stream returned by {@link #createSubSectionOutputStream}. */
+    void finishSubSectionOutputStream(OutputStream out) throws IOException {
+      if (codec != null) {
+        ((CompressorStream) out).finish();
+      }
+      out.flush();
+    }
+
+    /**
+     * Index the data written since the end of the last section or sub-section
+     * as a sub-section of the section being written. This is a no-op unless
+     * sub-sections are enabled. The section itself still has to be committed
+     * with {@link #commitSection}.
+     */
+    void commitSubSection(FileSummary.Builder summary, SectionName name)
+        throws IOException {
+      if (!writeSubSections) {
+        return;
+      }
+      flushSectionOutputStream();
+      long length = fileChannel.position() - subSectionOffset;
+      if (length == 0) {
+        return;
+      }
+      summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
+          .setLength(length).setOffset(subSectionOffset));
+      subSectionOffset += length;
+    }
+
+    /**
+     * Write a sub-section serialized by
+     * {@link #createSubSectionOutputStream}, and index it.
+     */
+    void commitSubSection(FileSummary.Builder summary, SectionName name,
+        byte[] data) throws IOException {
+      Preconditions.checkState(writeSubSections);
+      // close the data written to the section stream so far, if any.
+      flushSectionOutputStream();
+      underlyingOutputStream.write(data);
+      commitSubSection(summary, name);
+    }
+
     public void commitSection(FileSummary.Builder summary, SectionName name)
         throws IOException {
       long oldOffset = currentOffset;
       flushSectionOutputStream();
-
-      if (codec != null) {
-        sectionOutputStream = codec.createOutputStream(underlyingOutputStream);
-      } else {
-        sectionOutputStream = underlyingOutputStream;
+      if (codec != null && fileChannel.position() == oldOffset) {
+        // an empty section still holds an empty compressed stream.
+        getSectionOutputStream();
+        flushSectionOutputStream();
       }
+
       long length = fileChannel.position() - oldOffset;
       summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
           .setLength(length).setOffset(currentOffset));
       currentOffset += length;
+      subSectionOffset = currentOffset;
     }
 
     private void flushSectionOutputStream() throws IOException {
-      if (codec != null) {
+      if (codec != null && sectionOutputStream != null) {
         ((CompressorStream) sectionOutputStream).finish();
+        sectionOutputStream = null;
       }
-      sectionOutputStream.flush();
+      underlyingOutputStream.flush();
     }
 
     void save(File file, FSImageCompression compression) throws IOException {
@@ -426,18 +647,32 @@ private void saveInodes(FileSummary.Builder summary) throws IOException {
       FSImageFormatPBINode.Saver saver = new FSImageFormatPBINode.Saver(this,
           summary);
 
-      saver.serializeINodeSection(sectionOutputStream);
-      saver.serializeINodeDirectorySection(sectionOutputStream);
-      saver.serializeFilesUCSection(sectionOutputStream);
+      if (saveThreads > 0) {
+        ExecutorService executorService = new ThreadPoolExecutor(saveThreads,
+            saveThreads, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("FSImageSaver-%d").build());
+        try {
+          saver.serializeINodeSectionInParallel(executorService);
+          saver.serializeINodeDirectorySectionInParallel(executorService);
+        } finally {
+          executorService.shutdownNow();
+        }
+      } else {
+        saver.serializeINodeSection(getSectionOutputStream());
+        saver.serializeINodeDirectorySection(getSectionOutputStream());
+      }
+      saver.serializeFilesUCSection(getSectionOutputStream());
     }
 
     private void saveSnapshots(FileSummary.Builder summary) throws IOException {
       FSImageFormatPBSnapshot.Saver snapshotSaver = new FSImageFormatPBSnapshot.Saver(
           this, summary, context, context.getSourceNamesystem());
 
-      snapshotSaver.serializeSnapshotSection(sectionOutputStream);
-      snapshotSaver.serializeSnapshotDiffSection(sectionOutputStream);
-      snapshotSaver.serializeINodeReferenceSection(sectionOutputStream);
+      snapshotSaver.serializeSnapshotSection(getSectionOutputStream());
+      snapshotSaver.serializeSnapshotDiffSection(getSectionOutputStream());
+      snapshotSaver.serializeINodeReferenceSection(getSectionOutputStream());
     }
 
     private void saveInternal(FileOutputStream fout,
@@ -458,9 +693,6 @@ private void saveInternal(FileOutputStream fout,
       codec = compression.getImageCodec();
       if (codec != null) {
         b.setCodec(codec.getClass().getCanonicalName());
-        sectionOutputStream = codec.createOutputStream(underlyingOutputStream);
-      } else {
-        sectionOutputStream = underlyingOutputStream;
       }
 
       saveNameSystemSection(b);
@@ -502,12 +734,13 @@ private void saveSecretManagerSection(FileSummary.Builder summary)
       final FSNamesystem fsn = context.getSourceNamesystem();
       DelegationTokenSecretManager.SecretManagerState state = fsn
           .saveSecretManagerState();
-      state.section.writeDelimitedTo(sectionOutputStream);
+      OutputStream out = getSectionOutputStream();
+      state.section.writeDelimitedTo(out);
       for (SecretManagerSection.DelegationKey k : state.keys)
-        k.writeDelimitedTo(sectionOutputStream);
+        k.writeDelimitedTo(out);
 
       for (SecretManagerSection.PersistToken t : state.tokens)
-        t.writeDelimitedTo(sectionOutputStream);
+        t.writeDelimitedTo(out);
 
       commitSection(summary, SectionName.SECRET_MANAGER);
     }
@@ -516,13 +749,14 @@ private void saveCacheManagerSection(FileSummary.Builder summary)
         throws IOException {
       final FSNamesystem fsn = context.getSourceNamesystem();
       CacheManager.PersistState state = fsn.getCacheManager().saveState();
-      state.section.writeDelimitedTo(sectionOutputStream);
+      OutputStream out = getSectionOutputStream();
+      state.section.writeDelimitedTo(out);
 
       for (CachePoolInfoProto p : state.pools)
-        p.writeDelimitedTo(sectionOutputStream);
+        p.writeDelimitedTo(out);
 
       for (CacheDirectiveInfoProto p : state.directives)
-        p.writeDelimitedTo(sectionOutputStream);
+        p.writeDelimitedTo(out);
 
       commitSection(summary, SectionName.CACHE_MANAGER);
     }
@@ -530,7 +764,7 @@ private void saveCacheManagerSection(FileSummary.Builder summary)
     private void saveNameSystemSection(FileSummary.Builder summary)
         throws IOException {
       final FSNamesystem fsn = context.getSourceNamesystem();
-      OutputStream out = sectionOutputStream;
+      OutputStream out = getSectionOutputStream();
       BlockIdManager blockIdManager = fsn.getBlockIdManager();
       NameSystemSection.Builder b = NameSystemSection.newBuilder()
           .setGenstampV1(blockIdManager.getGenerationStampV1())
@@ -556,7 +790,7 @@ private void saveNameSystemSection(FileSummary.Builder summary)
 
     private void saveStringTableSection(FileSummary.Builder summary)
         throws IOException {
-      OutputStream out = sectionOutputStream;
+      OutputStream out = getSectionOutputStream();
       StringTableSection.Builder b = StringTableSection.newBuilder()
           .setNumEntry(saverContext.stringMap.size());
       b.build().writeDelimitedTo(out);
@@ -571,7 +805,8 @@ private void saveStringTableSection(FileSummary.Builder summary)
 
   /**
    * Supported section name. The order of the enum determines the order of
-   * loading.
+   * loading. INODE_SUB and INODE_DIR_SUB index parts of the INODE and
+   * INODE_DIR sections, and are not loaded as sections of their own.
    */
   public enum SectionName {
     NS_INFO("NS_INFO"),
@@ -584,7 +819,9 @@ public enum SectionName {
     FILES_UNDERCONSTRUCTION("FILES_UNDERCONSTRUCTION"),
     SNAPSHOT_DIFF("SNAPSHOT_DIFF"),
     SECRET_MANAGER("SECRET_MANAGER"),
-    CACHE_MANAGER("CACHE_MANAGER");
+    CACHE_MANAGER("CACHE_MANAGER"),
+    INODE_SUB("INODE_SUB"),
+    INODE_DIR_SUB("INODE_DIR_SUB");
 
     private static final SectionName[] values = SectionName.values();
 
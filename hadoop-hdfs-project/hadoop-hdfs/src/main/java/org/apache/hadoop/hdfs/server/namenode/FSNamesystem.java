@@ -63,6 +63,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LAZY_PERSIST_FILE_SCRUB_INTERVAL_SEC;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LAZY_PERSIST_FILE_SCRUB_INTERVAL_SEC_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_INODE_ATTRIBUTES_PROVIDER_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_FINE_GRAINED_ENABLED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_FINE_GRAINED_ENABLED_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_OBJECTS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_OBJECTS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_NAME_DIR_KEY;
@@ -175,6 +177,7 @@
 import org.apache.hadoop.hdfs.UnknownCryptoProtocolVersionException;
 import org.apache.hadoop.hdfs.XAttrHelper;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedOpResult;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -199,6 +202,7 @@
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshotAccessControlException;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.datatransfer.ReplaceDatanodeOnFailure;
 import org.apache.hadoop.hdfs.security.token.block.BlockTokenSecretManager;
@@ -258,9 +262,11 @@
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
+import org.apache.hadoop.hdfs.util.RwLockMode;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.ipc.RetriableException;
 import org.apache.hadoop.ipc.RetryCache;
 import org.apache.hadoop.ipc.Server;
@@ -346,6 +352,24 @@ private void logAuditEvent(boolean succeeded, String cmd, String src,
   private void logAuditEvent(boolean succeeded,
       UserGroupInformation ugi, InetAddress addr, String cmd, String src,
       String dst, HdfsFileStatus stat) {
+    final boolean webHdfs = NamenodeWebHdfsMethods.isWebHdfsInvocation();
+    if (auditEventDispatcher != null) {
+      auditEventDispatcher.add(new AuditEventDispatcher.AuditEvent(succeeded,
+          ugi, addr, cmd, src, dst, stat, webHdfs));
+    } else {
+      logAuditEvent(succeeded, ugi, addr, cmd, src, dst, stat, webHdfs);
+    }
+  }
+
+  /** Log an event recorded by the {@link AuditEventDispatcher}. */
+  void logAuditEvent(AuditEventDispatcher.AuditEvent e) {
+    logAuditEvent(e.succeeded, e.ugi, e.addr, e.cmd, e.src, e.dst, e.stat,
+        e.webHdfs);
+  }
+
+  private void logAuditEvent(boolean succeeded,
+      UserGroupInformation ugi, InetAddress addr, String cmd, String src,
+      String dst, HdfsFileStatus stat, boolean webHdfs) {
     FileStatus status = null;
     if (stat != null) {
       Path symlink = stat.isSymlink() ? new Path(stat.getSymlink()) : null;
@@ -356,7 +380,10 @@ private void logAuditEvent(boolean succeeded,
           stat.getGroup(), symlink, path);
     }
     for (AuditLogger logger : auditLoggers) {
-      if (logger instanceof HdfsAuditLogger) {
+      if (logger instanceof DefaultAuditLogger) {
+        ((DefaultAuditLogger) logger).logAuditEvent(succeeded, ugi.toString(),
+            addr, cmd, src, dst, status, ugi, dtSecretManager, webHdfs);
+      } else if (logger instanceof HdfsAuditLogger) {
         HdfsAuditLogger hdfsLogger = (HdfsAuditLogger) logger;
         hdfsLogger.logAuditEvent(succeeded, ugi.toString(), addr, cmd, src, dst,
             status, ugi, dtSecretManager);
@@ -404,6 +431,8 @@ private void logAuditEvent(boolean succeeded,
   // underlying logger is disabled, and avoid some unnecessary work.
   private final boolean isDefaultAuditLogger;
   private final List<AuditLogger> auditLoggers;
+  // Passes the audit events to the loggers in the background, if enabled.
+  private final AuditEventDispatcher auditEventDispatcher;
 
   /** The namespace tree. */
   FSDirectory dir;
@@ -436,6 +465,8 @@ private void logAuditEvent(boolean succeeded,
   // A daemon to periodically clean up corrupt lazyPersist files
   // from the name space.
   Daemon lazyPersistFileScrubber = null;
+  // Destroys the deleted directories in the background, if enabled.
+  private final SubtreeDeleter subtreeDeleter;
   /**
    * When an active namenode will roll its own edit log, in # edits
    */
@@ -546,7 +577,7 @@ void setImageLoaded() {
       dir.markNameCacheInitialized();
       cond.signalAll();
     } finally {
-      writeUnlock();
+      writeUnlock("setImageLoaded");
     }
   }
 
@@ -566,7 +597,7 @@ protected void setImageLoaded(boolean flag) {
    */
   void waitForLoadingFSImage() {
     if (!imageLoaded) {
-      writeLock();
+      writeLock(RwLockMode.FS);
       try {
         while (!imageLoaded) {
           try {
@@ -575,7 +606,7 @@ void waitForLoadingFSImage() {
           }
         }
       } finally {
-        writeUnlock();
+        writeUnlock(RwLockMode.FS, "waitForLoadingFSImage");
       }
     }
   }
@@ -724,7 +755,11 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
     }
     boolean fair = conf.getBoolean("dfs.namenode.fslock.fair", true);
     LOG.info("fsLock is fair:" + fair);
-    fsLock = new FSNamesystemLock(fair);
+    boolean fineGrained = conf.getBoolean(
+        DFS_NAMENODE_LOCK_FINE_GRAINED_ENABLED_KEY,
+        DFS_NAMENODE_LOCK_FINE_GRAINED_ENABLED_DEFAULT);
+    LOG.info("fsLock is fine-grained:" + fineGrained);
+    fsLock = new FSNamesystemLock(conf);
     cond = fsLock.writeLock().newCondition();
     cpLock = new ReentrantLock();
 
@@ -820,6 +855,11 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
             DFS_NAMENODE_LAZY_PERSIST_FILE_SCRUB_INTERVAL_SEC + " must be non-zero.");
       }
 
+      this.subtreeDeleter = conf.getBoolean(
+          DFSConfigKeys.DFS_NAMENODE_DELETE_ASYNC_ENABLED_KEY,
+          DFSConfigKeys.DFS_NAMENODE_DELETE_ASYNC_ENABLED_DEFAULT) ?
+          new SubtreeDeleter(this) : null;
+
       // For testing purposes, allow the DT secret manager to be started regardless
       // of whether security is enabled.
       alwaysUseDelegationTokensForTests = conf.getBoolean(
@@ -835,6 +875,20 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
       this.auditLoggers = initAuditLoggers(conf);
       this.isDefaultAuditLogger = auditLoggers.size() == 1 &&
         auditLoggers.get(0) instanceof DefaultAuditLogger;
+      final int auditQueueSize = conf.getInt(
+          DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_QUEUE_SIZE_KEY,
+          DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_QUEUE_SIZE_DEFAULT);
+      if (auditQueueSize > 0) {
+        LOG.info("Logging audit events in the background, queue size = "
+            + auditQueueSize);
+        auditEventDispatcher = new AuditEventDispatcher(this, auditQueueSize,
+            conf.getBoolean(
+                DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_QUEUE_DROP_WHEN_FULL_KEY,
+                DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_QUEUE_DROP_WHEN_FULL_DEFAULT));
+        auditEventDispatcher.start();
+      } else {
+        auditEventDispatcher = null;
+      }
       this.retryCache = ignoreRetryCache ? null : initRetryCache(conf);
       Class<? extends INodeAttributeProvider> klass = conf.getClass(
           DFS_NAMENODE_INODE_ATTRIBUTES_PROVIDER_KEY,
@@ -1003,7 +1057,7 @@ private void loadFSImage(StartupOption startOpt) throws IOException {
       if (!success) {
         fsImage.close();
       }
-      writeUnlock();
+      writeUnlock("loadFSImage");
     }
     imageLoadComplete();
   }
@@ -1065,7 +1119,7 @@ void startCommonServices(Configuration conf, HAContext haContext) throws IOExcep
       setBlockTotal();
       blockManager.activate(conf);
     } finally {
-      writeUnlock();
+      writeUnlock("startCommonServices");
     }
     
     registerMXBean();
@@ -1089,7 +1143,7 @@ void stopCommonServices() {
     try {
       if (blockManager != null) blockManager.close();
     } finally {
-      writeUnlock();
+      writeUnlock("stopCommonServices");
     }
     RetryCache.clear(retryCache);
   }
@@ -1166,12 +1220,16 @@ void startActiveServices() throws IOException {
         lazyPersistFileScrubber.start();
       }
 
+      if (subtreeDeleter != null) {
+        subtreeDeleter.start();
+      }
+
       cacheManager.startMonitorThread();
       blockManager.getDatanodeManager().setShouldSendCachingCommands(true);
     } finally {
       startingActiveService = false;
       checkSafeMode();
-      writeUnlock();
+      writeUnlock("startActiveServices");
     }
   }
 
@@ -1202,11 +1260,24 @@ private boolean shouldUseDelegationTokens() {
       alwaysUseDelegationTokensForTests;
   }
 
+  /**
+   * @return the deleter of the large directories, or null if the deletes
+   * are done synchronously.
+   */
+  SubtreeDeleter getSubtreeDeleter() {
+    return subtreeDeleter;
+  }
+
   /** 
    * Stop services required in active state
    */
   void stopActiveServices() {
     LOG.info("Stopping services started for active state");
+    if (subtreeDeleter != null) {
+      // finish the pending deletes before the edit log is closed; this takes
+      // the write lock by itself
+      subtreeDeleter.stop();
+    }
     writeLock();
     try {
       stopSecretManager();
@@ -1241,7 +1312,7 @@ void stopActiveServices() {
       blockManager.clearQueues();
       initializedReplQueues = false;
     } finally {
-      writeUnlock();
+      writeUnlock("stopActiveServices");
     }
   }
   
@@ -1474,31 +1545,76 @@ public static List<URI> getSharedEditsDirs(Configuration conf) {
 
   @Override
   public void readLock() {
-    this.fsLock.readLock().lock();
+    readLock(RwLockMode.GLOBAL);
   }
   @Override
   public void readUnlock() {
-    this.fsLock.readLock().unlock();
+    readUnlock(RwLockMode.GLOBAL);
   }
   @Override
   public void writeLock() {
-    this.fsLock.writeLock().lock();
+    writeLock(RwLockMode.GLOBAL);
   }
   @Override
   public void writeLockInterruptibly() throws InterruptedException {
-    this.fsLock.writeLock().lockInterruptibly();
+    this.fsLock.writeLockInterruptibly(RwLockMode.GLOBAL);
   }
   @Override
   public void writeUnlock() {
-    this.fsLock.writeLock().unlock();
+    writeUnlock(RwLockMode.GLOBAL);
   }
+  /**
+   * Check if the current thread holds the namespace write lock.  Code that
+   * only touches block manager state should check
+   * {@link #hasWriteLock(RwLockMode)} with {@link RwLockMode#BM} instead.
+   */
   @Override
   public boolean hasWriteLock() {
-    return this.fsLock.isWriteLockedByCurrentThread();
+    return hasWriteLock(RwLockMode.FS);
   }
   @Override
   public boolean hasReadLock() {
-    return this.fsLock.getReadHoldCount() > 0 || hasWriteLock();
+    return hasReadLock(RwLockMode.FS);
+  }
+  @Override
+  public void readLock(RwLockMode mode) {
+    this.fsLock.readLock(mode);
+  }
+  @Override
+  public void readUnlock(RwLockMode mode) {
+    this.fsLock.readUnlock(mode);
+  }
+  @Override
+  public void readUnlock(String opName) {
+    readUnlock(RwLockMode.GLOBAL, opName);
+  }
+  @Override
+  public void readUnlock(RwLockMode mode, String opName) {
+    this.fsLock.readUnlock(mode, opName);
+  }
+  @Override
+  public void writeLock(RwLockMode mode) {
+    this.fsLock.writeLock(mode);
+  }
+  @Override
+  public void writeUnlock(RwLockMode mode) {
+    this.fsLock.writeUnlock(mode);
+  }
+  @Override
+  public void writeUnlock(String opName) {
+    writeUnlock(RwLockMode.GLOBAL, opName);
+  }
+  @Override
+  public void writeUnlock(RwLockMode mode, String opName) {
+    this.fsLock.writeUnlock(mode, opName);
+  }
+  @Override
+  public boolean hasWriteLock(RwLockMode mode) {
+    return this.fsLock.hasWriteLock(mode);
+  }
+  @Override
+  public boolean hasReadLock(RwLockMode mode) {
+    return this.fsLock.hasReadLock(mode);
   }
 
   public int getReadHoldCount() {
@@ -1530,7 +1646,7 @@ NamespaceInfo getNamespaceInfo() {
     try {
       return unprotectedGetNamespaceInfo();
     } finally {
-      readUnlock();
+      readUnlock("getNamespaceInfo");
     }
   }
 
@@ -1560,6 +1676,9 @@ void close() {
         stopStandbyServices();
       } catch (IOException ie) {
       } finally {
+        if (auditEventDispatcher != null) {
+          auditEventDispatcher.stop();
+        }
         IOUtils.cleanup(LOG, dir);
         IOUtils.cleanup(LOG, fsImage);
       }
@@ -1599,7 +1718,7 @@ void metaSave(String filename) throws IOException {
       out.flush();
       out.close();
     } finally {
-      writeUnlock();
+      writeUnlock("metaSave");
     }
   }
 
@@ -1646,7 +1765,7 @@ private boolean isAccessTimeSupported() {
   void setPermission(String src, FsPermission permission) throws IOException {
     HdfsFileStatus auditStat;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    writeLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot set permission for " + src);
@@ -1655,7 +1774,7 @@ void setPermission(String src, FsPermission permission) throws IOException {
       logAuditEvent(false, "setPermission", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock(RwLockMode.FS, "setPermission");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setPermission", src, null, auditStat);
@@ -1669,7 +1788,7 @@ void setOwner(String src, String username, String group)
       throws IOException {
     HdfsFileStatus auditStat;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    writeLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot set owner for " + src);
@@ -1678,7 +1797,7 @@ void setOwner(String src, String username, String group)
       logAuditEvent(false, "setOwner", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock(RwLockMode.FS, "setOwner");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setOwner", src, null, auditStat);
@@ -1714,7 +1833,7 @@ LocatedBlocks getBlockLocations(String clientMachine, String srcArg,
       logAuditEvent(false, "open", srcArg);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("getBlockLocations");
     }
 
     logAuditEvent(true, "open", srcArg);
@@ -1760,22 +1879,21 @@ LocatedBlocks getBlockLocations(String clientMachine, String srcArg,
       } catch (Throwable e) {
         LOG.warn("Failed to update the access time of " + src, e);
       } finally {
-        writeUnlock();
+        writeUnlock("getBlockLocations");
       }
     }
 
     LocatedBlocks blocks = res.blocks;
     if (blocks != null) {
-      blockManager.getDatanodeManager().sortLocatedBlocks(
-          clientMachine, blocks.getLocatedBlocks());
-
+      List<LocatedBlock> toSort = blocks.getLocatedBlocks();
       // lastBlock is not part of getLocatedBlocks(), might need to sort it too
       LocatedBlock lastBlock = blocks.getLastLocatedBlock();
       if (lastBlock != null) {
-        ArrayList<LocatedBlock> lastBlockList = Lists.newArrayList(lastBlock);
-        blockManager.getDatanodeManager().sortLocatedBlocks(
-            clientMachine, lastBlockList);
+        toSort = new ArrayList<LocatedBlock>(toSort);
+        toSort.add(lastBlock);
       }
+      blockManager.getDatanodeManager().sortLocatedBlocks(
+          clientMachine, toSort);
     }
     return blocks;
   }
@@ -1885,7 +2003,7 @@ void concat(String target, String [] srcs, boolean logRetryCache)
       stat = FSDirConcatOp.concat(dir, target, srcs, logRetryCache);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("concat");
       if (success) {
         getEditLog().logSync();
       }
@@ -1901,7 +2019,7 @@ void concat(String target, String [] srcs, boolean logRetryCache)
   void setTimes(String src, long mtime, long atime) throws IOException {
     HdfsFileStatus auditStat;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    writeLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot set times " + src);
@@ -1910,7 +2028,7 @@ void setTimes(String src, long mtime, long atime) throws IOException {
       logAuditEvent(false, "setTimes", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock(RwLockMode.FS, "setTimes");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setTimes", src, null, auditStat);
@@ -1928,7 +2046,7 @@ void createSymlink(String target, String link,
     }
     HdfsFileStatus auditStat = null;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    writeLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot create symlink " + link);
@@ -1938,7 +2056,7 @@ void createSymlink(String target, String link,
       logAuditEvent(false, "createSymlink", link, target, null);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock(RwLockMode.FS, "createSymlink");
     }
     getEditLog().logSync();
     logAuditEvent(true, "createSymlink", link, target, auditStat);
@@ -1971,7 +2089,7 @@ boolean setReplication(final String src, final short replication)
       logAuditEvent(false, "setReplication", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setReplication");
     }
     if (success) {
       getEditLog().logSync();
@@ -2029,7 +2147,7 @@ boolean truncateInt(String srcArg, long newLength,
           clientMachine, mtime, pc, toRemoveBlocks);
       stat = dir.getAuditFileInfo(dir.getINodesInPath4Write(src, false));
     } finally {
-      writeUnlock();
+      writeUnlock("truncate");
     }
     getEditLog().logSync();
     if (!toRemoveBlocks.getToDeleteList().isEmpty()) {
@@ -2221,7 +2339,7 @@ void setStoragePolicy(String src, String policyName) throws IOException {
       logAuditEvent(false, "setStoragePolicy", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setStoragePolicy");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setStoragePolicy", src, null, auditStat);
@@ -2238,7 +2356,7 @@ BlockStoragePolicy[] getStoragePolicies() throws IOException {
       checkOperation(OperationCategory.READ);
       return FSDirAttrOp.getStoragePolicies(blockManager);
     } finally {
-      readUnlock();
+      readUnlock("getStoragePolicies");
     }
   }
 
@@ -2249,7 +2367,7 @@ long getPreferredBlockSize(String src) throws IOException {
       checkOperation(OperationCategory.READ);
       return FSDirAttrOp.getPreferredBlockSize(dir, src);
     } finally {
-      readUnlock();
+      readUnlock("getPreferredBlockSize");
     }
   }
 
@@ -2425,7 +2543,7 @@ private HdfsFileStatus startFileInt(final String srcArg,
           Preconditions.checkNotNull(ezKeyName);
         }
       } finally {
-        readUnlock();
+        readUnlock("create");
       }
 
       Preconditions.checkState(
@@ -2464,7 +2582,7 @@ private HdfsFileStatus startFileInt(final String srcArg,
       skipSync = true;
       throw se;
     } finally {
-      writeUnlock();
+      writeUnlock("create");
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
@@ -2842,7 +2960,7 @@ boolean recoverLease(String src, String holder, String clientMachine)
       skipSync = true;
       throw se;
     } finally {
-      writeUnlock();
+      writeUnlock("recoverLease");
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
@@ -2990,7 +3108,7 @@ private LastBlockWithStatus appendFileInt(final String srcArg, String holder,
       skipSync = true;
       throw se;
     } finally {
-      writeUnlock();
+      writeUnlock("append");
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
@@ -3099,7 +3217,7 @@ DatanodeStorageInfo[] getNewBlockTargets(String src, long fileId,
       replication = pendingFile.getFileReplication();
       storagePolicyID = pendingFile.getStoragePolicyID();
     } finally {
-      readUnlock();
+      readUnlock("getAdditionalBlock");
     }
 
     if (clientNode == null) {
@@ -3162,7 +3280,7 @@ LocatedBlock storeAllocatedBlock(String src, long fileId, String clientName,
       persistNewBlock(src, pendingFile);
       offset = pendingFile.computeFileSize();
     } finally {
-      writeUnlock();
+      writeUnlock("getAdditionalBlock");
     }
     getEditLog().logSync();
 
@@ -3355,7 +3473,7 @@ LocatedBlock getAdditionalDatanode(String src, long fileId,
       final DatanodeManager dm = blockManager.getDatanodeManager();
       chosen = Arrays.asList(dm.getDatanodeStorageInfos(existings, storageIDs));
     } finally {
-      readUnlock();
+      readUnlock("getAdditionalDatanode");
     }
 
     if (clientnode == null) {
@@ -3415,7 +3533,7 @@ boolean abandonBlock(ExtendedBlock b, long fileId, String src, String holder)
           "removed from pendingCreates", b);
       persistBlocks(src, file, false);
     } finally {
-      writeUnlock();
+      writeUnlock("abandonBlock");
     }
     getEditLog().logSync();
 
@@ -3488,7 +3606,7 @@ boolean completeFile(final String srcArg, String holder,
       success = completeFileInternal(src, holder,
         ExtendedBlock.getLocalBlock(last), fileId);
     } finally {
-      writeUnlock();
+      writeUnlock("completeFile");
     }
     getEditLog().logSync();
     if (success) {
@@ -3552,7 +3670,7 @@ private boolean completeFileInternal(String src, String holder, Block last,
       return false;
     }
 
-    finalizeINodeFileUnderConstruction(src, pendingFile,
+    finalizeINodeFileUnderConstruction(src, pendingFile, iip,
         Snapshot.CURRENT_STATE_ID);
     return true;
   }
@@ -3656,7 +3774,7 @@ boolean renameTo(String src, String dst, boolean logRetryCache)
       logAuditEvent(false, "rename", src, dst, null);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("renameTo");
     }
     boolean success = ret != null && ret.success;
     if (success) {
@@ -3683,7 +3801,7 @@ void renameTo(final String src, final String dst,
           ")", src, dst, null);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("renameTo");
     }
 
     getEditLog().logSync();
@@ -3722,7 +3840,7 @@ boolean delete(String src, boolean recursive, boolean logRetryCache)
       logAuditEvent(false, "delete", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("delete");
     }
     getEditLog().logSync();
     if (toRemovedBlocks != null) {
@@ -3732,6 +3850,80 @@ boolean delete(String src, boolean recursive, boolean logRetryCache)
     return ret;
   }
 
+  /**
+   * Remove each of the indicated files from namespace under a single
+   * acquisition of the write lock.
+   *
+   * @see ClientProtocol#batchedDelete(String[], boolean) for detailed
+   * description and description of exceptions
+   */
+  List<BatchedOpResult<Boolean>> batchedDelete(String[] srcs,
+      boolean recursive) throws IOException {
+    waitForLoadingFSImage();
+    checkOperation(OperationCategory.WRITE);
+    final List<BatchedOpResult<Boolean>> results =
+        new ArrayList<BatchedOpResult<Boolean>>(srcs.length);
+    final List<BlocksMapUpdateInfo> toRemovedBlocks =
+        new ArrayList<BlocksMapUpdateInfo>();
+    writeLock();
+    try {
+      checkOperation(OperationCategory.WRITE);
+      checkNameNodeSafeMode("Cannot delete " + srcs.length + " paths");
+      for (String src : srcs) {
+        try {
+          // the batch as a whole is recorded in the retry cache, so the
+          // individual edits do not carry the rpc ids.
+          BlocksMapUpdateInfo collected = FSDirDeleteOp.delete(
+              this, src, recursive, false);
+          if (collected != null) {
+            toRemovedBlocks.add(collected);
+          }
+          results.add(BatchedOpResult.success(collected != null));
+        } catch (IOException e) {
+          results.add(BatchedOpResult.<Boolean>failure(e));
+        } catch (InvalidPathException e) {
+          results.add(BatchedOpResult.<Boolean>failure(toRemoteException(e)));
+        }
+      }
+    } finally {
+      writeUnlock("batchedDelete");
+    }
+    getEditLog().logSync();
+    for (BlocksMapUpdateInfo collected : toRemovedBlocks) {
+      removeBlocks(collected); // Incremental deletion of blocks
+    }
+    logBatchedAuditEvents("delete", srcs, results, null);
+    return results;
+  }
+
+  /**
+   * Keep the class of a runtime exception thrown for a single path of a
+   * batched operation, which the client would otherwise see as a
+   * RemoteException of a single-path call.
+   */
+  private static IOException toRemoteException(RuntimeException e) {
+    return new RemoteException(e.getClass().getName(), e.getMessage());
+  }
+
+  /**
+   * Log the audit event of each path of a batched operation as the
+   * single-path operation would: failed for a denied access, successful
+   * for a path without an exception.
+   */
+  private void logBatchedAuditEvents(String cmd, String[] srcs,
+      List<? extends BatchedOpResult<?>> results, List<HdfsFileStatus> stats)
+      throws IOException {
+    for (int i = 0; i < srcs.length; i++) {
+      final BatchedOpResult<?> r = results.get(i);
+      if (r.isSuccess()) {
+        logAuditEvent(true, cmd, srcs[i], null,
+            stats == null ? null : stats.get(i));
+      } else if (r.getException() instanceof AccessControlException) {
+        logAuditEvent(false, cmd, srcs[i]);
+      }
+    }
+  }
+
   FSPermissionChecker getPermissionChecker()
       throws AccessControlException {
     return dir.getPermissionChecker();
@@ -3756,7 +3948,7 @@ void removeBlocks(BlocksMapUpdateInfo blocks) {
           blockManager.removeBlock(iter.next());
         }
       } finally {
-        writeUnlock();
+        writeUnlock("removeBlocks");
       }
     }
   }
@@ -3855,7 +4047,7 @@ HdfsFileStatus getFileInfo(final String src, boolean resolveLink)
     throws IOException {
     checkOperation(OperationCategory.READ);
     HdfsFileStatus stat = null;
-    readLock();
+    readLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.READ);
       stat = FSDirStatAndListingOp.getFileInfo(dir, src, resolveLink);
@@ -3863,18 +4055,50 @@ HdfsFileStatus getFileInfo(final String src, boolean resolveLink)
       logAuditEvent(false, "getfileinfo", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock(RwLockMode.FS, "getFileInfo");
     }
     logAuditEvent(true, "getfileinfo", src);
     return stat;
   }
 
+  /**
+   * Get the file info of each of the given files under a single acquisition
+   * of the read lock.
+   *
+   * @see ClientProtocol#getBatchedFileInfo(String[])
+   */
+  List<BatchedOpResult<HdfsFileStatus>> getBatchedFileInfo(String[] srcs)
+      throws IOException {
+    checkOperation(OperationCategory.READ);
+    final List<BatchedOpResult<HdfsFileStatus>> results =
+        new ArrayList<BatchedOpResult<HdfsFileStatus>>(srcs.length);
+    readLock(RwLockMode.FS);
+    try {
+      checkOperation(OperationCategory.READ);
+      for (String src : srcs) {
+        try {
+          results.add(BatchedOpResult.success(
+              FSDirStatAndListingOp.getFileInfo(dir, src, true)));
+        } catch (IOException e) {
+          results.add(BatchedOpResult.<HdfsFileStatus>failure(e));
+        } catch (InvalidPathException e) {
+          results.add(BatchedOpResult.<HdfsFileStatus>failure(
+              toRemoteException(e)));
+        }
+      }
+    } finally {
+      readUnlock(RwLockMode.FS, "getBatchedFileInfo");
+    }
+    logBatchedAuditEvents("getfileinfo", srcs, results, null);
+    return results;
+  }
+
   /**
    * Returns true if the file is closed
    */
   boolean isFileClosed(final String src) throws IOException {
     checkOperation(OperationCategory.READ);
-    readLock();
+    readLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.READ);
       return FSDirStatAndListingOp.isFileClosed(dir, src);
@@ -3882,7 +4106,7 @@ boolean isFileClosed(final String src) throws IOException {
       logAuditEvent(false, "isFileClosed", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock(RwLockMode.FS, "isFileClosed");
     }
   }
 
@@ -3893,7 +4117,7 @@ boolean mkdirs(String src, PermissionStatus permissions,
       boolean createParent) throws IOException {
     HdfsFileStatus auditStat = null;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    writeLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot create directory " + src);
@@ -3902,13 +4126,51 @@ boolean mkdirs(String src, PermissionStatus permissions,
       logAuditEvent(false, "mkdirs", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock(RwLockMode.FS, "mkdirs");
     }
     getEditLog().logSync();
     logAuditEvent(true, "mkdirs", src, null, auditStat);
     return true;
   }
 
+  /**
+   * Create each of the given directories under a single acquisition of the
+   * write lock.
+   *
+   * @see ClientProtocol#batchedMkdirs(String[], FsPermission, boolean)
+   */
+  List<BatchedOpResult<Boolean>> batchedMkdirs(String[] srcs,
+      PermissionStatus permissions, boolean createParent) throws IOException {
+    checkOperation(OperationCategory.WRITE);
+    final List<BatchedOpResult<Boolean>> results =
+        new ArrayList<BatchedOpResult<Boolean>>(srcs.length);
+    final List<HdfsFileStatus> auditStats =
+        new ArrayList<HdfsFileStatus>(srcs.length);
+    writeLock(RwLockMode.FS);
+    try {
+      checkOperation(OperationCategory.WRITE);
+      checkNameNodeSafeMode("Cannot create " + srcs.length + " directories");
+      for (String src : srcs) {
+        HdfsFileStatus auditStat = null;
+        try {
+          auditStat = FSDirMkdirOp.mkdirs(this, src, permissions,
+              createParent);
+          results.add(BatchedOpResult.success(true));
+        } catch (IOException e) {
+          results.add(BatchedOpResult.<Boolean>failure(e));
+        } catch (InvalidPathException e) {
+          results.add(BatchedOpResult.<Boolean>failure(toRemoteException(e)));
+        }
+        auditStats.add(auditStat);
+      }
+    } finally {
+      writeUnlock(RwLockMode.FS, "batchedMkdirs");
+    }
+    getEditLog().logSync();
+    logBatchedAuditEvents("mkdirs", srcs, results, auditStats);
+    return results;
+  }
+
   /**
    * Get the content summary for a specific file/dir.
    *
@@ -3932,7 +4194,7 @@ ContentSummary getContentSummary(final String src) throws IOException {
       success = false;
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("getContentSummary");
       logAuditEvent(success, "contentSummary", src);
     }
   }
@@ -3947,7 +4209,7 @@ ContentSummary getContentSummary(final String src) throws IOException {
   void setQuota(String src, long nsQuota, long ssQuota, StorageType type)
       throws IOException {
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    writeLock(RwLockMode.FS);
     boolean success = false;
     try {
       checkOperation(OperationCategory.WRITE);
@@ -3955,7 +4217,7 @@ void setQuota(String src, long nsQuota, long ssQuota, StorageType type)
       FSDirAttrOp.setQuota(dir, src, nsQuota, ssQuota, type);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock(RwLockMode.FS, "setQuota");
       if (success) {
         getEditLog().logSync();
       }
@@ -3999,10 +4261,12 @@ void fsync(String src, long fileId, String clientName, long lastBlockLength)
       if (lastBlockLength > 0) {
         pendingFile.getFileUnderConstructionFeature().updateLengthOfLastBlock(
             pendingFile, lastBlockLength);
+        final INodesInPath iip = INodesInPath.fromINode(pendingFile);
+        dir.invalidateContentSummaries(iip, iip.length() - 1);
       }
       persistBlocks(src, pendingFile, false);
     } finally {
-      writeUnlock();
+      writeUnlock("fsync");
     }
     getEditLog().logSync();
   }
@@ -4044,7 +4308,7 @@ boolean internalReleaseLease(Lease lease, String src, INodesInPath iip,
     // If there are no incomplete blocks associated with this file,
     // then reap lease immediately and close the file.
     if(nrCompleteBlocks == nrBlocks) {
-      finalizeINodeFileUnderConstruction(src, pendingFile,
+      finalizeINodeFileUnderConstruction(src, pendingFile, iip,
           iip.getLatestSnapshotId());
       NameNode.stateChangeLog.warn("BLOCK*"
         + " internalReleaseLease: All existing blocks are COMPLETE,"
@@ -4083,7 +4347,7 @@ boolean internalReleaseLease(Lease lease, String src, INodesInPath iip,
       // Close file if committed blocks are minimally replicated
       if(penultimateBlockMinReplication &&
           blockManager.checkMinReplication(lastBlock)) {
-        finalizeINodeFileUnderConstruction(src, pendingFile,
+        finalizeINodeFileUnderConstruction(src, pendingFile, iip,
             iip.getLatestSnapshotId());
         NameNode.stateChangeLog.warn("BLOCK*"
           + " internalReleaseLease: Committed blocks are minimally replicated,"
@@ -4125,7 +4389,7 @@ boolean internalReleaseLease(Lease lease, String src, INodesInPath iip,
         // This blocks doesn't need any recovery.
         // We can remove this block and close the file.
         pendingFile.removeLastBlock(lastBlock);
-        finalizeINodeFileUnderConstruction(src, pendingFile,
+        finalizeINodeFileUnderConstruction(src, pendingFile, iip,
             iip.getLatestSnapshotId());
         NameNode.stateChangeLog.warn("BLOCK* internalReleaseLease: "
             + "Removed empty last block and closed file.");
@@ -4178,6 +4442,8 @@ private void commitOrCompleteLastBlock(final INodeFile fileINode,
     if (!blockManager.commitOrCompleteLastBlock(fileINode, commitBlock)) {
       return;
     }
+    // the committed length may differ from what the summaries counted
+    dir.invalidateContentSummaries(iip, iip.length() - 1);
 
     // Adjust disk space consumption if required
     final long diff = fileINode.getPreferredBlockSize() - commitBlock.getNumBytes();    
@@ -4191,7 +4457,8 @@ private void commitOrCompleteLastBlock(final INodeFile fileINode,
   }
 
   private void finalizeINodeFileUnderConstruction(String src,
-      INodeFile pendingFile, int latestSnapshot) throws IOException {
+      INodeFile pendingFile, INodesInPath iip, int latestSnapshot)
+      throws IOException {
     assert hasWriteLock();
 
     FileUnderConstructionFeature uc = pendingFile.getFileUnderConstructionFeature();
@@ -4204,6 +4471,7 @@ private void finalizeINodeFileUnderConstruction(String src,
     // Create permanent INode, update blocks. No need to replace the inode here
     // since we just remove the uc feature from pendingFile
     pendingFile.toCompleteFile(now());
+    dir.invalidateContentSummaries(iip, iip.length() - 1);
 
     waitForLoadingFSImage();
     // close file and persist block allocations for this file
@@ -4408,11 +4676,13 @@ void commitBlockSynchronization(ExtendedBlock oldBlock,
         }
       } else {
         // If this commit does not want to close the file, persist blocks
-        src = iFile.getFullPathName();
+        final INodesInPath iip = INodesInPath.fromINode(iFile);
+        src = iip.getPath();
+        dir.invalidateContentSummaries(iip, iip.length() - 1);
         persistBlocks(src, iFile, false);
       }
     } finally {
-      writeUnlock();
+      writeUnlock("commitBlockSynchronization");
     }
     getEditLog().logSync();
     if (closeFile) {
@@ -4442,7 +4712,7 @@ String closeFileCommitBlocks(INodeFile pendingFile, BlockInfoContiguous storedBl
     commitOrCompleteLastBlock(pendingFile, iip, storedBlock);
 
     //remove lease, close file
-    finalizeINodeFileUnderConstruction(src, pendingFile,
+    finalizeINodeFileUnderConstruction(src, pendingFile, iip,
         Snapshot.findLatestSnapshot(pendingFile, Snapshot.CURRENT_STATE_ID));
 
     return src;
@@ -4459,7 +4729,7 @@ void renewLease(String holder) throws IOException {
       checkNameNodeSafeMode("Cannot renew lease for " + holder);
       leaseManager.renewLease(holder);
     } finally {
-      readUnlock();
+      readUnlock("renewLease");
     }
   }
 
@@ -4489,7 +4759,39 @@ DirectoryListing getListing(String src, byte[] startAfter,
       logAuditEvent(false, "listStatus", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("getListing");
+    }
+    logAuditEvent(true, "listStatus", src);
+    return dl;
+  }
+
+  /**
+   * Get a partial listing of the subtree under the indicated path.
+   *
+   * @param src the path to list
+   * @param startAfter the relative path to start listing after
+   * @param needLocation if blockLocations need to be returned
+   * @return a partial listing starting after startAfter
+   *
+   * @throws AccessControlException if access is denied
+   * @throws UnresolvedLinkException if symbolic link is encountered
+   * @throws IOException if other I/O error occurred
+   * @see ClientProtocol#getRecursiveListing(String, byte[], boolean)
+   */
+  DirectoryListing getRecursiveListing(String src, byte[] startAfter,
+      boolean needLocation) throws IOException {
+    checkOperation(OperationCategory.READ);
+    DirectoryListing dl = null;
+    readLock();
+    try {
+      checkOperation(NameNode.OperationCategory.READ);
+      dl = FSDirStatAndListingOp.getRecursiveListingInt(dir, src, startAfter,
+          needLocation);
+    } catch (AccessControlException e) {
+      logAuditEvent(false, "listStatus", src);
+      throw e;
+    } finally {
+      readUnlock("getRecursiveListing");
     }
     logAuditEvent(true, "listStatus", src);
     return dl;
@@ -4529,7 +4831,7 @@ void registerDatanode(DatanodeRegistration nodeReg) throws IOException {
       getBlockManager().getDatanodeManager().registerDatanode(nodeReg);
       checkSafeMode();
     } finally {
-      writeUnlock();
+      writeUnlock("registerDatanode");
     }
   }
   
@@ -4574,7 +4876,7 @@ HeartbeatResponse handleHeartbeat(DatanodeRegistration nodeReg,
 
       return new HeartbeatResponse(cmds, haState, rollingUpgradeInfo);
     } finally {
-      readUnlock();
+      readUnlock("handleHeartbeat");
     }
   }
 
@@ -4754,7 +5056,7 @@ private void clearCorruptLazyPersistFiles()
           }
         }
       } finally {
-        writeUnlock();
+        writeUnlock("clearCorruptLazyPersistFiles");
       }
       if (changed) {
         getEditLog().logSync();
@@ -4932,7 +5234,7 @@ int getNumberOfDatanodes(DatanodeReportType type) {
       return getBlockManager().getDatanodeManager().getDatanodeListForReport(
           type).size(); 
     } finally {
-      readUnlock();
+      readUnlock("getNumberOfDatanodes");
     }
   }
 
@@ -4952,7 +5254,7 @@ DatanodeInfo[] datanodeReport(final DatanodeReportType type
       }
       return arr;
     } finally {
-      readUnlock();
+      readUnlock("datanodeReport");
     }
   }
 
@@ -4974,7 +5276,7 @@ DatanodeStorageReport[] getDatanodeStorageReport(final DatanodeReportType type
       }
       return reports;
     } finally {
-      readUnlock();
+      readUnlock("getDatanodeStorageReport");
     }
   }
 
@@ -4990,6 +5292,10 @@ void saveNamespace() throws AccessControlException, IOException {
     checkOperation(OperationCategory.UNCHECKED);
     checkSuperuserPrivilege();
 
+    if (subtreeDeleter != null) {
+      // the image must not contain the inodes of the deleted directories
+      subtreeDeleter.deleteAll();
+    }
     cpLock();  // Block if a checkpointing is in progress on standby.
     readLock();
     try {
@@ -5001,7 +5307,7 @@ void saveNamespace() throws AccessControlException, IOException {
       }
       getFSImage().saveNamespace(this);
     } finally {
-      readUnlock();
+      readUnlock("saveNamespace");
       cpUnlock();
     }
     LOG.info("New namespace image has been created");
@@ -5031,7 +5337,7 @@ boolean restoreFailedStorage(String arg) throws AccessControlException,
       
       return val;
     } finally {
-      writeUnlock();
+      writeUnlock("restoreFailedStorage");
       cpUnlock();
     }
   }
@@ -5049,7 +5355,7 @@ void finalizeUpgrade() throws IOException {
       checkOperation(OperationCategory.UNCHECKED);
       getFSImage().finalizeUpgrade(this.isHaEnabled() && inActiveState());
     } finally {
-      writeUnlock();
+      writeUnlock("finalizeUpgrade");
       cpUnlock();
     }
   }
@@ -5592,7 +5898,7 @@ public void run() {
             break;
           }
         } finally {
-          writeUnlock();
+          writeUnlock("safeModeMonitor");
         }
 
         try {
@@ -5742,7 +6048,7 @@ private long getCompleteBlocksTotal() {
     try {
       return getBlocksTotal() - numUCBlocks;
     } finally {
-      readUnlock();
+      readUnlock("getCompleteBlocksTotal");
     }
   }
 
@@ -5781,7 +6087,7 @@ void enterSafeMode(boolean resourcesLow) throws IOException {
       NameNode.stateChangeLog.info("STATE* Safe mode is ON"
           + safeMode.getTurnOffTip());
     } finally {
-      writeUnlock();
+      writeUnlock("enterSafeMode");
     }
   }
 
@@ -5797,7 +6103,7 @@ void leaveSafeMode() {
       }
       safeMode.leave();
     } finally {
-      writeUnlock();
+      writeUnlock("leaveSafeMode");
     }
   }
     
@@ -5832,7 +6138,7 @@ CheckpointSignature rollEditLog() throws IOException {
       }
       return getFSImage().rollEditLog();
     } finally {
-      writeUnlock();
+      writeUnlock("rollEditLog");
     }
   }
 
@@ -5850,7 +6156,7 @@ NamenodeCommand startCheckpoint(NamenodeRegistration backupNode,
       getEditLog().logSync();
       return cmd;
     } finally {
-      writeUnlock();
+      writeUnlock("startCheckpoint");
     }
   }
 
@@ -5861,7 +6167,7 @@ public void processIncrementalBlockReport(final DatanodeID nodeID,
     try {
       blockManager.processIncrementalBlockReport(nodeID, srdb);
     } finally {
-      writeUnlock();
+      writeUnlock("processIncrementalBlockReport");
     }
   }
   
@@ -5875,7 +6181,7 @@ void endCheckpoint(NamenodeRegistration registration,
       LOG.info("End checkpoint for " + registration.getAddress());
       getFSImage().endCheckpoint(sig);
     } finally {
-      readUnlock();
+      readUnlock("endCheckpoint");
     }
   }
 
@@ -6119,6 +6425,36 @@ public int getNumDecommissioningDataNodes() {
         .size();
   }
 
+  @Override // FSNamesystemMBean
+  @Metric({"PendingDecommissionDataNodes",
+    "Number of decommissioning datanodes not tracked yet"})
+  public int getNumPendingDecommissionDataNodes() {
+    return getBlockManager().getDatanodeManager().getDecomManager()
+        .getNumPendingNodes();
+  }
+
+  @Override // FSNamesystemMBean
+  @Metric({"PendingDecommissionBlocks",
+    "Number of blocks keeping the tracked datanodes from being decommissioned"})
+  public long getNumPendingDecommissionBlocks() {
+    return getBlockManager().getDatanodeManager().getDecomManager()
+        .getNumTrackedBlocks();
+  }
+
+  @Metric({"PendingAuditEvents",
+    "Number of audit events waiting to be logged in the background"})
+  public long getNumPendingAuditEvents() {
+    return auditEventDispatcher == null ? 0 :
+        auditEventDispatcher.getNumPending();
+  }
+
+  @Metric({"DroppedAuditEvents",
+    "Number of audit events dropped because the audit queue was full"})
+  public long getNumDroppedAuditEvents() {
+    return auditEventDispatcher == null ? 0 :
+        auditEventDispatcher.getNumDropped();
+  }
+
   @Override // FSNamesystemMBean
   @Metric({"StaleDataNodes", 
     "Number of datanodes marked stale due to delayed heartbeat"})
@@ -6277,7 +6613,7 @@ void reportBadBlocks(LocatedBlock[] blocks) throws IOException {
         }
       }
     } finally {
-      writeUnlock();
+      writeUnlock("reportBadBlocks");
     }
   }
 
@@ -6309,7 +6645,7 @@ LocatedBlock updateBlockForPipeline(ExtendedBlock block,
       locatedBlock = new LocatedBlock(block, new DatanodeInfo[0]);
       blockManager.setBlockToken(locatedBlock, AccessMode.WRITE);
     } finally {
-      writeUnlock();
+      writeUnlock("updateBlockForPipeline");
     }
     // Ensure we record the new generation stamp
     getEditLog().logSync();
@@ -6347,7 +6683,7 @@ void updatePipeline(
       updatePipelineInternal(clientName, oldBlock, newBlock, newNodes,
           newStorageIDs, logRetryCache);
     } finally {
-      writeUnlock();
+      writeUnlock("updatePipeline");
     }
     getEditLog().logSync();
     LOG.info("updatePipeline(" + oldBlock.getLocalBlock() + " => "
@@ -6464,7 +6800,7 @@ void registerBackupNode(NamenodeRegistration bnReg,
             bnReg, nnReg);
       }
     } finally {
-      writeUnlock();
+      writeUnlock("registerBackupNode");
     }
   }
 
@@ -6489,7 +6825,7 @@ void releaseBackupNode(NamenodeRegistration registration)
             " node namespaceID = " + registration.getNamespaceID());
       getEditLog().releaseBackupStream(registration);
     } finally {
-      writeUnlock();
+      writeUnlock("releaseBackupNode");
     }
   }
 
@@ -6573,7 +6909,7 @@ Collection<CorruptFileBlockInfo> listCorruptFileBlocks(String path,
       }
       return corruptFiles;
     } finally {
-      readUnlock();
+      readUnlock("listCorruptFileBlocks");
     }
   }
 
@@ -6657,7 +6993,7 @@ Token<DelegationTokenIdentifier> getDelegationToken(Text renewer)
       long expiryTime = dtSecretManager.getTokenExpiryTime(dtId);
       getEditLog().logGetDelegationToken(dtId, expiryTime);
     } finally {
-      writeUnlock();
+      writeUnlock("getDelegationToken");
     }
     getEditLog().logSync();
     return token;
@@ -6691,7 +7027,7 @@ long renewDelegationToken(Token<DelegationTokenIdentifier> token)
       id.readFields(in);
       getEditLog().logRenewDelegationToken(id, expiryTime);
     } finally {
-      writeUnlock();
+      writeUnlock("renewDelegationToken");
     }
     getEditLog().logSync();
     return expiryTime;
@@ -6715,7 +7051,7 @@ void cancelDelegationToken(Token<DelegationTokenIdentifier> token)
         .cancelToken(token, canceller);
       getEditLog().logCancelDelegationToken(id);
     } finally {
-      writeUnlock();
+      writeUnlock("cancelDelegationToken");
     }
     getEditLog().logSync();
   }
@@ -7309,7 +7645,7 @@ void allowSnapshot(String path) throws IOException {
       FSDirSnapshotOp.allowSnapshot(dir, snapshotManager, path);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("allowSnapshot");
     }
     getEditLog().logSync();
     logAuditEvent(success, "allowSnapshot", path, null, null);
@@ -7327,7 +7663,7 @@ void disallowSnapshot(String path) throws IOException {
       FSDirSnapshotOp.disallowSnapshot(dir, snapshotManager, path);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("disallowSnapshot");
     }
     getEditLog().logSync();
     logAuditEvent(success, "disallowSnapshot", path, null, null);
@@ -7348,7 +7684,7 @@ String createSnapshot(String snapshotRoot, String snapshotName,
       snapshotPath = FSDirSnapshotOp.createSnapshot(dir,
           snapshotManager, snapshotRoot, snapshotName, logRetryCache);
     } finally {
-      writeUnlock();
+      writeUnlock("createSnapshot");
     }
     getEditLog().logSync();
     logAuditEvent(snapshotPath != null, "createSnapshot", snapshotRoot,
@@ -7377,7 +7713,7 @@ void renameSnapshot(
           snapshotOldName, snapshotNewName, logRetryCache);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("renameSnapshot");
     }
     getEditLog().logSync();
     String oldSnapshotRoot = Snapshot.getSnapshotPath(path, snapshotOldName);
@@ -7404,7 +7740,7 @@ public SnapshottableDirectoryStatus[] getSnapshottableDirListing()
       status = FSDirSnapshotOp.getSnapshottableDirListing(dir, snapshotManager);
       success = true;
     } finally {
-      readUnlock();
+      readUnlock("getSnapshottableDirListing");
     }
     logAuditEvent(success, "listSnapshottableDirectory", null, null, null);
     return status;
@@ -7435,12 +7771,39 @@ SnapshotDiffReport getSnapshotDiffReport(String path,
       diffs = FSDirSnapshotOp.getSnapshotDiffReport(dir, snapshotManager,
           path, fromSnapshot, toSnapshot);
     } finally {
-      readUnlock();
+      readUnlock("getSnapshotDiffReport");
     }
 
     logAuditEvent(diffs != null, "computeSnapshotDiff", null, null, null);
     return diffs;
   }
+
+  /**
+   * Get a part of the difference between two snapshots (or between a
+   * snapshot and the current status) of a snapshottable directory.
+   *
+   * @see #getSnapshotDiffReport(String, String, String)
+   */
+  SnapshotDiffReportListing getSnapshotDiffReportListing(String path,
+      String fromSnapshot, String toSnapshot, int startIndex)
+      throws IOException {
+    SnapshotDiffReportListing listing = null;
+    checkOperation(OperationCategory.READ);
+    readLock();
+    try {
+      checkOperation(OperationCategory.READ);
+      listing = FSDirSnapshotOp.getSnapshotDiffReportListing(dir,
+          snapshotManager, path, fromSnapshot, toSnapshot, startIndex);
+    } finally {
+      readUnlock("getSnapshotDiffReportListing");
+    }
+
+    if (startIndex == 0) {
+      // one event per diff, not per page
+      logAuditEvent(listing != null, "computeSnapshotDiff", null, null, null);
+    }
+    return listing;
+  }
   
   /**
    * Delete a snapshot of a snapshottable directory
@@ -7463,7 +7826,7 @@ void deleteSnapshot(String snapshotRoot, String snapshotName,
           snapshotRoot, snapshotName, logRetryCache);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("deleteSnapshot");
     }
     getEditLog().logSync();
 
@@ -7498,7 +7861,7 @@ RollingUpgradeInfo queryRollingUpgrade() throws IOException {
       }
       return rollingUpgradeInfo;
     } finally {
-      readUnlock();
+      readUnlock("queryRollingUpgrade");
     }
   }
 
@@ -7525,7 +7888,7 @@ RollingUpgradeInfo startRollingUpgrade() throws IOException {
         getFSImage().rollEditLog();
       }
     } finally {
-      writeUnlock();
+      writeUnlock("startRollingUpgrade");
     }
 
     getEditLog().logSync();
@@ -7615,7 +7978,7 @@ public RollingUpgradeInfo.Bean getRollingUpgradeStatus() {
     } catch (IOException ioe) {
       LOG.warn("Encountered exception setting Rollback Image", ioe);
     } finally {
-      readUnlock();
+      readUnlock("getRollingUpgradeStatus");
     }
     return new RollingUpgradeInfo.Bean(upgradeInfo);
   }
@@ -7655,7 +8018,7 @@ RollingUpgradeInfo finalizeRollingUpgrade() throws IOException {
       getFSImage().renameCheckpoint(NameNodeFile.IMAGE_ROLLBACK,
           NameNodeFile.IMAGE);
     } finally {
-      writeUnlock();
+      writeUnlock("finalizeRollingUpgrade");
     }
 
     if (!haEnabled) {
@@ -7694,7 +8057,7 @@ long addCacheDirective(CacheDirectiveInfo directive,
       effectiveDirective = FSNDNCacheOp.addCacheDirective(this, cacheManager,
           directive, flags, logRetryCache);
     } finally {
-      writeUnlock();
+      writeUnlock("addCacheDirective");
       boolean success = effectiveDirective != null;
       if (success) {
         getEditLog().logSync();
@@ -7726,7 +8089,7 @@ void modifyCacheDirective(CacheDirectiveInfo directive,
           logRetryCache);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("modifyCacheDirective");
       if (success) {
         getEditLog().logSync();
       }
@@ -7749,7 +8112,7 @@ void removeCacheDirective(long id, boolean logRetryCache) throws IOException {
       FSNDNCacheOp.removeCacheDirective(this, cacheManager, id, logRetryCache);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("removeCacheDirective");
       String idStr = "{id: " + Long.toString(id) + "}";
       logAuditEvent(success, "removeCacheDirective", idStr, null,
           null);
@@ -7770,7 +8133,7 @@ BatchedListEntries<CacheDirectiveEntry> listCacheDirectives(
           filter);
       success = true;
     } finally {
-      readUnlock();
+      readUnlock("listCacheDirectives");
       logAuditEvent(success, "listCacheDirectives", filter.toString(), null,
           null);
     }
@@ -7794,7 +8157,7 @@ void addCachePool(CachePoolInfo req, boolean logRetryCache)
       poolInfoStr = info.toString();
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("addCachePool");
       logAuditEvent(success, "addCachePool", poolInfoStr, null, null);
     }
     
@@ -7815,7 +8178,7 @@ void modifyCachePool(CachePoolInfo req, boolean logRetryCache)
       FSNDNCacheOp.modifyCachePool(this, cacheManager, req, logRetryCache);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("modifyCachePool");
       String poolNameStr = "{poolName: " +
           (req == null ? null : req.getPoolName()) + "}";
       logAuditEvent(success, "modifyCachePool", poolNameStr,
@@ -7840,7 +8203,7 @@ void removeCachePool(String cachePoolName, boolean logRetryCache)
           logRetryCache);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("removeCachePool");
       String poolNameStr = "{poolName: " + cachePoolName + "}";
       logAuditEvent(success, "removeCachePool", poolNameStr, null, null);
     }
@@ -7860,7 +8223,7 @@ BatchedListEntries<CachePoolEntry> listCachePools(String prevKey)
       results = FSNDNCacheOp.listCachePools(this, cacheManager, prevKey);
       success = true;
     } finally {
-      readUnlock();
+      readUnlock("listCachePools");
       logAuditEvent(success, "listCachePools", null, null, null);
     }
     return results;
@@ -7870,7 +8233,7 @@ void modifyAclEntries(final String src, List<AclEntry> aclSpec)
       throws IOException {
     HdfsFileStatus auditStat = null;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    writeLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot modify ACL entries on " + src);
@@ -7879,7 +8242,7 @@ void modifyAclEntries(final String src, List<AclEntry> aclSpec)
       logAuditEvent(false, "modifyAclEntries", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock(RwLockMode.FS, "modifyAclEntries");
     }
     getEditLog().logSync();
     logAuditEvent(true, "modifyAclEntries", src, null, auditStat);
@@ -7889,7 +8252,7 @@ void removeAclEntries(final String src, List<AclEntry> aclSpec)
       throws IOException {
     checkOperation(OperationCategory.WRITE);
     HdfsFileStatus auditStat = null;
-    writeLock();
+    writeLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot remove ACL entries on " + src);
@@ -7898,7 +8261,7 @@ void removeAclEntries(final String src, List<AclEntry> aclSpec)
       logAuditEvent(false, "removeAclEntries", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock(RwLockMode.FS, "removeAclEntries");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeAclEntries", src, null, auditStat);
@@ -7907,7 +8270,7 @@ void removeAclEntries(final String src, List<AclEntry> aclSpec)
   void removeDefaultAcl(final String src) throws IOException {
     HdfsFileStatus auditStat = null;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    writeLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot remove default ACL entries on " + src);
@@ -7916,7 +8279,7 @@ void removeDefaultAcl(final String src) throws IOException {
       logAuditEvent(false, "removeDefaultAcl", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock(RwLockMode.FS, "removeDefaultAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeDefaultAcl", src, null, auditStat);
@@ -7925,7 +8288,7 @@ void removeDefaultAcl(final String src) throws IOException {
   void removeAcl(final String src) throws IOException {
     HdfsFileStatus auditStat = null;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    writeLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot remove ACL on " + src);
@@ -7934,7 +8297,7 @@ void removeAcl(final String src) throws IOException {
       logAuditEvent(false, "removeAcl", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock(RwLockMode.FS, "removeAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeAcl", src, null, auditStat);
@@ -7943,7 +8306,7 @@ void removeAcl(final String src) throws IOException {
   void setAcl(final String src, List<AclEntry> aclSpec) throws IOException {
     HdfsFileStatus auditStat = null;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    writeLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot set ACL on " + src);
@@ -7952,7 +8315,7 @@ void setAcl(final String src, List<AclEntry> aclSpec) throws IOException {
       logAuditEvent(false, "setAcl", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock(RwLockMode.FS, "setAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setAcl", src, null, auditStat);
@@ -7961,14 +8324,14 @@ void setAcl(final String src, List<AclEntry> aclSpec) throws IOException {
   AclStatus getAclStatus(String src) throws IOException {
     checkOperation(OperationCategory.READ);
     boolean success = false;
-    readLock();
+    readLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.READ);
       final AclStatus ret = FSDirAclOp.getAclStatus(dir, src);
       success = true;
       return ret;
     } finally {
-      readUnlock();
+      readUnlock(RwLockMode.FS, "getAclStatus");
       logAuditEvent(success, "getAclStatus", src);
     }
   }
@@ -8048,7 +8411,7 @@ private void createEncryptionZoneInt(final String srcArg, String cipher,
       final INodesInPath iip = dir.getINodesInPath4Write(src, false);
       resultingStat = dir.getAuditFileInfo(iip);
     } finally {
-      writeUnlock();
+      writeUnlock("createEncryptionZone");
     }
     getEditLog().logSync();
     logAuditEvent(true, "createEncryptionZone", srcArg, null, resultingStat);
@@ -8084,7 +8447,7 @@ EncryptionZone getEZForPath(final String srcArg)
       success = true;
       return ret;
     } finally {
-      readUnlock();
+      readUnlock("getEZForPath");
       logAuditEvent(success, "getEZForPath", srcArg, null, resultingStat);
     }
   }
@@ -8103,7 +8466,7 @@ BatchedListEntries<EncryptionZone> listEncryptionZones(long prevId)
       success = true;
       return ret;
     } finally {
-      readUnlock();
+      readUnlock("listEncryptionZones");
       logAuditEvent(success, "listEncryptionZones", null);
     }
   }
@@ -8113,7 +8476,7 @@ void setXAttr(String src, XAttr xAttr, EnumSet<XAttrSetFlag> flag,
       throws IOException {
     checkOperation(OperationCategory.WRITE);
     HdfsFileStatus auditStat = null;
-    writeLock();
+    writeLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot set XAttr on " + src);
@@ -8122,7 +8485,7 @@ void setXAttr(String src, XAttr xAttr, EnumSet<XAttrSetFlag> flag,
       logAuditEvent(false, "setXAttr", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock(RwLockMode.FS, "setXAttr");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setXAttr", src, null, auditStat);
@@ -8131,7 +8494,7 @@ void setXAttr(String src, XAttr xAttr, EnumSet<XAttrSetFlag> flag,
   List<XAttr> getXAttrs(final String src, List<XAttr> xAttrs)
       throws IOException {
     checkOperation(OperationCategory.READ);
-    readLock();
+    readLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.READ);
       return FSDirXAttrOp.getXAttrs(dir, src, xAttrs);
@@ -8139,13 +8502,13 @@ List<XAttr> getXAttrs(final String src, List<XAttr> xAttrs)
       logAuditEvent(false, "getXAttrs", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock(RwLockMode.FS, "getXAttrs");
     }
   }
 
   List<XAttr> listXAttrs(String src) throws IOException {
     checkOperation(OperationCategory.READ);
-    readLock();
+    readLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.READ);
       return FSDirXAttrOp.listXAttrs(dir, src);
@@ -8153,7 +8516,7 @@ List<XAttr> listXAttrs(String src) throws IOException {
       logAuditEvent(false, "listXAttrs", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock(RwLockMode.FS, "listXAttrs");
     }
   }
 
@@ -8161,7 +8524,7 @@ void removeXAttr(String src, XAttr xAttr, boolean logRetryCache)
       throws IOException {
     checkOperation(OperationCategory.WRITE);
     HdfsFileStatus auditStat = null;
-    writeLock();
+    writeLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot remove XAttr entry on " + src);
@@ -8170,7 +8533,7 @@ void removeXAttr(String src, XAttr xAttr, boolean logRetryCache)
       logAuditEvent(false, "removeXAttr", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock(RwLockMode.FS, "removeXAttr");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeXAttr", src, null, auditStat);
@@ -8179,7 +8542,7 @@ void removeXAttr(String src, XAttr xAttr, boolean logRetryCache)
   void checkAccess(String src, FsAction mode) throws IOException {
     checkOperation(OperationCategory.READ);
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
-    readLock();
+    readLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.READ);
       src = FSDirectory.resolvePath(src, pathComponents, dir);
@@ -8196,7 +8559,7 @@ void checkAccess(String src, FsAction mode) throws IOException {
       logAuditEvent(false, "checkAccess", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock(RwLockMode.FS, "checkAccess");
     }
   }
 
@@ -8221,6 +8584,19 @@ public void logAuditEvent(boolean succeeded, String userName,
         InetAddress addr, String cmd, String src, String dst,
         FileStatus status, UserGroupInformation ugi,
         DelegationTokenSecretManager dtSecretManager) {
+      logAuditEvent(succeeded, userName, addr, cmd, src, dst, status, ugi,
+          dtSecretManager, NamenodeWebHdfsMethods.isWebHdfsInvocation());
+    }
+
+    /**
+     * @param webHdfs whether the event comes from WebHDFS, which is recorded
+     *                by the handler when the event is logged in the
+     *                background
+     */
+    void logAuditEvent(boolean succeeded, String userName,
+        InetAddress addr, String cmd, String src, String dst,
+        FileStatus status, UserGroupInformation ugi,
+        DelegationTokenSecretManager dtSecretManager, boolean webHdfs) {
       if (auditLog.isInfoEnabled()) {
         final StringBuilder sb = auditBuffer.get();
         sb.setLength(0);
@@ -8255,7 +8631,7 @@ public void logAuditEvent(boolean succeeded, String userName,
           sb.append(trackingId);
         }
         sb.append("\t").append("proto=");
-        sb.append(NamenodeWebHdfsMethods.isWebHdfsInvocation() ? "webhdfs" : "rpc");
+        sb.append(webHdfs ? "webhdfs" : "rpc");
         logAuditMessage(sb.toString());
       }
     }
@@ -1,4 +1,3 @@
-
 /**
  * Licensed to the Apache Software Foundation (ASF) under one
  * or more contributor license agreements.  See the NOTICE file
@@ -19,24 +18,133 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.hdfs.util.RwLockMode;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Time;
+
 import com.google.common.annotations.VisibleForTesting;
 
 /**
  * Mimics a ReentrantReadWriteLock so more sophisticated locking capabilities
  * are possible.
+ *
+ * When fine-grained locking is enabled, the namespace and the block manager
+ * state are protected by two separate locks.  {@link RwLockMode#GLOBAL}
+ * acquires both, always the namespace lock first, so threads holding only
+ * one of them never deadlock with threads holding both.  A thread holding
+ * only the block manager lock must not try to acquire the namespace lock.
+ * When fine-grained locking is disabled both locks are the same object and
+ * every mode behaves like the single coarse lock.
+ *
+ * Every outermost acquisition records how long the thread waited for the
+ * lock and how long it held it.  On release the times are published per
+ * operation name in {@link NameNodeMetrics} if detailed lock metrics are
+ * enabled, and holds longer than the reporting threshold are logged with
+ * the stack trace of the releasing thread, at most once per suppression
+ * interval.
  */
 class FSNamesystemLock implements ReadWriteLock {
+  /** Operation name used when the caller does not provide one. */
+  static final String OP_NAME_OTHER = "OTHER";
+
   @VisibleForTesting
   protected ReentrantReadWriteLock coarseLock;
-  
+
+  /** Protects the block manager state if fine-grained locking is enabled. */
+  private final ReentrantReadWriteLock bmLock;
+  private final boolean fineGrained;
+
+  private final boolean metricsEnabled;
+  private final long writeLockReportingThresholdMs;
+  private final long readLockReportingThresholdMs;
+  private final long lockSuppressWarningIntervalMs;
+
+  /** Timing of the current write hold; only touched by the lock holder. */
+  private final LockTiming coarseWriteTiming = new LockTiming();
+  private final LockTiming bmWriteTiming = new LockTiming();
+  /** Timing of the current read hold of each thread. */
+  private final ThreadLocal<LockTiming> coarseReadTiming =
+      new ThreadLocal<LockTiming>() {
+        @Override
+        protected LockTiming initialValue() {
+          return new LockTiming();
+        }
+      };
+  private final ThreadLocal<LockTiming> bmReadTiming =
+      new ThreadLocal<LockTiming>() {
+        @Override
+        protected LockTiming initialValue() {
+          return new LockTiming();
+        }
+      };
+
+  private final AtomicLong lastWriteLockReportMs =
+      new AtomicLong(Long.MIN_VALUE / 2);
+  private final AtomicInteger suppressedWriteLockReports = new AtomicInteger();
+  private final AtomicLong lastReadLockReportMs =
+      new AtomicLong(Long.MIN_VALUE / 2);
+  private final AtomicInteger suppressedReadLockReports = new AtomicInteger();
+
+  /** When the current hold started and how long it took to get there. */
+  private static class LockTiming {
+    long acquiredNanos;
+    long waitNanos;
+  }
+
   FSNamesystemLock(boolean fair) {
+    this(fair, false);
+  }
+
+  FSNamesystemLock(boolean fair, boolean fineGrained) {
+    this(fair, fineGrained, false,
+        DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT,
+        DFSConfigKeys.DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_DEFAULT,
+        DFSConfigKeys.DFS_NAMENODE_LOCK_SUPPRESS_WARNING_INTERVAL_MS_DEFAULT);
+  }
+
+  FSNamesystemLock(Configuration conf) {
+    this(conf.getBoolean("dfs.namenode.fslock.fair", true),
+        conf.getBoolean(
+            DFSConfigKeys.DFS_NAMENODE_LOCK_FINE_GRAINED_ENABLED_KEY,
+            DFSConfigKeys.DFS_NAMENODE_LOCK_FINE_GRAINED_ENABLED_DEFAULT),
+        conf.getBoolean(
+            DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY,
+            DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_DEFAULT),
+        conf.getLong(
+            DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_KEY,
+            DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT),
+        conf.getLong(
+            DFSConfigKeys.DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_KEY,
+            DFSConfigKeys.DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_DEFAULT),
+        conf.getLong(
+            DFSConfigKeys.DFS_NAMENODE_LOCK_SUPPRESS_WARNING_INTERVAL_MS_KEY,
+            DFSConfigKeys.DFS_NAMENODE_LOCK_SUPPRESS_WARNING_INTERVAL_MS_DEFAULT));
+  }
+
+  @VisibleForTesting
+  FSNamesystemLock(boolean fair, boolean fineGrained, boolean metricsEnabled,
+      long writeLockReportingThresholdMs, long readLockReportingThresholdMs,
+      long lockSuppressWarningIntervalMs) {
     this.coarseLock = new ReentrantReadWriteLock(fair);
+    this.fineGrained = fineGrained;
+    this.bmLock = fineGrained ? new ReentrantReadWriteLock(fair) : null;
+    this.metricsEnabled = metricsEnabled;
+    this.writeLockReportingThresholdMs = writeLockReportingThresholdMs;
+    this.readLockReportingThresholdMs = readLockReportingThresholdMs;
+    this.lockSuppressWarningIntervalMs = lockSuppressWarningIntervalMs;
   }
+
   
   @Override
   public Lock readLock() {
@@ -59,4 +167,227 @@ public int getWriteHoldCount() {
   public boolean isWriteLockedByCurrentThread() {
     return coarseLock.isWriteLockedByCurrentThread();
   }
+
+  boolean isFineGrained() {
+    return fineGrained;
+  }
+
+  /** The lock protecting the block manager state. */
+  private ReentrantReadWriteLock bmLock() {
+    return fineGrained ? bmLock : coarseLock;
+  }
+
+  void readLock(RwLockMode mode) {
+    final long startNanos = System.nanoTime();
+    switch (mode) {
+    case GLOBAL:
+      coarseLock.readLock().lock();
+      if (isFineGrained()) {
+        bmLock().readLock().lock();
+      }
+      break;
+    case FS:
+      coarseLock.readLock().lock();
+      break;
+    case BM:
+      bmLock().readLock().lock();
+      break;
+    }
+    final ReentrantReadWriteLock lock = primaryLock(mode);
+    if (lock.getReadHoldCount() == 1) {
+      startTiming(readTiming(lock), startNanos);
+    }
+  }
+
+  void readUnlock(RwLockMode mode) {
+    readUnlock(mode, OP_NAME_OTHER);
+  }
+
+  void readUnlock(RwLockMode mode, String opName) {
+    final ReentrantReadWriteLock lock = primaryLock(mode);
+    final boolean outermost = lock.getReadHoldCount() == 1;
+    final long releaseNanos = outermost ? System.nanoTime() : 0;
+    final LockTiming timing = outermost ? readTiming(lock) : null;
+    switch (mode) {
+    case GLOBAL:
+      if (isFineGrained()) {
+        bmLock().readLock().unlock();
+      }
+      coarseLock.readLock().unlock();
+      break;
+    case FS:
+      coarseLock.readLock().unlock();
+      break;
+    case BM:
+      bmLock().readLock().unlock();
+      break;
+    }
+    if (outermost) {
+      reportLockTime(false, opName, timing.waitNanos,
+          releaseNanos - timing.acquiredNanos);
+    }
+  }
+
+  void writeLock(RwLockMode mode) {
+    final long startNanos = System.nanoTime();
+    switch (mode) {
+    case GLOBAL:
+      coarseLock.writeLock().lock();
+      if (isFineGrained()) {
+        bmLock().writeLock().lock();
+      }
+      break;
+    case FS:
+      coarseLock.writeLock().lock();
+      break;
+    case BM:
+      bmLock().writeLock().lock();
+      break;
+    }
+    startWriteTiming(mode, startNanos);
+  }
+
+  void writeLockInterruptibly(RwLockMode mode) throws InterruptedException {
+    final long startNanos = System.nanoTime();
+    switch (mode) {
+    case GLOBAL:
+      coarseLock.writeLock().lockInterruptibly();
+      if (isFineGrained()) {
+        try {
+          bmLock().writeLock().lockInterruptibly();
+        } catch (InterruptedException e) {
+          coarseLock.writeLock().unlock();
+          throw e;
+        }
+      }
+      break;
+    case FS:
+      coarseLock.writeLock().lockInterruptibly();
+      break;
+    case BM:
+      bmLock().writeLock().lockInterruptibly();
+      break;
+    }
+    startWriteTiming(mode, startNanos);
+  }
+
+  void writeUnlock(RwLockMode mode) {
+    writeUnlock(mode, OP_NAME_OTHER);
+  }
+
+  void writeUnlock(RwLockMode mode, String opName) {
+    final ReentrantReadWriteLock lock = primaryLock(mode);
+    final boolean outermost = lock.getWriteHoldCount() == 1;
+    final long releaseNanos = outermost ? System.nanoTime() : 0;
+    // Copy the timing before release, the next holder overwrites it.
+    final LockTiming timing = writeTiming(lock);
+    final long acquiredNanos = timing.acquiredNanos;
+    final long waitNanos = timing.waitNanos;
+    switch (mode) {
+    case GLOBAL:
+      if (isFineGrained()) {
+        bmLock().writeLock().unlock();
+      }
+      coarseLock.writeLock().unlock();
+      break;
+    case FS:
+      coarseLock.writeLock().unlock();
+      break;
+    case BM:
+      bmLock().writeLock().unlock();
+      break;
+    }
+    if (outermost) {
+      reportLockTime(true, opName, waitNanos, releaseNanos - acquiredNanos);
+    }
+  }
+
+  boolean hasReadLock(RwLockMode mode) {
+    switch (mode) {
+    case GLOBAL:
+      return hasReadLock(coarseLock) && hasReadLock(bmLock());
+    case FS:
+      return hasReadLock(coarseLock);
+    case BM:
+      return hasReadLock(bmLock());
+    default:
+      throw new IllegalArgumentException("Unknown lock mode " + mode);
+    }
+  }
+
+  boolean hasWriteLock(RwLockMode mode) {
+    switch (mode) {
+    case GLOBAL:
+      return coarseLock.isWriteLockedByCurrentThread()
+          && bmLock().isWriteLockedByCurrentThread();
+    case FS:
+      return coarseLock.isWriteLockedByCurrentThread();
+    case BM:
+      return bmLock().isWriteLockedByCurrentThread();
+    default:
+      throw new IllegalArgumentException("Unknown lock mode " + mode);
+    }
+  }
+
+  private static boolean hasReadLock(ReentrantReadWriteLock lock) {
+    return lock.getReadHoldCount() > 0 || lock.isWriteLockedByCurrentThread();
+  }
+
+  /** The lock whose hold count tells whether an acquisition is outermost. */
+  private ReentrantReadWriteLock primaryLock(RwLockMode mode) {
+    return mode == RwLockMode.BM ? bmLock() : coarseLock;
+  }
+
+  private LockTiming readTiming(ReentrantReadWriteLock lock) {
+    return lock == coarseLock ? coarseReadTiming.get() : bmReadTiming.get();
+  }
+
+  private LockTiming writeTiming(ReentrantReadWriteLock lock) {
+    return lock == coarseLock ? coarseWriteTiming : bmWriteTiming;
+  }
+
+  private void startWriteTiming(RwLockMode mode, long startNanos) {
+    final ReentrantReadWriteLock lock = primaryLock(mode);
+    if (lock.getWriteHoldCount() == 1) {
+      startTiming(writeTiming(lock), startNanos);
+    }
+  }
+
+  private static void startTiming(LockTiming timing, long startNanos) {
+    timing.acquiredNanos = System.nanoTime();
+    timing.waitNanos = timing.acquiredNanos - startNanos;
+  }
+
+  private void reportLockTime(boolean write, String opName, long waitNanos,
+      long heldNanos) {
+    if (metricsEnabled) {
+      final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      if (metrics != null) {
+        metrics.addNamesystemLockTime(write, opName, waitNanos, heldNanos);
+      }
+    }
+    final long heldMs = TimeUnit.NANOSECONDS.toMillis(heldNanos);
+    if (heldMs < (write ? writeLockReportingThresholdMs
+        : readLockReportingThresholdMs)) {
+      return;
+    }
+    final AtomicLong lastReportMs =
+        write ? lastWriteLockReportMs : lastReadLockReportMs;
+    final AtomicInteger suppressed =
+        write ? suppressedWriteLockReports : suppressedReadLockReports;
+    final long now = Time.monotonicNow();
+    final long last = lastReportMs.get();
+    if (now - last < lockSuppressWarningIntervalMs
+        || !lastReportMs.compareAndSet(last, now)) {
+      suppressed.incrementAndGet();
+      return;
+    }
+    final String type = write ? "write" : "read";
+    FSNamesystem.LOG.info("FSNamesystem " + type + " lock held for "
+        + heldMs + " ms via " + opName + " after waiting "
+        + TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms\n"
+        + StringUtils.getStackTrace(Thread.currentThread())
+        + "\tNumber of suppressed " + type + "-lock reports: "
+        + suppressed.getAndSet(0));
+  }
 }
@@ -65,6 +65,8 @@ public class FileJournalManager implements JournalManager {
   private final StorageDirectory sd;
   private final StorageErrorReporter errorReporter;
   private int outputBufferCapacity = 512*1024;
+  private long preallocationSize =
+      EditLogFileOutputStream.MIN_PREALLOCATION_LENGTH;
 
   private static final Pattern EDITS_REGEX = Pattern.compile(
     NameNodeFile.EDITS.getName() + "_(\\d+)-(\\d+)");
@@ -111,7 +113,7 @@ synchronized public EditLogOutputStream startLogSegment(long txid,
     try {
       currentInProgress = NNStorage.getInProgressEditsFile(sd, txid);
       EditLogOutputStream stm = new EditLogFileOutputStream(conf,
-          currentInProgress, outputBufferCapacity);
+          currentInProgress, outputBufferCapacity, preallocationSize);
       stm.create(layoutVersion);
       return stm;
     } catch (IOException e) {
@@ -158,6 +160,14 @@ synchronized public void setOutputBufferCapacity(int size) {
     this.outputBufferCapacity = size;
   }
 
+  /**
+   * Set the minimum number of bytes the edit log segments are extended by
+   * when they are full.
+   */
+  synchronized public void setPreallocationSize(long size) {
+    this.preallocationSize = size;
+  }
+
   @Override
   public void purgeLogsOlderThan(long minTxIdToKeep)
       throws IOException {
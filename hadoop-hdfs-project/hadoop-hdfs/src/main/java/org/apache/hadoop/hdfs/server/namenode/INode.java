@@ -620,6 +620,21 @@ public final INodeDirectory getParent() {
         : parent.isReference()? getParentReference().getParent(): parent.asDirectory();
   }
 
+  /**
+   * Record that a diff was added to this inode for the given snapshot, in
+   * this inode if it is a directory and in all its current ancestors.
+   * @see INodeDirectory#getSubtreeDiffSnapshotId()
+   */
+  public final void recordSubtreeDiff(int snapshotId) {
+    // walk up to the root even past an ancestor which is already marked,
+    // since a renamed subtree may carry a marker its new ancestors lack.
+    for (INode inode = this; inode != null; inode = inode.getParent()) {
+      if (inode.isDirectory()) {
+        inode.asDirectory().updateSubtreeDiffSnapshotId(snapshotId);
+      }
+    }
+  }
+
   /**
    * @return the parent as a reference if this is a referred inode;
    *         otherwise, return null.
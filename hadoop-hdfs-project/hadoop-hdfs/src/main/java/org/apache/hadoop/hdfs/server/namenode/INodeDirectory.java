@@ -38,6 +38,7 @@
 import org.apache.hadoop.hdfs.server.namenode.snapshot.DirectoryWithSnapshotFeature;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.DirectoryWithSnapshotFeature.DirectoryDiffList;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.hdfs.util.ChunkedList;
 import org.apache.hadoop.hdfs.util.Diff.ListType;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
 
@@ -67,9 +68,25 @@ public static INodeDirectory valueOf(INode inode, Object path
   }
 
   protected static final int DEFAULT_FILES_PER_DIRECTORY = 5;
+  /**
+   * Children lists larger than this are converted to a {@link ChunkedList},
+   * so that adding or removing a child does not shift the whole list.
+   */
+  @VisibleForTesting
+  static final int LARGE_DIRECTORY_THRESHOLD = 4096;
+  /** The chunk size of the children lists of large directories. */
+  private static final int CHILDREN_CHUNK_SIZE = 1024;
   final static byte[] ROOT_NAME = DFSUtil.string2Bytes("");
 
   private List<INode> children = null;
+
+  /**
+   * The id of the latest snapshot a diff was recorded for in the subtree of
+   * this directory, including the directory itself. The snapshot diff skips
+   * the subtrees which did not change since its earlier snapshot. It never
+   * goes down, so it may be higher than needed once snapshots are deleted.
+   */
+  private int subtreeDiffSnapshotId = Snapshot.NO_SNAPSHOT_ID;
   
   /** constructor */
   public INodeDirectory(long id, byte[] name, PermissionStatus permissions,
@@ -89,6 +106,7 @@ public INodeDirectory(INodeDirectory other, boolean adopt,
       Feature... featuresToCopy) {
     super(other);
     this.children = other.children;
+    this.subtreeDiffSnapshotId = other.subtreeDiffSnapshotId;
     if (adopt && this.children != null) {
       for (INode child : children) {
         child.setParent(this);
@@ -103,6 +121,20 @@ public INodeDirectory(INodeDirectory other, boolean adopt,
     }
   }
 
+  /**
+   * @return the id of the latest snapshot a diff was recorded for in the
+   *         subtree of this directory
+   */
+  public final int getSubtreeDiffSnapshotId() {
+    return subtreeDiffSnapshotId;
+  }
+
+  final void updateSubtreeDiffSnapshotId(int snapshotId) {
+    if (snapshotId > subtreeDiffSnapshotId) {
+      subtreeDiffSnapshotId = snapshotId;
+    }
+  }
+
   /** @return true unconditionally. */
   @Override
   public final boolean isDirectory() {
@@ -563,6 +595,10 @@ private void addChild(final INode node, final int insertionPoint) {
     }
     node.setParent(this);
     children.add(-insertionPoint - 1, node);
+    if (children.size() > LARGE_DIRECTORY_THRESHOLD
+        && !(children instanceof ChunkedList)) {
+      children = new ChunkedList<INode>(CHILDREN_CHUNK_SIZE, children);
+    }
 
     if (node.getGroupName() == null) {
       node.setGroup(getGroupName());
@@ -20,9 +20,12 @@
 import java.util.Iterator;
 import java.util.List;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockStoragePolicySuite;
+import org.apache.hadoop.hdfs.util.CompactGSet;
 import org.apache.hadoop.util.GSet;
 import org.apache.hadoop.util.LightWeightGSet;
 
@@ -34,14 +37,35 @@
  */
 public class INodeMap {
   
-  static INodeMap newInstance(INodeDirectory rootDir) {
-    // Compute the map capacity by allocating 1% of total memory
-    int capacity = LightWeightGSet.computeCapacity(1, "INodeMap");
-    GSet<INode, INodeWithAdditionalFields> map
-        = new LightWeightGSet<INode, INodeWithAdditionalFields>(capacity);
+  static INodeMap newInstance(INodeDirectory rootDir, Configuration conf) {
+    final GSet<INode, INodeWithAdditionalFields> map;
+    if (conf.getBoolean(DFSConfigKeys.DFS_NAMENODE_COMPACT_MAPS_ENABLED_KEY,
+        DFSConfigKeys.DFS_NAMENODE_COMPACT_MAPS_ENABLED_DEFAULT)) {
+      map = new INodeIdGSet();
+    } else {
+      // Compute the map capacity by allocating a percentage of total memory
+      float percent = conf.getFloat(
+          DFSConfigKeys.DFS_NAMENODE_INODE_MAP_ALLOCATION_PERCENT,
+          DFSConfigKeys.DFS_NAMENODE_INODE_MAP_ALLOCATION_PERCENT_DEFAULT);
+      int capacity = LightWeightGSet.computeCapacity(percent, "INodeMap");
+      map = new LightWeightGSet<INode, INodeWithAdditionalFields>(capacity);
+    }
     map.put(rootDir);
     return new INodeMap(map);
   }
+
+  /** The inodes by ID, in a {@link CompactGSet}. */
+  private static class INodeIdGSet
+      extends CompactGSet<INode, INodeWithAdditionalFields> {
+    INodeIdGSet() {
+      super(0);
+    }
+
+    @Override
+    protected long getId(INode inode) {
+      return inode.getId();
+    }
+  }
   
   /** Synchronized by external lock. */
   private final GSet<INode, INodeWithAdditionalFields> map;
@@ -88,6 +112,9 @@ public int size() {
    *         such {@link INode} in the map.
    */
   public INode get(long id) {
+    if (map instanceof INodeIdGSet) {
+      return ((INodeIdGSet) map).get(id);
+    }
     INode inode = new INodeWithAdditionalFields(id, null, new PermissionStatus(
         "", "", new FsPermission((short) 0)), 0, 0) {
       
@@ -535,6 +535,30 @@ public void apply(JournalAndStream jas) throws IOException {
         }
       }, "flush");
     }
+
+    @Override
+    public void flushAsync() throws IOException {
+      mapJournalsAndReportErrors(new JournalClosure() {
+        @Override
+        public void apply(JournalAndStream jas) throws IOException {
+          if (jas.isActive()) {
+            jas.getCurrentStream().flushAsync();
+          }
+        }
+      }, "flushAsync");
+    }
+
+    @Override
+    public void awaitFlushed(final long txid) throws IOException {
+      mapJournalsAndReportErrors(new JournalClosure() {
+        @Override
+        public void apply(JournalAndStream jas) throws IOException {
+          if (jas.isActive()) {
+            jas.getCurrentStream().awaitFlushed(txid);
+          }
+        }
+      }, "awaitFlushed");
+    }
     
     @Override
     public boolean shouldForceSync() {
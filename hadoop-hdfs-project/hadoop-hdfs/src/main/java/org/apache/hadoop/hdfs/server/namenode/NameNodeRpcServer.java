@@ -75,6 +75,7 @@
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
 import org.apache.hadoop.hdfs.protocol.AclException;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedOpResult;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
@@ -102,6 +103,7 @@
 import org.apache.hadoop.hdfs.protocol.RecoveryInProgressException;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.UnregisteredNodeException;
 import org.apache.hadoop.hdfs.protocol.UnresolvedPathException;
@@ -130,6 +132,7 @@
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorageReport;
 import org.apache.hadoop.hdfs.server.protocol.FinalizeCommand;
+import org.apache.hadoop.hdfs.server.protocol.FullBlockReportCommand;
 import org.apache.hadoop.hdfs.server.protocol.HeartbeatResponse;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
@@ -221,6 +224,9 @@ class NameNodeRpcServer implements NamenodeProtocols {
   
   private final String minimumDataNodeVersion;
 
+  /** The maximum number of paths in a batched namespace call */
+  private final int batchedOpsLimit;
+
   public NameNodeRpcServer(Configuration conf, NameNode nn)
       throws IOException {
     this.nn = nn;
@@ -390,6 +396,11 @@ public NameNodeRpcServer(Configuration conf, NameNode nn)
         .setPort(rpcAddr.getPort()).setNumHandlers(handlerCount)
         .setVerbose(false)
         .setSecretManager(namesystem.getDelegationTokenSecretManager()).build();
+    if (conf.getBoolean(DFSConfigKeys.DFS_NAMENODE_STATE_CONTEXT_ENABLED_KEY,
+        DFSConfigKeys.DFS_NAMENODE_STATE_CONTEXT_ENABLED_DEFAULT)) {
+      clientRpcServer.setAlignmentContext(
+          new GlobalStateIdContext(namesystem));
+    }
 
     // Add all the RPC protocols that the namenode implements
     DFSUtil.addPBProtocol(conf, HAServiceProtocolPB.class, haPbService,
@@ -433,6 +444,9 @@ public NameNodeRpcServer(Configuration conf, NameNode nn)
     minimumDataNodeVersion = conf.get(
         DFSConfigKeys.DFS_NAMENODE_MIN_SUPPORTED_DATANODE_VERSION_KEY,
         DFSConfigKeys.DFS_NAMENODE_MIN_SUPPORTED_DATANODE_VERSION_DEFAULT);
+    batchedOpsLimit = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_BATCHED_OPS_LIMIT_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BATCHED_OPS_LIMIT_DEFAULT);
 
     // Set terse exception whose stack trace won't be logged
     this.clientRpcServer.addTerseExceptions(SafeModeException.class,
@@ -1016,6 +1030,49 @@ public boolean delete(String src, boolean recursive) throws IOException {
     return ret;
   }
 
+  @Override // ClientProtocol
+  public List<BatchedOpResult<Boolean>> batchedDelete(String[] srcs,
+      boolean recursive) throws IOException {
+    checkNNStartup();
+    checkBatchSize("batchedDelete", srcs);
+    if (stateChangeLog.isDebugEnabled()) {
+      stateChangeLog.debug("*DIR* Namenode.batchedDelete: srcs="
+          + Arrays.toString(srcs) + ", recursive=" + recursive);
+    }
+    CacheEntryWithPayload cacheEntry = RetryCache.waitForCompletion(retryCache,
+      null);
+    if (cacheEntry != null && cacheEntry.isSuccess()) {
+      @SuppressWarnings("unchecked")
+      List<BatchedOpResult<Boolean>> previous =
+          (List<BatchedOpResult<Boolean>>) cacheEntry.getPayload();
+      return previous; // Return previous response
+    }
+
+    List<BatchedOpResult<Boolean>> results = null;
+    try {
+      results = namesystem.batchedDelete(srcs, recursive);
+    } finally {
+      RetryCache.setState(cacheEntry, results != null, results);
+    }
+    for (BatchedOpResult<Boolean> r : results) {
+      if (r.isSuccess() && r.getValue()) {
+        metrics.incrDeleteFileOps();
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Check the number of paths of a batched call against the configured
+   * limit, so that a batch cannot hold the namesystem lock for too long.
+   */
+  private void checkBatchSize(String op, String[] srcs) throws IOException {
+    if (srcs.length > batchedOpsLimit) {
+      throw new IOException(op + ": Too many paths in the batch. Limit "
+          + batchedOpsLimit + " paths, got " + srcs.length + ".");
+    }
+  }
+
   /**
    * Check path length does not exceed maximum.  Returns true if
    * length and depth are okay.  Returns false if length is too long 
@@ -1043,6 +1100,26 @@ public boolean mkdirs(String src, FsPermission masked, boolean createParent)
             null, masked), createParent);
   }
 
+  @Override // ClientProtocol
+  public List<BatchedOpResult<Boolean>> batchedMkdirs(String[] srcs,
+      FsPermission masked, boolean createParent) throws IOException {
+    checkNNStartup();
+    checkBatchSize("batchedMkdirs", srcs);
+    if(stateChangeLog.isDebugEnabled()) {
+      stateChangeLog.debug("*DIR* NameNode.batchedMkdirs: "
+          + Arrays.toString(srcs));
+    }
+    for (String src : srcs) {
+      if (!checkPathLength(src)) {
+        throw new IOException("batchedMkdirs: Pathname too long.  Limit "
+            + MAX_PATH_LENGTH + " characters, " + MAX_PATH_DEPTH + " levels.");
+      }
+    }
+    return namesystem.batchedMkdirs(srcs,
+        new PermissionStatus(getRemoteUser().getShortUserName(),
+            null, masked), createParent);
+  }
+
   @Override // ClientProtocol
   public void renewLease(String clientName) throws IOException {
     checkNNStartup();
@@ -1062,12 +1139,36 @@ public DirectoryListing getListing(String src, byte[] startAfter,
     return files;
   }
 
+  @Override // ClientProtocol
+  public DirectoryListing getRecursiveListing(String src, byte[] startAfter,
+      boolean needLocation) throws IOException {
+    checkNNStartup();
+    DirectoryListing files = namesystem.getRecursiveListing(
+        src, startAfter, needLocation);
+    if (files != null) {
+      metrics.incrGetListingOps();
+      metrics.incrFilesInGetListingOps(files.getPartialListing().length);
+    }
+    return files;
+  }
+
   @Override // ClientProtocol
   public HdfsFileStatus getFileInfo(String src)  throws IOException {
     checkNNStartup();
     metrics.incrFileInfoOps();
     return namesystem.getFileInfo(src, true);
   }
+
+  @Override // ClientProtocol
+  public List<BatchedOpResult<HdfsFileStatus>> getBatchedFileInfo(
+      String[] srcs) throws IOException {
+    checkNNStartup();
+    checkBatchSize("getBatchedFileInfo", srcs);
+    for (int i = 0; i < srcs.length; i++) {
+      metrics.incrFileInfoOps();
+    }
+    return namesystem.getBatchedFileInfo(srcs);
+  }
   
   @Override // ClientProtocol
   public boolean isFileClosed(String src) throws IOException{
@@ -1368,7 +1469,20 @@ public DatanodeCommand blockReport(DatanodeRegistration nodeReg,
     }
     final BlockManager bm = namesystem.getBlockManager(); 
     boolean noStaleStorages = false;
+    boolean fullReportNeeded = false;
     for (int r = 0; r < reports.length; r++) {
+      if (reports[r].isHashOnly()) {
+        if (bm.processReplicaHash(nodeReg, reports[r].getStorage(),
+            reports[r].getReplicaHash(), context,
+            (r == reports.length - 1))) {
+          noStaleStorages = !bm.getDatanodeManager().getDatanode(nodeReg)
+              .hasStaleStorages();
+        } else {
+          fullReportNeeded = true;
+        }
+        metrics.incrStorageBlockReportOps();
+        continue;
+      }
       final BlockListAsLongs blocks = reports[r].getBlocks();
       //
       // BlockManager.processReport accumulates information of prior calls
@@ -1380,6 +1494,9 @@ public DatanodeCommand blockReport(DatanodeRegistration nodeReg,
       metrics.incrStorageBlockReportOps();
     }
 
+    if (fullReportNeeded) {
+      return FullBlockReportCommand.FULL_BLOCK_REPORT;
+    }
     if (nn.getFSImage().isUpgradeFinalized() &&
         !namesystem.isRollingUpgrade() &&
         !nn.isStandbyState() &&
@@ -1709,6 +1826,18 @@ public SnapshotDiffReport getSnapshotDiffReport(String snapshotRoot,
     return report;
   }
 
+  @Override // ClientProtocol
+  public SnapshotDiffReportListing getSnapshotDiffReportListing(
+      String snapshotRoot, String earlierSnapshotName,
+      String laterSnapshotName, int startIndex) throws IOException {
+    checkNNStartup();
+    SnapshotDiffReportListing listing =
+        namesystem.getSnapshotDiffReportListing(snapshotRoot,
+            earlierSnapshotName, laterSnapshotName, startIndex);
+    metrics.incrSnapshotDiffReportOps();
+    return listing;
+  }
+
   @Override // ClientProtocol
   public long addCacheDirective(
       CacheDirectiveInfo path, EnumSet<CacheFlag> flags) throws IOException {
@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockStoragePolicySuite;
+import org.apache.hadoop.hdfs.server.namenode.INode.BlocksMapUpdateInfo;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.hdfs.util.ReadOnlyList;
+import org.apache.hadoop.util.ChunkedArrayList;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.ExitUtil;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Destroys the directories unlinked from the namespace by a delete in the
+ * background.
+ * <p>
+ * The delete itself only unlinks the directory and logs the edit, so the
+ * client gets its answer right away. This deleter then walks the unlinked
+ * subtree depth first, and removes its inodes from the inode map and its
+ * blocks from the blocks map, {@link FSNamesystem#BLOCK_DELETION_INCREMENT}
+ * at a time under the write lock. Only the path to the inode being visited
+ * is kept, so the memory used does not grow with the size of the subtree.
+ * <p>
+ * The pending subtrees and the walk are guarded by the {@link FSNamesystem}
+ * write lock.
+ */
+@InterfaceAudience.Private
+class SubtreeDeleter implements Runnable {
+  static final Log LOG = LogFactory.getLog(SubtreeDeleter.class);
+
+  private final FSNamesystem fsn;
+  /** The unlinked directories waiting to be walked. */
+  private final Deque<INodeDirectory> pending =
+      new ArrayDeque<INodeDirectory>();
+  /** The directories from the root of the current walk to its cursor. */
+  private final Deque<INodeDirectory> path = new ArrayDeque<INodeDirectory>();
+  /** The number of subtrees which are pending or being walked. */
+  private volatile int numSubtrees = 0;
+
+  private Daemon daemon = null;
+  private volatile boolean shouldRun = false;
+
+  SubtreeDeleter(FSNamesystem fsn) {
+    this.fsn = fsn;
+  }
+
+  /**
+   * @return whether the inode can be walked by the deleter. The directories
+   * with snapshot data or references are destroyed in one shot instead.
+   */
+  static boolean isWalkable(INode inode) {
+    if (inode.isReference() || !inode.isDirectory()) {
+      return false;
+    }
+    final INodeDirectory dir = inode.asDirectory();
+    return !dir.isWithSnapshot() && !dir.isSnapshottable();
+  }
+
+  /**
+   * Queue an unlinked directory for deletion.
+   */
+  void add(INodeDirectory dir) {
+    assert fsn.hasWriteLock();
+    // detach it, so that its inodes no longer resolve to a path
+    dir.setParent(null);
+    pending.add(dir);
+    numSubtrees++;
+    synchronized (this) {
+      notifyAll();
+    }
+  }
+
+  /** @return the number of subtrees which are not fully deleted yet. */
+  int getNumPendingSubtrees() {
+    return numSubtrees;
+  }
+
+  /**
+   * Delete at most {@link FSNamesystem#BLOCK_DELETION_INCREMENT} inodes and
+   * blocks of the pending subtrees.
+   *
+   * @return whether there is more to delete
+   */
+  @VisibleForTesting
+  boolean deleteIncrement() {
+    assert fsn.hasWriteLock();
+    final FSDirectory fsd = fsn.getFSDirectory();
+    final BlockStoragePolicySuite bsps = fsd.getBlockStoragePolicySuite();
+    final BlocksMapUpdateInfo collectedBlocks = new BlocksMapUpdateInfo();
+    final List<Block> toDelete = collectedBlocks.getToDeleteList();
+    final List<INode> removedINodes = new ChunkedArrayList<INode>();
+
+    while (removedINodes.size() + toDelete.size()
+        < FSNamesystem.BLOCK_DELETION_INCREMENT) {
+      if (path.isEmpty()) {
+        final INodeDirectory root = pending.poll();
+        if (root == null) {
+          break;
+        }
+        path.push(root);
+      }
+      final INodeDirectory dir = path.peek();
+      final ReadOnlyList<INode> children =
+          dir.getChildrenList(Snapshot.CURRENT_STATE_ID);
+      if (children.isEmpty()) {
+        path.pop();
+        dir.destroyAndCollectBlocks(bsps, collectedBlocks, removedINodes);
+        if (path.isEmpty()) {
+          numSubtrees--;
+        }
+        continue;
+      }
+      // the last child is the cheapest to remove
+      final INode child = children.get(children.size() - 1);
+      dir.removeChild(child);
+      if (isWalkable(child)) {
+        path.push(child.asDirectory());
+      } else {
+        child.destroyAndCollectBlocks(bsps, collectedBlocks, removedINodes);
+      }
+    }
+
+    fsd.writeLock();
+    try {
+      fsd.removeFromInodeMap(removedINodes);
+    } finally {
+      fsd.writeUnlock();
+    }
+    for (Block b : toDelete) {
+      fsn.getBlockManager().removeBlock(b);
+    }
+    return !path.isEmpty() || !pending.isEmpty();
+  }
+
+  /**
+   * Delete all the pending subtrees in the calling thread.
+   */
+  void deleteAll() {
+    fsn.writeLock();
+    try {
+      while (deleteIncrement()) {
+        // keep going
+      }
+    } finally {
+      fsn.writeUnlock("deleteSubtrees");
+    }
+  }
+
+  void start() {
+    shouldRun = true;
+    daemon = new Daemon(this);
+    daemon.setName("SubtreeDeleter");
+    daemon.start();
+  }
+
+  /**
+   * Stop the deleter thread, and finish the pending deletes in the calling
+   * thread, so that no unlinked inode is left in the inode map.
+   */
+  void stop() {
+    shouldRun = false;
+    if (daemon != null) {
+      daemon.interrupt();
+      try {
+        daemon.join(3000);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+      daemon = null;
+    }
+    deleteAll();
+  }
+
+  @Override
+  public void run() {
+    while (shouldRun) {
+      try {
+        boolean more;
+        fsn.writeLock();
+        try {
+          more = deleteIncrement();
+        } finally {
+          fsn.writeUnlock("deleteSubtrees");
+        }
+        if (!more) {
+          synchronized (this) {
+            while (shouldRun && numSubtrees == 0) {
+              wait(1000);
+            }
+          }
+        }
+      } catch (InterruptedException ie) {
+        if (shouldRun) {
+          LOG.warn("SubtreeDeleter was interrupted", ie);
+        }
+      } catch (Throwable t) {
+        LOG.fatal("SubtreeDeleter failed", t);
+        ExitUtil.terminate(1, t);
+      }
+    }
+  }
+}
@@ -36,6 +36,7 @@
 import org.apache.hadoop.hdfs.NameNodeProxies;
 import org.apache.hadoop.hdfs.server.namenode.ha.AbstractNNFailoverProxyProvider;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
+import org.apache.hadoop.ipc.AlignmentContext;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.security.UserGroupInformation;
 
@@ -118,11 +119,19 @@ public Class<T> getInterface() {
    */
   @Override
   public synchronized ProxyInfo<T> getProxy() {
-    AddressRpcProxyPair<T> current = proxies.get(currentProxyIndex);
+    return getProxy(currentProxyIndex);
+  }
+
+  /**
+   * Lazily initialize the RPC proxy object to the given NameNode.
+   */
+  protected synchronized ProxyInfo<T> getProxy(int index) {
+    AddressRpcProxyPair<T> current = proxies.get(index);
     if (current.namenode == null) {
       try {
         current.namenode = NameNodeProxies.createNonHAProxy(conf,
-            current.address, xface, ugi, false, fallbackToSimpleAuth).getProxy();
+            current.address, xface, ugi, false, fallbackToSimpleAuth,
+            getAlignmentContext()).getProxy();
       } catch (IOException e) {
         LOG.error("Failed to create RPC proxy to NameNode", e);
         throw new RuntimeException(e);
@@ -131,6 +140,27 @@ public synchronized ProxyInfo<T> getProxy() {
     return new ProxyInfo<T>(current.namenode, current.address.toString());
   }
 
+  /**
+   * @return the number of configured NameNodes
+   */
+  protected int getProxyCount() {
+    return proxies.size();
+  }
+
+  /**
+   * @return the index of the NameNode {@link #getProxy()} connects to
+   */
+  protected synchronized int getCurrentProxyIndex() {
+    return currentProxyIndex;
+  }
+
+  /**
+   * @return the state the calls of the proxies carry, or null
+   */
+  protected AlignmentContext getAlignmentContext() {
+    return null;
+  }
+
   @Override
   public synchronized void performFailover(T currentProxy) {
     currentProxyIndex = (currentProxyIndex + 1) % proxies.size();
@@ -23,6 +23,7 @@
 import java.security.PrivilegedAction;
 import java.security.PrivilegedExceptionAction;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -98,6 +99,13 @@ public class EditLogTailer {
    * available to be read from.
    */
   private final long sleepTimeMs;
+
+  /**
+   * Whether the Standby reads the in-progress segment too, instead of only
+   * the finalized ones. The Standby then keeps tailing without sleeping as
+   * long as there are new edits.
+   */
+  private final boolean inProgressOk;
   
   public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
     this.tailerThread = new EditLogTailerThread();
@@ -121,11 +129,30 @@ public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
           DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY + " is negative.");
     }
     
-    sleepTimeMs = conf.getInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
-        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT) * 1000;
+    sleepTimeMs = getTailPeriodMs(conf);
+    inProgressOk = conf.getBoolean(
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_DEFAULT);
     
     LOG.debug("logRollPeriodMs=" + logRollPeriodMs +
-        " sleepTime=" + sleepTimeMs);
+        " sleepTime=" + sleepTimeMs + " inProgressOk=" + inProgressOk);
+  }
+
+  /**
+   * @return the tailing period in msec. A plain number is in seconds, for
+   *         compatibility; a number with a unit suffix, e.g. "100ms", may be
+   *         used for a shorter period.
+   */
+  @VisibleForTesting
+  static long getTailPeriodMs(Configuration conf) {
+    String period = conf.getTrimmed(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY);
+    if (period == null || period.matches("-?\\d+")) {
+      return conf.getInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
+          DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT) * 1000L;
+    }
+    return conf.getTimeDuration(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT * 1000L,
+        TimeUnit.MILLISECONDS);
   }
   
   private InetSocketAddress getActiveNodeAddress() {
@@ -194,8 +221,11 @@ public Void run() throws Exception {
     });
   }
   
+  /**
+   * @return the number of edits loaded
+   */
   @VisibleForTesting
-  void doTailEdits() throws IOException, InterruptedException {
+  long doTailEdits() throws IOException, InterruptedException {
     // Write lock needs to be interruptible here because the 
     // transitionToActive RPC takes the write lock before calling
     // tailer.stop() -- so if we're not interruptible, it will
@@ -211,14 +241,15 @@ void doTailEdits() throws IOException, InterruptedException {
       }
       Collection<EditLogInputStream> streams;
       try {
-        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null, false);
+        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null,
+            inProgressOk);
       } catch (IOException ioe) {
         // This is acceptable. If we try to tail edits in the middle of an edits
         // log roll, i.e. the last one has been finalized but the new inprogress
         // edits file hasn't been started yet.
         LOG.warn("Edits tailer failed to find any streams. Will try again " +
             "later.", ioe);
-        return;
+        return 0;
       }
       if (LOG.isDebugEnabled()) {
         LOG.debug("edit streams to load from: " + streams.size());
@@ -244,8 +275,9 @@ void doTailEdits() throws IOException, InterruptedException {
         lastLoadTimeMs = monotonicNow();
       }
       lastLoadedTxnId = image.getLastAppliedTxId();
+      return editsLoaded;
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("doTailEdits");
     }
   }
 
@@ -306,6 +338,7 @@ public Object run() {
     
     private void doWork() {
       while (shouldRun) {
+        long editsTailed = 0;
         try {
           // There's no point in triggering a log roll if the Standby hasn't
           // read any more transactions since the last time a roll was
@@ -328,7 +361,7 @@ private void doWork() {
           // state updates.
           namesystem.cpLockInterruptibly();
           try {
-            doTailEdits();
+            editsTailed = doTailEdits();
           } finally {
             namesystem.cpUnlock();
           }
@@ -343,6 +376,10 @@ private void doWork() {
           terminate(1, t);
         }
 
+        if (inProgressOk && editsTailed > 0) {
+          // there may be more edits already; keep up with the active
+          continue;
+        }
         try {
           Thread.sleep(sleepTimeMs);
         } catch (InterruptedException e) {
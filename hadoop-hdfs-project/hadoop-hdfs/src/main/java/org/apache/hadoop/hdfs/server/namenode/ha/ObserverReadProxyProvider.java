@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.ClientGSIContext;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.StandbyException;
+
+/**
+ * A {@link ConfiguredFailoverProxyProvider} which sends the {@link ReadOnly}
+ * calls to the StandbyNodes, and all the other calls to the active NameNode.
+ * <p>
+ * All the proxies share a {@link ClientGSIContext}, so every call carries the
+ * highest transaction id the client has seen, and a StandbyNode holds the
+ * call until it has applied that transaction. A client therefore never reads
+ * a namespace older than the one it has observed, e.g. it reads its own
+ * writes. This needs dfs.namenode.state.context.enabled on the NameNodes.
+ * <p>
+ * A read which a StandbyNode rejects, e.g. because it did not catch up in
+ * time, or which cannot reach any StandbyNode, is sent to the active
+ * NameNode instead. So are the block locations a StandbyNode returns without
+ * the locations of some block, e.g. because the DataNodes have not reported
+ * the block to it yet.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class ObserverReadProxyProvider<T>
+    extends ConfiguredFailoverProxyProvider<T> {
+
+  private static final Log LOG =
+      LogFactory.getLog(ObserverReadProxyProvider.class);
+
+  private final AlignmentContext alignmentContext = new ClientGSIContext();
+  private final T observerProxy;
+
+  @SuppressWarnings("unchecked")
+  public ObserverReadProxyProvider(Configuration conf, URI uri,
+      Class<T> xface) {
+    super(conf, uri, xface);
+    observerProxy = (T) Proxy.newProxyInstance(xface.getClassLoader(),
+        new Class<?>[] { xface }, new ObserverReadInvocationHandler());
+  }
+
+  @Override
+  protected AlignmentContext getAlignmentContext() {
+    return alignmentContext;
+  }
+
+  @Override
+  public synchronized ProxyInfo<T> getProxy() {
+    return new ProxyInfo<T>(observerProxy, super.getProxy().proxyInfo);
+  }
+
+  /**
+   * Tries the {@link ReadOnly} calls on the NameNodes other than the current
+   * one first, and sends all the other calls to the current NameNode, so
+   * that the failover of the writes is still driven by the retry policy.
+   */
+  private class ObserverReadInvocationHandler implements InvocationHandler {
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      if (method.isAnnotationPresent(ReadOnly.class)) {
+        final int count = getProxyCount();
+        final int current = getCurrentProxyIndex();
+        for (int i = 1; i < count; i++) {
+          final ProxyInfo<T> standby = getProxy((current + i) % count);
+          try {
+            final Object result = method.invoke(standby.proxy, args);
+            if (!hasMissingLocations(result)) {
+              return result;
+            }
+            if (LOG.isDebugEnabled()) {
+              LOG.debug(standby.proxyInfo + " returned a block without "
+                  + "locations for " + method.getName()
+                  + ", reading from the active NameNode");
+            }
+            break;
+          } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (!shouldTryNext(cause)) {
+              throw cause;
+            }
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Failed to read from " + standby.proxyInfo
+                  + ", trying the next NameNode: " + cause);
+            }
+          }
+        }
+      }
+      try {
+        return method.invoke(ObserverReadProxyProvider.super.getProxy().proxy,
+            args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    /**
+     * @return whether the result holds a block without any location
+     */
+    private boolean hasMissingLocations(Object result) {
+      if (!(result instanceof LocatedBlocks)) {
+        return false;
+      }
+      final LocatedBlocks blocks = (LocatedBlocks) result;
+      for (LocatedBlock b : blocks.getLocatedBlocks()) {
+        if (b.getLocations().length == 0) {
+          return true;
+        }
+      }
+      final LocatedBlock last = blocks.getLastLocatedBlock();
+      return last != null && last.getLocations().length == 0;
+    }
+
+    /**
+     * @return whether the read failed because of the NameNode which served
+     *         it rather than because of the namespace
+     */
+    private boolean shouldTryNext(Throwable t) {
+      if (t instanceof RemoteException) {
+        return StandbyException.class.getName().equals(
+            ((RemoteException) t).getClassName());
+      }
+      return t instanceof IOException;
+    }
+  }
+}
@@ -24,6 +24,7 @@
 import org.apache.hadoop.ha.HAServiceProtocol.HAServiceState;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.hdfs.server.namenode.NameNode.OperationCategory;
+import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.ipc.StandbyException;
 
 /**
@@ -82,6 +83,11 @@ public void checkOperation(HAContext context, OperationCategory op)
         (op == OperationCategory.READ && context.allowStaleReads())) {
       return;
     }
+    // the RPC server has already held the call to a ReadOnly method until
+    // this NameNode applied all the transactions its client has seen
+    if (op == OperationCategory.READ && Server.isCoordinatedCall()) {
+      return;
+    }
     String msg = "Operation category " + op + " is not supported in state "
         + context.getState();
     throw new StandbyException(msg);
@@ -149,6 +149,18 @@ public interface FSNamesystemMBean {
    */
   public int getNumDecommissioningDataNodes();
 
+  /**
+   * Number of data nodes waiting for the decommission monitor to start
+   * tracking them
+   */
+  public int getNumPendingDecommissionDataNodes();
+
+  /**
+   * Number of insufficiently replicated blocks which keep the tracked
+   * decommissioning data nodes from being decommissioned
+   */
+  public long getNumPendingDecommissionBlocks();
+
   /**
    * The statistics of snapshots
    */
@@ -20,6 +20,9 @@
 import static org.apache.hadoop.metrics2.impl.MsInfo.ProcessName;
 import static org.apache.hadoop.metrics2.impl.MsInfo.SessionId;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.NamenodeRole;
@@ -112,6 +115,21 @@ public long totalFileOps(){
   @Metric("Cache report") MutableRate cacheReport;
   final MutableQuantiles[] cacheReportQuantiles;
 
+  @Metric("Number of blocks scheduled for replication")
+  MutableCounterLong replicationWorkScheduled;
+  @Metric("Choosing the sources of the replication work, under the read lock")
+  MutableRate replicationWorkSources;
+  @Metric("Choosing the targets of the replication work, without the lock")
+  MutableRate replicationWorkTargets;
+  @Metric("Scheduling the replication work, under the write lock")
+  MutableRate replicationWorkSchedule;
+  @Metric("Number of pending replications completed")
+  MutableCounterLong pendingReplicationsCompleted;
+  @Metric("Number of pending replications timed out")
+  MutableCounterLong pendingReplicationsTimedOut;
+  @Metric("Number of blocks sent to the datanodes for deletion")
+  MutableCounterLong blocksDeletionScheduled;
+
   @Metric("Duration in SafeMode at startup in msec")
   MutableGaugeInt safeModeTime;
   @Metric("Time loading FS Image at startup in msec")
@@ -124,11 +142,22 @@ public long totalFileOps(){
   @Metric("GetImageServlet putImage")
   MutableRate putImage;
 
+  /**
+   * Namesystem lock wait and hold times in nanoseconds, keyed by metric name.
+   * Registered on first use of each operation name.
+   */
+  private final ConcurrentMap<String, MutableRate> lockRates =
+      new ConcurrentHashMap<String, MutableRate>();
+  private final ConcurrentMap<String, MutableQuantiles[]> lockQuantiles =
+      new ConcurrentHashMap<String, MutableQuantiles[]>();
+  private final int[] intervals;
+
   JvmMetrics jvmMetrics = null;
   
   NameNodeMetrics(String processName, String sessionId, int[] intervals,
       final JvmMetrics jvmMetrics) {
     this.jvmMetrics = jvmMetrics;
+    this.intervals = intervals;
     registry.tag(ProcessName, processName).tag(SessionId, sessionId);
     
     final int len = intervals.length;
@@ -275,6 +304,10 @@ public void incrTransactionsBatchedInSync() {
     transactionsBatchedInSync.incr();
   }
 
+  public void incrTransactionsBatchedInSync(long count) {
+    transactionsBatchedInSync.incr(count);
+  }
+
   public void addSync(long elapsed) {
     syncs.add(elapsed);
     for (MutableQuantiles q : syncsQuantiles) {
@@ -300,6 +333,26 @@ public void addCacheBlockReport(long latency) {
     }
   }
 
+  public void addReplicationWork(long sourcesTime, long targetsTime,
+      long scheduleTime, int scheduled) {
+    replicationWorkSources.add(sourcesTime);
+    replicationWorkTargets.add(targetsTime);
+    replicationWorkSchedule.add(scheduleTime);
+    replicationWorkScheduled.incr(scheduled);
+  }
+
+  public void incrPendingReplicationsCompleted() {
+    pendingReplicationsCompleted.incr();
+  }
+
+  public void incrPendingReplicationsTimedOut(int count) {
+    pendingReplicationsTimedOut.incr(count);
+  }
+
+  public void incrBlocksDeletionScheduled(int count) {
+    blocksDeletionScheduled.incr(count);
+  }
+
   public void setSafeModeTime(long elapsed) {
     safeModeTime.set((int) elapsed);
   }
@@ -315,4 +368,50 @@ public void addGetImage(long latency) {
   public void addPutImage(long latency) {
     putImage.add(latency);
   }
+
+  /**
+   * Add the time an operation waited for and held a namesystem lock.
+   * @param write whether it was the write lock
+   * @param opName the operation that released the lock
+   * @param waitNanos time spent waiting to acquire the lock
+   * @param heldNanos time the lock was held
+   */
+  public void addNamesystemLockTime(boolean write, String opName,
+      long waitNanos, long heldNanos) {
+    final String prefix = (write ? "FSNWriteLock" : "FSNReadLock");
+    final String op = opName.isEmpty() ? opName
+        : Character.toUpperCase(opName.charAt(0)) + opName.substring(1);
+    addLockTime(prefix + "Wait" + op, waitNanos);
+    addLockTime(prefix + "Hold" + op, heldNanos);
+  }
+
+  private void addLockTime(String name, long nanos) {
+    MutableRate rate = lockRates.get(name);
+    if (rate == null) {
+      rate = newLockMetric(name);
+    }
+    rate.add(nanos);
+    for (MutableQuantiles q : lockQuantiles.get(name)) {
+      q.add(nanos);
+    }
+  }
+
+  private synchronized MutableRate newLockMetric(String name) {
+    MutableRate rate = lockRates.get(name);
+    if (rate != null) {
+      return rate;
+    }
+    final MutableQuantiles[] quantiles = new MutableQuantiles[intervals.length];
+    for (int i = 0; i < intervals.length; i++) {
+      int interval = intervals[i];
+      quantiles[i] = registry.newQuantiles(name + interval + "s",
+          "Namesystem lock time in nanoseconds " + name, "ops", "latency",
+          interval);
+    }
+    // Publish the quantiles first, a non-null rate implies they exist.
+    lockQuantiles.put(name, quantiles);
+    rate = registry.newRate(name, "Namesystem lock time " + name, false);
+    lockRates.put(name, rate);
+    return rate;
+  }
 }
@@ -107,7 +107,9 @@ public final QuotaCounts deleteSnapshotDiff(BlockStoragePolicySuite bsps,
 
   /** Add an {@link AbstractINodeDiff} for the given snapshot. */
   final D addDiff(int latestSnapshotId, N currentINode) {
-    return addLast(createDiff(latestSnapshotId, currentINode));
+    final D diff = addLast(createDiff(latestSnapshotId, currentINode));
+    currentINode.recordSubtreeDiff(latestSnapshotId);
+    return diff;
   }
 
   /** Append the diff at the end of the list. */
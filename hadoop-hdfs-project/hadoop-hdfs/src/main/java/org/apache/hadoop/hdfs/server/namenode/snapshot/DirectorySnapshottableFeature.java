@@ -278,7 +278,7 @@ SnapshotDiffInfo computeDiff(final INodeDirectory snapshotRoot,
    * @throws SnapshotException If snapshotName is not null or empty, but there
    *           is no snapshot matching the name.
    */
-  private Snapshot getSnapshotByName(INodeDirectory snapshotRoot,
+  Snapshot getSnapshotByName(INodeDirectory snapshotRoot,
       String snapshotName) throws SnapshotException {
     Snapshot s = null;
     if (snapshotName != null && !snapshotName.isEmpty()) {
@@ -311,6 +311,10 @@ private void computeDiffRecursively(final INodeDirectory snapshotRoot,
     if (node.isDirectory()) {
       final ChildrenDiff diff = new ChildrenDiff();
       INodeDirectory dir = node.asDirectory();
+      if (dir.getSubtreeDiffSnapshotId() < earlierSnapshot.getId()) {
+        // nothing in the subtree changed since the earlier snapshot
+        return;
+      }
       DirectoryWithSnapshotFeature sf = dir.getDirectoryWithSnapshotFeature();
       if (sf != null) {
         boolean change = sf.computeDiffBetweenSnapshots(earlierSnapshot,
@@ -256,6 +256,9 @@ private void loadFileDiffList(InputStream in, INodeFile file, int size)
         diffs.addFirst(diff);
       }
       file.addSnapshotFeature(diffs);
+      if (diffs.getLast() != null) {
+        file.recordSubtreeDiff(diffs.getLastSnapshotId());
+      }
     }
 
     /** Load the created list in a DirectoryDiff */
@@ -386,6 +389,9 @@ private void loadDirectoryDiffList(InputStream in, INodeDirectory dir,
             childrenSize, clist, dlist, useRoot);
         diffs.addFirst(diff);
       }
+      if (diffs.getLast() != null) {
+        dir.recordSubtreeDiff(diffs.getLastSnapshotId());
+      }
     }
   }
 
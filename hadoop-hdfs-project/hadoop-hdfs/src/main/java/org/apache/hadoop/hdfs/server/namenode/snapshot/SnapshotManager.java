@@ -25,12 +25,14 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.ObjectName;
 
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshotException;
 import org.apache.hadoop.hdfs.protocol.SnapshotInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
@@ -45,6 +47,9 @@
 import org.apache.hadoop.metrics2.util.MBeans;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 
 /**
  * Manage snapshottable directories and their snapshots.
@@ -71,6 +76,34 @@ public class SnapshotManager implements SnapshotStatsMXBean {
   private final Map<Long, INodeDirectory> snapshottables =
       new HashMap<Long, INodeDirectory>();
 
+  /**
+   * Max number of diff report entries, over all the reports, kept for paged
+   * listing. A larger report is computed again for every page.
+   */
+  private static final int DIFF_LISTING_CACHE_MAX_ENTRIES = 1000000;
+  /** How long a report is kept after its last page was listed. */
+  private static final long DIFF_LISTING_CACHE_EXPIRY_MS =
+      TimeUnit.MINUTES.toMillis(5);
+
+  /**
+   * Snapshot diff reports that are being listed in pages, keyed by the
+   * snapshottable directory and the ids of the two snapshots. A diff between
+   * two snapshots never changes, so the later pages are served without
+   * computing the diff again. The reports of abandoned listings expire.
+   */
+  private final Cache<String, List<DiffReportEntry>> diffListingCache =
+      CacheBuilder.newBuilder()
+          .maximumWeight(DIFF_LISTING_CACHE_MAX_ENTRIES)
+          .weigher(new Weigher<String, List<DiffReportEntry>>() {
+            @Override
+            public int weigh(String key, List<DiffReportEntry> entries) {
+              return entries.size();
+            }
+          })
+          .expireAfterAccess(DIFF_LISTING_CACHE_EXPIRY_MS,
+              TimeUnit.MILLISECONDS)
+          .build();
+
   public SnapshotManager(final FSDirectory fsdir) {
     this.fsdir = fsdir;
   }
@@ -217,6 +250,7 @@ public String createSnapshot(final INodesInPath iip, String snapshotRoot,
     }
 
     srcRoot.addSnapshot(snapshotCounter, snapshotName);
+    fsdir.invalidateContentSummaries(iip, iip.length());
       
     //create success, update id
     snapshotCounter++;
@@ -236,6 +270,7 @@ public void deleteSnapshot(final INodesInPath iip, final String snapshotName,
     INodeDirectory srcRoot = getSnapshottableRoot(iip);
     srcRoot.removeSnapshot(fsdir.getBlockStoragePolicySuite(), snapshotName,
         collectedBlocks, removedINodes);
+    fsdir.invalidateContentSummaries(iip, iip.length());
     numSnapshots.getAndDecrement();
   }
 
@@ -375,6 +410,52 @@ public SnapshotDiffReport diff(final INodesInPath iip,
         snapshotRootPath, from, to, Collections.<DiffReportEntry> emptyList());
   }
   
+  /**
+   * Compute a part of the difference between two snapshots of a directory,
+   * or between a snapshot of the directory and its current tree. At most
+   * limit entries are returned, starting from the given index of the full
+   * report.
+   */
+  public SnapshotDiffReportListing diffListing(final INodesInPath iip,
+      final String snapshotRootPath, final String from, final String to,
+      final int startIndex, final int limit) throws IOException {
+    if (startIndex < 0) {
+      throw new IllegalArgumentException("Negative start index " + startIndex);
+    }
+    final INodeDirectory snapshotRoot = getSnapshottableRoot(iip);
+    final DirectorySnapshottableFeature sf =
+        snapshotRoot.getDirectorySnapshottableFeature();
+    final Snapshot fromSnapshot = sf.getSnapshotByName(snapshotRoot, from);
+    final Snapshot toSnapshot = sf.getSnapshotByName(snapshotRoot, to);
+    // the current tree may change between calls, so only a diff between two
+    // snapshots is kept
+    final String key = fromSnapshot != null && toSnapshot != null ?
+        snapshotRoot.getId() + ":" + fromSnapshot.getId() + ":"
+            + toSnapshot.getId() : null;
+
+    List<DiffReportEntry> entries = null;
+    if (key != null && startIndex > 0) {
+      entries = diffListingCache.getIfPresent(key);
+    }
+    if (entries == null) {
+      entries = diff(iip, snapshotRootPath, from, to).getDiffList();
+    }
+
+    final int begin = Math.min(startIndex, entries.size());
+    final int end = Math.min(begin + limit, entries.size());
+    final int remaining = entries.size() - end;
+    if (key != null) {
+      if (remaining > 0) {
+        diffListingCache.put(key, entries);
+      } else {
+        diffListingCache.invalidate(key);
+      }
+    }
+    return new SnapshotDiffReportListing(
+        new ArrayList<DiffReportEntry>(entries.subList(begin, end)),
+        begin < end ? remaining : 0);
+  }
+
   public void clearSnapshottableDirs() {
     snapshottables.clear();
   }
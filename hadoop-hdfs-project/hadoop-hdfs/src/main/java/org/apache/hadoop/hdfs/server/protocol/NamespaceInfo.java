@@ -51,7 +51,8 @@ public class NamespaceInfo extends StorageInfo {
 
   public enum Capability {
     UNKNOWN(false),
-    STORAGE_BLOCK_REPORT_BUFFERS(true); // use optimized ByteString buffers
+    STORAGE_BLOCK_REPORT_BUFFERS(true), // use optimized ByteString buffers
+    STORAGE_BLOCK_REPORT_HASH(true); // accept hash-only block reports
     private final long mask;
     Capability(boolean isSupported) {
       int bits = ordinal() - 1;
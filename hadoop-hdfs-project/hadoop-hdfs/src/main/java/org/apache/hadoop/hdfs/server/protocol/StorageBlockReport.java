@@ -21,15 +21,30 @@
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 
 /**
- * Block report for a Datanode storage
+ * Block report for a Datanode storage.
+ * A hash-only report lists no blocks. It carries the hash of the finalized
+ * replicas of the storage instead, see
+ * {@link BlockListAsLongs#getFinalizedReplicaHash()}.
  */
 public class StorageBlockReport {
   private final DatanodeStorage storage;
   private final BlockListAsLongs blocks;
+  private final boolean hashOnly;
+  private final long replicaHash;
   
   public StorageBlockReport(DatanodeStorage storage, BlockListAsLongs blocks) {
     this.storage = storage;
     this.blocks = blocks;
+    this.hashOnly = false;
+    this.replicaHash = 0;
+  }
+
+  /** Create a hash-only report. */
+  public StorageBlockReport(DatanodeStorage storage, long replicaHash) {
+    this.storage = storage;
+    this.blocks = BlockListAsLongs.EMPTY;
+    this.hashOnly = true;
+    this.replicaHash = replicaHash;
   }
 
   public DatanodeStorage getStorage() {
@@ -39,4 +54,12 @@ public DatanodeStorage getStorage() {
   public BlockListAsLongs getBlocks() {
     return blocks;
   }
+
+  public boolean isHashOnly() {
+    return hashOnly;
+  }
+
+  public long getReplicaHash() {
+    return replicaHash;
+  }
 }
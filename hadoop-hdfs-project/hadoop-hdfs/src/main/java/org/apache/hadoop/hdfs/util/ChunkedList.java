@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A list which stores its elements in a sequence of bounded chunks, so that
+ * inserting or removing an element at an arbitrary index only shifts the
+ * elements of one chunk, and the list never needs a single large array.
+ * Locating an index takes a binary search over the chunks.
+ *
+ * This class does not support null elements and is not thread safe.
+ */
+@InterfaceAudience.Private
+public class ChunkedList<E> extends AbstractList<E> implements RandomAccess {
+  private final int maxChunkSize;
+  private final ArrayList<ArrayList<E>> chunks = new ArrayList<ArrayList<E>>();
+  /** ends[i] is the number of elements in the chunks 0 to i. */
+  private int[] ends = new int[0];
+  private int size = 0;
+
+  /**
+   * @param maxChunkSize the maximum number of elements in a chunk; a full
+   *                     chunk is split in two on the next insertion.
+   */
+  public ChunkedList(int maxChunkSize) {
+    Preconditions.checkArgument(maxChunkSize > 1,
+        "maxChunkSize must be greater than 1: %s", maxChunkSize);
+    this.maxChunkSize = maxChunkSize;
+  }
+
+  /** Create a list holding the elements of the given collection. */
+  public ChunkedList(int maxChunkSize, Collection<? extends E> c) {
+    this(maxChunkSize);
+    List<E> elements = new ArrayList<E>(c);
+    for (int i = 0; i < elements.size(); i += maxChunkSize) {
+      chunks.add(new ArrayList<E>(elements.subList(i,
+          Math.min(i + maxChunkSize, elements.size()))));
+    }
+    size = elements.size();
+    updateEnds();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public E get(int index) {
+    checkIndex(index);
+    int c = chunkOf(index);
+    return chunks.get(c).get(index - start(c));
+  }
+
+  @Override
+  public E set(int index, E element) {
+    Preconditions.checkNotNull(element);
+    checkIndex(index);
+    int c = chunkOf(index);
+    return chunks.get(c).set(index - start(c), element);
+  }
+
+  @Override
+  public void add(int index, E element) {
+    Preconditions.checkNotNull(element);
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("index=" + index + ", size=" + size);
+    }
+    if (chunks.isEmpty()) {
+      chunks.add(new ArrayList<E>());
+      ends = new int[1];
+    }
+    // appending goes to the last chunk, otherwise insert before the element
+    // currently at the index.
+    int c = index == size ? chunks.size() - 1 : chunkOf(index);
+    ArrayList<E> chunk = chunks.get(c);
+    chunk.add(index - start(c), element);
+    size++;
+    modCount++;
+    if (chunk.size() > maxChunkSize) {
+      int half = chunk.size() / 2;
+      List<E> tail = chunk.subList(half, chunk.size());
+      chunks.add(c + 1, new ArrayList<E>(tail));
+      tail.clear();
+      chunk.trimToSize();
+      updateEnds();
+    } else {
+      adjustEnds(c, 1);
+    }
+  }
+
+  @Override
+  public E remove(int index) {
+    checkIndex(index);
+    int c = chunkOf(index);
+    ArrayList<E> chunk = chunks.get(c);
+    E removed = chunk.remove(index - start(c));
+    size--;
+    modCount++;
+    if (chunk.isEmpty()) {
+      chunks.remove(c);
+      updateEnds();
+    } else if (c + 1 < chunks.size()
+        && chunk.size() + chunks.get(c + 1).size() <= maxChunkSize / 2) {
+      // merge sparse neighbours so that removals do not leave many tiny
+      // chunks behind.
+      chunk.addAll(chunks.remove(c + 1));
+      updateEnds();
+    } else {
+      adjustEnds(c, -1);
+    }
+    return removed;
+  }
+
+  @Override
+  public void clear() {
+    chunks.clear();
+    ends = new int[0];
+    size = 0;
+    modCount++;
+  }
+
+  /** @return the number of chunks, for testing. */
+  int getNumChunks() {
+    return chunks.size();
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("index=" + index + ", size=" + size);
+    }
+  }
+
+  private int start(int chunk) {
+    return chunk == 0 ? 0 : ends[chunk - 1];
+  }
+
+  /** @return the chunk holding the element at the given valid index. */
+  private int chunkOf(int index) {
+    int i = Arrays.binarySearch(ends, 0, chunks.size(), index);
+    // ends[i] == index means the element starts the next chunk.
+    return i >= 0 ? i + 1 : -i - 1;
+  }
+
+  private void adjustEnds(int fromChunk, int delta) {
+    for (int i = fromChunk; i < chunks.size(); i++) {
+      ends[i] += delta;
+    }
+  }
+
+  private void updateEnds() {
+    if (ends.length < chunks.size()) {
+      ends = new int[chunks.size() * 2];
+    }
+    int total = 0;
+    for (int i = 0; i < chunks.size(); i++) {
+      total += chunks.get(i).size();
+      ends[i] = total;
+    }
+  }
+}
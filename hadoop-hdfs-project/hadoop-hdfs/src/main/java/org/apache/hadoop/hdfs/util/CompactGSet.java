@@ -0,0 +1,281 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.util.GSet;
+import org.apache.hadoop.util.LightWeightGSet;
+
+/**
+ * A {@link GSet} of elements identified by a long id, which stores the
+ * elements in a single open addressing table with linear probing.
+ *
+ * Unlike {@link LightWeightGSet}, the elements are not chained through a
+ * reference they hold, so a lookup only reads consecutive slots of one array
+ * and does not need a key object. The table grows with the set, instead of
+ * being allocated for the expected number of elements up front.
+ *
+ * This class does not support null element, and is not thread safe.
+ */
+@InterfaceAudience.Private
+public abstract class CompactGSet<K, E extends K> implements GSet<K, E> {
+  static final float MAX_LOAD_FACTOR = 0.75f;
+  static final int MINIMUM_CAPACITY = 16;
+  static final int MAXIMUM_CAPACITY = 1 << 30;
+
+  /** The slots of the table. The length is a power of two. */
+  private Object[] entries;
+  /** 64 - log2(entries.length), to take the top bits of the hash. */
+  private int shift;
+  private int expandThreshold;
+  private int size = 0;
+
+  /**
+   * Modification version for fail-fast.
+   * @see ConcurrentModificationException
+   */
+  private int modification = 0;
+
+  /**
+   * @param initCapacity the number of elements the table is first sized for
+   */
+  protected CompactGSet(int initCapacity) {
+    int capacity = MINIMUM_CAPACITY;
+    while (capacity < MAXIMUM_CAPACITY
+        && capacity * MAX_LOAD_FACTOR < initCapacity) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  /**
+   * @return the id of the given element, or of the elements equal to the
+   *         given key
+   */
+  protected abstract long getId(K key);
+
+  private void allocate(int capacity) {
+    entries = new Object[capacity];
+    shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    expandThreshold = capacity == MAXIMUM_CAPACITY ? capacity - 1
+        : (int) (capacity * MAX_LOAD_FACTOR);
+  }
+
+  /** @return the slot where the lookup of the given id starts */
+  private int getIndex(long id) {
+    // Fibonacci hashing spreads the sequential inode and block ids evenly
+    return (int) ((id * 0x9E3779B97F4A7C15L) >>> shift);
+  }
+
+  @SuppressWarnings("unchecked")
+  private E getEntry(int index) {
+    return (E) entries[index];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /** @return the number of slots of the table */
+  public int getCapacity() {
+    return entries.length;
+  }
+
+  @Override
+  public boolean contains(K key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public E get(K key) {
+    if (key == null) {
+      throw new NullPointerException("key == null");
+    }
+    return get(getId(key));
+  }
+
+  /**
+   * @return the element with the given id, or null if there is none
+   */
+  public E get(long id) {
+    final int mask = entries.length - 1;
+    for (int i = getIndex(id); ; i = (i + 1) & mask) {
+      final E e = getEntry(i);
+      if (e == null || getId(e) == id) {
+        return e;
+      }
+    }
+  }
+
+  @Override
+  public E put(E element) {
+    if (element == null) {
+      throw new NullPointerException("Null element is not supported.");
+    }
+    final long id = getId(element);
+    final int mask = entries.length - 1;
+    int i = getIndex(id);
+    for (E e; (e = getEntry(i)) != null; i = (i + 1) & mask) {
+      if (getId(e) == id) {
+        entries[i] = element;
+        modification++;
+        return e;
+      }
+    }
+    if (size == expandThreshold && entries.length == MAXIMUM_CAPACITY) {
+      throw new IllegalStateException("The set is full: size=" + size);
+    }
+    entries[i] = element;
+    size++;
+    modification++;
+    if (size > expandThreshold) {
+      resize(entries.length << 1);
+    }
+    return null;
+  }
+
+  private void resize(int capacity) {
+    final Object[] old = entries;
+    allocate(capacity);
+    final int mask = capacity - 1;
+    for (Object o : old) {
+      if (o != null) {
+        @SuppressWarnings("unchecked")
+        final E e = (E) o;
+        int i = getIndex(getId(e));
+        while (entries[i] != null) {
+          i = (i + 1) & mask;
+        }
+        entries[i] = e;
+      }
+    }
+  }
+
+  @Override
+  public E remove(K key) {
+    if (key == null) {
+      throw new NullPointerException("key == null");
+    }
+    final long id = getId(key);
+    final int mask = entries.length - 1;
+    int i = getIndex(id);
+    E removed;
+    for (; ; i = (i + 1) & mask) {
+      removed = getEntry(i);
+      if (removed == null) {
+        return null;
+      } else if (getId(removed) == id) {
+        break;
+      }
+    }
+    // Move back the following elements of the run which would no longer be
+    // found once slot i is empty, i.e. those whose lookup starts at or
+    // before slot i.
+    for (int j = (i + 1) & mask; entries[j] != null; j = (j + 1) & mask) {
+      final int start = getIndex(getId(getEntry(j)));
+      if (((j - start) & mask) >= ((j - i) & mask)) {
+        entries[i] = entries[j];
+        i = j;
+      }
+    }
+    entries[i] = null;
+    size--;
+    modification++;
+    return removed;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(entries, null);
+    size = 0;
+    modification++;
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    return new SetIterator();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(size=" + size
+        + ", capacity=" + entries.length + ")";
+  }
+
+  /**
+   * Iterator over the slots of the table. It does not support
+   * {@link #remove()}, since removing an element may move another one to a
+   * slot the iterator has already visited.
+   */
+  public class SetIterator implements Iterator<E> {
+    /** The starting modification for fail-fast. */
+    private final int iterModification = modification;
+    /** The index of the next slot to look at. */
+    private int index = 0;
+    private E next = null;
+    private boolean trackModification = true;
+
+    private void ensureNext() {
+      if (trackModification && modification != iterModification) {
+        throw new ConcurrentModificationException("modification="
+            + modification + " != iterModification = " + iterModification);
+      }
+      // the table is replaced when it grows, so its length is read again
+      while (next == null && index < entries.length) {
+        next = getEntry(index++);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      ensureNext();
+      return next != null;
+    }
+
+    @Override
+    public E next() {
+      ensureNext();
+      if (next == null) {
+        throw new NoSuchElementException("There are no more elements");
+      }
+      final E e = next;
+      next = null;
+      return e;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Remove is not supported.");
+    }
+
+    /**
+     * Set whether the iterator fails when the set is modified. If it does
+     * not, the elements added, or moved by other changes, during the
+     * iteration may be missed or returned twice.
+     */
+    public void setTrackModification(boolean trackModification) {
+      this.trackModification = trackModification;
+    }
+  }
+}
@@ -39,4 +39,36 @@ public interface RwLock {
 
   /** Check if the current thread holds write lock. */
   public boolean hasWriteLock();
+
+  /** Acquire read lock for the given part of the state. */
+  public void readLock(RwLockMode mode);
+
+  /** Release read lock for the given part of the state. */
+  public void readUnlock(RwLockMode mode);
+
+  /** Release read lock, attributing the hold time to the operation. */
+  public void readUnlock(String opName);
+
+  /** Release read lock for the given part of the state, attributing the
+   * hold time to the operation. */
+  public void readUnlock(RwLockMode mode, String opName);
+
+  /** Check if the current thread holds read lock for the given mode. */
+  public boolean hasReadLock(RwLockMode mode);
+
+  /** Acquire write lock for the given part of the state. */
+  public void writeLock(RwLockMode mode);
+
+  /** Release write lock for the given part of the state. */
+  public void writeUnlock(RwLockMode mode);
+
+  /** Release write lock, attributing the hold time to the operation. */
+  public void writeUnlock(String opName);
+
+  /** Release write lock for the given part of the state, attributing the
+   * hold time to the operation. */
+  public void writeUnlock(RwLockMode mode, String opName);
+
+  /** Check if the current thread holds write lock for the given mode. */
+  public boolean hasWriteLock(RwLockMode mode);
 }
@@ -0,0 +1,34 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * The part of the namesystem state a {@link RwLock} acquisition protects.
+ * When fine-grained locking is disabled all modes map to the same lock.
+ */
+@InterfaceAudience.Private
+public enum RwLockMode {
+  /** Both the namespace and the block manager state. */
+  GLOBAL,
+  /** The namespace only: inodes, leases, quotas, snapshots. */
+  FS,
+  /** The block manager only: blocks map and replication queues. */
+  BM
+}
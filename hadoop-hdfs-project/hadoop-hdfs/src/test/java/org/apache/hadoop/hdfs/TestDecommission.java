@@ -1045,6 +1045,49 @@ public void testBlocksPerInterval() throws Exception {
     doDecomCheck(datanodeManager, decomManager, 1);
   }
 
+  @Test(timeout=120000)
+  public void testBlocksPerLock() throws Exception {
+    Configuration newConf = new Configuration(conf);
+    // Release the lock after every tracked block
+    newConf.setInt(DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_BLOCKS_PER_LOCK_KEY,
+        1);
+    // Disable the normal monitor runs
+    newConf.setInt(DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_INTERVAL_KEY,
+        Integer.MAX_VALUE);
+    startCluster(1, 3, newConf);
+    final FileSystem fs = cluster.getFileSystem();
+    final FSNamesystem ns = cluster.getNamesystem();
+    final DatanodeManager datanodeManager =
+        ns.getBlockManager().getDatanodeManager();
+    final DecommissionManager decomManager = datanodeManager.getDecomManager();
+
+    // With a replication of 3 on 3 nodes, no block can leave the node
+    for (int i = 0; i < 5; i++) {
+      DFSTestUtil.createFile(fs, new Path("/file" + i), 64, (short) 3,
+          0xBAD1DEA);
+    }
+    final DataNode d = cluster.getDataNodes().get(0);
+    DatanodeInfo dn = decommissionNode(0, d.getDatanodeUuid(), null,
+        AdminStates.DECOMMISSION_INPROGRESS);
+    assertEquals(1, ns.getNumPendingDecommissionDataNodes());
+    BlockManagerTestUtil.recheckDecommissionState(datanodeManager);
+    assertEquals(0, ns.getNumPendingDecommissionDataNodes());
+    assertEquals(5, ns.getNumPendingDecommissionBlocks());
+    // The tracked blocks are pruned one lock hold at a time
+    BlockManagerTestUtil.recheckDecommissionState(datanodeManager);
+    assertEquals(1, decomManager.getNumTrackedNodes());
+    assertEquals(5, ns.getNumPendingDecommissionBlocks());
+
+    // Dropping the replication lets the node be decommissioned
+    for (int i = 0; i < 5; i++) {
+      fs.setReplication(new Path("/file" + i), (short) 2);
+    }
+    BlockManagerTestUtil.recheckDecommissionState(datanodeManager);
+    assertEquals(0, decomManager.getNumTrackedNodes());
+    assertEquals(0, ns.getNumPendingDecommissionBlocks());
+    assertTrue(datanodeManager.getDatanode(dn).isDecommissioned());
+  }
+
   @Deprecated
   @Test(timeout=120000)
   public void testNodesPerInterval() throws Exception {
@@ -52,6 +52,7 @@
 import org.apache.hadoop.fs.CreateFlag;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
 import org.apache.hadoop.fs.FsServerDefaults;
 import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.FileStatus;
@@ -65,11 +66,14 @@
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.MiniDFSCluster.DataNodeProperties;
 import org.apache.hadoop.hdfs.net.Peer;
+import org.apache.hadoop.hdfs.protocol.BatchedOpResult;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.server.datanode.DataNodeFaultInjector;
 import org.apache.hadoop.hdfs.server.namenode.ha.HATestUtil;
 import org.apache.hadoop.hdfs.web.HftpFileSystem;
 import org.apache.hadoop.hdfs.web.WebHdfsFileSystem;
 import org.apache.hadoop.ipc.ProtobufRpcEngine;
+import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.DataChecksum;
@@ -1043,4 +1047,165 @@ public void testGetServerDefaults() throws IOException {
       cluster.shutdown();
     }
   }
+
+  @Test(timeout=60000)
+  public void testBatchedNamespaceOps() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BATCHED_OPS_LIMIT_KEY, 4);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      final DistributedFileSystem dfs = cluster.getFileSystem();
+      final Path file = new Path("/file");
+      DFSTestUtil.createFile(dfs, file, 1024, (short) 1, 0L);
+      dfs.mkdirs(new Path("/private"), new FsPermission((short) 0700));
+
+      // mkdirs: the paths fail or succeed independently.
+      List<BatchedOpResult<Boolean>> created = dfs.mkdirs(new Path[] {
+          new Path("/a/b"), new Path("/file/c"), new Path("/d") },
+          FsPermission.getDefault());
+      assertEquals(3, created.size());
+      assertTrue(created.get(0).getValue());
+      assertTrue(created.get(1).getException()
+          instanceof FileAlreadyExistsException);
+      assertTrue(created.get(2).getValue());
+      assertTrue(dfs.exists(new Path("/a/b")));
+      assertTrue(dfs.exists(new Path("/d")));
+
+      // getFileInfo: missing paths and denied accesses fail per path.
+      final Path[] lookups = { file, new Path("/missing"),
+          new Path("/private/x"), new Path("/a") };
+      List<BatchedOpResult<FileStatus>> stats = dfs.getFileStatus(lookups);
+      assertEquals(1024, stats.get(0).getValue().getLen());
+      assertEquals(new Path(dfs.getUri().toString(), "/file"),
+          stats.get(0).getValue().getPath());
+      assertTrue(stats.get(1).getException() instanceof FileNotFoundException);
+      assertTrue(stats.get(3).getValue().isDirectory());
+
+      UserGroupInformation user = UserGroupInformation.createUserForTesting(
+          "someone", new String[] { "somegroup" });
+      stats = user.doAs(
+          new PrivilegedExceptionAction<List<BatchedOpResult<FileStatus>>>() {
+        @Override
+        public List<BatchedOpResult<FileStatus>> run() throws Exception {
+          DistributedFileSystem fs = (DistributedFileSystem)
+              FileSystem.newInstance(dfs.getUri(), dfs.getConf());
+          try {
+            return fs.getFileStatus(lookups);
+          } finally {
+            fs.close();
+          }
+        }
+      });
+      assertTrue(stats.get(0).isSuccess());
+      assertTrue(stats.get(2).getException() instanceof AccessControlException);
+
+      // delete: non-recursive delete of a non-empty directory fails alone.
+      List<BatchedOpResult<Boolean>> deleted = dfs.delete(new Path[] {
+          file, new Path("/a"), new Path("/missing"), new Path("/d") }, false);
+      assertTrue(deleted.get(0).getValue());
+      assertFalse(deleted.get(1).isSuccess());
+      assertFalse(deleted.get(2).getValue());
+      assertTrue(deleted.get(3).getValue());
+      assertFalse(dfs.exists(file));
+      assertTrue(dfs.exists(new Path("/a/b")));
+      assertFalse(dfs.exists(new Path("/d")));
+
+      // batches over the limit are rejected as a whole.
+      try {
+        dfs.getFileStatus(new Path[] { file, file, file, file, file });
+        fail("batch over the limit should fail");
+      } catch (IOException e) {
+        GenericTestUtils.assertExceptionContains("Too many paths", e);
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testRecursiveListing() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_LIST_LIMIT, 3);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      final DistributedFileSystem dfs = cluster.getFileSystem();
+      final Path root = new Path("/tree");
+      final String[] files = { "a/b/c/f1", "a/b/f2", "a/f3", "a/f4",
+          "d/f5", "f6", "g/h/i/j/f7" };
+      for (String f : files) {
+        DFSTestUtil.createFile(dfs, new Path(root, f), 1024, (short) 1, 0L);
+      }
+      dfs.mkdirs(new Path(root, "a/e"));
+
+      // files are listed depth-first in name order, over several batches.
+      List<String> listed = new ArrayList<String>();
+      RemoteIterator<LocatedFileStatus> itor = dfs.listFiles(root, true);
+      while (itor.hasNext()) {
+        LocatedFileStatus stat = itor.next();
+        assertEquals(1, stat.getBlockLocations().length);
+        listed.add(stat.getPath().toUri().getPath());
+      }
+      List<String> expected = new ArrayList<String>();
+      for (String f : files) {
+        expected.add("/tree/" + f);
+      }
+      assertEquals(expected, listed);
+
+      // the listing resumes after the relative path of the last entry.
+      DirectoryListing dl = dfs.getClient().listPathsRecursive("/tree",
+          DFSUtil.string2Bytes("a/b"), false);
+      assertEquals(3, dl.getPartialListing().length);
+      assertEquals("a/b/c", dl.getPartialListing()[0].getLocalName());
+      assertEquals("a/b/c/f1", dl.getPartialListing()[1].getLocalName());
+      assertEquals("a/b/f2", dl.getPartialListing()[2].getLocalName());
+      assertTrue(dl.hasMore());
+      dl = dfs.getClient().listPathsRecursive("/tree",
+          DFSUtil.string2Bytes("g/h/i/j"), false);
+      assertEquals(1, dl.getPartialListing().length);
+      assertEquals("g/h/i/j/f7", dl.getPartialListing()[0].getLocalName());
+      assertFalse(dl.hasMore());
+
+      // a file lists itself.
+      itor = dfs.listFiles(new Path(root, "f6"), true);
+      assertEquals(new Path(dfs.getUri().toString(), "/tree/f6"),
+          itor.next().getPath());
+      assertFalse(itor.hasNext());
+
+      try {
+        dfs.listFiles(new Path("/missing"), true);
+        fail("listing a missing path should fail");
+      } catch (FileNotFoundException e) {
+        // expected
+      }
+
+      // an unreadable directory in the subtree fails the listing.
+      dfs.setPermission(new Path(root, "d"), new FsPermission((short) 0700));
+      UserGroupInformation user = UserGroupInformation.createUserForTesting(
+          "someone", new String[] { "somegroup" });
+      user.doAs(new PrivilegedExceptionAction<Void>() {
+        @Override
+        public Void run() throws Exception {
+          FileSystem fs = FileSystem.newInstance(dfs.getUri(), dfs.getConf());
+          try {
+            RemoteIterator<LocatedFileStatus> itor = fs.listFiles(root, true);
+            while (itor.hasNext()) {
+              itor.next();
+            }
+            fail("listing an unreadable directory should fail");
+          } catch (AccessControlException e) {
+            // expected
+          } finally {
+            fs.close();
+          }
+          return null;
+        }
+      });
+    } finally {
+      cluster.shutdown();
+    }
+  }
 }
@@ -23,15 +23,19 @@
 
 import java.io.OutputStream;
 import java.security.PrivilegedExceptionAction;
+import java.util.EnumSet;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.client.HdfsDataOutputStream.SyncFlag;
 import org.apache.hadoop.hdfs.protocol.DSQuotaExceededException;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.NSQuotaExceededException;
 import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
+import org.apache.hadoop.hdfs.server.namenode.FSDirectory;
 import org.apache.hadoop.hdfs.tools.DFSAdmin;
 import org.apache.hadoop.hdfs.web.WebHdfsFileSystem;
 import org.apache.hadoop.io.IOUtils;
@@ -921,4 +925,119 @@ public void testMultipleFilesSmallerThanOneBlock() throws Exception {
       cluster.shutdown();
     }
   }
+
+  /**
+   * Test that cached content summaries are reused while the namespace below
+   * the directory is unchanged, and dropped by changes below it.
+   */
+  @Test
+  public void testContentSummaryCache() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_SIZE_KEY, 16);
+    // yield on every entry so that each tree walk is visible in the yield
+    // count.
+    conf.setInt(DFSConfigKeys.DFS_CONTENT_SUMMARY_LIMIT_KEY, 1);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      final FSDirectory fsd = cluster.getNamesystem().getFSDirectory();
+      final DistributedFileSystem fs = cluster.getFileSystem();
+      final Path dir = new Path("/cached");
+      final Path sub = new Path(dir, "sub");
+      assertTrue(fs.mkdirs(sub));
+      DFSTestUtil.createFile(fs, new Path(sub, "f1"), 1024, (short) 1, 0L);
+
+      ContentSummary c = fs.getContentSummary(dir);
+      assertEquals(1, c.getFileCount());
+      assertEquals(2, c.getDirectoryCount());
+      assertEquals(1024, c.getLength());
+      long yields = fsd.getYieldCount();
+      assertTrue(yields > 0);
+
+      // the second call is served from the cache without a tree walk.
+      assertEquals(c.toString(), fs.getContentSummary(dir).toString());
+      assertEquals(yields, fsd.getYieldCount());
+
+      // a change in a subdirectory invalidates the summary.
+      DFSTestUtil.createFile(fs, new Path(sub, "f2"), 2048, (short) 1, 0L);
+      c = fs.getContentSummary(dir);
+      assertEquals(2, c.getFileCount());
+      assertEquals(3072, c.getLength());
+      assertTrue(fsd.getYieldCount() > yields);
+
+      fs.setReplication(new Path(sub, "f2"), (short) 2);
+      assertEquals(1024 + 2048 * 2,
+          fs.getContentSummary(dir).getSpaceConsumed());
+
+      fs.setQuota(dir, 100, HdfsConstants.QUOTA_DONT_SET);
+      assertEquals(100, fs.getContentSummary(dir).getQuota());
+
+      assertTrue(fs.rename(new Path(sub, "f1"), new Path("/f1")));
+      c = fs.getContentSummary(dir);
+      assertEquals(1, c.getFileCount());
+      assertEquals(2048, c.getLength());
+
+      assertTrue(fs.delete(sub, true));
+      c = fs.getContentSummary(dir);
+      assertEquals(0, c.getFileCount());
+      assertEquals(1, c.getDirectoryCount());
+      assertEquals(0, c.getLength());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Test that a cached content summary is dropped when a file below the
+   * directory gets a new length without a namespace change: by syncing the
+   * length, and by closing a file whose last block is full.
+   */
+  @Test
+  public void testContentSummaryCacheOnFileLengthChange() throws Exception {
+    final int blockSize = 1024;
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_SIZE_KEY, 16);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, blockSize);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      final DistributedFileSystem fs = cluster.getFileSystem();
+      final Path dir = new Path("/cachedLength");
+      assertTrue(fs.mkdirs(dir));
+
+      FSDataOutputStream out = fs.create(new Path(dir, "f1"), true, 4096,
+          (short) 1, blockSize);
+      try {
+        // the first hflush persists the length known so far
+        out.write(new byte[blockSize / 2]);
+        out.hflush();
+        assertEquals(blockSize / 2, fs.getContentSummary(dir).getLength());
+        out.write(new byte[blockSize / 4]);
+        ((DFSOutputStream) out.getWrappedStream()).hsync(
+            EnumSet.of(SyncFlag.UPDATE_LENGTH));
+        assertEquals(blockSize * 3 / 4, fs.getContentSummary(dir).getLength());
+      } finally {
+        out.close();
+      }
+      assertEquals(blockSize * 3 / 4, fs.getContentSummary(dir).getLength());
+
+      // a file of exactly one block commits a full last block on close
+      out = fs.create(new Path(dir, "f2"), true, 4096, (short) 1, blockSize);
+      try {
+        out.write(new byte[blockSize / 2]);
+        out.hflush();
+        assertEquals(blockSize * 5 / 4, fs.getContentSummary(dir).getLength());
+        out.write(new byte[blockSize / 2]);
+      } finally {
+        out.close();
+      }
+      ContentSummary c = fs.getContentSummary(dir);
+      assertEquals(2, c.getFileCount());
+      assertEquals(blockSize * 7 / 4, c.getLength());
+    } finally {
+      cluster.shutdown();
+    }
+  }
 }
@@ -22,6 +22,7 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -92,6 +93,67 @@ public void testLogAndRestart() throws IOException {
     }
   }
 
+  /**
+   * Test that the edits logged by many clients at once are persisted when
+   * the asynchronous edit log keeps several batches in flight to the
+   * JournalNodes.
+   */
+  @Test (timeout = 60000)
+  public void testPipelinedAsyncLogAndRestart() throws Exception {
+    conf.set(DFSConfigKeys.DFS_NAMENODE_NAME_DIR_KEY,
+        MiniDFSCluster.getBaseDirectory() + "/TestNNWithQJM/image");
+    conf.set(DFSConfigKeys.DFS_NAMENODE_EDITS_DIR_KEY,
+        mjc.getQuorumJournalURI("myjournal").toString());
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING, true);
+    conf.setInt(DFSConfigKeys.DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_KEY, 4);
+
+    final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+      .numDataNodes(0)
+      .manageNameDfsDirs(false)
+      .build();
+    try {
+      final int numThreads = 8;
+      final int numDirsPerThread = 50;
+      final FileSystem fs = cluster.getFileSystem();
+      Thread[] threads = new Thread[numThreads];
+      final AtomicReference<Throwable> failure =
+          new AtomicReference<Throwable>();
+      for (int i = 0; i < numThreads; i++) {
+        final int thread = i;
+        threads[i] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int j = 0; j < numDirsPerThread; j++) {
+                fs.mkdirs(new Path(TEST_PATH, thread + "-" + j));
+              }
+            } catch (Throwable t) {
+              failure.compareAndSet(null, t);
+            }
+          }
+        };
+        threads[i].start();
+      }
+      for (Thread t : threads) {
+        t.join();
+      }
+      if (failure.get() != null) {
+        throw new AssertionError(failure.get());
+      }
+
+      // Restart the NN and make sure all the edits were persisted
+      cluster.restartNameNode();
+      for (int i = 0; i < numThreads; i++) {
+        for (int j = 0; j < numDirsPerThread; j++) {
+          assertTrue(cluster.getFileSystem().exists(
+              new Path(TEST_PATH, i + "-" + j)));
+        }
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   @Test (timeout = 30000)
   public void testNewNamenodeTakesOverWriter() throws Exception {
     File nn1Dir = new File(
@@ -39,8 +39,10 @@
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 
 import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ListenableFuture;
 
 public class TestIPCLoggerChannel {
   private static final Log LOG = LogFactory.getLog(
@@ -86,6 +88,69 @@ public void testSimpleCall() throws Exception {
   }
 
   
+  /**
+   * Test that several batches are in flight at once, and that they are
+   * acknowledged in order.
+   */
+  @Test
+  public void testPipelinedBatches() throws Exception {
+    Configuration pipelinedConf = new Configuration(conf);
+    pipelinedConf.setInt(
+        DFSConfigKeys.DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_KEY, 3);
+    IPCLoggerChannel pipelined = new IPCLoggerChannel(pipelinedConf,
+        FAKE_NSINFO, JID, FAKE_ADDR) {
+      @Override
+      protected QJournalProtocol getProxy() throws IOException {
+        return mockProxy;
+      }
+    };
+    pipelined.setEpoch(1);
+
+    // Block the first batch.
+    DelayAnswer delayer = new DelayAnswer(LOG) {
+      @Override
+      protected Object passThrough(InvocationOnMock invocation) {
+        return null;
+      }
+    };
+    Mockito.doAnswer(delayer).when(mockProxy).journal(
+        Mockito.<RequestInfo>any(),
+        Mockito.eq(1L), Mockito.eq(1L),
+        Mockito.eq(1), Mockito.same(FAKE_DATA));
+
+    ListenableFuture<Void> first = pipelined.sendEdits(1L, 1L, 1, FAKE_DATA);
+    ListenableFuture<Void> second = pipelined.sendEdits(1L, 2L, 1, FAKE_DATA);
+    ListenableFuture<Void> third = pipelined.sendEdits(1L, 3L, 1, FAKE_DATA);
+    ListenableFuture<Void> fourth = pipelined.sendEdits(1L, 4L, 1, FAKE_DATA);
+    delayer.waitForCall();
+
+    // The next batches are sent while the first one is in flight, but they
+    // are not acknowledged before it.
+    Mockito.verify(mockProxy, Mockito.timeout(10000)).journal(
+        Mockito.<RequestInfo>any(), Mockito.eq(1L), Mockito.eq(3L),
+        Mockito.eq(1), Mockito.same(FAKE_DATA));
+    assertTrue(pipelined.getInFlightBatches() >= 1);
+    assertEquals(4, pipelined.getQueuedBatches());
+    assertFalse(second.isDone());
+    assertFalse(third.isDone());
+
+    delayer.proceed();
+    first.get();
+    second.get();
+    third.get();
+    fourth.get();
+    assertEquals(0, pipelined.getInFlightBatches());
+    assertEquals(0, pipelined.getInFlightEditsSize());
+    final IPCLoggerChannel channel = pipelined;
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return channel.getQueuedBatches() == 0;
+      }
+    }, 10, 1000);
+    pipelined.close();
+  }
+
   /**
    * Test that, once the queue eclipses the configure size limit,
    * calls to journal more data are rejected.
@@ -107,6 +172,10 @@ public void testQueueLimiting() throws Exception {
     
     // The accounting should show the correct total number queued.
     assertEquals(LIMIT_QUEUE_SIZE_BYTES, ch.getQueuedEditsSize());
+    assertEquals(numToQueue, ch.getQueuedBatches());
+    // The first call is blocked in flight.
+    delayer.waitForCall();
+    assertEquals(FAKE_DATA.length, ch.getInFlightEditsSize());
     
     // Trying to queue any more should fail.
     try {
@@ -127,6 +196,8 @@ public Boolean get() {
         return ch.getQueuedEditsSize() == 0;
       }
     }, 10, 1000);
+    assertEquals(0, ch.getQueuedBatches());
+    assertEquals(0, ch.getInFlightEditsSize());
   }
   
   /**
@@ -44,6 +44,7 @@
 import org.apache.commons.logging.impl.Log4JLogger;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.qjournal.MiniJournalCluster;
 import org.apache.hadoop.hdfs.qjournal.QJMTestUtil;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
@@ -206,6 +207,118 @@ public void testReaderWhileAnotherWrites() throws Exception {
     }
   }
   
+  @Test
+  public void testSelectInProgressStreamsOverRpc() throws Exception {
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    QuorumJournalManager readerQjm = closeLater(createSpyingQJM());
+    List<AsyncLogger> readerSpies =
+        readerQjm.getLoggerSetForTests().getLoggersForTests();
+    List<EditLogInputStream> streams = Lists.newArrayList();
+
+    writeSegment(cluster, qjm, 1, 3, true);
+    EditLogOutputStream stm = writeSegment(cluster, qjm, 4, 3, false);
+    // the in-progress edits come from the cache of the JournalNodes
+    readerQjm.selectInputStreams(streams, 4, true);
+    try {
+      assertEquals(1, streams.size());
+      assertEquals(4, streams.get(0).getFirstTxId());
+      assertEquals(6, streams.get(0).getLastTxId());
+      verifyEdits(streams, 4, 6);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+    for (AsyncLogger logger : readerSpies) {
+      Mockito.verify(logger, Mockito.never()).getEditLogManifest(
+          Mockito.anyLong(), Mockito.anyBoolean());
+    }
+
+    // nothing new was written yet
+    readerQjm.selectInputStreams(streams, 7, true);
+    assertEquals(0, streams.size());
+
+    // the finalized segments are not in the cache
+    readerQjm.selectInputStreams(streams, 1, true);
+    try {
+      assertEquals(1, streams.get(0).getFirstTxId());
+      assertEquals(3, streams.get(0).getLastTxId());
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+    Mockito.verify(readerSpies.get(0)).getEditLogManifest(1, true);
+
+    writeTxns(stm, 7, 2);
+    readerQjm.selectInputStreams(streams, 7, true);
+    try {
+      verifyEdits(streams, 7, 8);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+    stm.abort();
+  }
+  
+  /**
+   * Test that the JournalNodes write the batches of a writer with several
+   * batches in flight in order, even when they arrive out of order.
+   */
+  @Test
+  public void testPipelinedWrites() throws Exception {
+    Configuration pipelinedConf = new Configuration(conf);
+    pipelinedConf.setInt(
+        DFSConfigKeys.DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_KEY, 4);
+    QuorumJournalManager writer = closeLater(new QuorumJournalManager(
+        pipelinedConf, cluster.getQuorumJournalURI(JID), FAKE_NSINFO));
+    writer.recoverUnfinalizedSegments();
+
+    final int numBatches = 100;
+    EditLogOutputStream stm = writer.startLogSegment(1,
+        NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION);
+    AsyncLoggerSet loggers = writer.getLoggerSetForTests();
+    List<QuorumCall<AsyncLogger, Void>> calls = Lists.newArrayList();
+    for (int txid = 1; txid <= numBatches; txid++) {
+      calls.add(loggers.sendEdits(1, txid, 1,
+          QJMTestUtil.createTxnData(txid, 1)));
+    }
+    for (QuorumCall<AsyncLogger, Void> call : calls) {
+      loggers.waitForWriteQuorum(call, 20000, "sendEdits");
+    }
+    loggers.setCommittedTxId(numBatches);
+    writer.finalizeLogSegment(1, numBatches);
+    stm.abort();
+
+    checkRecovery(cluster, 1, numBatches);
+  }
+
+  /**
+   * Test that the output stream keeps several flushes outstanding, and
+   * that waiting for the last one commits all the edits.
+   */
+  @Test
+  public void testPipelinedFlushes() throws Exception {
+    Configuration pipelinedConf = new Configuration(conf);
+    pipelinedConf.setInt(
+        DFSConfigKeys.DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_KEY, 4);
+    QuorumJournalManager writer = closeLater(new QuorumJournalManager(
+        pipelinedConf, cluster.getQuorumJournalURI(JID), FAKE_NSINFO));
+    writer.recoverUnfinalizedSegments();
+
+    final int numBatches = 100;
+    EditLogOutputStream stm = writer.startLogSegment(1,
+        NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION);
+    for (int txid = 1; txid <= numBatches; txid++) {
+      QJMTestUtil.writeOp(stm, txid);
+      stm.setReadyToFlush();
+      stm.flushAsync();
+    }
+    stm.awaitFlushed(numBatches);
+    writer.finalizeLogSegment(1, numBatches);
+    stm.abort();
+
+    checkRecovery(cluster, 1, numBatches);
+  }
+
   /**
    * Regression test for HDFS-3725. One of the journal nodes is down
    * during the writing of one segment, then comes back up later to
@@ -29,6 +29,7 @@
 
 import org.apache.commons.logging.impl.Log4JLogger;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.qjournal.client.AsyncLogger;
 import org.apache.hadoop.hdfs.qjournal.client.QuorumException;
 import org.apache.hadoop.hdfs.qjournal.client.QuorumJournalManager;
@@ -72,6 +73,7 @@ public void setup() throws Exception {
         mockLogger(),
         mockLogger());
 
+    conf.setInt(DFSConfigKeys.DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_KEY, 2);
     qjm = new QuorumJournalManager(conf, new URI("qjournal://host/jid"), FAKE_NSINFO) {
       @Override
       protected List<AsyncLogger> createLoggers(AsyncLogger.Factory factory) {
@@ -216,6 +218,45 @@ public void testWriteEditsOneSlow() throws Exception {
     Mockito.verify(spyLoggers.get(0)).setCommittedTxId(1L);
   }
 
+  @Test
+  public void testPipelinedFlushes() throws Exception {
+    EditLogOutputStream stm = createLogSegment();
+    @SuppressWarnings("unchecked")
+    SettableFuture<Void>[][] acks = new SettableFuture[2][3];
+    for (int i = 0; i < 2; i++) {
+      long txid = i + 1;
+      for (int j = 0; j < 3; j++) {
+        acks[i][j] = SettableFuture.create();
+        Mockito.doReturn(acks[i][j]).when(spyLoggers.get(j)).sendEdits(
+            anyLong(), eq(txid), eq(1), Mockito.<byte[]>any());
+      }
+    }
+
+    // Both batches are sent before either is acknowledged.
+    writeOp(stm, 1);
+    stm.setReadyToFlush();
+    stm.flushAsync();
+    writeOp(stm, 2);
+    stm.setReadyToFlush();
+    stm.flushAsync();
+    Mockito.verify(spyLoggers.get(0)).sendEdits(
+        anyLong(), eq(2L), eq(1), Mockito.<byte[]>any());
+    Mockito.verify(spyLoggers.get(0), Mockito.never())
+        .setCommittedTxId(anyLong());
+
+    // Each batch is committed once a quorum acknowledges it.
+    acks[0][0].set(null);
+    acks[0][1].set(null);
+    stm.awaitFlushed(1);
+    Mockito.verify(spyLoggers.get(0)).setCommittedTxId(1L);
+    Mockito.verify(spyLoggers.get(0), Mockito.never()).setCommittedTxId(2L);
+
+    acks[1][0].set(null);
+    acks[1][2].set(null);
+    stm.awaitFlushed(2);
+    Mockito.verify(spyLoggers.get(0)).setCommittedTxId(2L);
+  }
+
   private EditLogOutputStream createLogSegment() throws IOException {
     futureReturns(null).when(spyLoggers.get(0)).startLogSegment(Mockito.anyLong(),
         Mockito.eq(NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION));
@@ -24,12 +24,15 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.qjournal.QJMTestUtil;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalOutOfSyncException;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProtoOrBuilder;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
@@ -38,6 +41,7 @@
 import org.apache.hadoop.hdfs.server.common.Storage;
 import org.apache.hadoop.hdfs.server.common.Storage.StorageDirectory;
 import org.apache.hadoop.hdfs.server.common.StorageErrorReporter;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileInputStream;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeLayoutVersion;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 import org.apache.hadoop.io.IOUtils;
@@ -400,6 +404,98 @@ public void testStartLogSegmentWhenAlreadyExists() throws Exception {
 
   }
   
+  @Test (timeout = 10000)
+  public void testReadEditsFromCache() throws Exception {
+    journal.newEpoch(FAKE_NSINFO, 1);
+    journal.startLogSegment(makeRI(1), 1,
+        NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION);
+    journal.journal(makeRI(2), 1, 1, 5, QJMTestUtil.createTxnData(1, 5));
+    journal.journal(makeRI(3), 1, 6, 5, QJMTestUtil.createTxnData(6, 5));
+
+    // whole batches are returned, from the one holding sinceTxId
+    GetJournaledEditsResponseProto resp = journal.getJournaledEdits(3, 100);
+    assertEquals(1, resp.getFirstTxId());
+    assertEquals(10, resp.getLastTxId());
+    QJMTestUtil.verifyEdits(Collections.singletonList(
+        EditLogFileInputStream.fromByteString(resp.getEditLog(), "cache",
+            resp.getFirstTxId(), resp.getLastTxId(), true)), 1, 10);
+
+    // the batches beyond maxTxns are left out
+    resp = journal.getJournaledEdits(1, 2);
+    assertEquals(1, resp.getFirstTxId());
+    assertEquals(5, resp.getLastTxId());
+    QJMTestUtil.verifyEdits(Collections.singletonList(
+        EditLogFileInputStream.fromByteString(resp.getEditLog(), "cache",
+            resp.getFirstTxId(), resp.getLastTxId(), true)), 1, 5);
+
+    // nothing new yet
+    resp = journal.getJournaledEdits(11, 100);
+    assertFalse(resp.hasEditLog());
+    assertEquals(10, resp.getLastTxId());
+
+    // a new segment clears the cache
+    journal.finalizeLogSegment(makeRI(4), 1, 10);
+    journal.startLogSegment(makeRI(5), 11,
+        NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION);
+    journal.journal(makeRI(6), 11, 11, 5, QJMTestUtil.createTxnData(11, 5));
+    try {
+      journal.getJournaledEdits(5, 100);
+      fail("Should not have found txid 5 in the cache");
+    } catch (IOException ioe) {
+      GenericTestUtils.assertExceptionContains("no longer cached", ioe);
+    }
+    assertEquals(11, journal.getJournaledEdits(11, 100).getFirstTxId());
+  }
+
+  @Test (timeout = 10000)
+  public void testEditsCacheEviction() throws Exception {
+    IOUtils.closeStream(journal);
+    conf.setInt(DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY, 1);
+    journal = new Journal(conf, TEST_LOG_DIR, JID, StartupOption.REGULAR,
+        mockErrorReporter);
+    journal.newEpoch(FAKE_NSINFO, 1);
+    journal.startLogSegment(makeRI(1), 1,
+        NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION);
+    journal.journal(makeRI(2), 1, 1, 5, QJMTestUtil.createTxnData(1, 5));
+    journal.journal(makeRI(3), 1, 6, 5, QJMTestUtil.createTxnData(6, 5));
+
+    // only the last batch is kept
+    try {
+      journal.getJournaledEdits(1, 100);
+      fail("Should have evicted txid 1 from the cache");
+    } catch (IOException ioe) {
+      GenericTestUtils.assertExceptionContains("no longer cached", ioe);
+    }
+    assertEquals(6, journal.getJournaledEdits(7, 100).getFirstTxId());
+  }
+  
+  @Test (timeout = 10000)
+  public void testEditsCacheWithoutSegmentStart() throws Exception {
+    // the cache was cleared, or never saw the start of the segment
+    JournaledEditsCache cache = new JournaledEditsCache(1024 * 1024);
+    cache.storeEdits(6, 10, QJMTestUtil.createTxnData(6, 5),
+        NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION);
+    cache.storeEdits(11, 15, QJMTestUtil.createTxnData(11, 5),
+        NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION);
+    GetJournaledEditsResponseProto resp = cache.retrieveEdits(6, 100);
+    assertEquals(6, resp.getFirstTxId());
+    assertEquals(15, resp.getLastTxId());
+    QJMTestUtil.verifyEdits(Collections.singletonList(
+        EditLogFileInputStream.fromByteString(resp.getEditLog(), "cache",
+            resp.getFirstTxId(), resp.getLastTxId(), true)), 6, 15);
+
+    // a gap starts the cache over from the new batch
+    cache.storeEdits(21, 25, QJMTestUtil.createTxnData(21, 5),
+        NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION);
+    try {
+      cache.retrieveEdits(11, 100);
+      fail("Should not have found txid 11 in the cache");
+    } catch (IOException ioe) {
+      GenericTestUtils.assertExceptionContains("no longer cached", ioe);
+    }
+    assertEquals(25, cache.retrieveEdits(21, 100).getLastTxId());
+  }
+
   private static RequestInfo makeRI(int serial) {
     return new RequestInfo(JID, 1, serial, 0);
   }
@@ -53,15 +53,20 @@
 import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
+import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
+import org.apache.hadoop.hdfs.util.RwLockMode;
 import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.util.LightWeightGSet;
 import org.junit.Assert;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
@@ -95,6 +100,8 @@ public void setupMockCluster() throws IOException {
     conf.set(DFSConfigKeys.NET_TOPOLOGY_SCRIPT_FILE_NAME_KEY, "need to set a dummy value here so it assumes a multi-rack cluster");
     fsn = Mockito.mock(FSNamesystem.class);
     Mockito.doReturn(true).when(fsn).hasWriteLock();
+    Mockito.doReturn(true).when(fsn).hasWriteLock(
+        Mockito.any(RwLockMode.class));
     bm = new BlockManager(fsn, conf);
     final String[] racks = {
         "/rackA",
@@ -109,6 +116,20 @@ public void setupMockCluster() throws IOException {
     rackB = nodes.subList(3, 6);
   }
 
+  /**
+   * The blocks map table is sized by the configured share of the heap.
+   */
+  @Test
+  public void testBlocksMapAllocationPercent() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setFloat(DFSConfigKeys.DFS_NAMENODE_BLOCKS_MAP_ALLOCATION_PERCENT,
+        0.5f);
+    BlockManager smallBm = new BlockManager(fsn, conf);
+    assertEquals(LightWeightGSet.computeCapacity(0.5, "BlocksMap"),
+        smallBm.blocksMap.getCapacity());
+    assertTrue(smallBm.blocksMap.getCapacity() < bm.blocksMap.getCapacity());
+  }
+
   private void addNodes(Iterable<DatanodeDescriptor> nodesToAdd) {
     NetworkTopology cluster = bm.getDatanodeManager().getNetworkTopology();
     // construct network topology
@@ -734,6 +755,161 @@ public void testSafeModeIBRBeforeFirstFullBR() throws Exception {
         (ds) >= 0);
   }
 
+  /**
+   * Full block reports are applied in slices, releasing the lock in
+   * between, without removing the blocks added between the slices.
+   */
+  @Test
+  public void testSlicedBlockReport() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_SLICE_SIZE_KEY, 2);
+    bm = new BlockManager(fsn, conf);
+    DatanodeDescriptor node = nodes.get(0);
+    final DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    node.isAlive = true;
+    DatanodeRegistration nodeReg =
+        new DatanodeRegistration(node, null, null, "");
+    bm.getDatanodeManager().registerDatanode(nodeReg);
+    bm.getDatanodeManager().addDatanode(node);
+
+    BlockInfoContiguous[] blocks = new BlockInfoContiguous[7];
+    BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = addBlockToBM(100 + i);
+      if (i < 5) {
+        builder.add(new FinalizedReplica(blocks[i], null, null));
+      }
+    }
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        builder.build(), null, false);
+    assertEquals(5, ds.numBlocks());
+
+    // blk_101 and blk_103 are gone, blk_105 is new, and blk_106 is added
+    // by another operation while the report is being processed.
+    builder = BlockListAsLongs.builder();
+    for (int i : new int[] { 0, 2, 4, 5 }) {
+      builder.add(new FinalizedReplica(blocks[i], null, null));
+    }
+    final BlockInfoContiguous concurrent = blocks[6];
+    Mockito.doAnswer(new Answer<Void>() {
+      private int calls = 0;
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        if (++calls == 4) {
+          ds.addBlock(concurrent);
+        }
+        return null;
+      }
+    }).when(fsn).writeUnlock("processReport");
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        builder.build(), null, false);
+
+    for (int i : new int[] { 0, 2, 4, 5, 6 }) {
+      assertTrue(blocks[i] + " should be on the storage",
+          blocks[i].findStorageInfo(ds) >= 0);
+    }
+    for (int i : new int[] { 1, 3 }) {
+      assertTrue(blocks[i] + " should be removed",
+          blocks[i].findStorageInfo(ds) < 0);
+    }
+    assertEquals(5, ds.numBlocks());
+    assertEquals(2, ds.getBlockReportCount());
+  }
+
+  /**
+   * By default each storage report is processed under one hold of the lock.
+   */
+  @Test
+  public void testUnslicedBlockReport() throws Exception {
+    DatanodeDescriptor node = nodes.get(0);
+    DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    node.isAlive = true;
+    DatanodeRegistration nodeReg =
+        new DatanodeRegistration(node, null, null, "");
+    bm.getDatanodeManager().registerDatanode(nodeReg);
+    bm.getDatanodeManager().addDatanode(node);
+
+    BlockInfoContiguous[] blocks = new BlockInfoContiguous[4];
+    BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = addBlockToBM(200 + i);
+      builder.add(new FinalizedReplica(blocks[i], null, null));
+    }
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        builder.build(), null, false);
+    assertEquals(4, ds.numBlocks());
+
+    builder = BlockListAsLongs.builder();
+    for (int i : new int[] { 0, 2 }) {
+      builder.add(new FinalizedReplica(blocks[i], null, null));
+    }
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        builder.build(), null, false);
+    assertEquals(2, ds.numBlocks());
+    assertTrue(blocks[1].findStorageInfo(ds) < 0);
+    assertTrue(blocks[3].findStorageInfo(ds) < 0);
+    Mockito.verify(fsn, Mockito.times(2)).writeUnlock("processReport");
+  }
+
+  @Test
+  public void testReplicaHashReport() throws Exception {
+    DatanodeDescriptor node = nodes.get(0);
+    DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    DatanodeStorage storage = new DatanodeStorage(ds.getStorageID());
+    node.isAlive = true;
+    DatanodeRegistration nodeReg =
+        new DatanodeRegistration(node, null, null, "");
+    bm.getDatanodeManager().registerDatanode(nodeReg);
+    bm.getDatanodeManager().addDatanode(node);
+
+    BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
+    for (int i = 0; i < 3; i++) {
+      builder.add(new FinalizedReplica(addBlockToBM(200 + i), null, null));
+    }
+    BlockListAsLongs report = builder.build();
+    long hash = report.getFinalizedReplicaHash();
+
+    // the hash cannot be verified before a full report
+    assertFalse(bm.processReplicaHash(node, storage, hash, null, false));
+    assertEquals(0, ds.getBlockReportCount());
+
+    bm.processReport(node, storage, report, null, false);
+    assertEquals(hash, ds.getReplicaHash());
+    // the contents of the storage are stale until a full report after a
+    // heartbeat, and a hash-only report does not make them fresh
+    assertTrue(ds.areBlockContentsStale());
+    assertFalse(bm.processReplicaHash(node, storage, hash, null, false));
+    assertTrue(ds.areBlockContentsStale());
+    ds.receivedHeartbeat(new StorageReport(storage, false, 0, 0, 0, 0));
+    bm.processReport(node, storage, report, null, false);
+    assertFalse(ds.areBlockContentsStale());
+    assertTrue(bm.processReplicaHash(node, storage, hash, null, false));
+    assertEquals(2, ds.getBlockReportCount());
+
+    // a block added through an incremental report is part of the hash
+    BlockInfoContiguous added = addBlockToBM(210);
+    ds.addBlock(added);
+    assertFalse(bm.processReplicaHash(node, storage, hash, null, false));
+    long addedHash = BlockListAsLongs.hashReplica(added.getBlockId(),
+        added.getGenerationStamp(), added.getNumBytes());
+    assertTrue(bm.processReplicaHash(node, storage, hash ^ addedHash, null,
+        false));
+
+    // so are its generation stamp and length
+    added.setGenerationStamp(added.getGenerationStamp() + 1);
+    assertFalse(bm.processReplicaHash(node, storage, hash ^ addedHash, null,
+        false));
+    added.setNumBytes(added.getNumBytes() + 1);
+    addedHash = BlockListAsLongs.hashReplica(added.getBlockId(),
+        added.getGenerationStamp(), added.getNumBytes());
+    assertTrue(bm.processReplicaHash(node, storage, hash ^ addedHash, null,
+        false));
+
+    ds.removeBlock(added);
+    assertTrue(bm.processReplicaHash(node, storage, hash, null, false));
+    assertEquals(report.getFinalizedReplicaHash(), ds.getReplicaHash());
+  }
+
   private BlockInfoContiguous addBlockToBM(long blkId) {
     Block block = new Block(blkId);
     BlockInfoContiguous blockInfo =
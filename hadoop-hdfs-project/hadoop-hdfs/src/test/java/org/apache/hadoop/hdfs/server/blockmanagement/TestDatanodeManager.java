@@ -294,4 +294,62 @@ public void testSortLocatedBlocks() throws IOException {
     assertThat(sortedLocs[sortedLocs.length-2].getAdminState(),
         is(DatanodeInfo.AdminStates.DECOMMISSIONED));
   }
+
+  /**
+   * Test that the load-aware sorter puts the least loaded of the
+   * equidistant datanodes first.
+   */
+  @Test
+  public void testLoadAwareSortLocatedBlocks() throws IOException {
+    FSNamesystem fsn = Mockito.mock(FSNamesystem.class);
+    Mockito.when(fsn.hasWriteLock()).thenReturn(true);
+    Configuration conf = new Configuration();
+    conf.setClass(DFSConfigKeys.DFS_NAMENODE_BLOCK_LOCATION_SORTER_KEY,
+        LoadAwareBlockLocationSorter.class, BlockLocationSorter.class);
+    DatanodeManager dm = new DatanodeManager(Mockito.mock(BlockManager.class),
+        fsn, conf);
+
+    final int[] xceivers = { 0, 30, 10, 20 };
+    DatanodeInfo[] locs = new DatanodeInfo[xceivers.length];
+    String[] storageIDs = new String[xceivers.length];
+    StorageType[] storageTypes = new StorageType[xceivers.length];
+    for (int i = 0; i < xceivers.length; i++) {
+      String uuid = "UUID-" + i;
+      String ip = "IP-" + i;
+      DatanodeRegistration dr = Mockito.mock(DatanodeRegistration.class);
+      Mockito.when(dr.getDatanodeUuid()).thenReturn(uuid);
+      Mockito.when(dr.getIpAddr()).thenReturn(ip);
+      Mockito.when(dr.getXferAddr()).thenReturn(ip + ":9000");
+      Mockito.when(dr.getXferPort()).thenReturn(9000);
+      Mockito.when(dr.getSoftwareVersion()).thenReturn("version1");
+      dm.registerDatanode(dr);
+      locs[i] = dm.getDatanode(uuid);
+      locs[i].setXceiverCount(xceivers[i]);
+      storageIDs[i] = "storageID-" + i;
+      storageTypes[i] = StorageType.DEFAULT;
+    }
+    // the idlest datanode is decommissioned
+    locs[0].setDecommissioned();
+
+    List<LocatedBlock> blocks = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      blocks.add(new LocatedBlock(new ExtendedBlock("somePoolID", i),
+          locs.clone(), storageIDs.clone(), storageTypes.clone()));
+    }
+    // a reader which is not a datanode, so all are at the same distance
+    dm.sortLocatedBlocks("1.2.3.4", blocks);
+
+    for (LocatedBlock block : blocks) {
+      DatanodeInfo[] sortedLocs = block.getLocations();
+      assertThat(sortedLocs[0].getXceiverCount(), is(10));
+      assertThat(sortedLocs[1].getXceiverCount(), is(20));
+      assertThat(sortedLocs[2].getXceiverCount(), is(30));
+      assertThat(sortedLocs[3].getAdminState(),
+          is(DatanodeInfo.AdminStates.DECOMMISSIONED));
+      for (int i = 0; i < sortedLocs.length; i++) {
+        assertThat(((DatanodeInfoWithStorage)sortedLocs[i]).getStorageID(),
+            is(block.getStorageIDs()[i]));
+      }
+    }
+  }
 }
@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.server.blockmanagement;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -53,6 +54,49 @@ public class TestPendingReplication {
   private static final int DFS_REPLICATION_INTERVAL = 1;
   // Number of datanodes in the cluster
   private static final int DATANODE_COUNT = 5;
+  /**
+   * The blocks are sharded; concurrent updates of different blocks must keep
+   * the counts right.
+   */
+  @Test(timeout=60000)
+  public void testConcurrentPendingReplication() throws Exception {
+    final PendingReplicationBlocks pendingReplications =
+        new PendingReplicationBlocks(TIMEOUT * 1000);
+    final DatanodeDescriptor[] targets = DatanodeStorageInfo
+        .toDatanodeDescriptors(DFSTestUtil.createDatanodeStorageInfos(2));
+    final int numThreads = 8;
+    final int blocksPerThread = 1000;
+    final Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final int first = t * blocksPerThread;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = first; i < first + blocksPerThread; i++) {
+            pendingReplications.increment(new Block(i, i, 0), targets);
+          }
+          // one replica of every other block is done
+          for (int i = first; i < first + blocksPerThread; i += 2) {
+            pendingReplications.decrement(new Block(i, i, 0), targets[0]);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(numThreads * blocksPerThread, pendingReplications.size());
+    for (int i = 0; i < numThreads * blocksPerThread; i++) {
+      assertEquals(i % 2 == 0 ? 1 : 2,
+          pendingReplications.getNumReplicas(new Block(i, i, 0)));
+    }
+    assertFalse(pendingReplications.decrement(new Block(-1, -1, 0),
+        targets[0]));
+    pendingReplications.clear();
+    assertEquals(0, pendingReplications.size());
+  }
+
   @Test
   public void testPendingReplication() {
     PendingReplicationBlocks pendingReplications;
@@ -81,6 +81,26 @@ public void testBlockPriorities() throws Throwable {
     assertEquals(2, queues.getCorruptReplOneBlockSize());
   }
 
+  /**
+   * Under replicated blocks with a copy on a decommissioning node are
+   * replicated before the other under replicated blocks.
+   */
+  @Test
+  public void testDecommissioningBlockPriority() throws Throwable {
+    UnderReplicatedBlocks queues = new UnderReplicatedBlocks();
+    Block block1 = new Block(1);
+    Block block2 = new Block(2);
+
+    assertAdded(queues, block1, 2, 0, 3);
+    assertInLevel(queues, block1, UnderReplicatedBlocks.QUEUE_UNDER_REPLICATED);
+    assertAdded(queues, block2, 2, 1, 3);
+    assertInLevel(queues, block2,
+                  UnderReplicatedBlocks.QUEUE_VERY_UNDER_REPLICATED);
+    //the decommissioning node is recommissioned
+    queues.update(block2, 2, 0, 3, 0, 0);
+    assertInLevel(queues, block2, UnderReplicatedBlocks.QUEUE_UNDER_REPLICATED);
+  }
+
   private void assertAdded(UnderReplicatedBlocks queues,
                            Block block,
                            int curReplicas,
@@ -24,6 +24,8 @@
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import com.google.common.base.Preconditions;
 
@@ -884,6 +886,128 @@ long executeOp(int daemonId, int inputIdx, String ignore)
     }
   }
 
+  /**
+   * Namesystem lock contention statistics.
+   * 
+   * Runs a mix of mkdirs and getFileInfo calls where every thread works in
+   * its own directory, first with one thread and then with twice as many
+   * threads each round up to the requested number, and reports the
+   * throughput for each thread count.  Since the threads simulate RPC
+   * handlers, comparing runs with and without
+   * {@link DFSConfigKeys#DFS_NAMENODE_LOCK_FINE_GRAINED_ENABLED_KEY} shows
+   * how much the handlers serialize on the namesystem lock.
+   */
+  class LockContentionStats extends OperationStatsBase {
+    // Operation types
+    static final String OP_LOCK_CONTENTION_NAME = "lockContention";
+    static final String OP_LOCK_CONTENTION_USAGE =
+      "-op " + OP_LOCK_CONTENTION_NAME + " [-threads T] [-ops N]";
+
+    private String[][] dirPaths;
+    private int maxThreads;
+    private int round = 0;
+    private final Map<Integer, Double> opsPerSecByThreads =
+        new TreeMap<Integer, Double>();
+
+    LockContentionStats(List<String> args) {
+      super();
+      parseArguments(args);
+    }
+
+    @Override
+    String getOpName() {
+      return OP_LOCK_CONTENTION_NAME;
+    }
+
+    @Override
+    void parseArguments(List<String> args) {
+      boolean ignoreUnrelatedOptions = verifyOpArgument(args);
+      for (int i = 2; i < args.size(); i++) {       // parse command line
+        if(args.get(i).equals("-ops")) {
+          if(i+1 == args.size())  printUsage();
+          numOpsRequired = Integer.parseInt(args.get(++i));
+        } else if(args.get(i).equals("-threads")) {
+          if(i+1 == args.size())  printUsage();
+          numThreads = Integer.parseInt(args.get(++i));
+        } else if(!ignoreUnrelatedOptions)
+          printUsage();
+      }
+      maxThreads = numThreads;
+    }
+
+    /**
+     * Run one round per thread count: 1, 2, 4, ... and finally
+     * the requested maximum.
+     */
+    @Override
+    void benchmark() throws IOException {
+      for(int threads = 1; threads <= maxThreads; ) {
+        numThreads = threads;
+        super.benchmark();
+        opsPerSecByThreads.put(threads, getOpsPerSecond());
+        round++;
+        if(threads == maxThreads)
+          break;
+        threads = Math.min(threads * 2, maxThreads);
+      }
+    }
+
+    @Override
+    void generateInputs(int[] opsPerThread) throws IOException {
+      assert opsPerThread.length == numThreads : "Error opsPerThread.length";
+      nameNodeProto.setSafeMode(HdfsConstants.SafeModeAction.SAFEMODE_LEAVE,
+          false);
+      LOG.info("Generate " + numOpsRequired + " inputs for " + getOpName()
+          + " with " + numThreads + " threads");
+      dirPaths = new String[numThreads][];
+      for(int idx=0; idx < numThreads; idx++) {
+        int threadOps = opsPerThread[idx];
+        dirPaths[idx] = new String[threadOps];
+        String threadDir = getBaseDir() + "/round" + round + "/thread" + idx;
+        for(int jdx=0; jdx < threadOps; jdx++)
+          dirPaths[idx][jdx] = threadDir + "/dir" + (jdx / 2);
+      }
+    }
+
+    /**
+     * returns client name
+     */
+    @Override
+    String getExecutionArgument(int daemonId) {
+      return getClientName(daemonId);
+    }
+
+    /**
+     * Create a directory on even steps and stat it on odd steps.
+     */
+    @Override
+    long executeOp(int daemonId, int inputIdx, String clientName)
+        throws IOException {
+      long start = Time.now();
+      if(inputIdx % 2 == 0) {
+        nameNodeProto.mkdirs(dirPaths[daemonId][inputIdx],
+            FsPermission.getDefault(), true);
+      } else {
+        nameNodeProto.getFileInfo(dirPaths[daemonId][inputIdx]);
+      }
+      long end = Time.now();
+      return end-start;
+    }
+
+    @Override
+    void printResults() {
+      LOG.info("--- " + getOpName() + " inputs ---");
+      LOG.info("nrOps = " + numOpsRequired);
+      LOG.info("maxThreads = " + maxThreads);
+      LOG.info("fineGrainedLock = " + config.getBoolean(
+          DFSConfigKeys.DFS_NAMENODE_LOCK_FINE_GRAINED_ENABLED_KEY,
+          DFSConfigKeys.DFS_NAMENODE_LOCK_FINE_GRAINED_ENABLED_DEFAULT));
+      for(Map.Entry<Integer, Double> e : opsPerSecByThreads.entrySet())
+        LOG.info("Threads: " + e.getKey() + " Ops per sec: " + e.getValue());
+      printStats();
+    }
+  }
+
   /**
    * Minimal data-node simulator.
    */
@@ -1379,6 +1503,7 @@ static void printUsage() {
         + " | \n\t" + DeleteFileStats.OP_DELETE_USAGE
         + " | \n\t" + FileStatusStats.OP_FILE_STATUS_USAGE
         + " | \n\t" + RenameFileStats.OP_RENAME_USAGE
+        + " | \n\t" + LockContentionStats.OP_LOCK_CONTENTION_USAGE
         + " | \n\t" + BlockReportStats.OP_BLOCK_REPORT_USAGE
         + " | \n\t" + ReplicationStats.OP_REPLICATION_USAGE
         + " | \n\t" + CleanAllStats.OP_CLEAN_USAGE
@@ -1444,6 +1569,10 @@ public int run(String[] aArgs) throws Exception {
         opStat = new RenameFileStats(args);
         ops.add(opStat);
       }
+      if(runAll || LockContentionStats.OP_LOCK_CONTENTION_NAME.equals(type)) {
+        opStat = new LockContentionStats(args);
+        ops.add(opStat);
+      }
       if(runAll || BlockReportStats.OP_BLOCK_REPORT_NAME.equals(type)) {
         opStat = new BlockReportStats(args);
         ops.add(opStat);
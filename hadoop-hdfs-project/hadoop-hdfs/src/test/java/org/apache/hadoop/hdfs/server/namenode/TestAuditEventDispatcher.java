@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.hdfs.server.namenode.AuditEventDispatcher.AuditEvent;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Test the hand over of the audit events to the writer thread.
+ */
+public class TestAuditEventDispatcher {
+
+  private static AuditEvent newEvent(String src) {
+    return new AuditEvent(true, null, null, "create", src, null, null, false);
+  }
+
+  /**
+   * The events added while the writer stops, or after it stopped, are still
+   * logged, and a handler waiting for a slot is released.
+   */
+  @Test(timeout=60000)
+  public void testAddAroundStop() throws Exception {
+    final FSNamesystem fsn = Mockito.mock(FSNamesystem.class);
+    final CountDownLatch logging = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        logging.countDown();
+        release.await();
+        return null;
+      }
+    }).when(fsn).logAuditEvent(Mockito.any(AuditEvent.class));
+
+    final AuditEventDispatcher dispatcher =
+        new AuditEventDispatcher(fsn, 2, false);
+    dispatcher.start();
+    // the writer blocks on the first event, the next two fill the buffer
+    assertTrue(dispatcher.add(newEvent("/0")));
+    logging.await();
+    assertTrue(dispatcher.add(newEvent("/1")));
+    assertTrue(dispatcher.add(newEvent("/2")));
+
+    // a handler waits for a slot
+    Thread handler = new Thread() {
+      @Override
+      public void run() {
+        dispatcher.add(newEvent("/3"));
+      }
+    };
+    handler.start();
+    Thread stopper = new Thread() {
+      @Override
+      public void run() {
+        dispatcher.stop();
+      }
+    };
+    stopper.start();
+    release.countDown();
+    stopper.join();
+    handler.join();
+
+    // an event added after the writer exited is logged by its handler
+    assertTrue(dispatcher.add(newEvent("/4")));
+    assertEquals(0, dispatcher.getNumPending());
+    Mockito.verify(fsn, Mockito.times(
+        5 - (int) dispatcher.getNumDropped()))
+        .logAuditEvent(Mockito.any(AuditEvent.class));
+  }
+}
@@ -47,6 +47,7 @@
 import org.apache.hadoop.hdfs.web.WebHdfsFileSystem;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.test.PathUtils;
 import org.apache.log4j.Appender;
 import org.apache.log4j.AsyncAppender;
@@ -62,6 +63,8 @@
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 
+import com.google.common.base.Supplier;
+
 /**
  * A JUnit test that audit logs are generated
  */
@@ -69,17 +72,20 @@
 public class TestAuditLogs {
   static final String auditLogFile = PathUtils.getTestDirName(TestAuditLogs.class) + "/TestAuditLogs-audit.log";
   final boolean useAsyncLog;
+  final boolean useAuditQueue;
   
   @Parameters
   public static Collection<Object[]> data() {
     Collection<Object[]> params = new ArrayList<Object[]>();
-    params.add(new Object[]{new Boolean(false)});
-    params.add(new Object[]{new Boolean(true)});
+    params.add(new Object[]{new Boolean(false), new Boolean(false)});
+    params.add(new Object[]{new Boolean(true), new Boolean(false)});
+    params.add(new Object[]{new Boolean(false), new Boolean(true)});
     return params;
   }
   
-  public TestAuditLogs(boolean useAsyncLog) {
+  public TestAuditLogs(boolean useAsyncLog, boolean useAuditQueue) {
     this.useAsyncLog = useAsyncLog;
+    this.useAuditQueue = useAuditQueue;
   }
 
   // Pattern for: 
@@ -117,6 +123,9 @@ public void setupCluster() throws Exception {
     conf.setLong(DFSConfigKeys.DFS_BLOCKREPORT_INTERVAL_MSEC_KEY, 10000L);
     conf.setBoolean(DFSConfigKeys.DFS_WEBHDFS_ENABLED_KEY, true);
     conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY, useAsyncLog);
+    if (useAuditQueue) {
+      conf.setInt(DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_QUEUE_SIZE_KEY, 16);
+    }
     util = new DFSTestUtil.Builder().setName("TestAuditAllowed").
         setNumFiles(20).build();
     cluster = new MiniDFSCluster.Builder(conf).numDataNodes(4).build();
@@ -286,6 +295,8 @@ public void testAuditWebHdfsOpen() throws Exception {
 
   /** Sets up log4j logger for auditlogs */
   private void setupAuditLogs() throws IOException {
+    // the events queued so far are logged with the logging disabled
+    waitForAuditQueue();
     Logger logger = ((Log4JLogger) FSNamesystem.auditLog).getLogger();
     // enable logging now that the test is ready to run
     logger.setLevel(Level.INFO);
@@ -318,6 +329,7 @@ private void verifyAuditLogs(boolean expectSuccess) throws IOException {
   // Ensure audit log has exactly N entries
   private void verifyAuditLogsRepeat(boolean expectSuccess, int ndupe)
       throws IOException {
+    waitForAuditQueue();
     // Turn off the logs
     Logger logger = ((Log4JLogger) FSNamesystem.auditLog).getLogger();
     logger.setLevel(Level.OFF);
@@ -348,9 +360,26 @@ private void verifyAuditLogsRepeat(boolean expectSuccess, int ndupe)
     }
   }
 
+  // Wait for the queued events to be logged
+  private void waitForAuditQueue() throws IOException {
+    final FSNamesystem fsn = cluster.getNamesystem();
+    try {
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return fsn.getNumPendingAuditEvents() == 0;
+        }
+      }, 10, 10000);
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    assertEquals(0, fsn.getNumDroppedAuditEvents());
+  }
+
   // Ensure audit log has exactly N entries
   private void verifyAuditLogsCheckPattern(boolean expectSuccess, int ndupe, Pattern pattern)
       throws IOException {
+    waitForAuditQueue();
     // Turn off the logs
     Logger logger = ((Log4JLogger) FSNamesystem.auditLog).getLogger();
     logger.setLevel(Level.OFF);
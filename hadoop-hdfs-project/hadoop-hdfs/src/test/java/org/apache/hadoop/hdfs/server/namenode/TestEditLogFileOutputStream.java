@@ -111,6 +111,32 @@ public void testRawWrites() throws IOException {
     }
   }
 
+  /**
+   * Tests that the edit log is extended by at least the configured
+   * preallocation size.
+   */
+  @Test
+  public void testPreallocationSize() throws IOException {
+    EditLogFileOutputStream elos = new EditLogFileOutputStream(conf,
+        TEST_EDITS, 0, 3 * MIN_PREALLOCATION_LENGTH);
+    try {
+      byte[] small = new byte[] { 1, 2, 3, 4, 5, 8, 7 };
+      elos.create(NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION);
+      elos.writeRaw(small, 0, small.length);
+      flushAndCheckLength(elos, 3 * MIN_PREALLOCATION_LENGTH);
+      // The following writes go into the preallocated area.
+      final int BIG_WRITE_LENGTH = 2 * MIN_PREALLOCATION_LENGTH;
+      elos.writeRaw(new byte[BIG_WRITE_LENGTH], 0, BIG_WRITE_LENGTH);
+      flushAndCheckLength(elos, 3 * MIN_PREALLOCATION_LENGTH);
+      // Once the file is full, it is extended by the preallocation size.
+      elos.writeRaw(new byte[BIG_WRITE_LENGTH], 0, BIG_WRITE_LENGTH);
+      flushAndCheckLength(elos, 6 * MIN_PREALLOCATION_LENGTH);
+    } finally {
+      if (elos != null)
+        elos.close();
+    }
+  }
+
   /**
    * Tests EditLogFileOutputStream doesn't throw NullPointerException on
    * close/abort sequence. See HDFS-2011.
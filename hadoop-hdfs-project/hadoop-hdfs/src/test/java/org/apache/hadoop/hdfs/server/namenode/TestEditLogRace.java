@@ -35,6 +35,7 @@
 import org.apache.commons.logging.impl.Log4JLogger;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.fs.permission.PermissionStatus;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
@@ -173,8 +174,26 @@ private void stopTransactionWorkers() {
    */
   @Test
   public void testEditLogRolling() throws Exception {
+    testEditLogRolling(false);
+  }
+
+  /**
+   * Tests rolling edit logs while transactions are ongoing, with
+   * asynchronous edit logging.
+   */
+  @Test
+  public void testEditLogRollingAsync() throws Exception {
+    testEditLogRolling(true);
+  }
+
+  private void testEditLogRolling(boolean asyncEditLogging) throws Exception {
     // start a cluster 
     Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING,
+        asyncEditLogging);
+    // a short queue makes the rolls wait for room in it
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE, 2);
     MiniDFSCluster cluster = null;
     FileSystem fileSys = null;
 
@@ -255,8 +274,23 @@ private long verifyEditLogs(FSNamesystem namesystem, FSImage fsimage,
    */
   @Test
   public void testSaveNamespace() throws Exception {
+    testSaveNamespace(false);
+  }
+
+  /**
+   * Tests saving fs image while transactions are ongoing, with asynchronous
+   * edit logging.
+   */
+  @Test
+  public void testSaveNamespaceAsync() throws Exception {
+    testSaveNamespace(true);
+  }
+
+  private void testSaveNamespace(boolean asyncEditLogging) throws Exception {
     // start a cluster 
     Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING,
+        asyncEditLogging);
     MiniDFSCluster cluster = null;
     FileSystem fileSys = null;
 
@@ -319,6 +353,67 @@ public void testSaveNamespace() throws Exception {
     }
   }
  
+  /**
+   * Tests that edits logged by RPC handlers with asynchronous edit logging
+   * are durable once the client sees the response.
+   */
+  @Test
+  public void testAsyncEditLogRpcEdits() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING, true);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      assertTrue(cluster.getNamesystem().getEditLog()
+          instanceof FSEditLogAsync);
+      final FileSystem fs = cluster.getFileSystem();
+      final AtomicReference<Throwable> caughtErr =
+          new AtomicReference<Throwable>();
+      final int dirsPerThread = 50;
+      Thread[] threads = new Thread[NUM_THREADS];
+      for (int i = 0; i < NUM_THREADS; i++) {
+        final int thread = i;
+        threads[i] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int j = 0; j < dirsPerThread; j++) {
+                assertTrue(fs.mkdirs(new Path("/thr-" + thread + "/" + j)));
+              }
+            } catch (Throwable t) {
+              caughtErr.compareAndSet(null, t);
+            }
+          }
+        };
+        threads[i].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      if (caughtErr.get() != null) {
+        throw new RuntimeException(caughtErr.get());
+      }
+
+      // responses are only sent once the edits are synced
+      FSEditLog editLog = cluster.getNamesystem().getEditLog();
+      assertEquals(editLog.getLastWrittenTxId(), editLog.getSyncTxId());
+
+      // the edits written by the sync thread must replay
+      cluster.restartNameNode();
+      FileSystem restarted = cluster.getFileSystem();
+      for (int i = 0; i < NUM_THREADS; i++) {
+        for (int j = 0; j < dirsPerThread; j++) {
+          assertTrue(restarted.exists(new Path("/thr-" + i + "/" + j)));
+        }
+      }
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   private Configuration getConf() {
     Configuration conf = new HdfsConfiguration();
     FileSystem.setDefaultUri(conf, "hdfs://localhost:0");
@@ -22,6 +22,7 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.EnumSet;
 
 import org.junit.Assert;
@@ -42,6 +43,8 @@
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoContiguous;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.StartupOption;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SectionName;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.hdfs.server.namenode.LeaseManager.Lease;
 import org.apache.hadoop.hdfs.util.MD5FileUtils;
 import org.apache.hadoop.test.GenericTestUtils;
@@ -67,6 +70,118 @@ public void testCompression() throws IOException {
     testPersistHelper(conf);
   }
 
+  private static Configuration getParallelLoadConf() {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY, 0);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY, 5);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY, 3);
+    return conf;
+  }
+
+  private static Configuration getParallelSaveConf() {
+    Configuration conf = getParallelLoadConf();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_KEY, true);
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_COMPRESS_KEY, true);
+    conf.set(DFSConfigKeys.DFS_IMAGE_COMPRESSION_CODEC_KEY,
+        "org.apache.hadoop.io.compress.GzipCodec");
+    return conf;
+  }
+
+  @Test
+  public void testPersistParallelLoad() throws IOException {
+    testPersistHelper(getParallelLoadConf());
+  }
+
+  @Test
+  public void testPersistParallelSave() throws IOException {
+    testPersistHelper(getParallelSaveConf());
+  }
+
+  /**
+   * Ensure that an image with sub-sections is written when parallel loading
+   * is enabled, and that it is loaded back in parallel.
+   */
+  @Test(timeout=120000)
+  public void testParallelSaveAndLoad() throws IOException {
+    testParallelSaveAndLoadHelper(getParallelLoadConf());
+  }
+
+  /**
+   * Ensure that an image whose compressed sub-sections are serialized in
+   * parallel can be loaded both in parallel and serially.
+   */
+  @Test(timeout=120000)
+  public void testParallelSaveCompressed() throws IOException {
+    testParallelSaveAndLoadHelper(getParallelSaveConf());
+  }
+
+  private void testParallelSaveAndLoadHelper(Configuration conf)
+      throws IOException {
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      for (int i = 0; i < 10; i++) {
+        Path dir = new Path("/dir" + i);
+        fs.mkdirs(dir);
+        for (int j = 0; j < 10; j++) {
+          fs.create(new Path(dir, "file" + j)).close();
+        }
+      }
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fs.saveNamespace();
+      fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+
+      File currentDir = FSImageTestUtil.getNameNodeCurrentDirs(cluster, 0).get(
+          0);
+      File fsimage = FSImageTestUtil.findNewestImageFile(currentDir
+          .getAbsolutePath());
+      RandomAccessFile raFile = new RandomAccessFile(fsimage, "r");
+      FileSummary summary;
+      try {
+        summary = FSImageUtil.loadSummary(raFile);
+      } finally {
+        raFile.close();
+      }
+      int inodeSubSections = 0, dirSubSections = 0;
+      for (FileSummary.Section s : summary.getSectionsList()) {
+        SectionName n = SectionName.fromString(s.getName());
+        if (n == SectionName.INODE_SUB) {
+          inodeSubSections++;
+        } else if (n == SectionName.INODE_DIR_SUB) {
+          dirSubSections++;
+        }
+      }
+      assertTrue(inodeSubSections > 1);
+      assertTrue(dirSubSections > 1);
+
+      cluster.restartNameNode();
+      cluster.waitActive();
+      fs = cluster.getFileSystem();
+      for (int i = 0; i < 10; i++) {
+        for (int j = 0; j < 10; j++) {
+          assertTrue(fs.exists(new Path("/dir" + i + "/file" + j)));
+        }
+      }
+      // the root, 10 directories and 100 files
+      assertEquals(111, cluster.getNamesystem().dir.getINodeMap().size());
+
+      // sub-sections are also readable as a single section.
+      cluster.getConfiguration(0).setBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, false);
+      cluster.restartNameNode();
+      cluster.waitActive();
+      assertEquals(111, cluster.getNamesystem().dir.getINodeMap().size());
+      assertTrue(cluster.getFileSystem().exists(new Path("/dir9/file9")));
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   private void testPersistHelper(Configuration conf) throws IOException {
     MiniDFSCluster cluster = null;
     try {
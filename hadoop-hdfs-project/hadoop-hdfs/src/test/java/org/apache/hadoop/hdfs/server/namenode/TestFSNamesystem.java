@@ -26,6 +26,7 @@
 import java.io.IOException;
 import java.net.URI;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileUtil;
@@ -36,6 +37,8 @@
 import org.apache.hadoop.hdfs.server.namenode.ha.HAContext;
 import org.apache.hadoop.hdfs.server.namenode.ha.HAState;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.hdfs.util.RwLockMode;
+import org.apache.hadoop.test.GenericTestUtils.LogCapturer;
 import org.junit.After;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -196,6 +199,88 @@ public void testFSNamesystemLockCompatibility() {
     assertEquals(0, rwLock.getWriteHoldCount());
   }
 
+  @Test
+  public void testFSNamesystemLockModes() throws Exception {
+    // Without fine-grained locking every mode maps to the coarse lock.
+    FSNamesystemLock coarse = new FSNamesystemLock(true, false);
+    coarse.writeLock(RwLockMode.BM);
+    assertTrue(coarse.hasWriteLock(RwLockMode.FS));
+    assertTrue(coarse.hasWriteLock(RwLockMode.GLOBAL));
+    coarse.writeUnlock(RwLockMode.BM);
+    assertFalse(coarse.hasWriteLock(RwLockMode.GLOBAL));
+
+    final FSNamesystemLock fine = new FSNamesystemLock(true, true);
+    fine.writeLock(RwLockMode.GLOBAL);
+    assertTrue(fine.hasWriteLock(RwLockMode.FS));
+    assertTrue(fine.hasWriteLock(RwLockMode.BM));
+    fine.writeUnlock(RwLockMode.GLOBAL);
+    assertFalse(fine.hasWriteLock(RwLockMode.FS));
+    assertFalse(fine.hasWriteLock(RwLockMode.BM));
+
+    // A namespace writer does not block a block manager writer.
+    fine.writeLock(RwLockMode.FS);
+    assertTrue(fine.hasWriteLock(RwLockMode.FS));
+    assertFalse(fine.hasWriteLock(RwLockMode.GLOBAL));
+    final AtomicBoolean bmLocked = new AtomicBoolean(false);
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        fine.writeLock(RwLockMode.BM);
+        bmLocked.set(true);
+        fine.writeUnlock(RwLockMode.BM);
+      }
+    };
+    t.start();
+    t.join(10000);
+    assertTrue(bmLocked.get());
+    fine.writeUnlock(RwLockMode.FS);
+
+    fine.readLock(RwLockMode.GLOBAL);
+    assertTrue(fine.hasReadLock(RwLockMode.FS));
+    assertTrue(fine.hasReadLock(RwLockMode.BM));
+    assertFalse(fine.hasWriteLock(RwLockMode.FS));
+    fine.readUnlock(RwLockMode.GLOBAL);
+    assertFalse(fine.hasReadLock(RwLockMode.GLOBAL));
+  }
+
+  /**
+   * Test that long lock holds are reported with the operation name, and that
+   * reports within the suppression interval are counted instead of logged.
+   */
+  @Test
+  public void testFSNamesystemLockLongHoldReport() throws Exception {
+    FSNamesystemLock fsLock =
+        new FSNamesystemLock(true, false, false, 50, 50, 60000);
+    LogCapturer logs = LogCapturer.captureLogs(FSNamesystem.LOG);
+    try {
+      // Short holds are not reported.
+      fsLock.writeLock(RwLockMode.GLOBAL);
+      fsLock.writeUnlock(RwLockMode.GLOBAL, "shortOp");
+      assertFalse(logs.getOutput().contains("lock held for"));
+
+      fsLock.writeLock(RwLockMode.GLOBAL);
+      Thread.sleep(100);
+      fsLock.writeUnlock(RwLockMode.GLOBAL, "longWriteOp");
+      assertTrue(logs.getOutput().contains("write lock held for"));
+      assertTrue(logs.getOutput().contains("via longWriteOp"));
+
+      // The next long write hold falls in the suppression interval.
+      fsLock.writeLock(RwLockMode.GLOBAL);
+      Thread.sleep(100);
+      fsLock.writeUnlock(RwLockMode.GLOBAL, "suppressedOp");
+      assertFalse(logs.getOutput().contains("suppressedOp"));
+
+      // Read locks are reported independently of write locks.
+      fsLock.readLock(RwLockMode.GLOBAL);
+      Thread.sleep(100);
+      fsLock.readUnlock(RwLockMode.GLOBAL, "longReadOp");
+      assertTrue(logs.getOutput().contains("read lock held for"));
+      assertTrue(logs.getOutput().contains("via longReadOp"));
+    } finally {
+      logs.stopCapturing();
+    }
+  }
+
   @Test
   public void testReset() throws Exception {
     Configuration conf = new Configuration();
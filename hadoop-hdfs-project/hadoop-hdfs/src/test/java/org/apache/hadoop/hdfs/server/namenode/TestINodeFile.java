@@ -61,6 +61,7 @@
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoContiguous;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
+import org.apache.hadoop.hdfs.util.ReadOnlyList;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Time;
 import org.junit.Test;
@@ -383,7 +384,21 @@ public void testValueOf () throws IOException {
    */
   @Test
   public void testInodeId() throws IOException {
+    testInodeId(new Configuration());
+  }
+
+  /**
+   * Same as {@link #testInodeId()}, with the inode map and the blocks map
+   * kept in compact tables.
+   */
+  @Test
+  public void testInodeIdCompactMaps() throws IOException {
     Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_COMPACT_MAPS_ENABLED_KEY, true);
+    testInodeId(conf);
+  }
+
+  private void testInodeId(Configuration conf) throws IOException {
     conf.setInt(DFSConfigKeys.DFS_BLOCK_SIZE_KEY,
         DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_DEFAULT);
     MiniDFSCluster cluster = null;
@@ -420,6 +435,9 @@ public void testInodeId() throws IOException {
       // Ensure right inode ID is returned in file status
       HdfsFileStatus fileStatus = nnrpc.getFileInfo("/test1/file");
       assertEquals(expectedLastInodeId, fileStatus.getFileId());
+      assertEquals("/test1/file",
+          fsn.dir.getInode(expectedLastInodeId).getFullPathName());
+      assertEquals(2, fsn.getBlocksTotal());
 
       // Rename a directory
       // Last inode ID and inode map size should not change
@@ -1083,6 +1101,43 @@ public void testFileUnderConstruction() {
     assertFalse(file.isUnderConstruction());
   }
 
+  /**
+   * A directory keeps its children sorted and searchable after its children
+   * list grows past the large directory threshold.
+   */
+  @Test
+  public void testLargeDirectoryChildren() {
+    INodeDirectory dir = new INodeDirectory(INodeId.GRANDFATHER_INODE_ID,
+        DFSUtil.string2Bytes("d"), perm, 0L);
+    final int n = 2 * INodeDirectory.LARGE_DIRECTORY_THRESHOLD;
+    // add in reverse order so every child is inserted at the head.
+    for (int i = n - 1; i >= 0; i--) {
+      INodeDirectory child = new INodeDirectory(INodeId.ROOT_INODE_ID + 1 + i,
+          DFSUtil.string2Bytes(String.format("c%06d", i)), perm, 0L);
+      assertTrue(dir.addChild(child));
+    }
+    assertFalse(dir.addChild(new INodeDirectory(INodeId.ROOT_INODE_ID + 1,
+        DFSUtil.string2Bytes("c000000"), perm, 0L)));
+
+    ReadOnlyList<INode> children = dir.getChildrenList(
+        Snapshot.CURRENT_STATE_ID);
+    assertEquals(n, children.size());
+    for (int i = 0; i < n; i++) {
+      assertEquals(String.format("c%06d", i), children.get(i).getLocalName());
+    }
+    List<INode> toRemove = new ArrayList<INode>();
+    for (int i = 0; i < n; i += 2) {
+      toRemove.add(children.get(i));
+    }
+    for (INode child : toRemove) {
+      assertTrue(dir.removeChild(child));
+    }
+    assertEquals(n / 2, children.size());
+    assertEquals("c000001", children.get(0).getLocalName());
+    assertTrue(dir.searchChildren(DFSUtil.string2Bytes("c000002")) < 0);
+    assertEquals(0, dir.searchChildren(DFSUtil.string2Bytes("c000001")));
+  }
+
   @Test
   public void testXAttrFeature() {
     replication = 3;
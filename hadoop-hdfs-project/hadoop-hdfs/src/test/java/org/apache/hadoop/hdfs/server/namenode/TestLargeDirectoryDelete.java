@@ -29,10 +29,13 @@
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.Time;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.base.Supplier;
+
 
 /**
  * Ensure during large directory delete, namenode does not block until the 
@@ -222,4 +225,49 @@ public void largeDelete() throws Throwable {
       mc.shutdown();
     }
   }
+
+  /**
+   * The delete returns once the directory is unlinked, and the subtree is
+   * destroyed by the background deleter.
+   */
+  @Test
+  public void largeDeleteInBackground() throws Throwable {
+    final Configuration conf = new HdfsConfiguration(CONF);
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_DELETE_ASYNC_ENABLED_KEY, true);
+    mc = new MiniDFSCluster.Builder(conf).build();
+    final int oldIncrement = FSNamesystem.BLOCK_DELETION_INCREMENT;
+    try {
+      mc.waitActive();
+      createFiles();
+      Assert.assertEquals(TOTAL_BLOCKS, getBlockCount());
+      final FSNamesystem fsn = mc.getNamesystem();
+      final long dirId = fsn.getFSDirectory().getINode("/root/0").getId();
+
+      FSNamesystem.BLOCK_DELETION_INCREMENT = 10;
+      final FileSystem fs = mc.getFileSystem();
+      Assert.assertTrue(fs.delete(new Path("/root"), true));
+      Assert.assertFalse(fs.exists(new Path("/root")));
+      Assert.assertFalse(fs.exists(new Path(
+          "/.reserved/.inodes/" + dirId)));
+
+      final SubtreeDeleter deleter = fsn.getSubtreeDeleter();
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return deleter.getNumPendingSubtrees() == 0;
+        }
+      }, 100, 60000);
+      Assert.assertEquals(0, getBlockCount());
+      // only the root is left
+      Assert.assertEquals(1, fsn.getFilesTotal());
+
+      // the delete is replayed from the edit log
+      mc.restartNameNode();
+      Assert.assertFalse(mc.getFileSystem().exists(new Path("/root")));
+      Assert.assertEquals(0, getBlockCount());
+    } finally {
+      FSNamesystem.BLOCK_DELETION_INCREMENT = oldIncrement;
+      mc.shutdown();
+    }
+  }
 }
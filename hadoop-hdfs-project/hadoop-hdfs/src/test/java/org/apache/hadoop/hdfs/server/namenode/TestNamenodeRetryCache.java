@@ -28,6 +28,7 @@
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CreateFlag;
@@ -56,7 +57,6 @@
 import org.apache.hadoop.ipc.StandbyException;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.test.GenericTestUtils;
-import org.apache.hadoop.util.LightWeightCache;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -411,8 +411,7 @@ public void testRetryCacheRebuild() throws Exception {
     DFSTestUtil.runOperations(cluster, filesystem, conf, BlockSize, 0);
     FSNamesystem namesystem = cluster.getNamesystem();
 
-    LightWeightCache<CacheEntry, CacheEntry> cacheSet = 
-        (LightWeightCache<CacheEntry, CacheEntry>) namesystem.getRetryCache().getCacheSet();
+    Set<CacheEntry> cacheSet = namesystem.getRetryCache().getCacheSet();
     assertEquals(25, cacheSet.size());
     
     Map<CacheEntry, CacheEntry> oldEntries = 
@@ -430,8 +429,7 @@ public void testRetryCacheRebuild() throws Exception {
     namesystem = cluster.getNamesystem();
     // check retry cache
     assertTrue(namesystem.hasRetryCache());
-    cacheSet = (LightWeightCache<CacheEntry, CacheEntry>) namesystem
-        .getRetryCache().getCacheSet();
+    cacheSet = namesystem.getRetryCache().getCacheSet();
     assertEquals(25, cacheSet.size());
     iter = cacheSet.iterator();
     while (iter.hasNext()) {
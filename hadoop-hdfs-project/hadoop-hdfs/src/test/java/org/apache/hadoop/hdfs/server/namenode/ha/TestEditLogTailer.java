@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hdfs.server.namenode.ha;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -33,6 +34,7 @@
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.qjournal.MiniQJMHACluster;
 import org.apache.hadoop.hdfs.server.namenode.FSImage;
 import org.apache.hadoop.hdfs.server.namenode.NNStorage;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
@@ -104,6 +106,59 @@ public void testTailer() throws IOException, InterruptedException,
     }
   }
   
+  @Test
+  public void testTailInProgressEdits() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, "100ms");
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    // the standby must not need a roll to see the edits
+    conf.setInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY, -1);
+    HAUtil.setAllowStandbyReads(conf, true);
+
+    MiniQJMHACluster qjmCluster = new MiniQJMHACluster.Builder(conf).build();
+    MiniDFSCluster cluster = qjmCluster.getDfsCluster();
+    try {
+      cluster.transitionToActive(0);
+      final NameNode nn1 = cluster.getNameNode(0);
+      final NameNode nn2 = cluster.getNameNode(1);
+
+      for (int i = 0; i < DIRS_TO_MAKE; i++) {
+        NameNodeAdapter.mkdirs(nn1, getDirPath(i),
+            new PermissionStatus("test","test", new FsPermission((short)00755)),
+            true);
+      }
+      final long lastTxId =
+          nn1.getNamesystem().getEditLog().getLastWrittenTxId();
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return nn2.getNamesystem().getFSImage().getLastAppliedTxId()
+              >= lastTxId;
+        }
+      }, 100, (int) NN_LAG_TIMEOUT);
+
+      for (int i = 0; i < DIRS_TO_MAKE; i++) {
+        assertTrue(NameNodeAdapter.getFileInfo(nn2,
+            getDirPath(i), false).isDir());
+      }
+      // the edits were read from the in-progress segment
+      assertTrue(nn1.getNamesystem().getTransactionsSinceLastLogRoll()
+          >= DIRS_TO_MAKE);
+    } finally {
+      qjmCluster.shutdown();
+    }
+  }
+
+  @Test
+  public void testTailPeriod() {
+    Configuration conf = new Configuration();
+    assertEquals(60 * 1000, EditLogTailer.getTailPeriodMs(conf));
+    conf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, 2);
+    assertEquals(2 * 1000, EditLogTailer.getTailPeriodMs(conf));
+    conf.set(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, "100ms");
+    assertEquals(100, EditLogTailer.getTailPeriodMs(conf));
+  }
+  
   @Test
   public void testNN0TriggersLogRolls() throws Exception {
     testStandbyTriggersLogRolls(0);
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.ClientGSIContext;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.NameNodeProxies;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.qjournal.MiniQJMHACluster;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.StandbyException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test the reads served by the StandbyNode through the
+ * {@link ObserverReadProxyProvider}.
+ */
+public class TestObserverReadProxyProvider {
+  private MiniQJMHACluster qjmCluster;
+  private MiniDFSCluster cluster;
+
+  private FileSystem startCluster(Configuration conf) throws Exception {
+    return startCluster(conf, 0);
+  }
+
+  private FileSystem startCluster(Configuration conf, int numDataNodes)
+      throws Exception {
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_STATE_CONTEXT_ENABLED_KEY,
+        true);
+    conf.setInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY, -1);
+    MiniQJMHACluster.Builder builder = new MiniQJMHACluster.Builder(conf);
+    builder.getDfsBuilder().numDataNodes(numDataNodes);
+    qjmCluster = builder.build();
+    cluster = qjmCluster.getDfsCluster();
+    cluster.transitionToActive(0);
+
+    Configuration clientConf = new Configuration(conf);
+    String logicalName = HATestUtil.getLogicalHostname(cluster);
+    HATestUtil.setFailoverConfigurations(cluster, clientConf, logicalName);
+    clientConf.set(DFSConfigKeys.DFS_CLIENT_FAILOVER_PROXY_PROVIDER_KEY_PREFIX
+        + "." + logicalName, ObserverReadProxyProvider.class.getName());
+    return FileSystem.get(new URI("hdfs://" + logicalName), clientConf);
+  }
+
+  @After
+  public void shutdown() throws Exception {
+    if (qjmCluster != null) {
+      qjmCluster.shutdown();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testReadYourWritesFromStandby() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, "100ms");
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    FileSystem fs = startCluster(conf);
+
+    Path dir = new Path("/testReadYourWrites");
+    assertTrue(fs.mkdirs(dir));
+    // the standby holds the read until it has applied the mkdirs
+    assertTrue(fs.getFileStatus(dir).isDirectory());
+
+    // the reads keep being served once only the standby is left
+    Path other = new Path("/testReadYourWrites/other");
+    assertTrue(fs.mkdirs(other));
+    cluster.shutdownNameNode(0);
+    assertTrue(fs.getFileStatus(other).isDirectory());
+    assertTrue(fs.exists(dir));
+  }
+
+  private ClientProtocol createProxy(Configuration conf, int nnIndex,
+      AlignmentContext context) throws Exception {
+    return NameNodeProxies.createNonHAProxy(conf,
+        cluster.getNameNode(nnIndex).getNameNodeAddress(),
+        ClientProtocol.class, UserGroupInformation.getCurrentUser(), false,
+        null, context).getProxy();
+  }
+
+  @Test(timeout=60000)
+  public void testOnlyReadOnlyMethodsServedByStandby() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, "100ms");
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    startCluster(conf);
+
+    AlignmentContext context = new ClientGSIContext();
+    ClientProtocol active = createProxy(conf, 0, context);
+    ClientProtocol standby = createProxy(conf, 1, context);
+    assertTrue(active.mkdirs("/testReadOnly", FsPermission.getDefault(),
+        true));
+    // the standby holds a ReadOnly call until it has applied the mkdirs
+    assertNotNull(standby.getFileInfo("/testReadOnly"));
+    // and rejects the other reads, even if they carry a state id
+    try {
+      standby.listCachePools("");
+      fail("The standby should not serve listCachePools");
+    } catch (RemoteException e) {
+      assertEquals(StandbyException.class.getName(), e.getClassName());
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testFallBackToActive() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    // the standby never catches up in time
+    conf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, 3600);
+    conf.setInt(
+        CommonConfigurationKeys.IPC_SERVER_COORDINATED_CALL_TIMEOUT_KEY, 200);
+    FileSystem fs = startCluster(conf);
+
+    Path dir = new Path("/testFallBackToActive");
+    assertTrue(fs.mkdirs(dir));
+    assertTrue(fs.getFileStatus(dir).isDirectory());
+  }
+
+  @Test(timeout=60000)
+  public void testMissingLocationsReadFromActive() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, "100ms");
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    FileSystem fs = startCluster(conf, 1);
+
+    Path file = new Path("/testMissingLocations");
+    DFSTestUtil.createFile(fs, file, 1024, (short) 1, 0L);
+    assertEquals(1024, fs.getFileStatus(file).getLen());
+
+    // the standby knows the block, but not where it is; the DataNode does
+    // not register again with it
+    DataNode dn = cluster.getDataNodes().get(0);
+    DataNodeTestUtils.setHeartbeatsDisabledForTests(dn, true);
+    cluster.getNamesystem(1).getBlockManager().getDatanodeManager()
+        .removeDatanode(dn.getDatanodeId());
+    BlockLocation[] locations = fs.getFileBlockLocations(file, 0, 1024);
+    assertEquals(1, locations.length);
+    assertEquals(1, locations[0].getHosts().length);
+  }
+}
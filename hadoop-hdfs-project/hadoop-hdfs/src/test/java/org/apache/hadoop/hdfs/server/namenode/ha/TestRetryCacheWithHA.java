@@ -82,7 +82,6 @@
 import org.apache.hadoop.io.retry.RetryPolicies;
 import org.apache.hadoop.io.retry.RetryPolicy;
 import org.apache.hadoop.ipc.RetryCache.CacheEntry;
-import org.apache.hadoop.util.LightWeightCache;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -161,8 +160,7 @@ public void testRetryCacheOnStandbyNN() throws Exception {
     
     // check retry cache in NN1
     FSNamesystem fsn0 = cluster.getNamesystem(0);
-    LightWeightCache<CacheEntry, CacheEntry> cacheSet = 
-        (LightWeightCache<CacheEntry, CacheEntry>) fsn0.getRetryCache().getCacheSet();
+    Set<CacheEntry> cacheSet = fsn0.getRetryCache().getCacheSet();
     assertEquals(25, cacheSet.size());
     
     Map<CacheEntry, CacheEntry> oldEntries = 
@@ -182,8 +180,7 @@ public void testRetryCacheOnStandbyNN() throws Exception {
     
     // 3. check the retry cache on the new active NN
     FSNamesystem fsn1 = cluster.getNamesystem(1);
-    cacheSet = (LightWeightCache<CacheEntry, CacheEntry>) fsn1
-        .getRetryCache().getCacheSet();
+    cacheSet = fsn1.getRetryCache().getCacheSet();
     assertEquals(25, cacheSet.size());
     iter = cacheSet.iterator();
     while (iter.hasNext()) {
@@ -19,6 +19,7 @@
 
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_KEY;
 import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.assertCounterGt;
 import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
 import static org.apache.hadoop.test.MetricsAsserts.assertQuantileGauges;
 import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
@@ -86,6 +87,7 @@ public class TestNameNodeMetrics {
         DFS_REPLICATION_INTERVAL);
     CONF.set(DFSConfigKeys.DFS_METRICS_PERCENTILES_INTERVALS_KEY, 
         "" + PERCENTILES_INTERVAL);
+    CONF.setBoolean(DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY, true);
     // Enable stale DataNodes checking
     CONF.setBoolean(DFSConfigKeys.DFS_NAMENODE_AVOID_STALE_DATANODE_FOR_READ_KEY, true);
     ((Log4JLogger)LogFactory.getLog(MetricsAsserts.class))
@@ -252,6 +254,9 @@ public void testCorruptBlock() throws Exception {
     assertGauge("CorruptBlocks", 1L, rb);
     assertGauge("PendingReplicationBlocks", 1L, rb);
     assertGauge("ScheduledReplicationBlocks", 1L, rb);
+    rb = getMetrics(NN_METRICS);
+    assertCounter("ReplicationWorkScheduled", 1L, rb);
+    assertCounterGt("ReplicationWorkSourcesNumOps", 0L, rb);
     fs.delete(file, true);
     rb = waitForDnMetricValue(NS_METRICS, "CorruptBlocks", 0L);
     assertGauge("PendingReplicationBlocks", 0L, rb);
@@ -479,4 +484,20 @@ public void testReadWriteOps() throws Exception {
     assertTrue(MetricsAsserts.getLongCounter("TransactionsNumOps", rbNew) >
         startWriteCounter);
   }
+
+  /**
+   * Test that namesystem lock wait and hold times are published per
+   * operation.
+   */
+  @Test
+  public void testNamesystemLockMetrics() throws Exception {
+    Path dir = new Path(TEST_ROOT_DIR_PATH, "lockMetrics");
+    fs.mkdirs(dir);
+    fs.getFileStatus(dir);
+    MetricsRecordBuilder rb = getMetrics(NN_METRICS);
+    assertCounterGt("FSNWriteLockHoldMkdirsNumOps", 0L, rb);
+    assertCounterGt("FSNWriteLockWaitMkdirsNumOps", 0L, rb);
+    assertCounterGt("FSNReadLockHoldGetFileInfoNumOps", 0L, rb);
+    assertQuantileGauges("FSNWriteLockHoldMkdirs1s", rb);
+  }
 }
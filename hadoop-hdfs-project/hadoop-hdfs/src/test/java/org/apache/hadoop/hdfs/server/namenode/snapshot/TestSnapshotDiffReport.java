@@ -22,18 +22,25 @@
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Options.Rename;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffType;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
+import org.apache.hadoop.hdfs.server.namenode.FSDirectory;
+import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -528,4 +535,100 @@ public void testDiffReportWithRenameAndSnapshotDeletion() throws Exception {
         new DiffReportEntry(DiffType.RENAME, DFSUtil.string2Bytes("foo2/bar"),
             DFSUtil.string2Bytes("foo2/bar-new")));
   }
-}
\ No newline at end of file
+
+  /**
+   * Fetch a diff report in pages and check that the pages make up the same
+   * report as a single call.
+   */
+  @Test
+  public void testDiffReportListing() throws Exception {
+    cluster.shutdown();
+    conf.setInt(DFSConfigKeys.DFS_LIST_LIMIT, 3);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1)
+        .format(true).build();
+    cluster.waitActive();
+    hdfs = cluster.getFileSystem();
+
+    final Path root = new Path("/root");
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        DFSTestUtil.createFile(hdfs, new Path(root, "sub" + i + "/file" + j),
+            BLOCKSIZE, (short) 1, seed);
+      }
+    }
+    SnapshotTestHelper.createSnapshot(hdfs, root, "s0");
+    hdfs.delete(new Path(root, "sub0/file0"), false);
+    for (int j = 0; j < 4; j++) {
+      DFSTestUtil.createFile(hdfs, new Path(root, "sub1/new" + j),
+          BLOCKSIZE, (short) 1, seed);
+    }
+    hdfs.setReplication(new Path(root, "sub2/file1"), (short) 2);
+    SnapshotTestHelper.createSnapshot(hdfs, root, "s1");
+    hdfs.rename(new Path(root, "sub2/file2"), new Path(root, "sub1/file2"));
+
+    final NamenodeProtocols nn = cluster.getNameNodeRpc();
+    final String rootPath = root.toString();
+    SnapshotDiffReportListing listing;
+    for (String[] range : new String[][] {
+        {"s0", "s1"}, {"s1", "s0"}, {"s0", ""}, {"", "s1"}, {"s1", "s1"}}) {
+      final List<DiffReportEntry> expected = nn.getSnapshotDiffReport(
+          rootPath, range[0], range[1]).getDiffList();
+      final List<DiffReportEntry> paged = new ArrayList<DiffReportEntry>();
+      do {
+        listing = nn.getSnapshotDiffReportListing(rootPath, range[0],
+            range[1], paged.size());
+        assertTrue(listing.getDiffList().size() <= 3);
+        paged.addAll(listing.getDiffList());
+      } while (listing.hasMore());
+      assertEquals(expected, paged);
+      assertEquals(expected, hdfs.getSnapshotDiffReport(root, range[0],
+          range[1]).getDiffList());
+    }
+
+    // a start index beyond the end of the report returns an empty page
+    listing = nn.getSnapshotDiffReportListing(rootPath, "s0", "s1", 100);
+    assertTrue(listing.getDiffList().isEmpty());
+    assertEquals(0, listing.getRemainingEntries());
+  }
+
+  /**
+   * Only the directories on the path of a change are marked as changed, so
+   * the diff skips the subtrees that did not change.
+   */
+  @Test
+  public void testDiffReportSkipsUnchangedSubtrees() throws Exception {
+    final Path root = new Path("/root");
+    final Path changed = new Path(root, "a/b/c");
+    final Path unchanged = new Path(root, "x/y/z");
+    DFSTestUtil.createFile(hdfs, new Path(changed, "file"), BLOCKSIZE,
+        REPLICATION, seed);
+    DFSTestUtil.createFile(hdfs, new Path(unchanged, "file"), BLOCKSIZE,
+        REPLICATION, seed);
+    SnapshotTestHelper.createSnapshot(hdfs, root, "s0");
+    hdfs.setReplication(new Path(changed, "file"), REPLICATION_1);
+
+    final FSDirectory fsdir = cluster.getNamesystem().getFSDirectory();
+    final int marked = fsdir.getINode(root.toString()).asDirectory()
+        .getSubtreeDiffSnapshotId();
+    assertEquals(marked, fsdir.getINode(changed.toString()).asDirectory()
+        .getSubtreeDiffSnapshotId());
+    assertTrue(fsdir.getINode(unchanged.toString()).asDirectory()
+        .getSubtreeDiffSnapshotId() < marked);
+
+    verifyDiffReport(root, "s0", "",
+        new DiffReportEntry(DiffType.MODIFY, DFSUtil.string2Bytes("")),
+        new DiffReportEntry(DiffType.MODIFY,
+            DFSUtil.string2Bytes("a/b/c/file")));
+
+    // the markers are rebuilt from the fsimage when the namenode restarts
+    hdfs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+    hdfs.saveNamespace();
+    hdfs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+    cluster.restartNameNode(true);
+    hdfs = cluster.getFileSystem();
+    verifyDiffReport(root, "s0", "",
+        new DiffReportEntry(DiffType.MODIFY, DFSUtil.string2Bytes("")),
+        new DiffReportEntry(DiffType.MODIFY,
+            DFSUtil.string2Bytes("a/b/c/file")));
+  }
+}
@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.util.Time;
+import org.junit.Test;
+
+public class TestChunkedList {
+  private static final Log LOG = LogFactory.getLog(TestChunkedList.class);
+
+  @Test
+  public void testEmpty() {
+    ChunkedList<Integer> list = new ChunkedList<Integer>(4);
+    assertEquals(0, list.size());
+    assertTrue(list.isEmpty());
+    assertEquals(0, list.getNumChunks());
+    try {
+      list.get(0);
+      fail("get on an empty list should fail");
+    } catch (IndexOutOfBoundsException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testAppendAndSplit() {
+    ChunkedList<Integer> list = new ChunkedList<Integer>(4);
+    for (int i = 0; i < 20; i++) {
+      list.add(i);
+    }
+    assertEquals(20, list.size());
+    for (int i = 0; i < 20; i++) {
+      assertEquals(i, (int) list.get(i));
+    }
+    assertTrue(list.getNumChunks() >= 5);
+
+    // removing everything leaves no chunks behind.
+    while (!list.isEmpty()) {
+      list.remove(list.size() / 2);
+    }
+    assertEquals(0, list.getNumChunks());
+  }
+
+  @Test
+  public void testCopyConstructor() {
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < 10; i++) {
+      expected.add(i);
+    }
+    ChunkedList<Integer> list = new ChunkedList<Integer>(3, expected);
+    assertEquals(expected, list);
+    assertEquals(4, list.getNumChunks());
+  }
+
+  /**
+   * Apply the same random inserts, updates and removals to a ChunkedList
+   * and an ArrayList, and compare them.
+   */
+  @Test
+  public void testRandomOperations() {
+    final long seed = Time.now();
+    LOG.info("seed=" + seed);
+    final Random r = new Random(seed);
+    ChunkedList<Integer> list = new ChunkedList<Integer>(8);
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < 10000; i++) {
+      int op = r.nextInt(10);
+      if (op < 6 || expected.isEmpty()) {
+        int index = r.nextInt(expected.size() + 1);
+        int value = r.nextInt();
+        list.add(index, value);
+        expected.add(index, value);
+      } else if (op < 8) {
+        int index = r.nextInt(expected.size());
+        assertEquals(expected.remove(index), list.remove(index));
+      } else {
+        int index = r.nextInt(expected.size());
+        int value = r.nextInt();
+        assertEquals(expected.set(index, value), list.set(index, value));
+      }
+      assertEquals(expected.size(), list.size());
+    }
+    assertEquals(expected, list);
+
+    // binary search works as on any random access list.
+    Collections.sort(expected);
+    list = new ChunkedList<Integer>(8, expected);
+    for (int i = 0; i < expected.size(); i += 97) {
+      int index = Collections.binarySearch(list, expected.get(i));
+      assertEquals(expected.get(i), list.get(index));
+    }
+  }
+}
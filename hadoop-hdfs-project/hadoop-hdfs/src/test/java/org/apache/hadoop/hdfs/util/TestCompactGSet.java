@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.util.Time;
+import org.junit.Test;
+
+public class TestCompactGSet {
+  private static final Log LOG = LogFactory.getLog(TestCompactGSet.class);
+
+  /** An element with a long id. */
+  private static class Element {
+    private final long id;
+
+    Element(long id) {
+      this.id = id;
+    }
+
+    @Override
+    public String toString() {
+      return "Element" + id;
+    }
+  }
+
+  private static class ElementSet extends CompactGSet<Element, Element> {
+    ElementSet(int initCapacity) {
+      super(initCapacity);
+    }
+
+    @Override
+    protected long getId(Element e) {
+      return e.id;
+    }
+  }
+
+  @Test
+  public void testBasic() {
+    ElementSet set = new ElementSet(0);
+    assertEquals(CompactGSet.MINIMUM_CAPACITY, set.getCapacity());
+    assertFalse(set.iterator().hasNext());
+
+    Element e = new Element(1);
+    assertNull(set.put(e));
+    assertEquals(1, set.size());
+    assertSame(e, set.get(1));
+    assertSame(e, set.get(new Element(1)));
+    assertTrue(set.contains(new Element(1)));
+    assertNull(set.get(2));
+
+    // put replaces the element with the same id
+    Element other = new Element(1);
+    assertSame(e, set.put(other));
+    assertEquals(1, set.size());
+    assertSame(other, set.get(1));
+
+    assertSame(other, set.remove(new Element(1)));
+    assertNull(set.remove(new Element(1)));
+    assertEquals(0, set.size());
+
+    try {
+      set.put(null);
+      fail("Null elements are not supported");
+    } catch (NullPointerException expected) {
+    }
+  }
+
+  @Test
+  public void testInitialCapacity() {
+    assertEquals(16, new ElementSet(12).getCapacity());
+    assertEquals(32, new ElementSet(13).getCapacity());
+    assertEquals(1 << 20, new ElementSet(700000).getCapacity());
+  }
+
+  /**
+   * Compare the set with a {@link HashMap} under random operations, on
+   * sequential ids as the namenode allocates them and on random ids, so that
+   * both long and wrapping runs of slots are removed from.
+   */
+  @Test
+  public void testRandomOperations() {
+    final long seed = Time.now();
+    LOG.info("seed=" + seed);
+    final Random random = new Random(seed);
+    for (int round = 0; round < 2; round++) {
+      final boolean sequential = round == 0;
+      final ElementSet set = new ElementSet(0);
+      final Map<Long, Element> expected = new HashMap<Long, Element>();
+      for (int i = 0; i < 200000; i++) {
+        final long id = sequential ? random.nextInt(5000)
+            : random.nextLong() % 5000 * 0x100000001L;
+        final int op = random.nextInt(3);
+        if (op == 0) {
+          final Element e = new Element(id);
+          assertSame(expected.put(id, e), set.put(e));
+        } else if (op == 1) {
+          assertSame(expected.remove(id), set.remove(new Element(id)));
+        } else {
+          assertSame(expected.get(id), set.get(id));
+        }
+        assertEquals(expected.size(), set.size());
+      }
+      for (Map.Entry<Long, Element> entry : expected.entrySet()) {
+        assertSame(entry.getValue(), set.get(entry.getKey()));
+      }
+      int count = 0;
+      for (Element e : set) {
+        assertSame(expected.get(e.id), e);
+        count++;
+      }
+      assertEquals(expected.size(), count);
+
+      set.clear();
+      assertEquals(0, set.size());
+      assertFalse(set.iterator().hasNext());
+    }
+  }
+
+  @Test
+  public void testIteratorModification() {
+    ElementSet set = new ElementSet(0);
+    for (long id = 0; id < 100; id++) {
+      set.put(new Element(id));
+    }
+    Iterator<Element> it = set.iterator();
+    it.next();
+    set.remove(new Element(50));
+    try {
+      it.hasNext();
+      fail("The iterator should fail after a modification");
+    } catch (ConcurrentModificationException expected) {
+    }
+
+    // an untracked iterator goes on across the growth of the table, and only
+    // returns elements which are in the set
+    CompactGSet<Element, Element>.SetIterator untracked =
+        set.new SetIterator();
+    untracked.setTrackModification(false);
+    untracked.next();
+    for (long id = 100; id < 1000; id++) {
+      set.put(new Element(id));
+    }
+    while (untracked.hasNext()) {
+      Element e = untracked.next();
+      assertSame(e, set.get(e.id));
+    }
+  }
+}
@@ -23,6 +23,8 @@
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -86,6 +88,22 @@ public void testContains() throws Exception {
     assertFalse(cluster.contains(nodeNotInMap));
   }
   
+  /**
+   * A node that equals a node of the cluster, but is not itself in the
+   * cluster, is not taken for the cluster node.
+   */
+  @Test
+  public void testEqualNodeNotInMap() throws Exception {
+    DatanodeDescriptor copy =
+        new DatanodeDescriptor(dataNodes[0], "/d1/r1");
+    assertEquals(dataNodes[0], copy);
+    assertFalse(cluster.contains(copy));
+    assertFalse(cluster.isOnSameRack(copy, dataNodes[1]));
+    assertTrue(cluster.getDistance(copy, dataNodes[1]) != 2);
+    assertTrue(cluster.isOnSameRack(dataNodes[0], dataNodes[1]));
+    assertEquals(2, cluster.getDistance(dataNodes[0], dataNodes[1]));
+  }
+
   @Test
   public void testNumOfChildren() throws Exception {
     assertEquals(cluster.getNumOfLeaves(), dataNodes.length);
@@ -256,6 +274,37 @@ public void testRemove() throws Exception {
     }
   }
   
+  /**
+   * Test that the lock-free queries see the changes of the cluster map.
+   */
+  @Test
+  public void testQueriesAfterChange() throws Exception {
+    DatanodeDescriptor newNode =
+        DFSTestUtil.getDatanodeDescriptor("21.21.21.21", "/d5/r1");
+    assertEquals(dataNodes.length,
+        cluster.countNumOfAvailableNodes("~/d5", new ArrayList<Node>()));
+
+    cluster.add(newNode);
+    try {
+      assertEquals(dataNodes.length + 1, cluster.getNumOfLeaves());
+      assertEquals(6, cluster.getDistance(dataNodes[0], newNode));
+      assertFalse(cluster.isOnSameRack(dataNodes[0], newNode));
+      assertEquals(Arrays.<Node>asList(newNode), cluster.getLeaves("/d5/r1"));
+      assertEquals(0, cluster.countNumOfAvailableNodes("/d5",
+          Arrays.<Node>asList(newNode)));
+      assertEquals(dataNodes.length, cluster.countNumOfAvailableNodes("~/d5",
+          Arrays.<Node>asList(newNode)));
+    } finally {
+      cluster.remove(newNode);
+    }
+    assertEquals(dataNodes.length, cluster.getNumOfLeaves());
+    assertFalse(cluster.contains(newNode));
+    assertEquals(0, cluster.countNumOfAvailableNodes("/d5",
+        new ArrayList<Node>()));
+    assertEquals(4, cluster.getDistance(dataNodes[0], dataNodes[2]));
+    assertTrue(cluster.isOnSameRack(dataNodes[2], dataNodes[4]));
+  }
+
   /**
    * This picks a large number of nodes at random in order to ensure coverage
    * 